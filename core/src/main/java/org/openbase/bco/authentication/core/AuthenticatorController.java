@@ -27,9 +27,11 @@ import org.apache.commons.lang.RandomStringUtils;
 import org.openbase.bco.authentication.lib.*;
 import org.openbase.bco.authentication.lib.AuthenticatedServiceProcessor.InternalIdentifiedProcessable;
 import org.openbase.bco.authentication.lib.AuthenticatedServiceProcessor.TicketValidator;
+import org.openbase.bco.authentication.lib.exception.RetryAfterException;
 import org.openbase.bco.authentication.lib.exception.SessionExpiredException;
 import org.openbase.bco.authentication.lib.jp.JPAuthenticationScope;
 import org.openbase.bco.authentication.lib.jp.JPCredentialsDirectory;
+import org.openbase.bco.authentication.lib.jp.JPKeyRotationInterval;
 import org.openbase.bco.authentication.lib.jp.JPSessionTimeout;
 import org.openbase.jps.core.JPService;
 import org.openbase.jps.exception.JPNotAvailableException;
@@ -45,6 +47,7 @@ import org.openbase.jul.extension.rsb.scope.ScopeTransformer;
 import org.openbase.jul.iface.Launchable;
 import org.openbase.jul.iface.VoidInitializable;
 import org.openbase.jul.schedule.GlobalCachedExecutorService;
+import org.openbase.jul.schedule.GlobalScheduledExecutorService;
 import org.openbase.jul.schedule.WatchDog;
 import org.openbase.type.domotic.authentication.AuthenticatedValueType.AuthenticatedValue;
 import org.openbase.type.domotic.authentication.LoginCredentialsChangeType.LoginCredentialsChange;
@@ -63,6 +66,9 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.security.KeyPair;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author <a href="mailto:thuxohl@techfak.uni-bielefeld.de">Tamino Huxohl</a>
@@ -81,6 +87,17 @@ public class AuthenticatorController implements AuthenticationService, Launchabl
     private static final String TICKET_GRANTING_KEY = "ticket_granting_key";
     private static final String SERVICE_SERVER_SECRET_KEY = "service_server_secret_key";
 
+    /**
+     * Maximal number of ticket granting ticket requests which are handled concurrently.
+     * Further requests are rejected with a retry after so that the authenticator stays responsive
+     * if many clients login at the same time.
+     */
+    private static final int MAX_CONCURRENT_LOGINS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    /**
+     * Time in milliseconds after which a client should retry a rejected login.
+     */
+    private static final long LOGIN_RETRY_AFTER = JPService.testMode() ? 100 : 1000;
+
     private RSBLocalServer server;
     private WatchDog serverWatchDog;
 
@@ -90,8 +107,17 @@ public class AuthenticatorController implements AuthenticationService, Launchabl
 
     private final long ticketValidityTime;
 
-    private byte[] ticketGrantingServiceSecretKey = null;
-    private byte[] serviceServerSecretKey;
+    private final byte[] serviceServerSecretKey;
+    private volatile SecretKeyRing ticketGrantingServiceKeyRing;
+    private volatile SecretKeyRing serviceServerKeyRing;
+    private ScheduledFuture<?> keyRotationTask;
+
+    /**
+     * Cache rejecting replayed authenticators of ticket granting and client server tickets.
+     */
+    private final ReplayCache replayCache = new ReplayCache();
+
+    private final Semaphore loginPermits = new Semaphore(MAX_CONCURRENT_LOGINS);
 
     public AuthenticatorController() throws InitializationException {
         this(new CredentialStore(), EncryptionHelper.generateKey());
@@ -148,9 +174,15 @@ public class AuthenticatorController implements AuthenticationService, Launchabl
         }
 
         try {
-            ticketGrantingServiceSecretKey = credentialStore.getCredentials(TICKET_GRANTING_KEY).getCredentials().toByteArray();
-            serviceServerSecretKey = credentialStore.getCredentials(SERVICE_SERVER_SECRET_KEY).getCredentials().toByteArray();
-        } catch (NotAvailableException ex) {
+            ticketGrantingServiceKeyRing = credentialStore.getKeyRing(TICKET_GRANTING_KEY);
+            serviceServerKeyRing = credentialStore.getKeyRing(SERVICE_SERVER_SECRET_KEY);
+
+            // service servers receive the next key ahead of time so that rotating it does not reject their tickets
+            if (serviceServerKeyRing.getNextKey() == null) {
+                serviceServerKeyRing = new SecretKeyRing(serviceServerKeyRing.getPreviousKey(), serviceServerKeyRing.getCurrentKey(), EncryptionHelper.generateKey());
+                credentialStore.setKeyRing(SERVICE_SERVER_SECRET_KEY, serviceServerKeyRing);
+            }
+        } catch (CouldNotPerformException ex) {
             throw new InitializationException(this, ex);
         }
     }
@@ -181,6 +213,21 @@ public class AuthenticatorController implements AuthenticationService, Launchabl
             initialPassword = RandomStringUtils.randomAlphanumeric(15);
         }
 
+        // tickets sealed with the previous key have to stay valid until they expire
+        final long keyRotationInterval;
+        try {
+            keyRotationInterval = Math.max(JPService.getProperty(JPKeyRotationInterval.class).getValue(), ticketValidityTime + 2 * AuthenticationServerHandler.MAX_TIME_DIFF_SERVER_CLIENT);
+        } catch (JPNotAvailableException ex) {
+            throw new CouldNotPerformException("Could not load property.", ex);
+        }
+        keyRotationTask = GlobalScheduledExecutorService.scheduleWithFixedDelay(() -> {
+            try {
+                rotateKeys();
+            } catch (CouldNotPerformException ex) {
+                ExceptionPrinter.printHistory("Could not rotate secret keys", ex, LOGGER, LogLevel.WARN);
+            }
+        }, keyRotationInterval, keyRotationInterval, TimeUnit.MILLISECONDS);
+
         serverWatchDog.activate();
     }
 
@@ -190,6 +237,11 @@ public class AuthenticatorController implements AuthenticationService, Launchabl
             serverWatchDog.deactivate();
         }
 
+        if (keyRotationTask != null) {
+            keyRotationTask.cancel(false);
+            keyRotationTask = null;
+        }
+
         credentialStore.shutdown();
     }
 
@@ -211,14 +263,29 @@ public class AuthenticatorController implements AuthenticationService, Launchabl
     }
 
     /**
-     * Test if the initial password needs to be generated. This is the case if only three entries are in the credential
-     * credentialStore. One for the service server client, one for the ticket granting key and one for the service server secret
-     * key.
+     * Rotate the ticket granting and service server secret keys. Tickets sealed with the previous keys are still
+     * accepted and service servers already know the new service server key, so that no client has to login again.
+     *
+     * @throws CouldNotPerformException if the keys cannot be rotated.
+     */
+    public synchronized void rotateKeys() throws CouldNotPerformException {
+        final SecretKeyRing rotatedTicketGrantingServiceKeyRing = ticketGrantingServiceKeyRing.rotate();
+        final SecretKeyRing rotatedServiceServerKeyRing = serviceServerKeyRing.rotate();
+        credentialStore.setKeyRing(TICKET_GRANTING_KEY, rotatedTicketGrantingServiceKeyRing);
+        credentialStore.setKeyRing(SERVICE_SERVER_SECRET_KEY, rotatedServiceServerKeyRing);
+        ticketGrantingServiceKeyRing = rotatedTicketGrantingServiceKeyRing;
+        serviceServerKeyRing = rotatedServiceServerKeyRing;
+    }
+
+    /**
+     * Test if the initial password needs to be generated. This is the case if only three entries besides versions
+     * of secret keys are in the credential credentialStore. One for the service server client, one for the ticket
+     * granting key and one for the service server secret key.
      *
      * @return if an initial password has to be generated.
      */
     private boolean initialPasswordRequired() {
-        return (credentialStore.getSize() == 3 && credentialStore.hasEntry(CredentialStore.SERVICE_SERVER_ID)
+        return (credentialStore.getSize() - credentialStore.getKeyVersionCount() == 3 && credentialStore.hasEntry(CredentialStore.SERVICE_SERVER_ID)
                 && credentialStore.hasEntry(TICKET_GRANTING_KEY) && credentialStore.hasEntry(SERVICE_SERVER_SECRET_KEY));
     }
 
@@ -232,6 +299,10 @@ public class AuthenticatorController implements AuthenticationService, Launchabl
     @Override
     public Future<TicketSessionKeyWrapper> requestTicketGrantingTicket(final UserClientPair userClientPair) {
         return GlobalCachedExecutorService.submit(() -> {
+            // shed load if too many clients login at the same time, e.g. after a restart
+            if (!loginPermits.tryAcquire()) {
+                throw new RetryAfterException(LOGIN_RETRY_AFTER);
+            }
             try {
                 // retrieve required credentials from credentialStore
                 LoginCredentials userCredentials = null;
@@ -250,7 +321,7 @@ public class AuthenticatorController implements AuthenticationService, Launchabl
                 }
 
                 // handle request
-                return AuthenticationServerHandler.handleKDCRequest(userClientPair, userCredentials, clientCredentials, ticketGrantingServiceSecretKey, ticketValidityTime);
+                return AuthenticationServerHandler.handleKDCRequest(userClientPair, userCredentials, clientCredentials, ticketGrantingServiceKeyRing.getCurrentKey(), ticketValidityTime);
             } catch (NotAvailableException ex) {
                 ExceptionPrinter.printHistory(ex, LOGGER, LogLevel.WARN);
                 ExceptionReporter.getInstance().report(ex);
@@ -261,6 +332,8 @@ public class AuthenticatorController implements AuthenticationService, Launchabl
                 }
                 ExceptionPrinter.printHistory(ex, LOGGER, LogLevel.ERROR);
                 throw new CouldNotPerformException("Internal server error. Please try again.");
+            } finally {
+                loginPermits.release();
             }
         });
     }
@@ -276,7 +349,7 @@ public class AuthenticatorController implements AuthenticationService, Launchabl
     public Future<TicketSessionKeyWrapper> requestClientServerTicket(final TicketAuthenticatorWrapper ticketAuthenticatorWrapper) {
         return GlobalCachedExecutorService.submit(() -> {
             try {
-                return AuthenticationServerHandler.handleTGSRequest(ticketGrantingServiceSecretKey, serviceServerSecretKey, ticketAuthenticatorWrapper, ticketValidityTime);
+                return AuthenticationServerHandler.handleTGSRequest(ticketGrantingServiceKeyRing, serviceServerKeyRing, ticketAuthenticatorWrapper, ticketValidityTime, replayCache);
             } catch (CouldNotPerformException ex) {
                 ExceptionPrinter.printHistory(ex, LOGGER, LogLevel.WARN);
                 ExceptionReporter.getInstance().report(ex);
@@ -297,7 +370,7 @@ public class AuthenticatorController implements AuthenticationService, Launchabl
         return GlobalCachedExecutorService.submit(() -> {
             try {
                 // validate ticket
-                final AuthenticationBaseData authenticationBaseData = AuthenticationServerHandler.handleSSRequest(serviceServerSecretKey, ticketAuthenticatorWrapper, ticketValidityTime);
+                final AuthenticationBaseData authenticationBaseData = AuthenticationServerHandler.handleSSRequest(serviceServerKeyRing, ticketAuthenticatorWrapper, ticketValidityTime, replayCache);
                 // validate that user and client still exists so that no user can be logged in after being removed
                 final UserClientPair pair = authenticationBaseData.getUserClientPair();
                 if (!pair.getUserId().isEmpty() && !credentialStore.hasEntry(pair.getUserId())) {
@@ -326,7 +399,7 @@ public class AuthenticatorController implements AuthenticationService, Launchabl
      * @return an object capable of verifying tickets,
      */
     private TicketValidator getTicketValidator() {
-        return authenticatedValue -> AuthenticationServerHandler.handleSSRequest(serviceServerSecretKey, authenticatedValue.getTicketAuthenticatorWrapper(), ticketValidityTime);
+        return authenticatedValue -> AuthenticationServerHandler.handleSSRequest(serviceServerKeyRing, authenticatedValue.getTicketAuthenticatorWrapper(), ticketValidityTime, replayCache);
     }
 
     /**
@@ -497,7 +570,8 @@ public class AuthenticatorController implements AuthenticationService, Launchabl
 
                 AuthenticatedValue.Builder authenticatedValue = AuthenticatedValue.newBuilder();
                 authenticatedValue.setTicketAuthenticatorWrapper(authenticationBaseData.getTicketAuthenticatorWrapper());
-                authenticatedValue.setValue(EncryptionHelper.encryptSymmetric(this.serviceServerSecretKey, authenticationBaseData.getSessionKey()));
+                // send all versions so that service servers know the next key before it is used
+                authenticatedValue.setValue(EncryptionHelper.encryptSymmetric(serviceServerKeyRing, authenticationBaseData.getSessionKey()));
 
                 return authenticatedValue.build();
             } catch (CouldNotPerformException ex) {
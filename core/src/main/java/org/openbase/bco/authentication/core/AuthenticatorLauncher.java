@@ -4,6 +4,7 @@ import org.openbase.bco.authentication.lib.AuthenticationService;
 import org.openbase.bco.authentication.lib.BCO;
 import org.openbase.bco.authentication.lib.jp.JPAuthenticationScope;
 import org.openbase.bco.authentication.lib.jp.JPCredentialsDirectory;
+import org.openbase.bco.authentication.lib.jp.JPKeyRotationInterval;
 import org.openbase.bco.authentication.lib.jp.JPResetCredentials;
 import org.openbase.bco.authentication.lib.jp.JPSessionTimeout;
 import org.openbase.jps.core.JPService;
@@ -50,6 +51,7 @@ public class AuthenticatorLauncher extends AbstractLauncher<AuthenticatorControl
         JPService.registerProperty(JPResetCredentials.class);
         JPService.registerProperty(JPCredentialsDirectory.class);
         JPService.registerProperty(JPSessionTimeout.class);
+        JPService.registerProperty(JPKeyRotationInterval.class);
     }
 
     /**
@@ -22,9 +22,11 @@ package org.openbase.bco.authentication.lib;
  * #L%
  */
 
+import com.google.protobuf.ByteString;
 import org.openbase.bco.authentication.lib.AuthenticationClientHandler.TicketWrapperSessionKeyPair;
 import org.openbase.bco.authentication.lib.jp.JPAuthentication;
 import org.openbase.bco.authentication.lib.jp.JPCredentialsDirectory;
+import org.openbase.bco.authentication.lib.jp.JPKeyRotationInterval;
 import org.openbase.bco.authentication.lib.jp.JPSessionTimeout;
 import org.openbase.jps.core.JPService;
 import org.openbase.jps.exception.JPNotAvailableException;
@@ -33,6 +35,7 @@ import org.openbase.jul.exception.NotAvailableException;
 import org.openbase.jul.exception.RejectedException;
 import org.openbase.jul.exception.printer.ExceptionPrinter;
 import org.openbase.jul.exception.printer.LogLevel;
+import org.openbase.jul.schedule.GlobalScheduledExecutorService;
 import org.openbase.type.domotic.authentication.AuthenticatedValueType.AuthenticatedValue;
 import org.openbase.type.domotic.authentication.AuthenticationTokenType.AuthenticationToken;
 import org.openbase.type.domotic.authentication.AuthenticatorType.Authenticator;
@@ -49,6 +52,10 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Base64;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class represents a Service Server and provides methods to validate Kerberos client-server-tickets.
@@ -59,18 +66,32 @@ public class AuthenticatedServerManager {
 
     public static final String SERVICE_SERVER_PRIVATE_KEY_FILENAME = "service_server_private_key";
     private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(AuthenticatedServerManager.class);
-    private byte[] serviceServerSecretKey;
+    /**
+     * Minimal time in milliseconds between refreshing the keys because a ticket was sealed with an unknown key.
+     */
+    private static final long MIN_KEY_REFRESH_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+    private volatile SecretKeyRing serviceServerKeyRing;
+    private ScheduledFuture<?> keyRefreshTask;
+    private final AtomicLong lastKeyRefreshTime = new AtomicLong();
     private static AuthenticatedServerManager instance;
     private TicketAuthenticatorWrapper ticketAuthenticatorWrapper;
     private byte[] sessionKey;
     private final long ticketValidityTime;
+    private final SessionTable sessionTable;
+    private final ReplayCache replayCache;
 
     private AuthenticatedServerManager() throws CouldNotPerformException {
         try {
             this.ticketValidityTime = JPService.getProperty(JPSessionTimeout.class).getValue();
+            this.sessionTable = new SessionTable(ticketValidityTime, SessionTable.DEFAULT_MAX_SESSIONS);
+            this.replayCache = new ReplayCache();
             if (JPService.getProperty(JPAuthentication.class).getValue()) {
                 this.login();
                 this.requestServiceServerSecretKey();
+
+                // fetch rotated keys before they are used and before the own ticket expires
+                final long keyRefreshInterval = Math.min(JPService.getProperty(JPKeyRotationInterval.class).getValue() / 4, ticketValidityTime / 2);
+                this.keyRefreshTask = GlobalScheduledExecutorService.scheduleWithFixedDelay(this::refreshServiceServerSecretKey, keyRefreshInterval, keyRefreshInterval, TimeUnit.MILLISECONDS);
             }
         } catch (JPNotAvailableException ex) {
             throw new CouldNotPerformException("Could not check JPProperty", ex);
@@ -86,6 +107,9 @@ public class AuthenticatedServerManager {
     }
 
     public static synchronized void shutdown() {
+        if (instance != null && instance.keyRefreshTask != null) {
+            instance.keyRefreshTask.cancel(false);
+        }
         instance = null;
     }
 
@@ -106,26 +130,61 @@ public class AuthenticatedServerManager {
             throw new NotAvailableException("TicketAuthenticatorWrapper");
         }
 
-        // create authentication base data from ticket
-        final AuthenticationBaseData authenticationBaseData = verifyClientServerTicket(authenticatedValue.getTicketAuthenticatorWrapper());
+        // create authentication base data from ticket, the payload is only covered by session requests
+        final AuthenticationBaseData authenticationBaseData = verifyClientServerTicket(authenticatedValue.getTicketAuthenticatorWrapper(), authenticatedValue.getValue());
 
         // if authenticated value has this token encrypt it and add it to the return data
         if (authenticatedValue.hasAuthorizationToken()) {
             String tokenString = EncryptionHelper.decryptSymmetric(authenticatedValue.getAuthorizationToken(), authenticationBaseData.getSessionKey(), String.class);
-            AuthorizationToken decrypt = EncryptionHelper.decrypt(Base64.getDecoder().decode(tokenString), serviceServerSecretKey, AuthorizationToken.class, true);
+            AuthorizationToken decrypt = decryptToken(Base64.getDecoder().decode(tokenString), AuthorizationToken.class);
             authenticationBaseData.setAuthorizationToken(decrypt);
         }
 
         // if authenticated value has this token encrypt it and add it to the return data
         if (authenticatedValue.hasAuthenticationToken()) {
             String tokenString = EncryptionHelper.decryptSymmetric(authenticatedValue.getAuthenticationToken(), authenticationBaseData.getSessionKey(), String.class);
-            AuthenticationToken decrypt = EncryptionHelper.decrypt(Base64.getDecoder().decode(tokenString), serviceServerSecretKey, AuthenticationToken.class, true);
+            AuthenticationToken decrypt = decryptToken(Base64.getDecoder().decode(tokenString), AuthenticationToken.class);
             authenticationBaseData.setAuthenticationToken(decrypt);
         }
 
         return authenticationBaseData;
     }
 
+    /**
+     * Decrypt a token with the current service server secret key or, if it has been encrypted before a rotation,
+     * with another version of the key.
+     *
+     * @param encryptedToken the encrypted token.
+     * @param tokenClass     the class of the token.
+     * @param <T>            the type of the token.
+     *
+     * @return the decrypted token.
+     *
+     * @throws CouldNotPerformException if no version of the key can decrypt the token.
+     */
+    private <T> T decryptToken(final byte[] encryptedToken, final Class<T> tokenClass) throws CouldNotPerformException {
+        final SecretKeyRing keyRing = serviceServerKeyRing;
+        if (keyRing == null) {
+            throw new NotAvailableException("ServiceServerSecretKey");
+        }
+        try {
+            return EncryptionHelper.decrypt(encryptedToken, keyRing.getCurrentKey(), tokenClass, true);
+        } catch (CouldNotPerformException ex) {
+            // tokens do not contain a key id so try the other versions
+            for (final byte[] key : new byte[][]{keyRing.getPreviousKey(), keyRing.getNextKey()}) {
+                if (key == null) {
+                    continue;
+                }
+                try {
+                    return EncryptionHelper.decrypt(encryptedToken, key, tokenClass, true);
+                } catch (CouldNotPerformException exx) {
+                    // try next version
+                }
+            }
+            throw ex;
+        }
+    }
+
     /**
      * Verifies the ticket from a given TicketAuthenticatorWrapper and returns authentication base data
      * containing values according to the authentication.
@@ -138,13 +197,43 @@ public class AuthenticatedServerManager {
      * @throws RejectedException        If the ticket is not valid.
      */
     public AuthenticationBaseData verifyClientServerTicket(final TicketAuthenticatorWrapper ticketAuthenticatorWrapper) throws CouldNotPerformException, RejectedException {
+        return verifyClientServerTicket(ticketAuthenticatorWrapper, ByteString.EMPTY);
+    }
+
+    /**
+     * Verifies the ticket from a given TicketAuthenticatorWrapper or, if it belongs to a session request, the
+     * compact authenticator against the {@link SessionTable}. Sessions are registered after their ticket has been verified.
+     *
+     * @param ticketAuthenticatorWrapper TicketAuthenticatorWrapper holding information about the ticket's validity and the client ID.
+     * @param payload                    the payload of the request which is covered by the MAC of session requests.
+     *
+     * @return an authentication base data object containing the user id, the session key and an updated ticket
+     *
+     * @throws CouldNotPerformException on de-/encryption errors
+     * @throws RejectedException        If the ticket is not valid or the session is unknown.
+     */
+    private AuthenticationBaseData verifyClientServerTicket(final TicketAuthenticatorWrapper ticketAuthenticatorWrapper, final ByteString payload) throws CouldNotPerformException, RejectedException {
+        if (SessionTable.isSessionRequest(ticketAuthenticatorWrapper)) {
+            // unknown sessions are expected after a restart and are not logged because clients fall back to their ticket
+            return sessionTable.verify(ticketAuthenticatorWrapper, payload);
+        }
+
         try {
+            final SecretKeyRing keyRing = serviceServerKeyRing;
+            if (keyRing == null) {
+                throw new NotAvailableException("ServiceServerSecretKey");
+            }
+            if (keyRing.getKey(CompactTicket.getKeyId(ticketAuthenticatorWrapper.getTicket())) == null) {
+                // the ticket may be sealed with a key which has been rotated since the last refresh
+                triggerServiceServerSecretKeyRefresh();
+            }
+
             // decrypt ticket and authenticator
-            Ticket clientServerTicket = EncryptionHelper.decryptSymmetric(ticketAuthenticatorWrapper.getTicket(), serviceServerSecretKey, Ticket.class);
+            Ticket clientServerTicket = CompactTicket.open(ticketAuthenticatorWrapper.getTicket(), keyRing);
             Authenticator authenticator = EncryptionHelper.decryptSymmetric(ticketAuthenticatorWrapper.getAuthenticator(), clientServerTicket.getSessionKeyBytes().toByteArray(), Authenticator.class);
 
             // compare clientIDs and timestamp to period
-            AuthenticationServerHandler.validateTicket(clientServerTicket, authenticator);
+            AuthenticationServerHandler.validateTicket(clientServerTicket, authenticator, clientServerTicket.getSessionKeyBytes().toByteArray(), replayCache);
 
             // update period and session key
             clientServerTicket = clientServerTicket.toBuilder().setValidityPeriod(AuthenticationServerHandler.getValidityInterval(ticketValidityTime)).build();
@@ -153,10 +242,15 @@ public class AuthenticatedServerManager {
 
             // update TicketAuthenticatorWrapper
             TicketAuthenticatorWrapper.Builder response = ticketAuthenticatorWrapper.toBuilder();
-            response.setTicket(EncryptionHelper.encryptSymmetric(clientServerTicket, serviceServerSecretKey));
+            response.setTicket(CompactTicket.seal(clientServerTicket, keyRing.getCurrentKey()));
             response.setAuthenticator(EncryptionHelper.encryptSymmetric(authenticatorBuilder.build(), clientServerTicket.getSessionKeyBytes().toByteArray()));
 
-            return new AuthenticationBaseData(authenticator.getUserClientPair(), clientServerTicket.getSessionKeyBytes().toByteArray(), response.build());
+            final byte[] sessionKey = clientServerTicket.getSessionKeyBytes().toByteArray();
+            if (!sessionTable.register(sessionKey, authenticator.getUserClientPair())) {
+                // session requests are rejected with a SessionNotRegisteredException so that the client keeps using its ticket
+                LOGGER.debug("Session of User[" + authenticator.getUserClientPair().getUserId() + "] and Client[" + authenticator.getUserClientPair().getClientId() + "] not registered because the session table is full");
+            }
+            return new AuthenticationBaseData(authenticator.getUserClientPair(), sessionKey, response.build());
         } catch (RejectedException ex) {
             throw ExceptionPrinter.printHistoryAndReturnThrowable(ex, LOGGER, LogLevel.ERROR);
         }
@@ -167,7 +261,7 @@ public class AuthenticatedServerManager {
      *
      * @throws CouldNotPerformException If the login fails.
      */
-    private void login() throws CouldNotPerformException {
+    private synchronized void login() throws CouldNotPerformException {
         try {
             // Load private key from file.
             LoginCredentials loginCredentials;
@@ -198,12 +292,45 @@ public class AuthenticatedServerManager {
     }
 
     /**
-     * Requests the service server secret key from the AuthenticationController.
+     * Refresh the versions of the service server secret key. If the request fails, e.g. because the own ticket
+     * expired, login again before repeating it.
+     */
+    private synchronized void refreshServiceServerSecretKey() {
+        lastKeyRefreshTime.set(System.currentTimeMillis());
+        try {
+            try {
+                requestServiceServerSecretKey();
+            } catch (CouldNotPerformException ex) {
+                login();
+                requestServiceServerSecretKey();
+            }
+        } catch (CouldNotPerformException ex) {
+            ExceptionPrinter.printHistory("Could not refresh service server secret key", ex, LOGGER, LogLevel.WARN);
+        }
+    }
+
+    /**
+     * Refresh the service server secret key in the background if this has not been done recently.
+     */
+    private void triggerServiceServerSecretKeyRefresh() {
+        final long lastRefreshTime = lastKeyRefreshTime.get();
+        if (keyRefreshTask == null || System.currentTimeMillis() - lastRefreshTime < MIN_KEY_REFRESH_INTERVAL || !lastKeyRefreshTime.compareAndSet(lastRefreshTime, System.currentTimeMillis())) {
+            return;
+        }
+        try {
+            GlobalScheduledExecutorService.schedule(this::refreshServiceServerSecretKey, 0, TimeUnit.MILLISECONDS);
+        } catch (NotAvailableException | RejectedExecutionException ex) {
+            ExceptionPrinter.printHistory("Could not schedule refresh of service server secret key", ex, LOGGER, LogLevel.WARN);
+        }
+    }
+
+    /**
+     * Requests the versions of the service server secret key from the AuthenticationController.
      * This can only be performed after being {@link #login()} has been called.
      *
      * @throws CouldNotPerformException if the key cannot be requested
      */
-    private void requestServiceServerSecretKey() throws CouldNotPerformException {
+    private synchronized void requestServiceServerSecretKey() throws CouldNotPerformException {
         try {
             // init ticket for the request
             ticketAuthenticatorWrapper = AuthenticationClientHandler.initServiceServerRequest(sessionKey, ticketAuthenticatorWrapper);
@@ -213,8 +340,16 @@ public class AuthenticatedServerManager {
             ticketAuthenticatorWrapper = AuthenticationClientHandler.handleServiceServerResponse(sessionKey,
                     ticketAuthenticatorWrapper, value.getTicketAuthenticatorWrapper());
 
-            // decrypt and save service server secret key
-            serviceServerSecretKey = EncryptionHelper.decryptSymmetric(value.getValue(), sessionKey, byte[].class);
+            // decrypt and save service server secret key versions
+            final Object keys = EncryptionHelper.decryptSymmetric(value.getValue(), sessionKey, Object.class);
+            if (keys instanceof SecretKeyRing) {
+                serviceServerKeyRing = (SecretKeyRing) keys;
+            } else if (keys instanceof byte[]) {
+                // authenticator without key rotation
+                serviceServerKeyRing = new SecretKeyRing((byte[]) keys);
+            } else {
+                throw new CouldNotPerformException("Received service server secret key of unknown type");
+            }
         } catch (ExecutionException | CouldNotPerformException ex) {
             ExceptionPrinter.printHistory(ex, LOGGER, LogLevel.ERROR);
             throw new CouldNotPerformException("Could not get the service server secret key.", ex);
@@ -230,6 +365,7 @@ public class AuthenticatedServerManager {
      * @return the service server secret key
      */
     public byte[] getServiceServerSecretKey() {
-        return serviceServerSecretKey;
+        final SecretKeyRing keyRing = serviceServerKeyRing;
+        return keyRing == null ? null : keyRing.getCurrentKey();
     }
 }
@@ -25,6 +25,8 @@ package org.openbase.bco.authentication.lib;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.Message;
 import org.openbase.bco.authentication.lib.future.AuthenticatedValueFuture;
+import org.openbase.bco.authentication.lib.future.ReplayFuture;
+import org.openbase.bco.authentication.lib.future.ReplayPolicy;
 import org.openbase.bco.authentication.lib.jp.JPAuthentication;
 import org.openbase.jps.core.JPService;
 import org.openbase.jps.exception.JPNotAvailableException;
@@ -35,9 +37,8 @@ import org.openbase.type.domotic.authentication.AuthenticatedValueType.Authentic
 import org.openbase.type.domotic.authentication.TicketAuthenticatorWrapperType.TicketAuthenticatorWrapper;
 
 import java.io.Serializable;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Helper class which should be used to implement an authenticated service.
@@ -46,6 +47,11 @@ import java.util.concurrent.Future;
  */
 public class AuthenticatedServiceProcessor {
 
+    /**
+     * Cache of the responses of requests with a transaction id, so that requests sent again are not performed twice.
+     */
+    private static final IdempotencyCache IDEMPOTENCY_CACHE = new IdempotencyCache();
+
     /**
      * Method used by the server which performs an authenticated action.
      *
@@ -131,42 +137,54 @@ public class AuthenticatedServiceProcessor {
                     decrypted = EncryptionHelper.decryptSymmetric(authenticatedValue.getValue(), authenticationBaseData.getSessionKey(), internalClass);
                 }
 
-                // execute the action of the server
-                RETURN result = executable.process(decrypted, authenticationBaseData);
+                final RECEIVE message = decrypted;
+                final IdempotencyCache.ResponseProcessable processable = () -> {
+                    // execute the action of the server
+                    RETURN result = executable.process(message, authenticationBaseData);
 
-                if (result != null) {
-                    // encrypt the result and add it to the response
-                    response.setValue(EncryptionHelper.encryptSymmetric(result, authenticationBaseData.getSessionKey()));
+                    if (result == null) {
+                        return null;
+                    }
+                    // encrypt the result
+                    return EncryptionHelper.encryptSymmetric(result, authenticationBaseData.getSessionKey());
+                };
+
+                final ByteString value;
+                if (authenticatedValue.getTransactionId() != 0) {
+                    // the request is identified by a transaction id so it is only performed once even if it is sent again
+                    value = IDEMPOTENCY_CACHE.process(authenticationBaseData.getUserClientPair(), authenticatedValue.getTransactionId(), authenticationBaseData.getSessionKey(), processable);
+                } else {
+                    value = processable.process();
+                }
+
+                if (value != null) {
+                    // add the encrypted result to the response
+                    response.setValue(value);
                 }
                 // add updated ticket to response
                 response.setTicketAuthenticatorWrapper(authenticationBaseData.getTicketAuthenticatorWrapper());
             } else {
                 // ticket no available so request without login
-                try {
-                    RECEIVE message = null;
+                RECEIVE message = null;
 
-                    if (authenticatedValue.hasValue() && !authenticatedValue.getValue().isEmpty()) {
-                        if (!Message.class.isAssignableFrom(internalClass)) {
-                            throw new CouldNotPerformException("Authenticated value has a value but the method implemented by the server did not expect one!");
-                        }
-                        // when not logged in the received value is not encrypted but just send as a byte string
-                        // so get the received message by calling parseFrom which is supported by every message
-                        Method parseFrom = internalClass.getMethod("parseFrom", ByteString.class);
-                        message = (RECEIVE) parseFrom.invoke(null, authenticatedValue.getValue());
+                if (authenticatedValue.hasValue() && !authenticatedValue.getValue().isEmpty()) {
+                    if (!Message.class.isAssignableFrom(internalClass)) {
+                        throw new CouldNotPerformException("Authenticated value has a value but the method implemented by the server did not expect one!");
                     }
+                    // when not logged in the received value is not encrypted but just send as a byte string
+                    // so parse the received message with the parser of its type
+                    message = MessageParserRegistry.parseFrom(authenticatedValue.getValue(), internalClass);
+                }
 
-                    // execute the action of the server
-                    RETURN result = executable.process(message, null);
-                    if (result != null) {
-                        if (!(result instanceof Message)) {
-                            throw new CouldNotPerformException("Result[" + result + "] of authenticated action is not a message or not null and therefore not supported!");
-                        }
-
-                        // add result as a byte string to the response
-                        response.setValue(((Message) result).toByteString());
+                // execute the action of the server
+                RETURN result = executable.process(message, null);
+                if (result != null) {
+                    if (!(result instanceof Message)) {
+                        throw new CouldNotPerformException("Result[" + result + "] of authenticated action is not a message or not null and therefore not supported!");
                     }
-                } catch (NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
-                    throw new CouldNotPerformException("Could not invoke parseFrom method on [" + internalClass.getSimpleName() + "]", ex);
+
+                    // add result as a byte string to the response
+                    response.setValue(((Message) result).toByteString());
                 }
             }
             // return the response
@@ -178,6 +196,35 @@ public class AuthenticatedServiceProcessor {
 
     /**
      * Method used by the remote to request an authenticated action from a server.
+     * The request is replayed according to the {@link ReplayPolicy#DEFAULT} policy.
+     * <p>
+     * Note: The future object is canceled if a user is logged and a ticket for the request cannot be initialized or encryption of the send message fails.
+     *
+     * @param <SEND>              The type which is send to server for this request.
+     * @param <RESPONSE>          The type with which the server should respond.
+     * @param message             The message which is encrypted and send to the server.
+     * @param responseClass       Class of type RESPONSE to resolve internal types.
+     * @param sessionManager      The session manager from which the ticket is used if a user it logged in.
+     * @param internalRequestable Interface for the internal authenticated request which is called.
+     *
+     * @return A future containing the response.
+     */
+    public static <SEND extends Serializable, RESPONSE> Future<RESPONSE> requestAuthenticatedAction(
+            final SEND message,
+            final Class<RESPONSE> responseClass,
+            final SessionManager sessionManager,
+            final InternalRequestable internalRequestable) {
+        return requestAuthenticatedAction(message, responseClass, sessionManager, ReplayPolicy.DEFAULT, internalRequestable);
+    }
+
+    /**
+     * Method used by the remote to request an authenticated action from a server.
+     * If the request fails because its session expired or the server could not decrypt its ticket, the session is
+     * re-established and the request is send again with a new ticket. The replay policy defines how often this is done
+     * and if the request may also be replayed on other failures because it is idempotent.
+     * If the policy is idempotent and a user is logged in, all replays are sent with the same transaction id and the
+     * server returns the cached response of a request it has already performed. Thus, requests which modify the server
+     * can also be replayed. Other requests are sent without a transaction id so that their responses are not cached.
      * <p>
      * Note: The future object is canceled if a user is logged and a ticket for the request cannot be initialized or encryption of the send message fails.
      *
@@ -186,6 +233,7 @@ public class AuthenticatedServiceProcessor {
      * @param message             The message which is encrypted and send to the server.
      * @param responseClass       Class of type RESPONSE to resolve internal types.
      * @param sessionManager      The session manager from which the ticket is used if a user it logged in.
+     * @param replayPolicy        The policy defining if and how the request is replayed on failures.
      * @param internalRequestable Interface for the internal authenticated request which is called.
      *
      * @return A future containing the response.
@@ -194,6 +242,30 @@ public class AuthenticatedServiceProcessor {
             final SEND message,
             final Class<RESPONSE> responseClass,
             final SessionManager sessionManager,
+            final ReplayPolicy replayPolicy,
+            final InternalRequestable internalRequestable) {
+        // all replays of idempotent requests share the transaction id so that the server performs the request only once
+        final long transactionId = replayPolicy.isIdempotent() ? generateTransactionId() : 0;
+        if (replayPolicy.getMaxReplays() == 0) {
+            return sendAuthenticatedAction(message, responseClass, sessionManager, transactionId, internalRequestable);
+        }
+        return new ReplayFuture<>(() -> sendAuthenticatedAction(message, responseClass, sessionManager, transactionId, internalRequestable), replayPolicy, sessionManager);
+    }
+
+    private static long generateTransactionId() {
+        long transactionId;
+        // zero is the default value marking requests without a transaction id
+        do {
+            transactionId = ThreadLocalRandom.current().nextLong();
+        } while (transactionId == 0);
+        return transactionId;
+    }
+
+    private static <SEND extends Serializable, RESPONSE> Future<RESPONSE> sendAuthenticatedAction(
+            final SEND message,
+            final Class<RESPONSE> responseClass,
+            final SessionManager sessionManager,
+            final long transactionId,
             final InternalRequestable internalRequestable) {
         try {
             if (sessionManager.isLoggedIn()) {
@@ -204,6 +276,10 @@ public class AuthenticatedServiceProcessor {
                     AuthenticatedValue.Builder authenticatedValue = AuthenticatedValue.newBuilder();
                     // add the ticket to the authenticated value which is send
                     authenticatedValue.setTicketAuthenticatorWrapper(ticketAuthenticatorWrapper);
+                    if (transactionId != 0) {
+                        // identify the request so that the server does not perform it again if it is replayed
+                        authenticatedValue.setTransactionId(transactionId);
+                    }
 
                     if (message != null) {
                         // encrypt the message which is send with the session key
@@ -33,11 +33,30 @@ import org.openbase.type.domotic.authentication.TicketSessionKeyWrapperType.Tick
 import org.openbase.type.domotic.authentication.UserClientPairType.UserClientPair;
 import org.openbase.type.timing.TimestampType.Timestamp;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * @author <a href="mailto:sfast@techfak.uni-bielefeld.de">Sebastian Fast</a>
  */
 public class AuthenticationClientHandler {
 
+    /**
+     * Latest timestamp used for an authenticator.
+     */
+    private static final AtomicLong LAST_TIMESTAMP = new AtomicLong();
+
+    /**
+     * Get the current timestamp for a new authenticator. Timestamps are unique in this process so that
+     * authenticators of concurrent requests in the same session are not rejected as replays.
+     *
+     * @return a timestamp which is later than all timestamps returned before.
+     */
+    private static Timestamp getUniqueTimestamp() {
+        final Timestamp currentTimestamp = TimestampProcessor.getCurrentTimestamp();
+        final long time = LAST_TIMESTAMP.updateAndGet(last -> Math.max(currentTimestamp.getTime(), last + 1));
+        return currentTimestamp.toBuilder().setTime(time).build();
+    }
+
     /**
      * Handles a KeyDistributionCenter (KDC) response
      * Decrypts the TicketGrantingServer (TGS) session key with client's hashed password
@@ -69,7 +88,7 @@ public class AuthenticationClientHandler {
         // set timestamp in initTGSRequest()
         Authenticator.Builder authenticator = Authenticator.newBuilder();
         authenticator.setUserClientPair(userClientPair);
-        authenticator.setTimestamp(TimestampProcessor.getCurrentTimestamp());
+        authenticator.setTimestamp(getUniqueTimestamp());
 
         // create a pair containing session key and wrapper with authenticator encrypted with session key.
         return createTicketWrapperSessionKeyPair(ticketGrantingServiceSessionKey, authenticator.build(), wrapper.getTicket());
@@ -137,7 +156,7 @@ public class AuthenticationClientHandler {
         final Authenticator.Builder authenticator = EncryptionHelper.decryptSymmetric(wrapper.getAuthenticator(), serviceServerSessionKey, Authenticator.class).toBuilder();
 
         // update timestamp
-        authenticator.setTimestamp(TimestampProcessor.getCurrentTimestamp());
+        authenticator.setTimestamp(getUniqueTimestamp());
 
         // update ticket authenticatorWrapper
         final TicketAuthenticatorWrapper.Builder ticketAuthenticatorWrapper = wrapper.toBuilder();
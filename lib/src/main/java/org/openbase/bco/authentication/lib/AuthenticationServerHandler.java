@@ -118,13 +118,33 @@ public class AuthenticationServerHandler {
      * @throws CouldNotPerformException If de- or encryption fail.
      */
     public static TicketSessionKeyWrapper handleTGSRequest(final byte[] ticketGrantingServiceSecretKey, final byte[] serviceServerSecretKey, final TicketAuthenticatorWrapper wrapper, final long validityTime) throws RejectedException, CouldNotPerformException {
+        return handleTGSRequest(new SecretKeyRing(ticketGrantingServiceSecretKey), new SecretKeyRing(serviceServerSecretKey), wrapper, validityTime, null);
+    }
+
+    /**
+     * Handles a Ticket Granting Service (TGS) request with versioned keys.
+     * The TGT can be sealed with any version of the TGS key ring and the CST is sealed with the current SS key.
+     *
+     * @param ticketGrantingServiceKeyRing versions of the TGS secret key
+     * @param serviceServerKeyRing         versions of the SS secret key
+     * @param wrapper                      TicketAuthenticatorWrapperWrapper that contains both encrypted Authenticator and TGT
+     * @param validityTime                 time in milli seconds how long the new ticket is valid from now on
+     * @param replayCache                  cache rejecting authenticators which have already been used, can be null
+     *
+     * @return Returns a wrapper class containing both the CST and SS session key
+     *
+     * @throws RejectedException        If timestamp in Authenticator does not fit to time period in TGT
+     *                                  or, if clientID in Authenticator does not match clientID in TGT
+     * @throws CouldNotPerformException If de- or encryption fail.
+     */
+    public static TicketSessionKeyWrapper handleTGSRequest(final SecretKeyRing ticketGrantingServiceKeyRing, final SecretKeyRing serviceServerKeyRing, final TicketAuthenticatorWrapper wrapper, final long validityTime, final ReplayCache replayCache) throws RejectedException, CouldNotPerformException {
         // decrypt ticket and authenticator
-        Ticket ticketGrantingTicket = EncryptionHelper.decryptSymmetric(wrapper.getTicket(), ticketGrantingServiceSecretKey, Ticket.class);
+        Ticket ticketGrantingTicket = CompactTicket.open(wrapper.getTicket(), ticketGrantingServiceKeyRing);
         byte[] ticketGrantingServiceSessionKey = ticketGrantingTicket.getSessionKeyBytes().toByteArray();
         Authenticator authenticator = EncryptionHelper.decryptSymmetric(wrapper.getAuthenticator(), ticketGrantingServiceSessionKey, Authenticator.class);
 
         // compare clientIDs and timestamp to period
-        AuthenticationServerHandler.validateTicket(ticketGrantingTicket, authenticator);
+        AuthenticationServerHandler.validateTicket(ticketGrantingTicket, authenticator, ticketGrantingServiceSessionKey, replayCache);
 
         // generate new session key
         byte[] serviceServerSessionKey = EncryptionHelper.generateKey();
@@ -134,28 +154,28 @@ public class AuthenticationServerHandler {
 
         // create TicketSessionKeyWrapper
         TicketSessionKeyWrapper.Builder ticketSessionKeyWrapper = TicketSessionKeyWrapper.newBuilder();
-        ticketSessionKeyWrapper.setTicket(updateAndEncryptTicket(ticketGrantingTicket.toBuilder(), validityTime, serviceServerSessionKey, serviceServerSecretKey));
+        ticketSessionKeyWrapper.setTicket(updateAndEncryptTicket(ticketGrantingTicket.toBuilder(), validityTime, serviceServerSessionKey, serviceServerKeyRing.getCurrentKey()));
         ticketSessionKeyWrapper.setSessionKey(clientServerTicket);
 
         return ticketSessionKeyWrapper.build();
     }
 
     /**
-     * Update validity period and session key in a ticket. Then encrypt it with the secret key.
+     * Update validity period and session key in a ticket. Then seal it with the secret key, see {@link CompactTicket}.
      *
      * @param ticket       the ticket to be updated.
      * @param validityTime time in milliseconds how long the ticket should be valid
      * @param sessionKey   the session key added to the ticket.
      * @param secretKey    the key used to encrypt the ticket.
      *
-     * @return an updated and encrypted ticket.
+     * @return an updated and sealed ticket.
      *
-     * @throws CouldNotPerformException if encryption fails.
+     * @throws CouldNotPerformException if sealing fails.
      */
     private static ByteString updateAndEncryptTicket(final Ticket.Builder ticket, final long validityTime, final byte[] sessionKey, final byte[] secretKey) throws CouldNotPerformException {
         ticket.setValidityPeriod(getValidityInterval(validityTime));
         ticket.setSessionKeyBytes(ByteString.copyFrom(sessionKey));
-        return EncryptionHelper.encryptSymmetric(ticket.build(), secretKey);
+        return CompactTicket.seal(ticket, secretKey);
     }
 
     /**
@@ -174,12 +194,31 @@ public class AuthenticationServerHandler {
      * @throws CouldNotPerformException If de- or encryption fail.
      */
     public static AuthenticationBaseData handleSSRequest(final byte[] serviceServerSecretKey, final TicketAuthenticatorWrapper wrapper, final long validityTime) throws CouldNotPerformException {
+        return handleSSRequest(new SecretKeyRing(serviceServerSecretKey), wrapper, validityTime, null);
+    }
+
+    /**
+     * Handles a service method (Remote) request to Service Server (SS) (Manager) with versioned keys.
+     * The CST can be sealed with any version of the key ring and is sealed again with the current key.
+     *
+     * @param serviceServerKeyRing versions of the SS secret key only known to SS
+     * @param wrapper              TicketAuthenticatorWrapper wrapper that contains both encrypted Authenticator and TGT
+     * @param validityTime         time in milli seconds how long the new ticket is valid from now on
+     * @param replayCache          cache rejecting authenticators which have already been used, can be null
+     *
+     * @return Returns a wrapper class containing both the modified CST and unchanged Authenticator
+     *
+     * @throws RejectedException        If timestamp in Authenticator does not fit to time period in TGT
+     *                                  or, if clientID in Authenticator does not match clientID in TGT
+     * @throws CouldNotPerformException If de- or encryption fail.
+     */
+    public static AuthenticationBaseData handleSSRequest(final SecretKeyRing serviceServerKeyRing, final TicketAuthenticatorWrapper wrapper, final long validityTime, final ReplayCache replayCache) throws CouldNotPerformException {
         // decrypt ticket and authenticator
-        final Ticket.Builder clientServerTicket = EncryptionHelper.decryptSymmetric(wrapper.getTicket(), serviceServerSecretKey, Ticket.class).toBuilder();
+        final Ticket.Builder clientServerTicket = CompactTicket.open(wrapper.getTicket(), serviceServerKeyRing).toBuilder();
         final Authenticator.Builder authenticator = EncryptionHelper.decryptSymmetric(wrapper.getAuthenticator(), clientServerTicket.getSessionKeyBytes().toByteArray(), Authenticator.class).toBuilder();
 
         // compare clientIDs and timestamp to period
-        AuthenticationServerHandler.validateTicket(clientServerTicket, authenticator);
+        AuthenticationServerHandler.validateTicket(clientServerTicket, authenticator, clientServerTicket.getSessionKeyBytes().toByteArray(), replayCache);
 
         // update period and session key
         clientServerTicket.setValidityPeriod(getValidityInterval(validityTime));
@@ -189,7 +228,7 @@ public class AuthenticationServerHandler {
 
         // update TicketAuthenticatorWrapper
         TicketAuthenticatorWrapper.Builder ticketAuthenticatorWrapper = wrapper.toBuilder();
-        ticketAuthenticatorWrapper.setTicket(EncryptionHelper.encryptSymmetric(clientServerTicket.build(), serviceServerSecretKey));
+        ticketAuthenticatorWrapper.setTicket(CompactTicket.seal(clientServerTicket, serviceServerKeyRing.getCurrentKey()));
         ticketAuthenticatorWrapper.setAuthenticator(EncryptionHelper.encryptSymmetric(authenticator.build(), clientServerTicket.getSessionKeyBytes().toByteArray()));
 
         return new AuthenticationBaseData(authenticator.getUserClientPair(), clientServerTicket.getSessionKeyBytes().toByteArray(), ticketAuthenticatorWrapper.build());
@@ -197,6 +236,26 @@ public class AuthenticationServerHandler {
 
     private static final DateFormat DATE_FORMAT = new SimpleDateFormat("d.M.Y - H:m:s:S");
 
+    /**
+     * Validate a ticket and its authenticator as done by {@link #validateTicket(TicketOrBuilder, AuthenticatorOrBuilder)}
+     * and reject authenticators which have already been used.
+     *
+     * @param ticket        the ticket.
+     * @param authenticator the authenticator sent with the ticket.
+     * @param sessionKey    the session key with which the authenticator has been encrypted.
+     * @param replayCache   the cache of used authenticators, if null replays are not detected.
+     *
+     * @throws RejectedException if the ticket or authenticator are invalid or the authenticator is replayed.
+     */
+    public static void validateTicket(final TicketOrBuilder ticket, final AuthenticatorOrBuilder authenticator, final byte[] sessionKey, final ReplayCache replayCache) throws RejectedException {
+        validateTicket(ticket, authenticator);
+
+        // only record after validation so that the cache only contains authenticators within the time window
+        if (replayCache != null && !replayCache.record(sessionKey, authenticator.getTimestamp().getTime())) {
+            throw new RejectedException("Authenticator has already been used");
+        }
+    }
+
     public static void validateTicket(final TicketOrBuilder ticket, final AuthenticatorOrBuilder authenticator) throws RejectedException {
         // validate that client and ids in authenticator and ticket match
         if (!ticket.hasUserClientPair() || (ticket.getUserClientPair().getClientId().isEmpty() && ticket.getUserClientPair().getUserId().isEmpty())) {
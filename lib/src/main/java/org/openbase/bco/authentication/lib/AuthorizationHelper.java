@@ -22,18 +22,12 @@ package org.openbase.bco.authentication.lib;
  * #L%
  */
 
-import com.google.protobuf.ProtocolStringList;
-import org.openbase.jps.core.JPService;
 import org.openbase.jul.exception.CouldNotPerformException;
-import org.openbase.jul.exception.FatalImplementationErrorException;
-import org.openbase.jul.exception.InvalidStateException;
 import org.openbase.jul.exception.NotAvailableException;
 import org.openbase.jul.exception.printer.ExceptionPrinter;
 import org.openbase.jul.exception.printer.LogLevel;
 import org.openbase.jul.extension.protobuf.IdentifiableMessage;
-import org.openbase.jul.extension.type.processing.LabelProcessor;
 import org.openbase.jul.extension.type.processing.ScopeProcessor;
-import org.openbase.jul.processing.StringProcessor;
 import org.openbase.type.domotic.authentication.PermissionConfigType.PermissionConfig;
 import org.openbase.type.domotic.authentication.PermissionConfigType.PermissionConfig.MapFieldEntry;
 import org.openbase.type.domotic.authentication.PermissionType.Permission;
@@ -42,7 +36,11 @@ import org.openbase.type.domotic.unit.UnitConfigType.UnitConfig;
 import org.openbase.type.domotic.unit.UnitTemplateType.UnitTemplate.UnitType;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 
 /**
  * Helper class to determine the permissions for a given user on a given permission configuration.
@@ -55,6 +53,10 @@ public class AuthorizationHelper {
 
     private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(AuthorizationHelper.class);
 
+    private static final LocationIndex LOCATION_INDEX = new LocationIndex();
+    private static final PermissionConfigCache PERMISSION_CONFIG_CACHE = new PermissionConfigCache(LOCATION_INDEX);
+    private static final GroupMembershipIndex GROUP_MEMBERSHIP_INDEX = new GroupMembershipIndex();
+
     public enum PermissionType {
         READ,
         WRITE,
@@ -73,7 +75,7 @@ public class AuthorizationHelper {
      * @return True if the user can read from the unit, false if not.
      */
     public static boolean canRead(UnitConfig unitConfig, final String userId, Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups, Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations) {
-        return canDo(unitConfig, userId, groups, locations, PermissionType.READ);
+        return (getPermissionMask(unitConfig, userId, groups, locations) & CompiledPermissionConfig.READ) != 0;
     }
 
     /**
@@ -103,7 +105,7 @@ public class AuthorizationHelper {
      * @return True if the user can write to the unit, false if not.
      */
     public static boolean canWrite(UnitConfig unitConfig, final String userId, Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups, Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations) {
-        return canDo(unitConfig, userId, groups, locations, PermissionType.WRITE);
+        return (getPermissionMask(unitConfig, userId, groups, locations) & CompiledPermissionConfig.WRITE) != 0;
     }
 
     /**
@@ -132,7 +134,7 @@ public class AuthorizationHelper {
      * @return True if the user can access the unit, false if not.
      */
     public static boolean canAccess(UnitConfig unitConfig, final String userId, Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups, Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations) {
-        return canDo(unitConfig, userId, groups, locations, PermissionType.ACCESS);
+        return (getPermissionMask(unitConfig, userId, groups, locations) & CompiledPermissionConfig.ACCESS) != 0;
     }
 
     /**
@@ -161,18 +163,106 @@ public class AuthorizationHelper {
      * @return Permission object representing the maximum permissions for the given user on the given unit.
      */
     public static Permission getPermission(UnitConfig unitConfig, String userId, Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups, Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations) {
-        return Permission.newBuilder()
-                .setAccess(canAccess(unitConfig, userId, groups, locations))
-                .setRead(canRead(unitConfig, userId, groups, locations))
-                .setWrite(canWrite(unitConfig, userId, groups, locations))
-                .build();
+        return CompiledPermissionConfig.toPermission(getPermissionMask(unitConfig, userId, groups, locations));
+    }
+
+    /**
+     * Evaluate the permissions of a user client pair for a collection of units at once.
+     * This should be preferred over checking the units one by one, e.g. when filtering a registry for a user,
+     * because groups and locations are only resolved once and large collections are evaluated in parallel.
+     * As for the single checks either the user or the client need to have a permission.
+     *
+     * @param unitConfigs    the unit configs to evaluate.
+     * @param userClientPair the pair containing a user id and a client id.
+     * @param groups         All available groups in the system, indexed by their group ID.
+     * @param locations      All available locations in the system, indexed by their id.
+     *
+     * @return the ids of all units which can be read, written or accessed.
+     */
+    public static UnitPermissions getUnitPermissions(final Collection<UnitConfig> unitConfigs, final UserClientPair userClientPair, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations) {
+        return getUnitPermissions(unitConfigs, userClientPair, groups, locations, PermissionConfigCache.UNKNOWN_VERSION);
+    }
+
+    /**
+     * Evaluate the permissions of a user client pair for a collection of units at once.
+     * The version of the location map allows to reuse the resolved location hierarchy without validating it.
+     *
+     * @param unitConfigs      the unit configs to evaluate.
+     * @param userClientPair   the pair containing a user id and a client id.
+     * @param groups           All available groups in the system, indexed by their group ID.
+     * @param locations        All available locations in the system, indexed by their id.
+     * @param locationsVersion a version which changes whenever the location map is modified.
+     *
+     * @return the ids of all units which can be read, written or accessed.
+     */
+    public static UnitPermissions getUnitPermissions(final Collection<UnitConfig> unitConfigs, final UserClientPair userClientPair, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations, final long locationsVersion) {
+        final List<UnitConfig> unitConfigList = unitConfigs instanceof List && unitConfigs instanceof RandomAccess ? (List<UnitConfig>) unitConfigs : new ArrayList<>(unitConfigs);
+        return new BulkPermissionEvaluator(userClientPair, groups, locations, locationsVersion, PERMISSION_CONFIG_CACHE, GROUP_MEMBERSHIP_INDEX).evaluate(unitConfigList);
+    }
+
+    /**
+     * Evaluate all permissions of a user in a single pass.
+     * The user only has permissions for a unit if all locations above it are readable for the user.
+     *
+     * @param unitConfig The unitConfig of the unit for which the permissions apply.
+     * @param userId     ID of the user whose permissions should be checked.
+     * @param groups     All available groups in the system, indexed by their group ID.
+     * @param locations  All available locations in the system, indexed by their id.
+     *
+     * @return the permission bitmask as defined by the {@link CompiledPermissionConfig}.
+     */
+    public static int getPermissionMask(final UnitConfig unitConfig, final String userId, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations) {
+        return getPermissionMask(unitConfig, userId, groups, locations, PermissionConfigCache.UNKNOWN_VERSION);
     }
 
+    /**
+     * Evaluate all permissions of a user in a single pass.
+     * The version of the location map allows to reuse the resolved location hierarchy without validating it.
+     *
+     * @param unitConfig       The unitConfig of the unit for which the permissions apply.
+     * @param userId           ID of the user whose permissions should be checked.
+     * @param groups           All available groups in the system, indexed by their group ID.
+     * @param locations        All available locations in the system, indexed by their id.
+     * @param locationsVersion a version which changes whenever the location map is modified.
+     *
+     * @return the permission bitmask as defined by the {@link CompiledPermissionConfig}.
+     */
+    public static int getPermissionMask(final UnitConfig unitConfig, final String userId, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations, final long locationsVersion) {
+        final PermissionConfigCache.Entry entry;
+        try {
+            entry = PERMISSION_CONFIG_CACHE.getEntry(unitConfig, locations, locationsVersion);
+        } catch (CouldNotPerformException ex) {
+            ExceptionPrinter.printHistory("can not perform the canDo check! Permission will be denied!", ex, LOGGER, LogLevel.WARN);
+            return CompiledPermissionConfig.NONE;
+        }
+
+        // the parent entries resemble the location hierarchy, so check if the given user has read permissions for all parent locations
+        for (PermissionConfigCache.Entry parentEntry = entry.getParentEntry(); parentEntry != null; parentEntry = parentEntry.getParentEntry()) {
+            if ((parentEntry.getCompiledPermissionConfig().getPermissionMask(userId, groups, GROUP_MEMBERSHIP_INDEX) & CompiledPermissionConfig.READ) == 0) {
+                return CompiledPermissionConfig.NONE;
+            }
+        }
+
+        return entry.getCompiledPermissionConfig().getPermissionMask(userId, groups, GROUP_MEMBERSHIP_INDEX);
+    }
+
+    /**
+     * Check one permission type of a user by evaluating the permission config of the unit and its locations without the compiled bitmasks.
+     * Prefer {@link #getPermissionMask(UnitConfig, String, Map, Map)} which evaluates all permission types at once.
+     *
+     * @param unitConfig The unitConfig of the unit for which the permissions apply.
+     * @param userId     ID of the user whose permissions should be checked.
+     * @param groups     All available groups in the system, indexed by their group ID.
+     * @param locations  All available locations in the system, indexed by their id.
+     * @param type       The permission type to check.
+     *
+     * @return True if the user has the given permission, false if not.
+     */
     public static boolean canDo(UnitConfig unitConfig, final String userId, Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups, Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations, PermissionType type) {
         if (!isAuthenticationUnit(unitConfig) && !isRootLocation(unitConfig, locations)) {
             // check if the given user has read permissions for the parent location otherwise skip all further checks
             try {
-                if (!canRead(getLocationUnitConfig(unitConfig.getPlacementConfig().getLocationId(), locations), userId, groups, locations)) {
+                if (!canDo(getLocationUnitConfig(unitConfig.getPlacementConfig().getLocationId(), locations), userId, groups, locations, PermissionType.READ)) {
                     return false;
                 }
             } catch (NotAvailableException ex) {
@@ -229,22 +319,19 @@ public class AuthorizationHelper {
         }
 
         // check the groups defined in the permission config
-        ProtocolStringList groupMembers;
         for (final MapFieldEntry entry : permissionConfig.getGroupPermissionList()) {
-            // every user is also a group so check if the group id matches the user id
-            if (entry.getGroupId().equals(userId) && permitted(entry.getPermission(), type)) {
-                return true;
+            // skip groups without the according permissions before resolving their members
+            if (!permitted(entry.getPermission(), type)) {
+                continue;
             }
 
-            // continue if the provided group id is a user which is not the checked one
-            if (!groups.containsKey(entry.getGroupId())) {
-                continue;
+            // every user is also a group so check if the group id matches the user id
+            if (entry.getGroupId().equals(userId)) {
+                return true;
             }
 
-            // retrieve group
-            groupMembers = groups.get(entry.getGroupId()).getMessage().getAuthorizationGroupConfig().getMemberIdList();
-            // Check if the user belongs to the group and the group has the according permissions
-            if (groupMembers.contains(userId) && permitted(entry.getPermission(), type)) {
+            // Check if the user belongs to the group, ids of users which are not the checked one are not contained in the group map
+            if (GROUP_MEMBERSHIP_INDEX.isMember(entry.getGroupId(), userId, groups)) {
                 return true;
             }
         }
@@ -266,61 +353,11 @@ public class AuthorizationHelper {
     }
 
     private static PermissionConfig getPermissionConfig(final UnitConfig unitConfig, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations) throws NotAvailableException {
-        try {
-            if (unitConfig == null) {
-                throw new NotAvailableException("UnitConfig");
-            }
-
-            // the root location should always use its own permissions to terminate the recursive permission resolution.
-            if (isRootLocation(unitConfig, locations)) {
-                if (!unitConfig.hasPermissionConfig()) {
-                    throw new InvalidStateException("The root location does not provide a permission config!");
-                }
-                return unitConfig.getPermissionConfig();
-            }
-
-            // user or authentication group permissions are independent of there location referred location.
-            if (isAuthenticationUnit(unitConfig)) {
-                if (!unitConfig.hasPermissionConfig()) {
-                    throw new InvalidStateException(StringProcessor.transformUpperCaseToPascalCase(unitConfig.getUnitType().name()) + " should always provide a permission config!");
-                }
-                return unitConfig.getPermissionConfig();
-            }
-
-            // verify needed location information
-            if (locations == null || locations.isEmpty()) {
-                throw new InvalidStateException("No location information available for permission resolution!");
-            }
-
-            PermissionConfig unitPermissionConfig;
-
-            // resolve parent permissions
-            try {
-                final UnitConfig locationUnitConfig = getLocationUnitConfig(unitConfig.getPlacementConfig().getLocationId(), locations);
-                unitPermissionConfig = getPermissionConfig(locationUnitConfig, locations);
-            } catch (NotAvailableException ex) {
-                throw new InvalidStateException("Parent location does not provide a permission config!", ex);
-            }
-
-            // resolve unit permissions and merge those with the parent location permissions
-            if (unitConfig.hasPermissionConfig()) {
-                unitPermissionConfig = mergePermissionConfigs(unitConfig.getPermissionConfig(), unitPermissionConfig);
-            }
-
-            return unitPermissionConfig;
-
-        } catch (CouldNotPerformException ex) {
-            String scope;
-            try {
-                scope = ScopeProcessor.generateStringRep(unitConfig.getScope());
-            } catch (CouldNotPerformException exx) {
-                scope = "?";
-            }
-            throw new NotAvailableException("PermissionConfig of Unit[" + scope + "]", ex);
-        }
+        // the effective permission configs of locations rarely change so they are resolved only once and reused afterwards
+        return PERMISSION_CONFIG_CACHE.getPermissionConfig(unitConfig, locations);
     }
 
-    private static boolean isRootLocation(final UnitConfig unitConfig, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations) {
+    static boolean isRootLocation(final UnitConfig unitConfig, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations) {
 
         // if this unit is not a location it can not be a root location
         if (unitConfig.getUnitType() != UnitType.LOCATION) {
@@ -336,20 +373,7 @@ public class AuthorizationHelper {
         return unitConfig.getLocationConfig().hasRoot() && unitConfig.getLocationConfig().getRoot();
     }
 
-    private static UnitConfig getRootLocationUnitConfig(final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations) throws NotAvailableException {
-        try {
-            for (final IdentifiableMessage<String, UnitConfig, UnitConfig.Builder> locationUnitConfig : locations.values()) {
-                if (isRootLocation(locationUnitConfig.getMessage(), locations)) {
-                    return locationUnitConfig.getMessage();
-                }
-            }
-            throw new InvalidStateException("Registry does not provide a root location!");
-        } catch (CouldNotPerformException ex) {
-            throw new NotAvailableException("RootLocation", ex);
-        }
-    }
-
-    private static boolean isAuthenticationUnit(final UnitConfig unitConfig) {
+    static boolean isAuthenticationUnit(final UnitConfig unitConfig) {
         switch (unitConfig.getUnitType()) {
             case USER:
             case AUTHORIZATION_GROUP:
@@ -359,28 +383,11 @@ public class AuthorizationHelper {
         }
     }
 
-    private static UnitConfig getLocationUnitConfig(final String locationId, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations) throws NotAvailableException {
-        try {
-            if (locationId.isEmpty()) {
-                throw new NotAvailableException("locationId");
-            }
-
-            if (!locations.containsKey(locationId)) {
-                final UnitConfig rootLocationUnitConfig = getRootLocationUnitConfig(locations);
-                LOGGER.warn("Registry does not contains requested location Entry[" + locationId + "] use root location [" + LabelProcessor.getBestMatch(rootLocationUnitConfig.getLabel(), "") + ":"+rootLocationUnitConfig.getId()+ "] as fallback to compute permissions.");
-                if(JPService.testMode()) {
-                    new FatalImplementationErrorException("Requested Location can not be resolved!", AuthorizationHelper.class);
-                }
-                return rootLocationUnitConfig;
-            }
-            return locations.get(locationId).getMessage();
-        } catch (CouldNotPerformException | NullPointerException ex) {
-            // null pointer can occur if the registry is shutting down between the "contains" check and the "get".
-            throw new NotAvailableException("LocationConfig[" + locationId + "]", ex);
-        }
+    static UnitConfig getLocationUnitConfig(final String locationId, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations) throws NotAvailableException {
+        return LOCATION_INDEX.getLocationUnitConfig(locationId, locations);
     }
 
-    private static PermissionConfig mergePermissionConfigs(final PermissionConfig unitPermissionConfig, final PermissionConfig parentLocationPermissionConfig) throws CouldNotPerformException {
+    static PermissionConfig mergePermissionConfigs(final PermissionConfig unitPermissionConfig, final PermissionConfig parentLocationPermissionConfig) throws CouldNotPerformException {
         if (unitPermissionConfig == null) {
             throw new NotAvailableException("UserPermissionConfig");
         }
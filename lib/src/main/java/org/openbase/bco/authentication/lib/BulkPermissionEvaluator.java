@@ -0,0 +1,179 @@
+package org.openbase.bco.authentication.lib;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.openbase.jul.exception.CouldNotPerformException;
+import org.openbase.jul.exception.printer.ExceptionPrinter;
+import org.openbase.jul.exception.printer.LogLevel;
+import org.openbase.jul.extension.protobuf.IdentifiableMessage;
+import org.openbase.type.domotic.authentication.UserClientPairType.UserClientPair;
+import org.openbase.type.domotic.unit.UnitConfigType.UnitConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Evaluates the permissions of a user client pair for many units at once.
+ * <p>
+ * The groups of the user and the client are resolved only once and every location is evaluated only once
+ * because the readability of the location hierarchy is memorized per resolved location.
+ * Large collections of units are split and evaluated in parallel on the common fork join pool.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+class BulkPermissionEvaluator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkPermissionEvaluator.class);
+
+    /**
+     * Number of units below which the evaluation is not split any further.
+     */
+    static final int PARALLEL_THRESHOLD = 1024;
+
+    private final PermissionConfigCache permissionConfigCache;
+    private final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations;
+    private final long locationsVersion;
+    private final Principal user;
+    private final Principal client;
+
+    BulkPermissionEvaluator(final UserClientPair userClientPair,
+                            final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups,
+                            final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations,
+                            final long locationsVersion,
+                            final PermissionConfigCache permissionConfigCache,
+                            final GroupMembershipIndex groupMembershipIndex) {
+        this.permissionConfigCache = permissionConfigCache;
+        this.locations = locations;
+        this.locationsVersion = locationsVersion;
+        this.user = new Principal(userClientPair.getUserId(), groups, groupMembershipIndex);
+        this.client = new Principal(userClientPair.getClientId(), groups, groupMembershipIndex);
+    }
+
+    UnitPermissions evaluate(final List<UnitConfig> unitConfigs) {
+        // the locations are validated once so that all units are resolved by the same snapshot
+        final PermissionConfigCache.Snapshot snapshot = permissionConfigCache.getSnapshot(locations, locationsVersion);
+        if (unitConfigs.size() < PARALLEL_THRESHOLD) {
+            return evaluate(snapshot, unitConfigs, 0, unitConfigs.size());
+        }
+        return ForkJoinPool.commonPool().invoke(new EvaluationTask(snapshot, unitConfigs, 0, unitConfigs.size()));
+    }
+
+    private UnitPermissions evaluate(final PermissionConfigCache.Snapshot snapshot, final List<UnitConfig> unitConfigs, final int from, final int to) {
+        final UnitPermissions unitPermissions = new UnitPermissions();
+        for (int i = from; i < to; i++) {
+            final UnitConfig unitConfig = unitConfigs.get(i);
+            final PermissionConfigCache.Entry entry;
+            try {
+                entry = snapshot.resolve(unitConfig);
+            } catch (CouldNotPerformException ex) {
+                ExceptionPrinter.printHistory("can not perform the canDo check! Permission will be denied!", ex, LOGGER, LogLevel.WARN);
+                continue;
+            }
+            // the permissions of the user and the client are combined but each of them has to be able to read the location hierarchy
+            unitPermissions.add(unitConfig.getId(), user.getPermissionMask(entry) | client.getPermissionMask(entry));
+        }
+        return unitPermissions;
+    }
+
+    private class EvaluationTask extends RecursiveTask<UnitPermissions> {
+
+        private final PermissionConfigCache.Snapshot snapshot;
+        private final List<UnitConfig> unitConfigs;
+        private final int from;
+        private final int to;
+
+        private EvaluationTask(final PermissionConfigCache.Snapshot snapshot, final List<UnitConfig> unitConfigs, final int from, final int to) {
+            this.snapshot = snapshot;
+            this.unitConfigs = unitConfigs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected UnitPermissions compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                return evaluate(snapshot, unitConfigs, from, to);
+            }
+
+            final int middle = (from + to) >>> 1;
+            final EvaluationTask left = new EvaluationTask(snapshot, unitConfigs, from, middle);
+            left.fork();
+            final UnitPermissions unitPermissions = new EvaluationTask(snapshot, unitConfigs, middle, to).compute();
+            unitPermissions.addAll(left.join());
+            return unitPermissions;
+        }
+    }
+
+    private static class Principal {
+
+        private final String id;
+        private final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups;
+        private final GroupMembershipIndex groupMembershipIndex;
+        private final Set<String> groupIds;
+        private final Map<PermissionConfigCache.Entry, Boolean> readableMap;
+
+        private Principal(final String id, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups, final GroupMembershipIndex groupMembershipIndex) {
+            this.id = id;
+            this.groups = groups;
+            this.groupMembershipIndex = groupMembershipIndex;
+            this.groupIds = id.isEmpty() || groups == null ? Collections.emptySet() : groupMembershipIndex.getGroupIds(id, groups);
+            // entries do not override equals so they are compared by identity
+            this.readableMap = new ConcurrentHashMap<>();
+        }
+
+        private int getPermissionMask(final PermissionConfigCache.Entry entry) {
+            final PermissionConfigCache.Entry parentEntry = entry.getParentEntry();
+            if (parentEntry != null && !isReadable(parentEntry)) {
+                return CompiledPermissionConfig.NONE;
+            }
+            return evaluate(entry);
+        }
+
+        private boolean isReadable(final PermissionConfigCache.Entry entry) {
+            final Boolean readable = readableMap.get(entry);
+            if (readable != null) {
+                return readable;
+            }
+
+            final boolean result = (getPermissionMask(entry) & CompiledPermissionConfig.READ) != 0;
+            readableMap.put(entry, result);
+            return result;
+        }
+
+        private int evaluate(final PermissionConfigCache.Entry entry) {
+            if (groups == null) {
+                // without group information only the owner and other permissions apply
+                return entry.getCompiledPermissionConfig().getPermissionMask(id, null, groupMembershipIndex);
+            }
+            return entry.getCompiledPermissionConfig().getPermissionMask(id, groupIds);
+        }
+    }
+}
@@ -30,6 +30,8 @@ import org.openbase.jul.schedule.SyncObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.Semaphore;
+
 /**
  * @author <a href="mailto:thuxohl@techfak.uni-bielefeld.de">Tamino Huxohl</a>
  */
@@ -42,6 +44,12 @@ public class CachedAuthenticationRemote {
     private static final SyncObject REMOTE_LOCK = new SyncObject("CachedAuthenticationRemote");
     private static final SyncObject REGISTY_LOCK = new SyncObject("RegistyLock");
 
+    /**
+     * Maximal number of reconnects to the authenticator performed concurrently by this process.
+     */
+    public static final int MAX_CONCURRENT_RECONNECTS = 2;
+    private static final Semaphore RECONNECT_PERMITS = new Semaphore(MAX_CONCURRENT_RECONNECTS, true);
+
     /**
      * Setup shutdown hook
      */
@@ -58,6 +66,24 @@ public class CachedAuthenticationRemote {
         }
     }
 
+    /**
+     * Acquire a permit to reconnect to the authenticator if one is available. This limits the number of logins a
+     * process performs concurrently after its sessions became invalid, e.g. because the authenticator has been restarted.
+     * Each acquired permit has to be released by calling {@link #releaseReconnectPermit()}.
+     *
+     * @return true if a permit has been acquired.
+     */
+    public static boolean tryAcquireReconnectPermit() {
+        return RECONNECT_PERMITS.tryAcquire();
+    }
+
+    /**
+     * Release a permit acquired by {@link #tryAcquireReconnectPermit()}.
+     */
+    public static void releaseReconnectPermit() {
+        RECONNECT_PERMITS.release();
+    }
+
     /**
      * Get a cashed authenticator remote. The first call to this method will create a new authenticator remote
      * which is activated which will be returned. This instance is saved and will be returned on all following calls.
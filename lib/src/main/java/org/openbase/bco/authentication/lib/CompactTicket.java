@@ -0,0 +1,311 @@
+package org.openbase.bco.authentication.lib;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import org.openbase.jul.exception.CouldNotPerformException;
+import org.openbase.type.domotic.authentication.TicketType.Ticket;
+import org.openbase.type.domotic.authentication.TicketType.TicketOrBuilder;
+import org.openbase.type.domotic.authentication.UserClientPairType.UserClientPair;
+import org.openbase.type.timing.IntervalType.Interval;
+import org.openbase.type.timing.TimestampType.Timestamp;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary format of tickets which replaces encrypting the Java serialized {@link Ticket}.
+ * <p>
+ * A sealed ticket consists of a version, the id of the secret key used to seal it, a nonce and the ticket content
+ * sealed with AES-GCM. The version and key id are authenticated as well, so that they cannot be altered. The content
+ * contains the validity period as varints, the user client pair and the session key. Since the key id is readable
+ * without the key, verifiers can reject tickets sealed with another key before decrypting them.
+ * <p>
+ * User client pairs are interned while opening tickets, so that repeated verifications of tickets of the same
+ * user and client share a single instance. The interned pairs are cleared once their maximal number is exceeded.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class CompactTicket {
+
+    private static final byte VERSION = 1;
+    private static final int KEY_ID_LENGTH = Integer.BYTES;
+    private static final int HEADER_LENGTH = 1 + KEY_ID_LENGTH;
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+
+    private static final String CIPHER_ALGORITHM = "AES";
+    private static final String CIPHER_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final byte[] KEY_ID_LABEL = "ticket-key-id".getBytes();
+
+    private static final int FLAG_USER_ID = 1;
+    private static final int FLAG_CLIENT_ID = 1 << 1;
+
+    private static final int MAX_INTERNED_USER_CLIENT_PAIRS = 1024;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final ThreadLocal<Cipher> CIPHER = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(CIPHER_TRANSFORMATION);
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("Cipher transformation[" + CIPHER_TRANSFORMATION + "] not available", ex);
+        }
+    });
+
+    private static final ThreadLocal<Mac> MAC = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance(MAC_ALGORITHM);
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("MAC algorithm[" + MAC_ALGORITHM + "] not available", ex);
+        }
+    });
+
+    private static final Map<ByteString, UserClientPair> USER_CLIENT_PAIR_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * Seal a ticket with a secret key.
+     *
+     * @param ticket    the ticket which has to contain a validity period, a user client pair and a session key.
+     * @param secretKey the secret key of the verifier of the ticket.
+     *
+     * @return the sealed ticket.
+     *
+     * @throws CouldNotPerformException if the ticket cannot be sealed.
+     */
+    public static ByteString seal(final TicketOrBuilder ticket, final byte[] secretKey) throws CouldNotPerformException {
+        final byte[] header = ByteBuffer.allocate(HEADER_LENGTH).put(VERSION).putInt(computeKeyId(secretKey)).array();
+        final byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+
+        try {
+            final Cipher cipher = initCipher(Cipher.ENCRYPT_MODE, secretKey, nonce, header);
+            final byte[] sealedContent = cipher.doFinal(encodeContent(ticket));
+            return ByteString.copyFrom(header).concat(ByteString.copyFrom(nonce)).concat(ByteString.copyFrom(sealedContent));
+        } catch (GeneralSecurityException ex) {
+            throw new CouldNotPerformException("Could not seal ticket", ex);
+        }
+    }
+
+    /**
+     * Open a ticket sealed by {@link #seal(TicketOrBuilder, byte[])}.
+     *
+     * @param sealedTicket the sealed ticket.
+     * @param secretKey    the secret key with which the ticket has been sealed.
+     *
+     * @return the ticket.
+     *
+     * @throws CouldNotPerformException if the ticket is malformed, has been sealed with another key or has been altered.
+     */
+    public static Ticket open(final ByteString sealedTicket, final byte[] secretKey) throws CouldNotPerformException {
+        final int keyId = getKeyId(sealedTicket);
+        if (keyId != computeKeyId(secretKey)) {
+            throw newUnknownKeyException(keyId);
+        }
+        return openWithKey(sealedTicket, secretKey);
+    }
+
+    /**
+     * Open a ticket sealed with any version of a key ring.
+     *
+     * @param sealedTicket the sealed ticket.
+     * @param keyRing      the key ring containing the key with which the ticket has been sealed.
+     *
+     * @return the ticket.
+     *
+     * @throws CouldNotPerformException if the ticket is malformed, has been sealed with a key not in the ring or has
+     *                                  been altered.
+     */
+    public static Ticket open(final ByteString sealedTicket, final SecretKeyRing keyRing) throws CouldNotPerformException {
+        final int keyId = getKeyId(sealedTicket);
+        final byte[] secretKey = keyRing.getKey(keyId);
+        if (secretKey == null) {
+            throw newUnknownKeyException(keyId);
+        }
+        return openWithKey(sealedTicket, secretKey);
+    }
+
+    private static CouldNotPerformException newUnknownKeyException(final int keyId) {
+        // fail like decrypting with a wrong key so that clients re-login if the key has changed
+        return new CouldNotPerformException("Could not open ticket", new AEADBadTagException("Ticket has been sealed with unknown key[" + keyId + "]"));
+    }
+
+    private static Ticket openWithKey(final ByteString sealedTicket, final byte[] secretKey) throws CouldNotPerformException {
+        if (sealedTicket.size() < HEADER_LENGTH + NONCE_LENGTH + TAG_LENGTH) {
+            throw new CouldNotPerformException("Could not open ticket because it is too short");
+        }
+
+        final byte[] ticketBytes = sealedTicket.toByteArray();
+        try {
+            final GCMParameterSpec parameterSpec = new GCMParameterSpec(TAG_LENGTH * Byte.SIZE, ticketBytes, HEADER_LENGTH, NONCE_LENGTH);
+            final Cipher cipher = CIPHER.get();
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(secretKey, CIPHER_ALGORITHM), parameterSpec);
+            cipher.updateAAD(ticketBytes, 0, HEADER_LENGTH);
+            final int contentOffset = HEADER_LENGTH + NONCE_LENGTH;
+            return decodeContent(cipher.doFinal(ticketBytes, contentOffset, ticketBytes.length - contentOffset));
+        } catch (GeneralSecurityException ex) {
+            throw new CouldNotPerformException("Could not open ticket", ex);
+        }
+    }
+
+    /**
+     * Get the id of the key with which a ticket has been sealed without opening it.
+     *
+     * @param sealedTicket the sealed ticket.
+     *
+     * @return the key id.
+     *
+     * @throws CouldNotPerformException if the ticket is not in the compact format.
+     */
+    public static int getKeyId(final ByteString sealedTicket) throws CouldNotPerformException {
+        if (sealedTicket.size() < HEADER_LENGTH || sealedTicket.byteAt(0) != VERSION) {
+            throw new CouldNotPerformException("Ticket is not in the compact format");
+        }
+        return sealedTicket.substring(1, HEADER_LENGTH).asReadOnlyByteBuffer().getInt();
+    }
+
+    /**
+     * Compute the id of a secret key as contained in the tickets sealed with it.
+     *
+     * @param secretKey the secret key.
+     *
+     * @return the id of the key.
+     *
+     * @throws CouldNotPerformException if the id cannot be computed.
+     */
+    public static int computeKeyId(final byte[] secretKey) throws CouldNotPerformException {
+        try {
+            final Mac mac = MAC.get();
+            mac.init(new SecretKeySpec(secretKey, MAC_ALGORITHM));
+            return ByteBuffer.wrap(mac.doFinal(KEY_ID_LABEL)).getInt();
+        } catch (GeneralSecurityException ex) {
+            throw new CouldNotPerformException("Could not compute key id", ex);
+        }
+    }
+
+    private static Cipher initCipher(final int mode, final byte[] secretKey, final byte[] nonce, final byte[] header) throws GeneralSecurityException {
+        final Cipher cipher = CIPHER.get();
+        cipher.init(mode, new SecretKeySpec(secretKey, CIPHER_ALGORITHM), new GCMParameterSpec(TAG_LENGTH * Byte.SIZE, nonce));
+        cipher.updateAAD(header);
+        return cipher;
+    }
+
+    private static byte[] encodeContent(final TicketOrBuilder ticket) throws CouldNotPerformException {
+        try {
+            final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            final CodedOutputStream output = CodedOutputStream.newInstance(byteArrayOutputStream);
+
+            // validity period as begin and duration in microseconds
+            final long begin = ticket.getValidityPeriod().getBegin().getTime();
+            output.writeUInt64NoTag(begin);
+            output.writeUInt64NoTag(ticket.getValidityPeriod().getEnd().getTime() - begin);
+
+            output.writeBytesNoTag(encodeUserClientPair(ticket.getUserClientPair()));
+            output.writeBytesNoTag(ticket.getSessionKeyBytes());
+            output.flush();
+            return byteArrayOutputStream.toByteArray();
+        } catch (IOException ex) {
+            throw new CouldNotPerformException("Could not encode ticket", ex);
+        }
+    }
+
+    private static Ticket decodeContent(final byte[] content) throws CouldNotPerformException {
+        try {
+            final CodedInputStream input = CodedInputStream.newInstance(content);
+            final long begin = input.readUInt64();
+            final long end = begin + input.readUInt64();
+
+            final Ticket.Builder ticket = Ticket.newBuilder();
+            ticket.setValidityPeriod(Interval.newBuilder()
+                    .setBegin(Timestamp.newBuilder().setTime(begin))
+                    .setEnd(Timestamp.newBuilder().setTime(end)));
+            ticket.setUserClientPair(decodeUserClientPair(input.readBytes()));
+            ticket.setSessionKeyBytes(input.readBytes());
+            return ticket.build();
+        } catch (IOException ex) {
+            throw new CouldNotPerformException("Could not decode ticket", ex);
+        }
+    }
+
+    private static ByteString encodeUserClientPair(final UserClientPair userClientPair) throws IOException {
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        final CodedOutputStream output = CodedOutputStream.newInstance(byteArrayOutputStream);
+
+        // keep which ids are set because the pair is compared to the one of the authenticator
+        int flags = 0;
+        if (userClientPair.hasUserId()) {
+            flags |= FLAG_USER_ID;
+        }
+        if (userClientPair.hasClientId()) {
+            flags |= FLAG_CLIENT_ID;
+        }
+        output.writeUInt32NoTag(flags);
+        if (userClientPair.hasUserId()) {
+            output.writeStringNoTag(userClientPair.getUserId());
+        }
+        if (userClientPair.hasClientId()) {
+            output.writeStringNoTag(userClientPair.getClientId());
+        }
+        output.flush();
+        return ByteString.copyFrom(byteArrayOutputStream.toByteArray());
+    }
+
+    private static UserClientPair decodeUserClientPair(final ByteString encodedUserClientPair) throws IOException {
+        final UserClientPair internedUserClientPair = USER_CLIENT_PAIR_MAP.get(encodedUserClientPair);
+        if (internedUserClientPair != null) {
+            return internedUserClientPair;
+        }
+
+        final CodedInputStream input = encodedUserClientPair.newCodedInput();
+        final int flags = input.readUInt32();
+        final UserClientPair.Builder userClientPair = UserClientPair.newBuilder();
+        if ((flags & FLAG_USER_ID) != 0) {
+            userClientPair.setUserId(input.readString());
+        }
+        if ((flags & FLAG_CLIENT_ID) != 0) {
+            userClientPair.setClientId(input.readString());
+        }
+
+        final UserClientPair result = userClientPair.build();
+        if (USER_CLIENT_PAIR_MAP.size() >= MAX_INTERNED_USER_CLIENT_PAIRS) {
+            // clearing instead of evicting the eldest pair keeps lookups free of locks
+            USER_CLIENT_PAIR_MAP.clear();
+        }
+        USER_CLIENT_PAIR_MAP.put(encodedUserClientPair, result);
+        return result;
+    }
+}
@@ -0,0 +1,207 @@
+package org.openbase.bco.authentication.lib;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.openbase.jul.extension.protobuf.IdentifiableMessage;
+import org.openbase.type.domotic.authentication.PermissionConfigType.PermissionConfig;
+import org.openbase.type.domotic.authentication.PermissionConfigType.PermissionConfig.MapFieldEntry;
+import org.openbase.type.domotic.authentication.PermissionType.Permission;
+import org.openbase.type.domotic.unit.UnitConfigType.UnitConfig;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Effective permission config compiled into bitmasks so that all permission types of a user are evaluated in a single pass.
+ * A permission is represented by a combination of the bits {@link #READ}, {@link #WRITE} and {@link #ACCESS}.
+ * Multiple entries for the same group are combined and groups without any permission are dropped.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class CompiledPermissionConfig {
+
+    public static final int NONE = 0;
+    public static final int READ = 1;
+    public static final int WRITE = 1 << 1;
+    public static final int ACCESS = 1 << 2;
+    public static final int ALL = READ | WRITE | ACCESS;
+
+    private final int otherMask;
+    private final String ownerId;
+    private final int ownerMask;
+    private final String[] groupIds;
+    private final int[] groupMasks;
+
+    public CompiledPermissionConfig(final PermissionConfig permissionConfig) {
+        this.otherMask = toMask(permissionConfig.getOtherPermission());
+        this.ownerId = permissionConfig.getOwnerId();
+        this.ownerMask = toMask(permissionConfig.getOwnerPermission());
+
+        final Map<String, Integer> groupMaskMap = new LinkedHashMap<>();
+        for (final MapFieldEntry entry : permissionConfig.getGroupPermissionList()) {
+            final int mask = toMask(entry.getPermission());
+            if (mask != NONE) {
+                groupMaskMap.merge(entry.getGroupId(), mask, (mask1, mask2) -> mask1 | mask2);
+            }
+        }
+
+        this.groupIds = new String[groupMaskMap.size()];
+        this.groupMasks = new int[groupMaskMap.size()];
+        int i = 0;
+        for (final Map.Entry<String, Integer> entry : groupMaskMap.entrySet()) {
+            groupIds[i] = entry.getKey();
+            groupMasks[i] = entry.getValue();
+            i++;
+        }
+    }
+
+    /**
+     * Evaluate the permissions of a user.
+     *
+     * @param userId               the id of the user.
+     * @param groups               all available groups in the system, indexed by their group ID.
+     * @param groupMembershipIndex the index used to resolve the members of the groups.
+     *
+     * @return the permission bitmask of the user.
+     */
+    public int getPermissionMask(final String userId, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups, final GroupMembershipIndex groupMembershipIndex) {
+        int mask = getUserPermissionMask(userId);
+
+        // groups only apply to users and only if group information is available
+        if (userId == null || userId.isEmpty() || groups == null) {
+            return mask;
+        }
+
+        for (int i = 0; i < groupIds.length && mask != ALL; i++) {
+            // skip groups which cannot grant any further permissions before resolving their members
+            if ((mask | groupMasks[i]) == mask) {
+                continue;
+            }
+
+            // every user is also a group so check if the group id matches the user id
+            if (groupIds[i].equals(userId) || groupMembershipIndex.isMember(groupIds[i], userId, groups)) {
+                mask |= groupMasks[i];
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Evaluate the permissions of a user whose groups are already known.
+     * This is the preferred way if many units are evaluated for the same user.
+     *
+     * @param userId   the id of the user.
+     * @param groupIds the ids of all groups the user is a member of, e.g. resolved via {@link GroupMembershipIndex#getGroupIds(String, Map)}.
+     *
+     * @return the permission bitmask of the user.
+     */
+    public int getPermissionMask(final String userId, final Set<String> groupIds) {
+        int mask = getUserPermissionMask(userId);
+
+        if (userId == null || userId.isEmpty()) {
+            return mask;
+        }
+
+        for (int i = 0; i < this.groupIds.length && mask != ALL; i++) {
+            if ((mask | groupMasks[i]) == mask) {
+                continue;
+            }
+
+            if (this.groupIds[i].equals(userId) || groupIds.contains(this.groupIds[i])) {
+                mask |= groupMasks[i];
+            }
+        }
+        return mask;
+    }
+
+    private int getUserPermissionMask(final String userId) {
+        // If no user was given, only "other" rights apply.
+        if (userId == null || userId.isEmpty()) {
+            return otherMask;
+        }
+
+        if (ownerId.equals(userId)) {
+            return otherMask | ownerMask;
+        }
+        return otherMask;
+    }
+
+    /**
+     * Convert a permission into a bitmask.
+     *
+     * @param permission the permission to convert.
+     *
+     * @return the bitmask of the permission.
+     */
+    public static int toMask(final Permission permission) {
+        int mask = NONE;
+        if (permission.getRead()) {
+            mask |= READ;
+        }
+        if (permission.getWrite()) {
+            mask |= WRITE;
+        }
+        if (permission.getAccess()) {
+            mask |= ACCESS;
+        }
+        return mask;
+    }
+
+    /**
+     * Convert a bitmask into a permission.
+     *
+     * @param mask the bitmask to convert.
+     *
+     * @return a permission with all values set according to the bitmask.
+     */
+    public static Permission toPermission(final int mask) {
+        return Permission.newBuilder()
+                .setAccess((mask & ACCESS) != 0)
+                .setRead((mask & READ) != 0)
+                .setWrite((mask & WRITE) != 0)
+                .build();
+    }
+
+    /**
+     * Check if a bitmask contains a permission type.
+     *
+     * @param mask the bitmask to check.
+     * @param type the permission type.
+     *
+     * @return true if the bit of the permission type is set.
+     */
+    public static boolean permitted(final int mask, final AuthorizationHelper.PermissionType type) {
+        switch (type) {
+            case READ:
+                return (mask & READ) != 0;
+            case WRITE:
+                return (mask & WRITE) != 0;
+            case ACCESS:
+                return (mask & ACCESS) != 0;
+            default:
+                return false;
+        }
+    }
+}
@@ -49,6 +49,13 @@ public class CredentialStore extends AbstractProtectedStore<LoginCredentials, Lo
      */
     public static final String SERVICE_SERVER_ID = "serviceServer";
 
+    /**
+     * Separator between the id of a secret key and its version, see {@link #setKeyRing(String, SecretKeyRing)}.
+     */
+    public static final String KEY_VERSION_SEPARATOR = "@";
+    private static final String PREVIOUS_KEY_VERSION = KEY_VERSION_SEPARATOR + "previous";
+    private static final String NEXT_KEY_VERSION = KEY_VERSION_SEPARATOR + "next";
+
     public CredentialStore() {
         super(new ProtoBufFileProcessor(new CredentialEncodingTransformer()));
     }
@@ -84,6 +91,61 @@ public class CredentialStore extends AbstractProtectedStore<LoginCredentials, Lo
         addEntry(userId, loginCredentials);
     }
 
+    /**
+     * Get the versions of a secret key. The current version is stored with the id of the key, so that
+     * keys stored before versioning are read as a key ring only containing a current key.
+     *
+     * @param keyId the id of the key.
+     *
+     * @return the key ring containing all stored versions.
+     *
+     * @throws CouldNotPerformException if the current version of the key is not stored or the ring cannot be created.
+     */
+    public SecretKeyRing getKeyRing(final String keyId) throws CouldNotPerformException {
+        final byte[] currentKey = getCredentials(keyId).getCredentials().toByteArray();
+        final byte[] previousKey = hasEntry(keyId + PREVIOUS_KEY_VERSION) ? getCredentials(keyId + PREVIOUS_KEY_VERSION).getCredentials().toByteArray() : null;
+        final byte[] nextKey = hasEntry(keyId + NEXT_KEY_VERSION) ? getCredentials(keyId + NEXT_KEY_VERSION).getCredentials().toByteArray() : null;
+        return new SecretKeyRing(previousKey, currentKey, nextKey);
+    }
+
+    /**
+     * Store all versions of a secret key. Versions besides the current one are stored as separate entries
+     * with the id of the key, the {@link #KEY_VERSION_SEPARATOR} and the version.
+     *
+     * @param keyId   the id of the key.
+     * @param keyRing the versions of the key.
+     */
+    public void setKeyRing(final String keyId, final SecretKeyRing keyRing) {
+        setKeyVersion(keyId + PREVIOUS_KEY_VERSION, keyRing.getPreviousKey());
+        setKeyVersion(keyId, keyRing.getCurrentKey());
+        setKeyVersion(keyId + NEXT_KEY_VERSION, keyRing.getNextKey());
+    }
+
+    private void setKeyVersion(final String id, final byte[] key) {
+        if (key == null) {
+            if (hasEntry(id)) {
+                removeEntry(id);
+            }
+            return;
+        }
+        addCredentials(id, key, false, true);
+    }
+
+    /**
+     * Query how many entries store versions of secret keys besides their current version.
+     *
+     * @return the number of entries containing previous or next versions of keys.
+     */
+    public int getKeyVersionCount() {
+        int keyVersionCount = 0;
+        for (String id : getEntryMap().keySet()) {
+            if (id.endsWith(PREVIOUS_KEY_VERSION) || id.endsWith(NEXT_KEY_VERSION)) {
+                keyVersionCount++;
+            }
+        }
+        return keyVersionCount;
+    }
+
     /**
      * Tells whether a given user has administrator permissions.
      *
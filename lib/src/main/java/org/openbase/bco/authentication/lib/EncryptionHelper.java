@@ -169,6 +169,79 @@ public class EncryptionHelper {
      * @throws CouldNotPerformException if encrypting fails encryption.
      */
     public static byte[] encrypt(final Serializable object, final byte[] key, final boolean symmetric) throws CouldNotPerformException {
+        return encryptSerialized(serialize(object), key, symmetric);
+    }
+
+    /**
+     * Serialize an object into a byte array as done before encrypting it.
+     * This allows to encrypt the same object for different keys without serializing it again.
+     *
+     * @param object the object to serialize.
+     *
+     * @return the serialized object.
+     *
+     * @throws CouldNotPerformException if the object cannot be serialized.
+     */
+    public static byte[] serialize(final Serializable object) throws CouldNotPerformException {
+        try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream()) {
+            try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream)) {
+                objectOutputStream.writeObject(object);
+                objectOutputStream.flush();
+                return byteArrayOutputStream.toByteArray();
+            }
+        } catch (IOException ex) {
+            throw new CouldNotPerformException("Could not serialize object[" + object + "]", ex);
+        }
+    }
+
+    /**
+     * Deserialize an object serialized by {@link #serialize(Serializable)}.
+     *
+     * @param <T>              the type to which the deserialized object is casted
+     * @param serializedObject the serialized object.
+     * @param serializedClass  the class to which the deserialized object is cast
+     *
+     * @return the deserialized object.
+     *
+     * @throws CouldNotPerformException if the object cannot be deserialized or is not an instance of the given class.
+     */
+    public static <T> T deserialize(final byte[] serializedObject, final Class<T> serializedClass) throws CouldNotPerformException {
+        try (ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(serializedObject)) {
+            try (ObjectInputStream objectInputStream = new ObjectInputStream(byteArrayInputStream)) {
+                return serializedClass.cast(objectInputStream.readObject());
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException ex) {
+            throw new CouldNotPerformException("Could not deserialize byte array to object of type[" + serializedClass.getName() + "]", ex);
+        }
+    }
+
+    /**
+     * Encrypts an object serialized by {@link #serialize(Serializable)} into a ByteString using a symmetric key.
+     * The result can be decrypted in the same way as objects encrypted by {@link #encryptSymmetric(Serializable, byte[])}.
+     *
+     * @param serializedObject the serialized object to be encrypted
+     * @param key              byte[] to encrypt object with
+     *
+     * @return Returns encrypted object as ByteString
+     *
+     * @throws CouldNotPerformException if encrypting fails encryption.
+     */
+    public static ByteString encryptSymmetricSerialized(final byte[] serializedObject, final byte[] key) throws CouldNotPerformException {
+        return ByteString.copyFrom(encryptSerialized(serializedObject, key, true));
+    }
+
+    /**
+     * Encrypts an object serialized by {@link #serialize(Serializable)}.
+     *
+     * @param serializedObject the serialized object to be encrypted
+     * @param key              byte[] to encrypt object with
+     * @param symmetric        if the encryption should use a symmetric or asymmetric key
+     *
+     * @return Returns encrypted object as byte array
+     *
+     * @throws CouldNotPerformException if encrypting fails encryption.
+     */
+    public static byte[] encryptSerialized(final byte[] serializedObject, final byte[] key, final boolean symmetric) throws CouldNotPerformException {
         try {
             Key keyType;
             Cipher cipher;
@@ -183,17 +256,9 @@ public class EncryptionHelper {
             cipher.init(Cipher.ENCRYPT_MODE, keyType);
 
             // cipher
-            try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream()) {
-                try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream)) {
-                    objectOutputStream.writeObject(object);
-                    objectOutputStream.flush();
-                    return cipher.doFinal(byteArrayOutputStream.toByteArray());
-                }
-            }
+            return cipher.doFinal(serializedObject);
         } catch (NoSuchAlgorithmException | NoSuchPaddingException | IllegalBlockSizeException | InvalidKeyException | BadPaddingException | InvalidKeySpecException ex) {
-            throw new FatalImplementationErrorException("Unable to encrypt object[" + object + "]", EncryptionHelper.class, ex);
-        } catch (IOException ex) {
-            throw new CouldNotPerformException("Could not encrypt object[" + object + "]", ex);
+            throw new FatalImplementationErrorException("Unable to encrypt serialized object", EncryptionHelper.class, ex);
         }
     }
 
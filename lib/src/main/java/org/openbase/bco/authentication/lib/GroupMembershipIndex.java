@@ -0,0 +1,191 @@
+package org.openbase.bco.authentication.lib;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.openbase.jul.extension.protobuf.IdentifiableMessage;
+import org.openbase.type.domotic.unit.UnitConfigType.UnitConfig;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the members of authorization groups used by the {@link AuthorizationHelper}.
+ * <p>
+ * For every group the member ids are stored in a hash set together with the group config they were read from.
+ * Additionally an inverted index from user ids to the ids of the groups they are a member of is maintained.
+ * Groups are re-indexed lazily if their config in the group map has been replaced or explicitly via {@link #update(UnitConfig)}
+ * and {@link #remove(String)}.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class GroupMembershipIndex {
+
+    private final Map<String, Membership> membershipMap;
+    private final Map<String, Set<String>> userGroupMap;
+
+    public GroupMembershipIndex() {
+        this.membershipMap = new ConcurrentHashMap<>();
+        this.userGroupMap = new HashMap<>();
+    }
+
+    /**
+     * Check if a user is a member of a group.
+     *
+     * @param groupId the id of the group.
+     * @param userId  the id of the user.
+     * @param groups  all available groups in the system, indexed by their group ID.
+     *
+     * @return true if the group exists and the user is one of its members.
+     */
+    public boolean isMember(final String groupId, final String userId, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups) {
+        final IdentifiableMessage<String, UnitConfig, UnitConfig.Builder> group = groups.get(groupId);
+        if (group == null) {
+            // group can be removed in between if the registry is updated concurrently
+            return false;
+        }
+
+        final UnitConfig groupConfig = group.getMessage();
+        Membership membership = membershipMap.get(groupId);
+        if (membership == null || membership.getGroupConfig() != groupConfig) {
+            membership = update(groupId, groupConfig);
+        }
+        return membership.getMemberIds().contains(userId);
+    }
+
+    /**
+     * Get the ids of all groups a user is a member of.
+     * Groups which have been changed or removed since they were indexed are updated before.
+     *
+     * @param userId the id of the user.
+     * @param groups all available groups in the system, indexed by their group ID.
+     *
+     * @return an unmodifiable set of group ids.
+     */
+    public Set<String> getGroupIds(final String userId, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups) {
+        synchronized (userGroupMap) {
+            synchronize(groups);
+            final Set<String> groupIds = userGroupMap.get(userId);
+            if (groupIds == null) {
+                return Collections.emptySet();
+            }
+            return Collections.unmodifiableSet(new HashSet<>(groupIds));
+        }
+    }
+
+    /**
+     * Index the members of a new or changed group.
+     *
+     * @param groupConfig the unit config of the authorization group.
+     */
+    public void update(final UnitConfig groupConfig) {
+        update(groupConfig.getId(), groupConfig);
+    }
+
+    /**
+     * Remove a group from the index.
+     *
+     * @param groupId the id of the removed group.
+     */
+    public void remove(final String groupId) {
+        synchronized (userGroupMap) {
+            final Membership membership = membershipMap.remove(groupId);
+            if (membership != null) {
+                updateUserGroups(groupId, membership.getMemberIds(), Collections.emptySet());
+            }
+        }
+    }
+
+    private Membership update(final String groupId, final UnitConfig groupConfig) {
+        synchronized (userGroupMap) {
+            final Membership oldMembership = membershipMap.get(groupId);
+            if (oldMembership != null && oldMembership.getGroupConfig() == groupConfig) {
+                // already updated by another thread
+                return oldMembership;
+            }
+
+            final Membership membership = new Membership(groupConfig);
+            membershipMap.put(groupId, membership);
+            updateUserGroups(groupId, oldMembership == null ? Collections.emptySet() : oldMembership.getMemberIds(), membership.getMemberIds());
+            return membership;
+        }
+    }
+
+    private void synchronize(final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups) {
+        for (final Map.Entry<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> entry : groups.entrySet()) {
+            final UnitConfig groupConfig = entry.getValue().getMessage();
+            final Membership membership = membershipMap.get(entry.getKey());
+            if (membership == null || membership.getGroupConfig() != groupConfig) {
+                update(entry.getKey(), groupConfig);
+            }
+        }
+
+        for (final String groupId : membershipMap.keySet()) {
+            if (!groups.containsKey(groupId)) {
+                remove(groupId);
+            }
+        }
+    }
+
+    private void updateUserGroups(final String groupId, final Set<String> oldMemberIds, final Set<String> newMemberIds) {
+        for (final String memberId : oldMemberIds) {
+            if (newMemberIds.contains(memberId)) {
+                continue;
+            }
+            final Set<String> groupIds = userGroupMap.get(memberId);
+            if (groupIds != null) {
+                groupIds.remove(groupId);
+                if (groupIds.isEmpty()) {
+                    userGroupMap.remove(memberId);
+                }
+            }
+        }
+
+        for (final String memberId : newMemberIds) {
+            userGroupMap.computeIfAbsent(memberId, key -> new HashSet<>()).add(groupId);
+        }
+    }
+
+    private static class Membership {
+
+        private final UnitConfig groupConfig;
+        private final Set<String> memberIds;
+
+        private Membership(final UnitConfig groupConfig) {
+            this.groupConfig = groupConfig;
+            this.memberIds = Collections.unmodifiableSet(new HashSet<>(groupConfig.getAuthorizationGroupConfig().getMemberIdList()));
+        }
+
+        private UnitConfig getGroupConfig() {
+            return groupConfig;
+        }
+
+        private Set<String> getMemberIds() {
+            return memberIds;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package org.openbase.bco.authentication.lib;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import com.google.protobuf.ByteString;
+import org.openbase.jul.exception.CouldNotPerformException;
+import org.openbase.type.domotic.authentication.UserClientPairType.UserClientPair;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the responses of authenticated requests identified by the user client pair of their session and a
+ * transaction id chosen by the client. If a client sends a request again, e.g. because the response got lost, the
+ * cached response is returned instead of performing the request a second time.
+ * <p>
+ * Responses are stored encrypted with the session key of the request that performed the action. If the same request
+ * is received with a new session key, e.g. after a re-login, the response is re-encrypted. Requests which are
+ * received while the same request is still being processed wait for its response. Failed requests are not cached,
+ * so that they are performed again when replayed. Requests which are still being processed are never removed, neither
+ * if they take longer than the time to live nor if the capacity is exceeded.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class IdempotencyCache {
+
+    /**
+     * Default time in milliseconds for which a response is cached.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Default maximal number of cached responses.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * Interface performing the request if its response is not cached.
+     */
+    public interface ResponseProcessable {
+
+        /**
+         * Perform the request.
+         *
+         * @return the response encrypted with the session key of the request or null if there is no response value.
+         *
+         * @throws CouldNotPerformException if the request cannot be performed.
+         */
+        ByteString process() throws CouldNotPerformException;
+    }
+
+    private final long timeToLive;
+    private final int capacity;
+    private final Map<Key, Entry> entryMap;
+
+    /**
+     * Entries with a response in the order of their expiration.
+     */
+    private final Deque<Entry> completedEntries;
+
+    /**
+     * Create an idempotency cache with the default time to live and capacity.
+     */
+    public IdempotencyCache() {
+        this(DEFAULT_TIME_TO_LIVE, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an idempotency cache.
+     *
+     * @param timeToLive the time in milliseconds for which a response is cached.
+     * @param capacity   the maximal number of cached responses. If it is exceeded the least recently cached ones are removed.
+     */
+    public IdempotencyCache(final long timeToLive, final int capacity) {
+        this.timeToLive = timeToLive;
+        this.capacity = capacity;
+        this.entryMap = new HashMap<>();
+        this.completedEntries = new ArrayDeque<>();
+    }
+
+    /**
+     * Return the response for a request. If the request has been performed before its cached response is returned.
+     * Otherwise, the processable is called and its response is cached.
+     *
+     * @param userClientPair the user client pair of the session sending the request.
+     * @param transactionId  the transaction id of the request chosen by the client.
+     * @param sessionKey     the session key of the request with which the response is encrypted.
+     * @param processable    interface performing the request.
+     *
+     * @return the response encrypted with the given session key or null if there is no response value.
+     *
+     * @throws CouldNotPerformException if the request cannot be performed or a cached response cannot be re-encrypted.
+     */
+    public ByteString process(final UserClientPair userClientPair, final long transactionId, final byte[] sessionKey, final ResponseProcessable processable) throws CouldNotPerformException {
+        final Key key = new Key(userClientPair, transactionId);
+        while (true) {
+            final Entry entry;
+            final boolean owner;
+            synchronized (entryMap) {
+                removeExpiredEntries();
+                final Entry cachedEntry = entryMap.get(key);
+                if (cachedEntry == null) {
+                    entry = new Entry(key);
+                    entryMap.put(key, entry);
+                    owner = true;
+                } else {
+                    entry = cachedEntry;
+                    owner = false;
+                }
+            }
+
+            if (owner) {
+                return perform(key, entry, sessionKey, processable);
+            }
+
+            final Response response;
+            try {
+                response = entry.response.get();
+            } catch (ExecutionException ex) {
+                // the request failed, so it is performed again
+                continue;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new CouldNotPerformException("Interrupted while waiting for the response of transaction[" + transactionId + "]", ex);
+            }
+            return response.encryptFor(sessionKey);
+        }
+    }
+
+    /**
+     * Remove all cached responses.
+     */
+    public void clear() {
+        synchronized (entryMap) {
+            entryMap.clear();
+            completedEntries.clear();
+        }
+    }
+
+    /**
+     * Get the number of cached responses including the ones of requests still being performed.
+     *
+     * @return the number of entries in this cache.
+     */
+    public int size() {
+        synchronized (entryMap) {
+            removeExpiredEntries();
+            return entryMap.size();
+        }
+    }
+
+    private ByteString perform(final Key key, final Entry entry, final byte[] sessionKey, final ResponseProcessable processable) throws CouldNotPerformException {
+        final ByteString value;
+        try {
+            value = processable.process();
+        } catch (CouldNotPerformException | RuntimeException ex) {
+            synchronized (entryMap) {
+                entryMap.remove(key, entry);
+            }
+            entry.response.completeExceptionally(ex);
+            throw ex;
+        }
+        entry.response.complete(new Response(value, sessionKey));
+
+        synchronized (entryMap) {
+            // the time to live starts with the response so the queue stays ordered by expiration
+            entry.expirationTime = System.currentTimeMillis() + timeToLive;
+            if (entryMap.get(key) == entry) {
+                completedEntries.addLast(entry);
+                while (completedEntries.size() > capacity) {
+                    final Entry eldest = completedEntries.removeFirst();
+                    entryMap.remove(eldest.key, eldest);
+                }
+            }
+        }
+        return value;
+    }
+
+    private void removeExpiredEntries() {
+        // entries of requests still being performed are not queued, so they are neither expired nor block the expiration of others
+        final long currentTime = System.currentTimeMillis();
+        while (!completedEntries.isEmpty() && completedEntries.peekFirst().expirationTime <= currentTime) {
+            final Entry entry = completedEntries.removeFirst();
+            entryMap.remove(entry.key, entry);
+        }
+    }
+
+    private static class Key {
+
+        private final UserClientPair userClientPair;
+        private final long transactionId;
+
+        private Key(final UserClientPair userClientPair, final long transactionId) {
+            this.userClientPair = userClientPair;
+            this.transactionId = transactionId;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return transactionId == key.transactionId && userClientPair.equals(key.userClientPair);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(userClientPair, transactionId);
+        }
+    }
+
+    private static class Entry {
+
+        private final Key key;
+        private final CompletableFuture<Response> response = new CompletableFuture<>();
+        private long expirationTime = Long.MAX_VALUE;
+
+        private Entry(final Key key) {
+            this.key = key;
+        }
+    }
+
+    private static class Response {
+
+        private final ByteString value;
+        private final byte[] sessionKey;
+
+        private Response(final ByteString value, final byte[] sessionKey) {
+            this.value = value;
+            this.sessionKey = sessionKey;
+        }
+
+        private ByteString encryptFor(final byte[] requestSessionKey) throws CouldNotPerformException {
+            if (value == null || Arrays.equals(sessionKey, requestSessionKey)) {
+                return value;
+            }
+            // the request has been sent again with a new session
+            return EncryptionHelper.encryptSymmetric(EncryptionHelper.decryptSymmetric(value, sessionKey, Serializable.class), requestSessionKey);
+        }
+    }
+}
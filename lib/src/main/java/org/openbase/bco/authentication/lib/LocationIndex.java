@@ -0,0 +1,475 @@
+package org.openbase.bco.authentication.lib;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.openbase.jps.core.JPService;
+import org.openbase.jul.exception.CouldNotPerformException;
+import org.openbase.jul.exception.FatalImplementationErrorException;
+import org.openbase.jul.exception.InvalidStateException;
+import org.openbase.jul.exception.NotAvailableException;
+import org.openbase.jul.extension.protobuf.IdentifiableMessage;
+import org.openbase.jul.extension.type.processing.LabelProcessor;
+import org.openbase.type.domotic.unit.UnitConfigType.UnitConfig;
+import org.openbase.type.domotic.unit.UnitTemplateType.UnitTemplate.UnitType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Index used by the {@link AuthorizationHelper} to resolve the locations of units.
+ * <p>
+ * The index builds a {@link Tree} of the location hierarchy in which every location links to its parent, so that the
+ * hierarchy above a unit can be walked without looking up every level in the location map. Trees are kept for up to
+ * {@link #MAX_TREES} location maps, so that callers using different maps do not replace the trees of each other. A tree
+ * is rebuilt as soon as a location of its map is changed, added or removed, either detected by a version of the
+ * location map or by the identity of the map and its entries. Lookups of single units without a version only validate
+ * the locations above the unit, so a tree is also reused for copies of its map which share the entries.
+ * <p>
+ * The root location is memorized so that units placed at unknown locations can fall back to it without scanning all
+ * locations. Such dangling references are logged at most once per {@link #REPORT_INTERVAL} and location id instead of
+ * on every permission check. In test mode every dangling reference is still reported as implementation error.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class LocationIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocationIndex.class);
+
+    /**
+     * Minimal time in milliseconds between two reports of the same dangling location reference.
+     */
+    public static final long REPORT_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Maximal number of dangling references which are tracked, if exceeded the tracking starts over.
+     */
+    private static final int MAX_TRACKED_REFERENCES = 1000;
+
+    /**
+     * Maximal number of location maps for which a tree is kept, if exceeded the oldest tree is dropped.
+     */
+    static final int MAX_TREES = 8;
+
+    /**
+     * Version used if the version of the location map is unknown.
+     */
+    public static final long UNKNOWN_VERSION = -1;
+
+    private final Map<String, Report> reportMap;
+    private volatile UnitConfig rootLocationUnitConfig;
+    private volatile Tree[] trees;
+
+    public LocationIndex() {
+        this.reportMap = new ConcurrentHashMap<>();
+        this.trees = new Tree[0];
+    }
+
+    /**
+     * Get a tree of the location hierarchy which is valid for all locations of the given map.
+     *
+     * @param locations all available locations in the system, indexed by their id.
+     * @param version   the version of the location map or {@link #UNKNOWN_VERSION}.
+     *
+     * @return a tree valid for the given location map.
+     */
+    Tree getTree(final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations, final long version) {
+        for (final Tree tree : trees) {
+            if (tree.locations == locations) {
+                if (tree.isValid(locations, version)) {
+                    return tree;
+                }
+                break;
+            }
+        }
+
+        final Tree newTree = new Tree(locations, version);
+        addTree(newTree);
+        return newTree;
+    }
+
+    /**
+     * Get a tree of the location hierarchy which is valid for resolving the given unit. Only the locations above the
+     * unit are validated, so if the version is unknown the tree of another map sharing these locations can be returned.
+     *
+     * @param unitConfig the unit config which is resolved.
+     * @param locations  all available locations in the system, indexed by their id.
+     * @param version    the version of the location map or {@link #UNKNOWN_VERSION}.
+     *
+     * @return a tree valid for resolving the unit.
+     */
+    Tree getTree(final UnitConfig unitConfig, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations, final long version) {
+        final Tree[] current = trees;
+        for (final Tree tree : current) {
+            if (tree.locations == locations && tree.isValid(unitConfig, locations, version)) {
+                return tree;
+            }
+        }
+
+        if (version == UNKNOWN_VERSION) {
+            // e.g. copies of a location map share its entries
+            for (final Tree tree : current) {
+                if (tree.locations != locations && tree.isValid(unitConfig, locations, version)) {
+                    return tree;
+                }
+            }
+        }
+        return getTree(locations, version);
+    }
+
+    private synchronized void addTree(final Tree tree) {
+        final Tree[] current = trees;
+        final Tree[] newTrees = new Tree[Math.min(current.length + 1, MAX_TREES)];
+        newTrees[0] = tree;
+        int size = 1;
+        for (int i = 0; i < current.length && size < newTrees.length; i++) {
+            // the outdated tree of the same map is replaced
+            if (current[i].locations != tree.locations) {
+                newTrees[size++] = current[i];
+            }
+        }
+        trees = size == newTrees.length ? newTrees : Arrays.copyOf(newTrees, size);
+    }
+
+    /**
+     * Resolve the unit config of a location. If the location is not available the root location is returned as fallback.
+     *
+     * @param locationId the id of the location.
+     * @param locations  all available locations in the system, indexed by their id.
+     *
+     * @return the unit config of the location or of the root location.
+     *
+     * @throws NotAvailableException if neither the location nor the root location are available.
+     */
+    public UnitConfig getLocationUnitConfig(final String locationId, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations) throws NotAvailableException {
+        try {
+            if (locationId.isEmpty()) {
+                throw new NotAvailableException("locationId");
+            }
+
+            final IdentifiableMessage<String, UnitConfig, UnitConfig.Builder> location = locations.get(locationId);
+            if (location == null) {
+                final UnitConfig rootLocationUnitConfig = getRootLocationUnitConfig(locations);
+                reportDanglingReference(locationId, rootLocationUnitConfig);
+                return rootLocationUnitConfig;
+            }
+            return location.getMessage();
+        } catch (CouldNotPerformException | NullPointerException ex) {
+            // null pointer can occur if the registry is shutting down while the location is resolved.
+            throw new NotAvailableException("LocationConfig[" + locationId + "]", ex);
+        }
+    }
+
+    /**
+     * Resolve the unit config of the root location. All locations are only scanned if the last resolved root location
+     * has been changed or removed.
+     *
+     * @param locations all available locations in the system, indexed by their id.
+     *
+     * @return the unit config of the root location.
+     *
+     * @throws NotAvailableException if the location map does not contain a root location.
+     */
+    public UnitConfig getRootLocationUnitConfig(final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations) throws NotAvailableException {
+        // the root locations of the trees are checked first so that callers using different maps do not rescan them
+        for (final Tree tree : trees) {
+            final Node rootNode = tree.rootNode;
+            if (rootNode != null && rootNode.matches(locations.get(rootNode.locationId))) {
+                return rootNode.unitConfig;
+            }
+        }
+
+        final UnitConfig cachedRootLocationUnitConfig = rootLocationUnitConfig;
+        if (cachedRootLocationUnitConfig != null) {
+            final IdentifiableMessage<String, UnitConfig, UnitConfig.Builder> location = locations.get(cachedRootLocationUnitConfig.getId());
+            if (location != null && location.getMessage() == cachedRootLocationUnitConfig) {
+                return cachedRootLocationUnitConfig;
+            }
+        }
+
+        try {
+            for (final IdentifiableMessage<String, UnitConfig, UnitConfig.Builder> locationUnitConfig : locations.values()) {
+                if (AuthorizationHelper.isRootLocation(locationUnitConfig.getMessage(), locations)) {
+                    rootLocationUnitConfig = locationUnitConfig.getMessage();
+                    return rootLocationUnitConfig;
+                }
+            }
+            throw new InvalidStateException("Registry does not provide a root location!");
+        } catch (CouldNotPerformException ex) {
+            throw new NotAvailableException("RootLocation", ex);
+        }
+    }
+
+    private void reportDanglingReference(final String locationId, final UnitConfig rootLocationUnitConfig) {
+        // implementation errors are never throttled during tests
+        if (JPService.testMode()) {
+            new FatalImplementationErrorException("Requested Location can not be resolved!", AuthorizationHelper.class);
+        }
+
+        if (reportMap.size() > MAX_TRACKED_REFERENCES) {
+            reportMap.clear();
+        }
+
+        final Report report = reportMap.computeIfAbsent(locationId, key -> new Report());
+        final int suppressed = report.tryReport();
+        if (suppressed < 0) {
+            return;
+        }
+
+        LOGGER.warn("Registry does not contains requested location Entry[" + locationId + "] use root location [" + LabelProcessor.getBestMatch(rootLocationUnitConfig.getLabel(), "") + ":" + rootLocationUnitConfig.getId() + "] as fallback to compute permissions."
+                + (suppressed > 0 ? " Reference was resolved " + suppressed + " more times since the last report." : ""));
+    }
+
+    /**
+     * Tree of the location hierarchy of a location map.
+     */
+    class Tree {
+
+        private final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations;
+        private final long version;
+        private final Map<String, Node> nodeMap;
+        private final Node rootNode;
+
+        private Tree(final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations, final long version) {
+            this.locations = locations;
+            this.version = version;
+            this.nodeMap = new HashMap<>();
+
+            Node root = null;
+            for (final Map.Entry<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> mapEntry : locations.entrySet()) {
+                final Node node = new Node(mapEntry.getKey(), mapEntry.getValue());
+                nodeMap.put(mapEntry.getKey(), node);
+                if (root == null && AuthorizationHelper.isRootLocation(node.unitConfig, locations)) {
+                    root = node;
+                }
+            }
+            this.rootNode = root;
+
+            // link the locations to their parents
+            for (final Node node : nodeMap.values()) {
+                if (node == rootNode) {
+                    continue;
+                }
+
+                try {
+                    node.parent = getNode(node.unitConfig.getPlacementConfig().getLocationId());
+                } catch (NotAvailableException ex) {
+                    // the parent stays unresolved
+                }
+            }
+        }
+
+        /**
+         * Resolve the node of a location. If the location is not available the root location is returned as fallback.
+         *
+         * @param locationId the id of the location.
+         *
+         * @return the node of the location or of the root location.
+         *
+         * @throws NotAvailableException if neither the location nor the root location are available.
+         */
+        Node getNode(final String locationId) throws NotAvailableException {
+            try {
+                if (locationId.isEmpty()) {
+                    throw new NotAvailableException("locationId");
+                }
+
+                final Node node = nodeMap.get(locationId);
+                if (node != null) {
+                    return node;
+                }
+
+                if (rootNode == null) {
+                    throw new InvalidStateException("Registry does not provide a root location!");
+                }
+                reportDanglingReference(locationId, rootNode.unitConfig);
+                return rootNode;
+            } catch (CouldNotPerformException ex) {
+                throw new NotAvailableException("LocationConfig[" + locationId + "]", ex);
+            }
+        }
+
+        /**
+         * @return all nodes of the tree, indexed by their location id.
+         */
+        Map<String, Node> getNodeMap() {
+            return nodeMap;
+        }
+
+        /**
+         * @return the node of the root location or null if the location map does not contain a root location.
+         */
+        Node getRootNode() {
+            return rootNode;
+        }
+
+        Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> getLocations() {
+            return locations;
+        }
+
+        /**
+         * Test if this tree is valid for all locations of a map.
+         */
+        boolean isValid(final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations, final long version) {
+            if (this.locations != locations) {
+                return false;
+            }
+
+            if (version != UNKNOWN_VERSION || this.version != UNKNOWN_VERSION) {
+                return this.version == version;
+            }
+
+            if (locations.size() != nodeMap.size()) {
+                return false;
+            }
+
+            for (final Map.Entry<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> mapEntry : locations.entrySet()) {
+                final Node node = nodeMap.get(mapEntry.getKey());
+                if (node == null || !node.matches(mapEntry.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Test if this tree is valid for resolving a unit by only validating the locations above it.
+         */
+        boolean isValid(final UnitConfig unitConfig, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations, final long version) {
+            if (version != UNKNOWN_VERSION || this.version != UNKNOWN_VERSION) {
+                return this.locations == locations && this.version == version;
+            }
+
+            // the map may differ from the one of the tree because only the locations above the unit are relevant
+
+            if (unitConfig == null || AuthorizationHelper.isAuthenticationUnit(unitConfig)) {
+                return true;
+            }
+
+            if (locations.isEmpty() != nodeMap.isEmpty()) {
+                // the detection of the root location depends on it
+                return false;
+            }
+
+            // validate the chain of locations which is used to resolve the unit
+            String locationId = unitConfig.getPlacementConfig().getLocationId();
+            if (unitConfig.getUnitType() == UnitType.LOCATION) {
+                final Node locationNode = nodeMap.get(unitConfig.getId());
+                if (locationNode != null && locationNode.unitConfig == unitConfig) {
+                    locationId = unitConfig.getId();
+                } else if (locationNode == null && locations.get(unitConfig.getId()) != null) {
+                    // the location has been added
+                    return false;
+                }
+            }
+
+            Node node = nodeMap.get(locationId);
+            if (node == null) {
+                if (locations.get(locationId) != null) {
+                    // the location has been added
+                    return false;
+                }
+                // the unit falls back to the root location
+                node = rootNode;
+            }
+
+            // the depth is limited in case of cycles in inconsistent registries
+            for (int depth = 0; node != null && depth <= nodeMap.size(); node = node.parent, depth++) {
+                if (!node.matches(locations.get(node.locationId))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Node of a location in the {@link Tree}.
+     */
+    static class Node {
+
+        private final String locationId;
+        private final IdentifiableMessage<String, UnitConfig, UnitConfig.Builder> location;
+        private final UnitConfig unitConfig;
+        private Node parent;
+
+        private Node(final String locationId, final IdentifiableMessage<String, UnitConfig, UnitConfig.Builder> location) {
+            this.locationId = locationId;
+            this.location = location;
+            this.unitConfig = location.getMessage();
+        }
+
+        /**
+         * Test if the node has been created from the given location.
+         */
+        private boolean matches(final IdentifiableMessage<String, UnitConfig, UnitConfig.Builder> location) {
+            return location != null && location == this.location && location.getMessage() == unitConfig;
+        }
+
+        String getLocationId() {
+            return locationId;
+        }
+
+        UnitConfig getUnitConfig() {
+            return unitConfig;
+        }
+
+        /**
+         * @return the node of the parent location or null for the root location and locations whose parent cannot be resolved.
+         */
+        Node getParent() {
+            return parent;
+        }
+    }
+
+    private static class Report {
+
+        private int suppressed;
+        private long lastReport;
+
+        private Report() {
+            this.suppressed = 0;
+            this.lastReport = Long.MIN_VALUE;
+        }
+
+        /**
+         * @return the number of suppressed reports since the last report if a report is due, otherwise -1.
+         */
+        private synchronized int tryReport() {
+            final long now = System.currentTimeMillis();
+            if (lastReport != Long.MIN_VALUE && now - lastReport < REPORT_INTERVAL) {
+                suppressed++;
+                return -1;
+            }
+            lastReport = now;
+            final int suppressedReports = suppressed;
+            suppressed = 0;
+            return suppressedReports;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.openbase.bco.authentication.lib;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+import org.openbase.jul.exception.CouldNotPerformException;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the parsers of message types used to decode messages which are not encrypted.
+ * The parser of a type is resolved once from its default instance and reused afterwards.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class MessageParserRegistry {
+
+    private static final Map<Class<?>, Parser<?>> PARSER_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * Get the parser of a message type.
+     *
+     * @param messageClass the class of the message type.
+     * @param <M>          the message type.
+     *
+     * @return the parser of the message type.
+     *
+     * @throws CouldNotPerformException if the class is not a message type or its default instance cannot be resolved.
+     */
+    public static <M> Parser<M> getParser(final Class<M> messageClass) throws CouldNotPerformException {
+        Parser<?> parser = PARSER_MAP.get(messageClass);
+        if (parser == null) {
+            parser = resolveParser(messageClass);
+            final Parser<?> previousParser = PARSER_MAP.putIfAbsent(messageClass, parser);
+            if (previousParser != null) {
+                parser = previousParser;
+            }
+        }
+        return (Parser<M>) parser;
+    }
+
+    /**
+     * Parse a message from a byte string.
+     *
+     * @param data         the serialized message.
+     * @param messageClass the class of the message type.
+     * @param <M>          the message type.
+     *
+     * @return the parsed message.
+     *
+     * @throws CouldNotPerformException if the class is not a message type or the data cannot be parsed.
+     */
+    public static <M> M parseFrom(final ByteString data, final Class<M> messageClass) throws CouldNotPerformException {
+        try {
+            return getParser(messageClass).parseFrom(data);
+        } catch (InvalidProtocolBufferException ex) {
+            throw new CouldNotPerformException("Could not parse message of type[" + messageClass.getSimpleName() + "]", ex);
+        }
+    }
+
+    private static Parser<?> resolveParser(final Class<?> messageClass) throws CouldNotPerformException {
+        if (!Message.class.isAssignableFrom(messageClass)) {
+            throw new CouldNotPerformException("Could not resolve parser because [" + messageClass.getSimpleName() + "] is not a message type");
+        }
+
+        try {
+            final Method getDefaultInstance = messageClass.getMethod("getDefaultInstance");
+            return ((Message) getDefaultInstance.invoke(null)).getParserForType();
+        } catch (NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
+            throw new CouldNotPerformException("Could not invoke getDefaultInstance method on [" + messageClass.getSimpleName() + "]", ex);
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package org.openbase.bco.authentication.lib;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+
+import org.openbase.jul.exception.CouldNotPerformException;
+import org.openbase.jul.exception.InvalidStateException;
+import org.openbase.jul.exception.NotAvailableException;
+import org.openbase.jul.extension.protobuf.IdentifiableMessage;
+import org.openbase.jul.extension.type.processing.ScopeProcessor;
+import org.openbase.jul.processing.StringProcessor;
+import org.openbase.type.domotic.authentication.PermissionConfigType.PermissionConfig;
+import org.openbase.type.domotic.unit.UnitConfigType.UnitConfig;
+import org.openbase.type.domotic.unit.UnitTemplateType.UnitTemplate.UnitType;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cache for the effective permission configs of units resolved by the {@link AuthorizationHelper}.
+ * <p>
+ * The cache holds a snapshot of each location tree provided by the {@link LocationIndex} in which the entry of every
+ * location links to the entry of its parent location and memorizes its effective permission config. Thus, resolving the
+ * permission config of a unit only requires the entry of its location. A snapshot is replaced together with its
+ * location tree as soon as a location is changed, added or removed. Entries of units which are not locations are kept
+ * in the snapshot and dropped together with it, so that removed units do not stay in the cache. Their number is
+ * bounded by {@link #MAX_UNIT_ENTRIES} per snapshot, if exceeded the oldest entries are dropped.
+ * <p>
+ * Callers which know the version of their location map, e.g. the {@link PermissionEngine}, should pass it because the
+ * snapshot is then validated in constant time. Otherwise, changes are detected by the identity of the location map and
+ * of its entries: single lookups validate the locations above the resolved unit while {@link #getSnapshot(Map, long)}
+ * validates all locations once so that a whole collection of units can be resolved without further validation.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class PermissionConfigCache {
+
+    /**
+     * Version used if the version of the location map is unknown.
+     */
+    public static final long UNKNOWN_VERSION = LocationIndex.UNKNOWN_VERSION;
+
+    /**
+     * Maximal number of cached entries of units which are not locations per snapshot, if exceeded the oldest entries are dropped.
+     */
+    static final int MAX_UNIT_ENTRIES = 1 << 16;
+
+    private final LocationIndex locationIndex;
+    private volatile Snapshot[] snapshots;
+
+    public PermissionConfigCache(final LocationIndex locationIndex) {
+        this.locationIndex = locationIndex;
+        this.snapshots = new Snapshot[0];
+    }
+
+    /**
+     * Resolve the effective permission config of a unit by merging its permission config with the ones of its parent locations.
+     * Already resolved permission configs of the parent locations are reused.
+     *
+     * @param unitConfig the unit config for which the permission config is resolved.
+     * @param locations  all available locations in the system, indexed by their id.
+     *
+     * @return the effective permission config of the unit.
+     *
+     * @throws NotAvailableException if the permission config cannot be resolved.
+     */
+    public PermissionConfig getPermissionConfig(final UnitConfig unitConfig, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations) throws NotAvailableException {
+        return getEntry(unitConfig, locations, UNKNOWN_VERSION).getEffectivePermissionConfig();
+    }
+
+    /**
+     * Resolve the cache entry of a unit. The chain of parent entries mirrors the location hierarchy of the unit.
+     *
+     * @param unitConfig the unit config for which the permission config is resolved.
+     * @param locations  all available locations in the system, indexed by their id.
+     * @param version    the version of the location map or {@link #UNKNOWN_VERSION}.
+     *
+     * @return the entry containing the effective permission config of the unit.
+     *
+     * @throws NotAvailableException if the permission config cannot be resolved.
+     */
+    Entry getEntry(final UnitConfig unitConfig, Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations, final long version) throws NotAvailableException {
+        if (locations == null) {
+            locations = Collections.emptyMap();
+        }
+
+        return getSnapshot(locationIndex.getTree(unitConfig, locations, version)).resolve(unitConfig);
+    }
+
+    /**
+     * Get a snapshot of the location hierarchy which is valid for all locations of the given map.
+     *
+     * @param locations all available locations in the system, indexed by their id.
+     * @param version   the version of the location map or {@link #UNKNOWN_VERSION}.
+     *
+     * @return a snapshot valid for the given location map.
+     */
+    Snapshot getSnapshot(Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations, final long version) {
+        if (locations == null) {
+            locations = Collections.emptyMap();
+        }
+
+        return getSnapshot(locationIndex.getTree(locations, version));
+    }
+
+    private Snapshot getSnapshot(final LocationIndex.Tree tree) {
+        for (final Snapshot snapshot : snapshots) {
+            if (snapshot.tree == tree) {
+                return snapshot;
+            }
+        }
+
+        final Snapshot newSnapshot = new Snapshot(tree);
+        addSnapshot(newSnapshot);
+        return newSnapshot;
+    }
+
+    private synchronized void addSnapshot(final Snapshot snapshot) {
+        // at most one snapshot per tree kept by the location index, the oldest one is dropped
+        final Snapshot[] current = snapshots;
+        final Snapshot[] newSnapshots = new Snapshot[Math.min(current.length + 1, LocationIndex.MAX_TREES)];
+        newSnapshots[0] = snapshot;
+        System.arraycopy(current, 0, newSnapshots, 1, newSnapshots.length - 1);
+        snapshots = newSnapshots;
+    }
+
+    /**
+     * Remove the cached permission config of a unit.
+     * This is never required for correctness because entries are validated on lookup.
+     *
+     * @param unitId the id of the unit.
+     */
+    public void invalidate(final String unitId) {
+        for (final Snapshot snapshot : snapshots) {
+            snapshot.unitEntryMap.remove(unitId);
+        }
+    }
+
+    /**
+     * Remove all cached permission configs.
+     */
+    public synchronized void clear() {
+        snapshots = new Snapshot[0];
+    }
+
+    private static String getScope(final UnitConfig unitConfig) {
+        try {
+            return ScopeProcessor.generateStringRep(unitConfig.getScope());
+        } catch (CouldNotPerformException ex) {
+            return "?";
+        }
+    }
+
+    /**
+     * Permission configs resolved for a tree of the location hierarchy.
+     */
+    static class Snapshot {
+
+        private final LocationIndex.Tree tree;
+        private final Map<String, Entry> locationEntryMap;
+        private final Map<String, Entry> unitEntryMap;
+        private final Queue<Map.Entry<String, Entry>> unitEntryQueue;
+        private final AtomicInteger unitEntryQueueSize;
+
+        private Snapshot(final LocationIndex.Tree tree) {
+            this.tree = tree;
+            this.locationEntryMap = new HashMap<>();
+            this.unitEntryMap = new ConcurrentHashMap<>();
+            this.unitEntryQueue = new ConcurrentLinkedQueue<>();
+            this.unitEntryQueueSize = new AtomicInteger(0);
+
+            for (final LocationIndex.Node node : tree.getNodeMap().values()) {
+                final UnitConfig unitConfig = node.getUnitConfig();
+                locationEntryMap.put(node.getLocationId(), new Entry(node, unitConfig.hasPermissionConfig() ? unitConfig.getPermissionConfig() : null));
+            }
+
+            // link the entries like the nodes of the tree
+            for (final Entry entry : locationEntryMap.values()) {
+                if (entry.node == tree.getRootNode()) {
+                    if (entry.permissionConfig == null) {
+                        entry.error = "The root location does not provide a permission config!";
+                    }
+                } else if (entry.node.getParent() == null) {
+                    entry.error = "Parent location does not provide a permission config!";
+                } else {
+                    entry.parentEntry = locationEntryMap.get(entry.node.getParent().getLocationId());
+                }
+            }
+        }
+
+        /**
+         * Resolve the entry of a unit.
+         *
+         * @param unitConfig the unit config for which the permission config is resolved.
+         *
+         * @return the entry containing the effective permission config of the unit.
+         *
+         * @throws NotAvailableException if the permission config cannot be resolved.
+         */
+        Entry resolve(final UnitConfig unitConfig) throws NotAvailableException {
+            try {
+                if (unitConfig == null) {
+                    throw new NotAvailableException("UnitConfig");
+                }
+
+                // locations of the tree are resolved directly
+                final Entry locationEntry = unitConfig.getUnitType() == UnitType.LOCATION ? locationEntryMap.get(unitConfig.getId()) : null;
+                if (locationEntry != null && locationEntry.node.getUnitConfig() == unitConfig) {
+                    resolveEffectivePermissionConfig(locationEntry);
+                    return locationEntry;
+                }
+
+                final PermissionConfig permissionConfig = unitConfig.hasPermissionConfig() ? unitConfig.getPermissionConfig() : null;
+
+                // the root location should always use its own permissions to terminate the recursive permission resolution.
+                if (AuthorizationHelper.isRootLocation(unitConfig, tree.getLocations())) {
+                    if (permissionConfig == null) {
+                        throw new InvalidStateException("The root location does not provide a permission config!");
+                    }
+                    return lookup(unitConfig.getId(), permissionConfig, null);
+                }
+
+                // user or authentication group permissions are independent of there location referred location.
+                if (AuthorizationHelper.isAuthenticationUnit(unitConfig)) {
+                    if (permissionConfig == null) {
+                        throw new InvalidStateException(StringProcessor.transformUpperCaseToPascalCase(unitConfig.getUnitType().name()) + " should always provide a permission config!");
+                    }
+                    return lookup(unitConfig.getId(), permissionConfig, null);
+                }
+
+                // verify needed location information
+                if (locationEntryMap.isEmpty()) {
+                    throw new InvalidStateException("No location information available for permission resolution!");
+                }
+
+                // resolve parent permissions
+                final Entry parentEntry;
+                try {
+                    parentEntry = locationEntryMap.get(tree.getNode(unitConfig.getPlacementConfig().getLocationId()).getLocationId());
+                    resolveEffectivePermissionConfig(parentEntry);
+                } catch (CouldNotPerformException ex) {
+                    throw new InvalidStateException("Parent location does not provide a permission config!", ex);
+                }
+
+                return lookup(unitConfig.getId(), permissionConfig, parentEntry);
+            } catch (CouldNotPerformException ex) {
+                throw new NotAvailableException("PermissionConfig of Unit[" + (unitConfig == null ? "?" : getScope(unitConfig)) + "]", ex);
+            }
+        }
+
+        private Entry lookup(final String unitId, final PermissionConfig permissionConfig, final Entry parentEntry) throws CouldNotPerformException {
+            final Entry cachedEntry = unitEntryMap.get(unitId);
+            if (cachedEntry != null && cachedEntry.isValid(permissionConfig, parentEntry)) {
+                return cachedEntry;
+            }
+
+            final Entry entry = new Entry(null, permissionConfig);
+            entry.parentEntry = parentEntry;
+            resolveEffectivePermissionConfig(entry);
+            unitEntryMap.put(unitId, entry);
+
+            // drop the oldest entry, replaced entries are still queued so the map never exceeds the limit
+            unitEntryQueue.add(new SimpleImmutableEntry<>(unitId, entry));
+            if (unitEntryQueueSize.incrementAndGet() > MAX_UNIT_ENTRIES) {
+                final Map.Entry<String, Entry> eldest = unitEntryQueue.poll();
+                if (eldest != null) {
+                    unitEntryQueueSize.decrementAndGet();
+                    unitEntryMap.remove(eldest.getKey(), eldest.getValue());
+                }
+            }
+            return entry;
+        }
+
+        /**
+         * Compute the effective permission configs of an entry and of all its parents which have not been computed yet.
+         */
+        private void resolveEffectivePermissionConfig(final Entry entry) throws CouldNotPerformException {
+            final Deque<Entry> unresolvedEntries = new ArrayDeque<>();
+            for (Entry current = entry; current != null && current.effectivePermissionConfig == null; current = current.parentEntry) {
+                if (current.error != null) {
+                    throw new InvalidStateException(current.error);
+                }
+                if (unresolvedEntries.size() > locationEntryMap.size()) {
+                    throw new InvalidStateException("The location hierarchy contains a cycle!");
+                }
+                unresolvedEntries.push(current);
+            }
+
+            while (!unresolvedEntries.isEmpty()) {
+                final Entry current = unresolvedEntries.pop();
+                final Entry parentEntry = current.parentEntry;
+                if (parentEntry == null) {
+                    current.effectivePermissionConfig = current.permissionConfig;
+                } else if (current.permissionConfig == null) {
+                    current.effectivePermissionConfig = parentEntry.effectivePermissionConfig;
+                } else {
+                    current.effectivePermissionConfig = AuthorizationHelper.mergePermissionConfigs(current.permissionConfig, parentEntry.effectivePermissionConfig);
+                }
+            }
+        }
+    }
+
+    static class Entry {
+
+        private final LocationIndex.Node node;
+        private final PermissionConfig permissionConfig;
+        private Entry parentEntry;
+        private String error;
+        private volatile PermissionConfig effectivePermissionConfig;
+        private volatile CompiledPermissionConfig compiledPermissionConfig;
+
+        private Entry(final LocationIndex.Node node, final PermissionConfig permissionConfig) {
+            this.node = node;
+            this.permissionConfig = permissionConfig;
+        }
+
+        private boolean isValid(final PermissionConfig permissionConfig, final Entry parentEntry) {
+            // parent entries are compared by identity since a changed parent always results in a new entry
+            if (this.parentEntry != parentEntry) {
+                return false;
+            }
+
+            // protobuf messages are immutable so the identity check is sufficient in most cases
+            if (this.permissionConfig == permissionConfig) {
+                return true;
+            }
+            return permissionConfig != null && permissionConfig.equals(this.permissionConfig);
+        }
+
+        PermissionConfig getEffectivePermissionConfig() {
+            return effectivePermissionConfig;
+        }
+
+        /**
+         * @return the entry of the parent location or null if the permissions of the unit do not depend on a location.
+         */
+        Entry getParentEntry() {
+            return parentEntry;
+        }
+
+        CompiledPermissionConfig getCompiledPermissionConfig() {
+            if (permissionConfig == null && parentEntry != null) {
+                // the unit inherits the permissions of its location
+                return parentEntry.getCompiledPermissionConfig();
+            }
+
+            // compiled lazily so that plain permission config lookups do not pay for it, compiling twice on concurrent access is harmless
+            if (compiledPermissionConfig == null) {
+                compiledPermissionConfig = new CompiledPermissionConfig(effectivePermissionConfig);
+            }
+            return compiledPermissionConfig;
+        }
+    }
+}
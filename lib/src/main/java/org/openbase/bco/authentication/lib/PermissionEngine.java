@@ -0,0 +1,321 @@
+package org.openbase.bco.authentication.lib;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.openbase.jul.exception.CouldNotPerformException;
+import org.openbase.jul.extension.protobuf.IdentifiableMessage;
+import org.openbase.type.domotic.authentication.UserClientPairType.UserClientPair;
+import org.openbase.type.domotic.unit.UnitConfigType.UnitConfig;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stateful permission engine which keeps the readable units of users up to date while the registry changes.
+ * <p>
+ * The engine is fed with changes of units, locations and authorization groups via {@link #update(UnitConfig)},
+ * {@link #remove(String)} or {@link #synchronize(Collection)}, e.g. from the observers of a registry.
+ * The readable units of a user are computed once when they are requested for the first time and afterwards
+ * only the units affected by a change are evaluated again:
+ * <ul>
+ * <li>a changed unit is re-evaluated for all tracked users.</li>
+ * <li>a changed location re-evaluates all units placed in its subtree, the root location re-evaluates everything.</li>
+ * <li>a changed authorization group re-evaluates all units for the old and new members of the group.</li>
+ * </ul>
+ * Every change increments the {@link #getVersion() version} of the engine.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class PermissionEngine {
+
+    private final Map<String, UnitConfig> unitMap;
+    private final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations;
+    private final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups;
+    private final Map<String, Set<String>> childMap;
+    private final Map<String, Set<String>> readableUnitMap;
+
+    private volatile long version;
+    private long locationVersion;
+
+    public PermissionEngine() {
+        this.unitMap = new HashMap<>();
+        this.locations = new ConcurrentHashMap<>();
+        this.groups = new ConcurrentHashMap<>();
+        this.childMap = new HashMap<>();
+        this.readableUnitMap = new ConcurrentHashMap<>();
+        this.version = 0;
+    }
+
+    /**
+     * Add or update a unit. Locations and authorization groups are detected by their unit type.
+     *
+     * @param unitConfig the new unit config.
+     *
+     * @throws CouldNotPerformException if the unit config cannot be applied.
+     */
+    public synchronized void update(final UnitConfig unitConfig) throws CouldNotPerformException {
+        final UnitConfig oldUnitConfig = unitMap.get(unitConfig.getId());
+        if (unitConfig.equals(oldUnitConfig)) {
+            return;
+        }
+        apply(oldUnitConfig, unitConfig);
+        version++;
+    }
+
+    /**
+     * Remove a unit.
+     *
+     * @param unitId the id of the removed unit.
+     *
+     * @throws CouldNotPerformException if the removal cannot be applied.
+     */
+    public synchronized void remove(final String unitId) throws CouldNotPerformException {
+        final UnitConfig oldUnitConfig = unitMap.get(unitId);
+        if (oldUnitConfig == null) {
+            return;
+        }
+        apply(oldUnitConfig, null);
+        version++;
+    }
+
+    /**
+     * Synchronize the engine with a complete set of units. Only units which have been added, changed or removed
+     * compared to the current state are applied.
+     *
+     * @param unitConfigs all units of the registry including locations and authorization groups.
+     *
+     * @throws CouldNotPerformException if the changes cannot be applied.
+     */
+    public synchronized void synchronize(final Collection<UnitConfig> unitConfigs) throws CouldNotPerformException {
+        final Set<String> removedUnitIds = new HashSet<>(unitMap.keySet());
+        boolean changed = false;
+        for (final UnitConfig unitConfig : unitConfigs) {
+            removedUnitIds.remove(unitConfig.getId());
+            final UnitConfig oldUnitConfig = unitMap.get(unitConfig.getId());
+            if (!unitConfig.equals(oldUnitConfig)) {
+                apply(oldUnitConfig, unitConfig);
+                changed = true;
+            }
+        }
+
+        for (final String unitId : removedUnitIds) {
+            apply(unitMap.get(unitId), null);
+            changed = true;
+        }
+
+        if (changed) {
+            version++;
+        }
+    }
+
+    /**
+     * Get the ids of all units a user can read. If the user is requested for the first time all units are evaluated,
+     * afterwards the returned set is maintained incrementally until the user is {@link #release(String) released}.
+     *
+     * @param userId the id of the user, an empty id resolves the units everybody can read.
+     *
+     * @return an unmodifiable view of the readable unit ids.
+     */
+    public Set<String> getReadableUnitIds(final String userId) {
+        Set<String> readableUnitIds = readableUnitMap.get(userId);
+        if (readableUnitIds == null) {
+            synchronized (this) {
+                readableUnitIds = readableUnitMap.get(userId);
+                if (readableUnitIds == null) {
+                    readableUnitIds = ConcurrentHashMap.newKeySet();
+                    readableUnitIds.addAll(evaluate(unitMap.values(), userId).getReadableUnitIds());
+                    readableUnitMap.put(userId, readableUnitIds);
+                }
+            }
+        }
+        return Collections.unmodifiableSet(readableUnitIds);
+    }
+
+    /**
+     * Check if the user or the client of a pair can read a unit.
+     *
+     * @param unitId         the id of the unit.
+     * @param userClientPair the pair containing a user id and a client id.
+     *
+     * @return true if either the user or the client can read the unit.
+     */
+    public boolean canRead(final String unitId, final UserClientPair userClientPair) {
+        return getReadableUnitIds(userClientPair.getUserId()).contains(unitId)
+                || getReadableUnitIds(userClientPair.getClientId()).contains(unitId);
+    }
+
+    /**
+     * Stop maintaining the readable units of a user.
+     *
+     * @param userId the id of the user.
+     */
+    public void release(final String userId) {
+        readableUnitMap.remove(userId);
+    }
+
+    /**
+     * @return a counter which is incremented on every change of the permissions.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> getLocations() {
+        return Collections.unmodifiableMap(locations);
+    }
+
+    public Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> getGroups() {
+        return Collections.unmodifiableMap(groups);
+    }
+
+    private void apply(final UnitConfig oldUnitConfig, final UnitConfig newUnitConfig) throws CouldNotPerformException {
+        final UnitConfig unitConfig = newUnitConfig != null ? newUnitConfig : oldUnitConfig;
+        final String unitId = unitConfig.getId();
+
+        // update the state
+        if (oldUnitConfig != null) {
+            removeChild(oldUnitConfig);
+        }
+        if (newUnitConfig != null) {
+            unitMap.put(unitId, newUnitConfig);
+            childMap.computeIfAbsent(newUnitConfig.getPlacementConfig().getLocationId(), key -> new HashSet<>()).add(unitId);
+        } else {
+            unitMap.remove(unitId);
+        }
+
+        switch (unitConfig.getUnitType()) {
+            case LOCATION:
+                final boolean root = (oldUnitConfig != null && AuthorizationHelper.isRootLocation(oldUnitConfig, locations))
+                        || (newUnitConfig != null && AuthorizationHelper.isRootLocation(newUnitConfig, locations));
+                put(locations, unitId, newUnitConfig);
+                // lets the permission config cache validate its snapshot of the locations by the version
+                locationVersion++;
+                if (root) {
+                    // units with unknown locations fall back to the root location so everything is affected
+                    reEvaluate(unitMap.keySet(), readableUnitMap.keySet());
+                } else {
+                    reEvaluate(getSubtree(unitId), readableUnitMap.keySet());
+                }
+                break;
+            case AUTHORIZATION_GROUP:
+                put(groups, unitId, newUnitConfig);
+                final Set<String> affectedUserIds = new HashSet<>();
+                if (oldUnitConfig != null) {
+                    affectedUserIds.addAll(oldUnitConfig.getAuthorizationGroupConfig().getMemberIdList());
+                }
+                if (newUnitConfig != null) {
+                    affectedUserIds.addAll(newUnitConfig.getAuthorizationGroupConfig().getMemberIdList());
+                }
+                affectedUserIds.retainAll(readableUnitMap.keySet());
+                reEvaluate(unitMap.keySet(), affectedUserIds);
+                reEvaluate(Collections.singleton(unitId), readableUnitMap.keySet());
+                break;
+            default:
+                reEvaluate(Collections.singleton(unitId), readableUnitMap.keySet());
+                break;
+        }
+    }
+
+    private void put(final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> map, final String unitId, final UnitConfig unitConfig) throws CouldNotPerformException {
+        if (unitConfig == null) {
+            map.remove(unitId);
+        } else {
+            map.put(unitId, new IdentifiableMessage<>(unitConfig));
+        }
+    }
+
+    private void removeChild(final UnitConfig unitConfig) {
+        final String locationId = unitConfig.getPlacementConfig().getLocationId();
+        final Set<String> children = childMap.get(locationId);
+        if (children != null) {
+            children.remove(unitConfig.getId());
+            if (children.isEmpty()) {
+                childMap.remove(locationId);
+            }
+        }
+    }
+
+    private Set<String> getSubtree(final String locationId) {
+        final Set<String> subtree = new HashSet<>();
+        final Deque<String> queue = new ArrayDeque<>();
+        subtree.add(locationId);
+        queue.add(locationId);
+        while (!queue.isEmpty()) {
+            final Set<String> children = childMap.get(queue.poll());
+            if (children == null) {
+                continue;
+            }
+            for (final String childId : children) {
+                // the set guards against cycles in inconsistent registries
+                if (subtree.add(childId)) {
+                    queue.add(childId);
+                }
+            }
+        }
+        return subtree;
+    }
+
+    private void reEvaluate(final Collection<String> unitIds, final Collection<String> userIds) {
+        if (unitIds.isEmpty() || userIds.isEmpty()) {
+            return;
+        }
+
+        final List<UnitConfig> unitConfigs = new ArrayList<>(unitIds.size());
+        for (final String unitId : unitIds) {
+            final UnitConfig unitConfig = unitMap.get(unitId);
+            if (unitConfig != null) {
+                unitConfigs.add(unitConfig);
+            }
+        }
+
+        for (final String userId : new ArrayList<>(userIds)) {
+            final Set<String> readableUnitIds = readableUnitMap.get(userId);
+            if (readableUnitIds == null) {
+                continue;
+            }
+
+            final UnitPermissions unitPermissions = evaluate(unitConfigs, userId);
+            for (final String unitId : unitIds) {
+                if (unitPermissions.canRead(unitId)) {
+                    readableUnitIds.add(unitId);
+                } else {
+                    readableUnitIds.remove(unitId);
+                }
+            }
+        }
+    }
+
+    private UnitPermissions evaluate(final Collection<UnitConfig> unitConfigs, final String userId) {
+        return AuthorizationHelper.getUnitPermissions(unitConfigs, UserClientPair.newBuilder().setUserId(userId).build(), groups, locations, locationVersion);
+    }
+}
@@ -0,0 +1,107 @@
+package org.openbase.bco.authentication.lib;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.openbase.bco.authentication.lib.exception.RetryAfterException;
+import org.openbase.jps.core.JPService;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Policy defining how a client reconnects to the authenticator after its session became invalid, e.g.
+ * because the authenticator has been restarted. To prevent all clients from logging in again at the same time,
+ * reconnects are delayed randomly, failed attempts are repeated with an exponential backoff and a retry
+ * after provided by the authenticator is respected.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class ReconnectPolicy {
+
+    /**
+     * The policy used by default. The delays are greatly reduced in test mode.
+     */
+    public static final ReconnectPolicy DEFAULT = JPService.testMode()
+            ? new ReconnectPolicy(50, 50, 2, 500, 5)
+            : new ReconnectPolicy(TimeUnit.SECONDS.toMillis(2), 500, 2, TimeUnit.SECONDS.toMillis(30), 8);
+
+    private final long maxJitter;
+    private final long initialBackoff;
+    private final double backoffMultiplier;
+    private final long maxBackoff;
+    private final int maxAttempts;
+
+    /**
+     * Create a new reconnect policy.
+     *
+     * @param maxJitter         the maximal time in milliseconds a reconnect is randomly delayed.
+     * @param initialBackoff    the time in milliseconds waited after the first failed attempt.
+     * @param backoffMultiplier the factor by which the backoff grows with each failed attempt.
+     * @param maxBackoff        the maximal time in milliseconds waited between two attempts.
+     * @param maxAttempts       the maximal number of login attempts for a reconnect.
+     */
+    public ReconnectPolicy(final long maxJitter, final long initialBackoff, final double backoffMultiplier, final long maxBackoff, final int maxAttempts) {
+        if (maxJitter < 0 || initialBackoff < 0 || backoffMultiplier < 1 || maxBackoff < initialBackoff || maxAttempts < 1) {
+            throw new IllegalArgumentException("Invalid reconnect policy [" + maxJitter + ", " + initialBackoff + ", " + backoffMultiplier + ", " + maxBackoff + ", " + maxAttempts + "]");
+        }
+        this.maxJitter = maxJitter;
+        this.initialBackoff = initialBackoff;
+        this.backoffMultiplier = backoffMultiplier;
+        this.maxBackoff = maxBackoff;
+        this.maxAttempts = maxAttempts;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Get a random delay before the first reconnect attempt.
+     *
+     * @return the delay in milliseconds.
+     */
+    public long getInitialDelay() {
+        return maxJitter == 0 ? 0 : ThreadLocalRandom.current().nextLong(maxJitter + 1);
+    }
+
+    /**
+     * Get the delay before the next attempt after an attempt failed. The delay grows exponentially and is randomized
+     * between half and the full backoff. If the authenticator provided a retry after, it is waited at least that long.
+     *
+     * @param failedAttempts the number of attempts which already failed.
+     * @param cause          the cause of the last failure.
+     *
+     * @return the delay in milliseconds.
+     */
+    public long getDelay(final int failedAttempts, final Throwable cause) {
+        final long backoff = (long) Math.min(initialBackoff * Math.pow(backoffMultiplier, Math.max(0, failedAttempts - 1)), maxBackoff);
+        final long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        return Math.max(delay, RetryAfterException.parseRetryAfter(cause));
+    }
+
+    @Override
+    public String toString() {
+        return ReconnectPolicy.class.getSimpleName() + "[maxJitter:" + maxJitter + ", initialBackoff:" + initialBackoff + ", multiplier:" + backoffMultiplier + ", maxBackoff:" + maxBackoff + ", maxAttempts:" + maxAttempts + "]";
+    }
+}
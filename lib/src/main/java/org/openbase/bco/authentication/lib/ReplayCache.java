@@ -0,0 +1,197 @@
+package org.openbase.bco.authentication.lib;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.openbase.jps.core.JPService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Cache detecting replayed authenticators by the hash of their session key and their timestamp.
+ * <p>
+ * Authenticators are only accepted if their timestamp differs at most {@link AuthenticationServerHandler#MAX_TIME_DIFF_SERVER_CLIENT}
+ * from the server time, so they only have to be remembered for this time. Entries are 64 bit fingerprints whose lowest
+ * bits contain the time bucket of the timestamp. Entries of buckets outside the accepted time window count as free
+ * slots and are overwritten, so that nothing has to be cleaned up.
+ * <p>
+ * The cache has a fixed number of slots divided into shards. Each slot is updated with a compare and set, so the
+ * cache does not lock. If all slots probed for an entry are in use, the oldest one is overwritten. Thus, if more
+ * authenticators than slots are used within the time window, a replay of an overwritten authenticator is not detected
+ * instead of rejecting valid requests.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class ReplayCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplayCache.class);
+
+    /**
+     * Default number of slots, each slot needs 8 bytes.
+     */
+    public static final int DEFAULT_CAPACITY = JPService.testMode() ? 1 << 16 : 1 << 20;
+
+    private static final int SHARD_COUNT = 64;
+    private static final int PROBE_LENGTH = 8;
+    /**
+     * Number of time buckets the maximal time difference is divided into.
+     */
+    private static final int BUCKETS_PER_TIME_DIFF = 16;
+    private static final int BUCKET_BITS = 16;
+    private static final long BUCKET_MASK = (1L << BUCKET_BITS) - 1;
+
+    private final AtomicLongArray[] shards;
+    private final int shardMask;
+    private final long bucketWidth;
+    private final long maxBucketAge;
+    private final AtomicBoolean overflowReported;
+
+    /**
+     * Create a replay cache for the maximal time difference between clients and server with the default capacity.
+     */
+    public ReplayCache() {
+        this(AuthenticationServerHandler.MAX_TIME_DIFF_SERVER_CLIENT, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a replay cache.
+     *
+     * @param maxTimeDiff the maximal time difference in milliseconds of accepted timestamps to the server time.
+     * @param capacity    the number of authenticators which can be remembered.
+     */
+    public ReplayCache(final long maxTimeDiff, final int capacity) {
+        final int shardCapacity = Integer.highestOneBit(Math.max(PROBE_LENGTH, capacity / SHARD_COUNT));
+        this.shards = new AtomicLongArray[SHARD_COUNT];
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            this.shards[i] = new AtomicLongArray(shardCapacity);
+        }
+        this.shardMask = shardCapacity - 1;
+        this.bucketWidth = Math.max(1, maxTimeDiff / BUCKETS_PER_TIME_DIFF);
+        // timestamps are accepted until they are older than the maximal time difference
+        this.maxBucketAge = BUCKETS_PER_TIME_DIFF + 1;
+        this.overflowReported = new AtomicBoolean(false);
+    }
+
+    /**
+     * Remember an authenticator if it has not been used before.
+     * This has to be called after the timestamp has been validated to be within the accepted time window.
+     *
+     * @param sessionKey the session key with which the authenticator has been encrypted.
+     * @param timestamp  the timestamp of the authenticator in microseconds.
+     *
+     * @return true if the authenticator is used for the first time and false if it is a replay.
+     */
+    public boolean record(final byte[] sessionKey, final long timestamp) {
+        final long currentBucket = System.currentTimeMillis() / bucketWidth;
+        final long bucket = TimeUnit.MICROSECONDS.toMillis(timestamp) / bucketWidth;
+
+        final long hash = mix(hashSessionKey(sessionKey) ^ mix(timestamp));
+        long fingerprint = (hash & ~BUCKET_MASK) | (bucket & BUCKET_MASK);
+        if (fingerprint == 0) {
+            // zero marks unused slots
+            fingerprint = 1L << BUCKET_BITS;
+        }
+
+        final AtomicLongArray shard = shards[(int) (hash >>> (Long.SIZE - 6)) & (SHARD_COUNT - 1)];
+        final int start = (int) (hash >>> BUCKET_BITS) & shardMask;
+
+        while (true) {
+            int oldestIndex = -1;
+            long oldestEntry = 0;
+            long oldestAge = Long.MIN_VALUE;
+            boolean retry = false;
+
+            for (int i = 0; i < PROBE_LENGTH; i++) {
+                final int index = (start + i) & shardMask;
+                final long entry = shard.get(index);
+                if (entry == fingerprint) {
+                    return false;
+                }
+
+                final long age = entry == 0 ? Long.MAX_VALUE : getAge(entry, currentBucket);
+                if (age > maxBucketAge) {
+                    // free or expired slot
+                    if (shard.compareAndSet(index, entry, fingerprint)) {
+                        return true;
+                    }
+                    // slot changed concurrently, it may now contain the same authenticator
+                    retry = true;
+                    break;
+                }
+                if (age > oldestAge) {
+                    oldestAge = age;
+                    oldestIndex = index;
+                    oldestEntry = entry;
+                }
+            }
+
+            if (retry) {
+                continue;
+            }
+
+            // all probed slots are in use so overwrite the oldest one
+            if (shard.compareAndSet(oldestIndex, oldestEntry, fingerprint)) {
+                if (overflowReported.compareAndSet(false, true)) {
+                    LOGGER.warn("Replay cache capacity exceeded, replays of overwritten authenticators are not detected");
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Forget all authenticators.
+     */
+    public void clear() {
+        for (final AtomicLongArray shard : shards) {
+            for (int i = 0; i < shard.length(); i++) {
+                shard.set(i, 0);
+            }
+        }
+    }
+
+    private long getAge(final long entry, final long currentBucket) {
+        // buckets are compared as signed 16 bit values because timestamps may lie in the future
+        return (short) ((currentBucket - (entry & BUCKET_MASK)) & BUCKET_MASK);
+    }
+
+    private static long hashSessionKey(final byte[] sessionKey) {
+        // session keys are random so combining their bytes is sufficient
+        long hash = sessionKey.length;
+        for (final byte b : sessionKey) {
+            hash = hash * 31 + (b & 0xff);
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long value) {
+        // finalizer of SplitMix64
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+}
@@ -0,0 +1,146 @@
+package org.openbase.bco.authentication.lib;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.openbase.jul.exception.CouldNotPerformException;
+
+import java.io.Serializable;
+
+/**
+ * Versions of a secret key used to seal tickets, see {@link CompactTicket}.
+ * <p>
+ * Tickets are sealed with the current key. Tickets sealed with the previous key are still accepted so that rotating
+ * the key does not invalidate tickets issued before. Optionally, the key which becomes current with the next rotation
+ * is already known, so that it can be distributed to verifiers ahead of time.
+ * Versions are identified by the key ids contained in sealed tickets.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class SecretKeyRing implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] previousKey;
+    private final byte[] currentKey;
+    private final byte[] nextKey;
+
+    private final int previousKeyId;
+    private final int currentKeyId;
+    private final int nextKeyId;
+
+    /**
+     * Create a key ring only containing a current key.
+     *
+     * @param currentKey the current key.
+     *
+     * @throws CouldNotPerformException if the key id cannot be computed.
+     */
+    public SecretKeyRing(final byte[] currentKey) throws CouldNotPerformException {
+        this(null, currentKey, null);
+    }
+
+    /**
+     * Create a key ring.
+     *
+     * @param previousKey the previous key which can be null.
+     * @param currentKey  the current key.
+     * @param nextKey     the next key which can be null.
+     *
+     * @throws CouldNotPerformException if a key id cannot be computed.
+     */
+    public SecretKeyRing(final byte[] previousKey, final byte[] currentKey, final byte[] nextKey) throws CouldNotPerformException {
+        if (currentKey == null) {
+            throw new CouldNotPerformException("Key ring requires a current key");
+        }
+        this.previousKey = previousKey;
+        this.currentKey = currentKey;
+        this.nextKey = nextKey;
+        this.previousKeyId = previousKey == null ? 0 : CompactTicket.computeKeyId(previousKey);
+        this.currentKeyId = CompactTicket.computeKeyId(currentKey);
+        this.nextKeyId = nextKey == null ? 0 : CompactTicket.computeKeyId(nextKey);
+    }
+
+    /**
+     * Create the key ring after the next rotation. The current key becomes the previous key and the next key becomes
+     * the current one. If this ring contains a next key, a new next key is generated. Else a new current key is
+     * generated.
+     *
+     * @return the rotated key ring.
+     *
+     * @throws CouldNotPerformException if a key id cannot be computed.
+     */
+    public SecretKeyRing rotate() throws CouldNotPerformException {
+        if (nextKey == null) {
+            return new SecretKeyRing(currentKey, EncryptionHelper.generateKey(), null);
+        }
+        return new SecretKeyRing(currentKey, nextKey, EncryptionHelper.generateKey());
+    }
+
+    /**
+     * Get the key with which new tickets are sealed.
+     *
+     * @return the current key.
+     */
+    public byte[] getCurrentKey() {
+        return currentKey;
+    }
+
+    /**
+     * Get the key which was current before the last rotation.
+     *
+     * @return the previous key or null if there has been no rotation.
+     */
+    public byte[] getPreviousKey() {
+        return previousKey;
+    }
+
+    /**
+     * Get the key which becomes current with the next rotation.
+     *
+     * @return the next key or null if it is not distributed ahead of time.
+     */
+    public byte[] getNextKey() {
+        return nextKey;
+    }
+
+    /**
+     * Get the key version with a key id.
+     *
+     * @param keyId the id of the key as contained in a sealed ticket.
+     *
+     * @return the key or null if no version of this ring has the id.
+     */
+    public byte[] getKey(final int keyId) {
+        if (keyId == currentKeyId) {
+            return currentKey;
+        }
+        if (previousKey != null && keyId == previousKeyId) {
+            return previousKey;
+        }
+        if (nextKey != null && keyId == nextKeyId) {
+            return nextKey;
+        }
+        return null;
+    }
+}
@@ -24,7 +24,10 @@ package org.openbase.bco.authentication.lib;
 
 import com.google.protobuf.ByteString;
 import org.openbase.bco.authentication.lib.AuthenticationClientHandler.TicketWrapperSessionKeyPair;
+import org.openbase.bco.authentication.lib.exception.RetryAfterException;
 import org.openbase.bco.authentication.lib.exception.SessionExpiredException;
+import org.openbase.bco.authentication.lib.future.CompletableFutureAdapter;
+import org.openbase.bco.authentication.lib.future.ReplayPolicy;
 import org.openbase.bco.authentication.lib.iface.Session;
 import org.openbase.bco.authentication.lib.jp.JPAuthentication;
 import org.openbase.bco.authentication.lib.jp.JPSessionTimeout;
@@ -38,6 +41,7 @@ import org.openbase.jul.pattern.ObservableImpl;
 import org.openbase.jul.pattern.Observer;
 import org.openbase.jul.schedule.GlobalCachedExecutorService;
 import org.openbase.jul.schedule.GlobalScheduledExecutorService;
+import org.openbase.jul.schedule.SyncObject;
 import org.openbase.type.domotic.authentication.AuthTokenType.AuthToken;
 import org.openbase.type.domotic.authentication.AuthenticatedValueType.AuthenticatedValue;
 import org.openbase.type.domotic.authentication.AuthenticatorType.Authenticator;
@@ -51,11 +55,16 @@ import org.slf4j.LoggerFactory;
 import java.io.Serializable;
 import java.security.KeyPair;
 import java.util.Base64;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -66,6 +75,10 @@ public class SessionManager implements Shutdownable, Session {
 
     private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(SessionManager.class);
     private static final String STORE_FILENAME = "client_credential_store.json";
+    /**
+     * Timeout in seconds for requests to the authenticator during a login.
+     */
+    private static final long REQUEST_TIMEOUT = 5;
 
     private static SessionManager instance;
 
@@ -108,7 +121,42 @@ public class SessionManager implements Shutdownable, Session {
      */
     private ScheduledFuture ticketRenewalTask;
 
-    private boolean skipNotification = false;
+    /**
+     * Generation of the current session. It is incremented each time the ticket and session key are replaced
+     * so that requests can tell whether the session they were started with is still the current one.
+     */
+    private volatile long sessionGeneration = 0;
+
+    /**
+     * Latest timestamp used for a session request, timestamps have to be unique for a session.
+     */
+    private final AtomicLong lastSessionRequestTimestamp = new AtomicLong();
+
+    /**
+     * Lock making sure only one re-login is performed per session.
+     */
+    private final SyncObject reLoginSync = new SyncObject("ReLoginSync");
+
+    /**
+     * The last re-login and the generation of the session it replaced, both guarded by the re-login sync.
+     */
+    private CompletableFuture<Boolean> reLoginFuture = CompletableFuture.completedFuture(false);
+    private long reLoginGeneration = -1;
+
+    /**
+     * Lock guarding the chain of logins which are performed one after another.
+     */
+    private final SyncObject loginSync = new SyncObject("LoginSync");
+
+    /**
+     * Future of the last login started.
+     */
+    private CompletableFuture<UserClientPair> lastLogin = CompletableFuture.completedFuture(null);
+
+    /**
+     * Policy defining how to login again after the session became invalid.
+     */
+    private volatile ReconnectPolicy reconnectPolicy = ReconnectPolicy.DEFAULT;
 
     /**
      * Create a session manager with the default credential store.
@@ -219,6 +267,33 @@ public class SessionManager implements Shutdownable, Session {
         return authenticatedValue.build();
     }
 
+    /**
+     * Initialize a session request which identifies the session by its id instead of sending the ticket.
+     * It can only be verified by service servers which know the session, see {@link SessionTable}.
+     *
+     * @param value   the value of the request which is encrypted with the session key.
+     * @param <VALUE> the type of the value.
+     *
+     * @return an authenticated value containing the compact session authenticator and the encrypted value.
+     *
+     * @throws CouldNotPerformException if nobody is logged in or the request cannot be initialized.
+     */
+    public <VALUE extends Serializable> AuthenticatedValue initializeSessionRequest(final VALUE value) throws CouldNotPerformException {
+        final byte[] currentSessionKey = sessionKey;
+        if (currentSessionKey == null) {
+            throw new RejectedException("Initializing session request rejected because nobody is logged in");
+        }
+
+        final ByteString encryptedValue = EncryptionHelper.encryptSymmetric(value, currentSessionKey);
+        final long currentTime = System.currentTimeMillis();
+        final long timestamp = lastSessionRequestTimestamp.updateAndGet(last -> Math.max(currentTime, last + 1));
+
+        AuthenticatedValue.Builder authenticatedValue = AuthenticatedValue.newBuilder();
+        authenticatedValue.setTicketAuthenticatorWrapper(SessionTable.initSessionRequest(currentSessionKey, timestamp, encryptedValue));
+        authenticatedValue.setValue(encryptedValue);
+        return authenticatedValue.build();
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -228,8 +303,8 @@ public class SessionManager implements Shutdownable, Session {
      * @throws CouldNotPerformException {@inheritDoc}
      */
     @Override
-    public synchronized void loginUser(final String id, final boolean stayLoggedIn) throws CouldNotPerformException {
-        loginUser(id, credentialStore.getCredentials(id), stayLoggedIn);
+    public void loginUser(final String id, final boolean stayLoggedIn) throws CouldNotPerformException {
+        waitForLogin(loginUserAsync(id, stayLoggedIn));
     }
 
     /**
@@ -242,10 +317,8 @@ public class SessionManager implements Shutdownable, Session {
      * @throws CouldNotPerformException {@inheritDoc}
      */
     @Override
-    public synchronized void loginUser(final String id, final String password, final boolean stayLoggedIn) throws CouldNotPerformException {
-        final LoginCredentials credentials = LoginCredentials.newBuilder().setId(id).setSymmetric(true)
-                .setCredentials(ByteString.copyFrom(EncryptionHelper.hash(password))).build();
-        loginUser(id, credentials, stayLoggedIn);
+    public void loginUser(final String id, final String password, final boolean stayLoggedIn) throws CouldNotPerformException {
+        waitForLogin(loginUserAsync(id, password, stayLoggedIn));
     }
 
     /**
@@ -258,8 +331,8 @@ public class SessionManager implements Shutdownable, Session {
      * @throws CouldNotPerformException {@inheritDoc}
      */
     @Override
-    public synchronized void loginUser(final String id, final LoginCredentials credentials, final boolean stayLoggedIn) throws CouldNotPerformException {
-        internalLogin(id, credentials, stayLoggedIn, true);
+    public void loginUser(final String id, final LoginCredentials credentials, final boolean stayLoggedIn) throws CouldNotPerformException {
+        waitForLogin(loginUserAsync(id, credentials, stayLoggedIn));
     }
 
     /**
@@ -271,8 +344,8 @@ public class SessionManager implements Shutdownable, Session {
      * @throws CouldNotPerformException {@inheritDoc}
      */
     @Override
-    public synchronized void loginClient(final String id, final boolean stayLoggedIn) throws CouldNotPerformException {
-        loginClient(id, credentialStore.getCredentials(id), stayLoggedIn);
+    public void loginClient(final String id, final boolean stayLoggedIn) throws CouldNotPerformException {
+        waitForLogin(loginClientAsync(id, stayLoggedIn));
     }
 
     /**
@@ -285,10 +358,59 @@ public class SessionManager implements Shutdownable, Session {
      * @throws CouldNotPerformException {@inheritDoc}
      */
     @Override
-    public synchronized void loginClient(final String id, final String password, final boolean stayLoggedIn) throws CouldNotPerformException {
+    public void loginClient(final String id, final String password, final boolean stayLoggedIn) throws CouldNotPerformException {
+        waitForLogin(loginClientAsync(id, password, stayLoggedIn));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param id           {@inheritDoc}
+     * @param credentials  {@inheritDoc}
+     * @param stayLoggedIn {@inheritDoc}
+     *
+     * @throws CouldNotPerformException {@inheritDoc}
+     */
+    @Override
+    public void loginClient(final String id, final LoginCredentials credentials, final boolean stayLoggedIn) throws CouldNotPerformException {
+        waitForLogin(loginClientAsync(id, credentials, stayLoggedIn));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param id           {@inheritDoc}
+     * @param stayLoggedIn {@inheritDoc}
+     *
+     * @return {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<UserClientPair> loginUserAsync(final String id, final boolean stayLoggedIn) {
+        final LoginCredentials credentials;
+        try {
+            synchronized (this) {
+                credentials = credentialStore.getCredentials(id);
+            }
+        } catch (CouldNotPerformException ex) {
+            return failedLogin(new CouldNotPerformException("Could not login", ex));
+        }
+        return loginUserAsync(id, credentials, stayLoggedIn);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param id           {@inheritDoc}
+     * @param password     {@inheritDoc}
+     * @param stayLoggedIn {@inheritDoc}
+     *
+     * @return {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<UserClientPair> loginUserAsync(final String id, final String password, final boolean stayLoggedIn) {
         final LoginCredentials credentials = LoginCredentials.newBuilder().setId(id).setSymmetric(true)
                 .setCredentials(ByteString.copyFrom(EncryptionHelper.hash(password))).build();
-        loginClient(id, credentials, stayLoggedIn);
+        return loginUserAsync(id, credentials, stayLoggedIn);
     }
 
     /**
@@ -298,27 +420,122 @@ public class SessionManager implements Shutdownable, Session {
      * @param credentials  {@inheritDoc}
      * @param stayLoggedIn {@inheritDoc}
      *
-     * @throws CouldNotPerformException {@inheritDoc}
+     * @return {@inheritDoc}
      */
     @Override
-    public synchronized void loginClient(final String id, final LoginCredentials credentials, final boolean stayLoggedIn) throws CouldNotPerformException {
-        internalLogin(id, credentials, stayLoggedIn, false);
+    public CompletableFuture<UserClientPair> loginUserAsync(final String id, final LoginCredentials credentials, final boolean stayLoggedIn) {
+        return internalLogin(id, credentials, stayLoggedIn, true, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param id           {@inheritDoc}
+     * @param stayLoggedIn {@inheritDoc}
+     *
+     * @return {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<UserClientPair> loginClientAsync(final String id, final boolean stayLoggedIn) {
+        final LoginCredentials credentials;
+        try {
+            synchronized (this) {
+                credentials = credentialStore.getCredentials(id);
+            }
+        } catch (CouldNotPerformException ex) {
+            return failedLogin(new CouldNotPerformException("Could not login", ex));
+        }
+        return loginClientAsync(id, credentials, stayLoggedIn);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param id           {@inheritDoc}
+     * @param password     {@inheritDoc}
+     * @param stayLoggedIn {@inheritDoc}
+     *
+     * @return {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<UserClientPair> loginClientAsync(final String id, final String password, final boolean stayLoggedIn) {
+        final LoginCredentials credentials = LoginCredentials.newBuilder().setId(id).setSymmetric(true)
+                .setCredentials(ByteString.copyFrom(EncryptionHelper.hash(password))).build();
+        return loginClientAsync(id, credentials, stayLoggedIn);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param id           {@inheritDoc}
+     * @param credentials  {@inheritDoc}
+     * @param stayLoggedIn {@inheritDoc}
+     *
+     * @return {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<UserClientPair> loginClientAsync(final String id, final LoginCredentials credentials, final boolean stayLoggedIn) {
+        return internalLogin(id, credentials, stayLoggedIn, false, true);
+    }
+
+    /**
+     * Wait for a login and map its failure to the exception which is thrown by the blocking login methods.
+     *
+     * @param login the future of the login.
+     *
+     * @throws CouldNotPerformException if the login failed.
+     */
+    private void waitForLogin(final CompletableFuture<UserClientPair> login) throws CouldNotPerformException {
+        try {
+            login.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CouldNotPerformException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof CouldNotPerformException) {
+                throw (CouldNotPerformException) ex.getCause();
+            }
+            throw new CouldNotPerformException("Could not login", ex.getCause());
+        }
+    }
+
+    private static CompletableFuture<UserClientPair> failedLogin(final CouldNotPerformException ex) {
+        final CompletableFuture<UserClientPair> future = new CompletableFuture<>();
+        future.completeExceptionally(ex);
+        return future;
     }
 
     /**
      * Perform a login for a given userId and password.
+     * Logins are performed one after another. Each login is performed as a chain of completion stages
+     * so that no thread is blocked while waiting for the authenticator and the monitor of the session manager
+     * is only held while its state is updated.
      *
      * @param id               Identifier of the user or client
      * @param loginCredentials credentials of the user/client to be logged in.
      * @param stayLoggedIn     flag to keep the user logged in and to auto extend the session if needed.
      * @param isUser           defines if the given id refers to a user or a client account.
+     * @param notify           flag defining if login observers are notified about the new session.
      *
-     * @return Returns true if login successful
-     *
-     * @throws NotAvailableException    If the entered clientId could not be found.
-     * @throws CouldNotPerformException In case of a communication error between client and server.
+     * @return a future which is completed with the logged in user and client. It fails with a NotAvailableException
+     * if the entered id could not be found and with a CouldNotPerformException in case of a communication error
+     * between client and server.
      */
-    private synchronized void internalLogin(final String id, final LoginCredentials loginCredentials, final boolean stayLoggedIn, final boolean isUser) throws CouldNotPerformException, NotAvailableException {
+    private CompletableFuture<UserClientPair> internalLogin(final String id, final LoginCredentials loginCredentials, final boolean stayLoggedIn, final boolean isUser, final boolean notify) {
+        synchronized (loginSync) {
+            // start the login after the previous one finished regardless of its result
+            final CompletableFuture<UserClientPair> login = lastLogin
+                    .handle((userClientPair, throwable) -> null)
+                    .thenCompose(ignored -> startLogin(id, loginCredentials, stayLoggedIn, isUser, notify));
+            lastLogin = login;
+            return login;
+        }
+    }
+
+    private CompletableFuture<UserClientPair> startLogin(final String id, final LoginCredentials loginCredentials, final boolean stayLoggedIn, final boolean isUser, final boolean notify) {
+        final UserClientPair loginUserClientPair;
+        final LoginCredentials userCredentials;
+        final LoginCredentials clientCredentials;
         try {
             // validate authentication property
             try {
@@ -329,159 +546,318 @@ public class SessionManager implements Shutdownable, Session {
                 throw new CouldNotPerformException("Could not check JPEnableAuthenticationProperty", ex);
             }
 
-            // handle cases when somebody is already logged in
-            if (this.isLoggedIn()) {
-                // do nothing if same user or client is already logged in
-                if (id.equals(this.userClientPair.getUserId()) || id.equals(this.userClientPair.getClientId())) {
-                    return;
+            synchronized (this) {
+                // handle cases when somebody is already logged in
+                if (this.isLoggedIn()) {
+                    // do nothing if same user or client is already logged in
+                    if (id.equals(this.userClientPair.getUserId()) || id.equals(this.userClientPair.getClientId())) {
+                        return CompletableFuture.completedFuture(getUserClientPair());
+                    }
+
+                    // cancel current ticket renewal task
+                    if (ticketRenewalTask != null && !ticketRenewalTask.isDone()) {
+                        ticketRenewalTask.cancel(true);
+                    }
+
+                    // if new client is logged in while a user is logged in the user has to be logged out
+                    if (!userClientPair.getUserId().isEmpty() && !isUser) {
+                        clearSession();
+                        userClientPair.clearUserId();
+                    }
                 }
 
-                // cancel current ticket renewal task
-                if (ticketRenewalTask != null && !ticketRenewalTask.isDone()) {
-                    ticketRenewalTask.cancel(true);
+                // save the new id
+                if (isUser) {
+                    userClientPair.setUserId(id);
+                } else {
+                    userClientPair.setClientId(id);
                 }
 
-                // if new client is logged in while a user is logged in the user has to be logged out
-                if (!userClientPair.getUserId().isEmpty() && !isUser) {
-                    this.logout();
+                // resolve user at client id and credentials
+                if (isUser) {
+                    // user is logged in so the parameters are his credentials
+                    userCredentials = loginCredentials;
+
+                    // if client was logged in get its credentials from the store
+                    if (!userClientPair.getClientId().isEmpty()) {
+                        clientCredentials = credentialStore.getCredentials(userClientPair.getClientId());
+                    } else {
+                        clientCredentials = null;
+                    }
+                } else {
+                    // client is logged in so the parameters are his credentials
+                    userCredentials = null;
+                    clientCredentials = loginCredentials;
                 }
+                loginUserClientPair = getUserClientPair();
             }
+        } catch (CouldNotPerformException ex) {
+            return failedLogin(handleLoginFailure(id, isUser, ex));
+        }
 
-            // save the new id
-            if (isUser) {
-                userClientPair.setUserId(id);
-            } else {
-                userClientPair.setClientId(id);
+        final AuthenticationRemote remote;
+        try {
+            remote = CachedAuthenticationRemote.getRemote();
+        } catch (NotAvailableException ex) {
+            return failedLogin(handleLoginFailure(id, isUser, new CouldNotPerformException("Could not login", ex)));
+        }
+
+        // request ticket granting ticket
+        return requestTicketGrantingTicket(remote, loginUserClientPair, reconnectPolicy, 1).thenApply(ticketSessionKeyWrapper -> {
+            // handle response
+            try {
+                return AuthenticationClientHandler.handleKeyDistributionCenterResponse(loginUserClientPair, userCredentials, clientCredentials, ticketSessionKeyWrapper);
+            } catch (CouldNotPerformException ex) {
+                throw new CompletionException(new CouldNotPerformException("Could not login", ex));
+            }
+        }).thenCompose(ticketGrantingServicePair ->
+                // request client server ticket
+                requestAsync(remote.requestClientServerTicket(ticketGrantingServicePair.getTicketAuthenticatorWrapper())).thenApply(ticketSessionKeyWrapper -> {
+                    // handle response
+                    try {
+                        return AuthenticationClientHandler.handleTicketGrantingServiceResponse(loginUserClientPair, ticketGrantingServicePair.getSessionKey(), ticketSessionKeyWrapper);
+                    } catch (CouldNotPerformException ex) {
+                        throw new CompletionException(new CouldNotPerformException("Could not login", ex));
+                    }
+                })
+        ).thenApply(clientServerPair -> {
+            try {
+                return applyLogin(loginUserClientPair, clientServerPair, stayLoggedIn, isUser, notify);
+            } catch (CouldNotPerformException ex) {
+                throw new CompletionException(new CouldNotPerformException("Could not login", ex));
+            }
+        }).handle((userClientPair, throwable) -> {
+            if (throwable == null) {
+                return userClientPair;
             }
+            final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+            throw new CompletionException(handleLoginFailure(id, isUser, cause));
+        });
+    }
 
-            // resolve user at client id and credentials
-            LoginCredentials userCredentials = null;
-            LoginCredentials clientCredentials = null;
-            if (isUser) {
-                // user is logged in so the parameters are his credentials
-                userCredentials = loginCredentials;
+    /**
+     * Request a ticket granting ticket. If the authenticator is overloaded and asks to retry later, the request is
+     * repeated according to the reconnect policy without blocking a thread.
+     *
+     * @param remote         the remote of the authenticator.
+     * @param userClientPair the user and client which are logged in.
+     * @param policy         the policy defining how often and when the request is repeated.
+     * @param attempt        the number of this attempt.
+     *
+     * @return a future of the response of the authenticator.
+     */
+    private CompletableFuture<TicketSessionKeyWrapper> requestTicketGrantingTicket(final AuthenticationRemote remote, final UserClientPair userClientPair, final ReconnectPolicy policy, final int attempt) {
+        return requestAsync(remote.requestTicketGrantingTicket(userClientPair)).handle((ticketSessionKeyWrapper, throwable) -> {
+            if (throwable == null) {
+                return CompletableFuture.completedFuture(ticketSessionKeyWrapper);
+            }
 
-                // if client was logged in get its credentials from the store
-                if (!userClientPair.getClientId().isEmpty()) {
-                    clientCredentials = credentialStore.getCredentials(userClientPair.getClientId());
-                }
-            } else {
-                // client is logged in so the parameters are his credentials
-                clientCredentials = loginCredentials;
+            if (attempt >= policy.getMaxAttempts() || RetryAfterException.parseRetryAfter(throwable) < 0) {
+                final CompletableFuture<TicketSessionKeyWrapper> future = new CompletableFuture<>();
+                future.completeExceptionally(throwable);
+                return future;
             }
 
-            try {
-                // request ticket granting ticket
-                TicketSessionKeyWrapper ticketSessionKeyWrapper = CachedAuthenticationRemote.getRemote().requestTicketGrantingTicket(getUserClientPair()).get(5, TimeUnit.SECONDS);
-                // handle response
+            final long delay = policy.getDelay(attempt, throwable);
+            LOGGER.info("Authenticator is overloaded, retry login in " + delay + "ms");
+            return delay(delay).thenCompose(ignored -> requestTicketGrantingTicket(remote, userClientPair, policy, attempt + 1));
+        }).thenCompose(future -> future);
+    }
 
-                TicketWrapperSessionKeyPair ticketWrapperSessionKeyPair = AuthenticationClientHandler.handleKeyDistributionCenterResponse(getUserClientPair(), userCredentials, clientCredentials, ticketSessionKeyWrapper);
+    /**
+     * Set the session established by a login and start the ticket renewal if required.
+     *
+     * @param loginUserClientPair the user and client for which the login was started.
+     * @param clientServerPair    the ticket and session key for the service servers.
+     * @param stayLoggedIn        flag to keep the user logged in and to auto extend the session if needed.
+     * @param isUser              defines if the login was performed for a user or a client account.
+     * @param notify              flag defining if login observers are notified about the new session.
+     *
+     * @return the logged in user and client.
+     *
+     * @throws CouldNotPerformException if the session has been changed while the login was performed.
+     */
+    private synchronized UserClientPair applyLogin(final UserClientPair loginUserClientPair, final TicketWrapperSessionKeyPair clientServerPair, final boolean stayLoggedIn, final boolean isUser, final boolean notify) throws CouldNotPerformException {
+        if (!loginUserClientPair.equals(getUserClientPair())) {
+            throw new CouldNotPerformException("Could not login because the session has been changed during the login");
+        }
 
-                // request client server ticket
-                ticketSessionKeyWrapper = CachedAuthenticationRemote.getRemote().requestClientServerTicket(ticketWrapperSessionKeyPair.getTicketAuthenticatorWrapper()).get(5, TimeUnit.SECONDS);
-                // handle response
-                ticketWrapperSessionKeyPair = AuthenticationClientHandler.handleTicketGrantingServiceResponse(getUserClientPair(), ticketWrapperSessionKeyPair.getSessionKey(), ticketSessionKeyWrapper);
-                this.ticketAuthenticatorWrapper = ticketWrapperSessionKeyPair.getTicketAuthenticatorWrapper();
-                this.sessionKey = ticketWrapperSessionKeyPair.getSessionKey();
+        this.ticketAuthenticatorWrapper = clientServerPair.getTicketAuthenticatorWrapper();
+        this.sessionKey = clientServerPair.getSessionKey();
+        this.sessionGeneration++;
 
-                notifyLoginObserver();
+        if (notify) {
+            notifyLoginObserver();
+        }
 
-                // user wants to stay logged or is a client so trigger a ticket renewal task
-                if (stayLoggedIn || !isUser) {
+        // user wants to stay logged or is a client so trigger a ticket renewal task
+        if (stayLoggedIn || !isUser) {
+            final long generation = sessionGeneration;
+            try {
+                final Long sessionTimeout = JPService.getProperty(JPSessionTimeout.class).getValue();
+                final long delay = (long) ((2 * sessionTimeout) / 4.0d);
+                ticketRenewalTask = GlobalScheduledExecutorService.scheduleWithFixedDelay(() -> {
                     try {
-                        final Long sessionTimeout = JPService.getProperty(JPSessionTimeout.class).getValue();
-                        final long delay = (long) ((2 * sessionTimeout) / 4.0d);
-                        ticketRenewalTask = GlobalScheduledExecutorService.scheduleWithFixedDelay(() -> {
+                        renewTicket();
+                    } catch (RejectedException ex) {
+                        // the authenticator rejected the ticket, e.g. because it has been restarted, so login again
+                        ExceptionPrinter.printHistory("Ticket renewal rejected, login again", ex, LOGGER, LogLevel.WARN);
+                        GlobalCachedExecutorService.submit((Callable<Void>) () -> {
                             try {
-                                renewTicket();
-                            } catch (CouldNotPerformException ex) {
-                                if(!ExceptionProcessor.isCausedBySystemShutdown(ex)) {
-                                    ExceptionPrinter.printHistory("Could not renew ticket", ex, LOGGER, LogLevel.WARN);
+                                reLogin(generation);
+                            } catch (CouldNotPerformException exx) {
+                                if (!ExceptionProcessor.isCausedBySystemShutdown(exx)) {
+                                    ExceptionPrinter.printHistory("Could not login again after ticket renewal was rejected", exx, LOGGER, LogLevel.WARN);
                                 }
-                            } catch (InterruptedException ex) {
-                                Thread.currentThread().interrupt();
                             }
-                        }, delay, delay, TimeUnit.MILLISECONDS);
-                    } catch (JPNotAvailableException ex) {
-                        if(!ExceptionProcessor.isCausedBySystemShutdown(ex)) {
-                            ExceptionPrinter.printHistory("Could not start ticket renewal task", ex, LOGGER, LogLevel.WARN);
+                            return null;
+                        });
+                    } catch (CouldNotPerformException ex) {
+                        if (!ExceptionProcessor.isCausedBySystemShutdown(ex)) {
+                            ExceptionPrinter.printHistory("Could not renew ticket", ex, LOGGER, LogLevel.WARN);
                         }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
                     }
+                }, delay, delay, TimeUnit.MILLISECONDS);
+            } catch (JPNotAvailableException ex) {
+                if (!ExceptionProcessor.isCausedBySystemShutdown(ex)) {
+                    ExceptionPrinter.printHistory("Could not start ticket renewal task", ex, LOGGER, LogLevel.WARN);
                 }
-            } catch (CouldNotPerformException ex) {
-                throw new CouldNotPerformException("Could not login", ex);
-            } catch (ExecutionException ex) {
-                Throwable cause = ex.getCause();
+            }
+        }
+        return getUserClientPair();
+    }
 
-                // Ugly workaround, as RSB wraps the stacktrace into the message string.
-                Pattern pattern = Pattern.compile("NotAvailableException: (.*)[\n\r]");
-                Matcher matcher = pattern.matcher(cause.getMessage());
+    /**
+     * Clear the id of a failed login and map the cause of the failure.
+     *
+     * @param id     the id of the user or client whose login failed.
+     * @param isUser defines if the id refers to a user or a client account.
+     * @param cause  the cause of the failure.
+     *
+     * @return the exception with which the login fails.
+     */
+    private synchronized CouldNotPerformException handleLoginFailure(final String id, final boolean isUser, final Throwable cause) {
+        final CouldNotPerformException ex;
+        if (cause instanceof ExecutionException) {
+            final Throwable remoteCause = cause.getCause();
 
-                if (matcher.find()) {
-                    ExceptionPrinter.printHistory(cause, LOGGER, LogLevel.ERROR);
-                    throw new NotAvailableException(matcher.group(1));
-                }
+            // Ugly workaround, as RSB wraps the stacktrace into the message string.
+            Pattern pattern = Pattern.compile("NotAvailableException: (.*)[\n\r]");
+            Matcher matcher = pattern.matcher(String.valueOf(remoteCause.getMessage()));
 
-                ExceptionPrinter.printHistory(cause, LOGGER, LogLevel.ERROR);
-                throw new CouldNotPerformException("Internal server error.", cause);
-            } catch (TimeoutException e) {
-                throw new org.openbase.jul.exception.TimeoutException("Requests to the authenticator timed out!");
-            } catch (InterruptedException ex) {
-                //TODO: handle me correctly
-                Thread.currentThread().interrupt();
-                throw new CouldNotPerformException(ex);
-            }
-        } catch (CouldNotPerformException ex) {
-            // clear id on failure
-            if (isUser) {
-                if (userClientPair.getUserId().equals(id)) {
-                    userClientPair.clearUserId();
-                }
+            ExceptionPrinter.printHistory(remoteCause, LOGGER, LogLevel.ERROR);
+            if (matcher.find()) {
+                ex = new NotAvailableException(matcher.group(1));
             } else {
-                if (userClientPair.getClientId().equals(id)) {
-                    userClientPair.clearClientId();
-                }
+                ex = new CouldNotPerformException("Internal server error.", remoteCause);
             }
-            // todo: @pleminoq anything else the reset?
-            // e.g. ticketAuthenticatorWrapper, sessionKey
+        } else if (cause instanceof TimeoutException) {
+            ex = new org.openbase.jul.exception.TimeoutException("Requests to the authenticator timed out!");
+        } else if (cause instanceof CouldNotPerformException) {
+            ex = (CouldNotPerformException) cause;
+        } else {
+            ex = new CouldNotPerformException("Could not login", cause);
+        }
 
-            LOGGER.info("Login failed: ", ex);
-            throw ex;
+        // clear id on failure
+        if (isUser) {
+            if (userClientPair.getUserId().equals(id)) {
+                userClientPair.clearUserId();
+            }
+        } else {
+            if (userClientPair.getClientId().equals(id)) {
+                userClientPair.clearClientId();
+            }
         }
+        // todo: @pleminoq anything else the reset?
+        // e.g. ticketAuthenticatorWrapper, sessionKey
+
+        LOGGER.info("Login failed: ", ex);
+        return ex;
     }
 
     /**
-     * {@inheritDoc}
+     * Convert the future of a request to the authenticator into a completable future which fails after the
+     * usual request timeout. A failure of the request is reported as an {@link ExecutionException} and a
+     * timeout as a {@link TimeoutException}.
+     *
+     * @param future the future of the request.
+     * @param <T>    the type of the response.
+     *
+     * @return a completable future of the response.
      */
-    @Override
-    public synchronized void logout() {
-        boolean stayLoggedIn = ticketRenewalTask != null && !ticketRenewalTask.isDone();
-        // cancel ticket renewal task
-        if (stayLoggedIn) {
-            ticketRenewalTask.cancel(true);
+    private static <T> CompletableFuture<T> requestAsync(final Future<T> future) {
+        final CompletableFuture<T> completableFuture = new CompletableFuture<>();
+        CompletableFutureAdapter.toCompletableFuture(future).whenComplete((value, throwable) -> {
+            if (throwable == null) {
+                completableFuture.complete(value);
+            } else {
+                completableFuture.completeExceptionally(new ExecutionException(throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable));
+            }
+        });
+        try {
+            final ScheduledFuture<?> timeoutTask = GlobalScheduledExecutorService.schedule(() -> {
+                if (completableFuture.completeExceptionally(new TimeoutException())) {
+                    // release the thread waiting for the response
+                    future.cancel(true);
+                }
+            }, REQUEST_TIMEOUT, TimeUnit.SECONDS);
+            completableFuture.whenComplete((value, throwable) -> timeoutTask.cancel(false));
+        } catch (NotAvailableException | RejectedExecutionException ex) {
+            ExceptionPrinter.printHistory("Could not schedule timeout of authenticator request", ex, LOGGER, LogLevel.WARN);
         }
+        return completableFuture;
+    }
 
-        // clear ticket and session key
+    /**
+     * Clear ticket and session key of the current session.
+     */
+    private synchronized void clearSession() {
         this.ticketAuthenticatorWrapper = null;
         this.sessionKey = null;
+        this.sessionGeneration++;
+    }
 
-        // if a user was logged in clear user id
-        if (!userClientPair.getUserId().isEmpty()) {
-            userClientPair.clearUserId();
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void logout() {
+        final boolean stayLoggedIn;
+        final String clientId;
+        synchronized (this) {
+            stayLoggedIn = ticketRenewalTask != null && !ticketRenewalTask.isDone();
+            // cancel ticket renewal task
+            if (stayLoggedIn) {
+                ticketRenewalTask.cancel(true);
+            }
 
-            // if a client was logged in additionally, log him in again
-            if (!userClientPair.getClientId().isEmpty()) {
-                try {
-                    loginClient(userClientPair.getClientId(), stayLoggedIn);
-                    // return because the login notifies observer already
-                    return;
-                } catch (CouldNotPerformException ex) {
-                    ExceptionPrinter.printHistory("Could not login as client again after user logout", ex, LOGGER, LogLevel.WARN);
-                }
+            // clear ticket and session key
+            clearSession();
+
+            // if a user was logged in clear user id
+            if (!userClientPair.getUserId().isEmpty()) {
+                userClientPair.clearUserId();
+                clientId = userClientPair.getClientId();
+            } else {
+                // only a client has been logged in so clear its id
+                userClientPair.clearClientId();
+                clientId = "";
+            }
+        }
+
+        // if a client was logged in additionally, log him in again
+        // this is done without holding the monitor because the login has to update the session
+        if (!clientId.isEmpty()) {
+            try {
+                loginClient(clientId, stayLoggedIn);
+                // return because the login notifies observer already
+                return;
+            } catch (CouldNotPerformException ex) {
+                ExceptionPrinter.printHistory("Could not login as client again after user logout", ex, LOGGER, LogLevel.WARN);
             }
-        } else if (!userClientPair.getClientId().isEmpty()) {
-            // only a client has been logged in so clear its id
-            userClientPair.clearClientId();
         }
 
         // notify observer of logout
@@ -500,6 +876,7 @@ public class SessionManager implements Shutdownable, Session {
         userClientPair.clearClientId();
         sessionKey = null;
         ticketAuthenticatorWrapper = null;
+        sessionGeneration++;
         notifyLoginObserver();
     }
 
@@ -507,10 +884,6 @@ public class SessionManager implements Shutdownable, Session {
      * Method notifies login observer with the current user at client id.
      */
     private void notifyLoginObserver() {
-        if (skipNotification) {
-            return;
-        }
-
         try {
             loginObservable.notifyObservers(getUserClientPair());
         } catch (CouldNotPerformException ex) {
@@ -607,34 +980,235 @@ public class SessionManager implements Shutdownable, Session {
      * @throws CouldNotPerformException {@inheritDoc}
      */
     @Override
-    public synchronized void reLogin() throws CouldNotPerformException {
-        // skip notifications
-        skipNotification = true;
+    public void reLogin() throws CouldNotPerformException {
+        reLogin(sessionGeneration);
+    }
+
+    /**
+     * Get the generation of the current session. The generation changes whenever the ticket and session key
+     * are replaced, e.g. by a login, logout or re-login.
+     *
+     * @return the generation of the current session
+     */
+    public long getSessionGeneration() {
+        return sessionGeneration;
+    }
+
+    /**
+     * Perform a re-login if the session of the given generation is still the current one.
+     * Concurrent calls for the same generation only lead to a single re-login and all of them return as soon as
+     * it is finished.
+     *
+     * @param generation the generation of the session which has been detected as invalid.
+     *
+     * @return true if this call performed the re-login and false if the session has already been replaced.
+     *
+     * @throws CouldNotPerformException if the re-login failed
+     */
+    public boolean reLogin(final long generation) throws CouldNotPerformException {
         try {
+            return reLoginAsync(generation).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CouldNotPerformException("Interrupted while logging in again", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof CouldNotPerformException) {
+                throw (CouldNotPerformException) ex.getCause();
+            }
+            throw new CouldNotPerformException("Could not login again", ex.getCause());
+        }
+    }
+
+    /**
+     * Perform a re-login if the session of the given generation is still the current one without blocking
+     * the calling thread. Delays of the reconnect policy are waited for by the global scheduled executor service.
+     *
+     * @param generation the generation of the session which has been detected as invalid.
+     *
+     * @return a future which is completed with true if this call performed the re-login and with false if the
+     * session has already been replaced. It is completed as soon as a re-login for this session is finished.
+     */
+    public CompletableFuture<Boolean> reLoginAsync(final long generation) {
+        synchronized (reLoginSync) {
+            if (generation == reLoginGeneration) {
+                // the session is already replaced by a concurrent re-login so just wait for it
+                return reLoginFuture.handle((reLoggedIn, throwable) -> false);
+            }
+
+            if (generation != sessionGeneration) {
+                // session has already been replaced, e.g. by a new login
+                return CompletableFuture.completedFuture(false);
+            }
+
+            reLoginGeneration = generation;
+            reLoginFuture = internalReLogin().thenApply(ignored -> true);
+            return reLoginFuture;
+        }
+    }
+
+    private CompletableFuture<Void> internalReLogin() {
+        final boolean stayLoggedIn;
+        final String userId;
+        final String clientId;
+        synchronized (this) {
             // save if user stayed logged in
-            final boolean stayLoggedIn = ticketRenewalTask != null && !ticketRenewalTask.isDone();
-            // save user and client id
-            final UserClientPair userClientPair = getUserClientPair();
-            // logout);
-            logout();
-            if (!userClientPair.getUserId().isEmpty() && credentialStore.hasEntry(userClientPair.getUserId())) {
-                // if user was save in store log him in again, this is valid because logout will login a client
-                // if a user was logged in at a client
-                loginUser(userClientPair.getUserId(), stayLoggedIn);
-            } else {
-                // user was not logged in so login the client again if possible
-                if (!userClientPair.getClientId().isEmpty() && credentialStore.hasEntry(userClientPair.getClientId())) {
-                    loginClient(userClientPair.getClientId(), stayLoggedIn);
-                }
+            stayLoggedIn = ticketRenewalTask != null && !ticketRenewalTask.isDone();
+            if (stayLoggedIn) {
+                ticketRenewalTask.cancel(true);
+            }
+
+            // resolve user and client which can be logged in again because their credentials are stored
+            userId = !userClientPair.getUserId().isEmpty() && credentialStore.hasEntry(userClientPair.getUserId()) ? userClientPair.getUserId() : "";
+            clientId = !userClientPair.getClientId().isEmpty() && credentialStore.hasEntry(userClientPair.getClientId()) ? userClientPair.getClientId() : "";
+
+            // clear the invalid session but keep the client id so that a user is logged in again on top of the client
+            clearSession();
+            userClientPair.clearUserId();
+            if (clientId.isEmpty()) {
+                userClientPair.clearClientId();
+            }
+        }
+
+        // the logins of the re-login do not notify, so observers are notified once about the new or the cleared session
+        return reconnect(userId, clientId, stayLoggedIn).whenComplete((ignored, throwable) -> notifyLoginObserver());
+    }
+
+    /**
+     * Login again with the stored credentials of a user or client without notifying login observers.
+     *
+     * @param id           the id of the user or client.
+     * @param stayLoggedIn flag to keep the user logged in and to auto extend the session if needed.
+     * @param isUser       defines if the given id refers to a user or a client account.
+     *
+     * @return a future which is completed with the logged in user and client.
+     */
+    private CompletableFuture<UserClientPair> loginAgain(final String id, final boolean stayLoggedIn, final boolean isUser) {
+        final LoginCredentials credentials;
+        try {
+            synchronized (this) {
+                credentials = credentialStore.getCredentials(id);
             }
         } catch (CouldNotPerformException ex) {
+            return failedLogin(new CouldNotPerformException("Could not login", ex));
+        }
+        return internalLogin(id, credentials, stayLoggedIn, isUser, false);
+    }
+
+    /**
+     * Login again according to the reconnect policy. The first attempt is delayed randomly and failed attempts
+     * are repeated with a backoff so that not all clients affected by an authenticator restart login at once.
+     * Additionally, the number of concurrent reconnects of this process is limited and an attempt which
+     * could not acquire a reconnect permit counts as failed.
+     *
+     * @param userId       the id of the user to be logged in again or an empty string if only the client is logged in again.
+     * @param clientId     the id of the client to be logged in again or an empty string if no client was logged in.
+     * @param stayLoggedIn flag to keep the user logged in and to auto extend the session if needed.
+     *
+     * @return a future which fails if all login attempts failed.
+     */
+    private CompletableFuture<Void> reconnect(final String userId, final String clientId, final boolean stayLoggedIn) {
+        if (userId.isEmpty() && clientId.isEmpty()) {
+            // nobody can be logged in again
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final ReconnectPolicy policy = reconnectPolicy;
+        return delay(policy.getInitialDelay()).thenCompose(ignored -> reconnect(userId, clientId, stayLoggedIn, policy, 1));
+    }
+
+    private CompletableFuture<Void> reconnect(final String userId, final String clientId, final boolean stayLoggedIn, final ReconnectPolicy policy, final int attempt) {
+        if (!CachedAuthenticationRemote.tryAcquireReconnectPermit()) {
+            // too many reconnects of this process are in progress so waiting for a permit counts as a failed attempt
+            return retry(userId, clientId, stayLoggedIn, policy, attempt, new CouldNotPerformException("Could not login because too many reconnects are in progress"));
+        }
+
+        final CompletableFuture<UserClientPair> login;
+        try {
+            login = !userId.isEmpty() ? loginAgain(userId, stayLoggedIn, true) : loginAgain(clientId, stayLoggedIn, false);
+        } catch (RuntimeException ex) {
+            CachedAuthenticationRemote.releaseReconnectPermit();
             throw ex;
-        } finally {
-            // enable notifications again
-            skipNotification = false;
         }
 
-        notifyLoginObserver();
+        return login.handle((loggedInUserClientPair, throwable) -> {
+            CachedAuthenticationRemote.releaseReconnectPermit();
+            return throwable;
+        }).thenCompose(throwable -> {
+            if (throwable == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+            return retry(userId, clientId, stayLoggedIn, policy, attempt, cause instanceof CouldNotPerformException ? (CouldNotPerformException) cause : new CouldNotPerformException("Could not login", cause));
+        });
+    }
+
+    /**
+     * Handle a failed reconnect attempt. The reconnect is repeated after the delay defined by the policy
+     * until its maximum number of attempts is reached. Then only the client is logged in again if a user
+     * and a client were logged in and the returned future fails.
+     *
+     * @param userId       the id of the user to be logged in again or an empty string if only the client is logged in again.
+     * @param clientId     the id of the client to be logged in again or an empty string if no client was logged in.
+     * @param stayLoggedIn flag to keep the user logged in and to auto extend the session if needed.
+     * @param policy       the reconnect policy used.
+     * @param attempt      the number of the failed attempt.
+     * @param ex           the reason why the attempt failed.
+     *
+     * @return a future of the next attempt or a failed future if no further attempt is made.
+     */
+    private CompletableFuture<Void> retry(final String userId, final String clientId, final boolean stayLoggedIn, final ReconnectPolicy policy, final int attempt, final CouldNotPerformException ex) {
+        if (attempt >= policy.getMaxAttempts() || ex instanceof NotAvailableException || ExceptionProcessor.isCausedBySystemShutdown(ex)) {
+            final CompletableFuture<Void> failure = new CompletableFuture<>();
+            if (!userId.isEmpty() && !clientId.isEmpty()) {
+                // at least login the client again
+                loginAgain(clientId, stayLoggedIn, false).whenComplete((clientUserClientPair, exx) -> {
+                    if (exx != null) {
+                        ExceptionPrinter.printHistory("Could not login as client again after user re-login failed", exx, LOGGER, LogLevel.WARN);
+                    }
+                    failure.completeExceptionally(ex);
+                });
+            } else {
+                failure.completeExceptionally(ex);
+            }
+            return failure;
+        }
+
+        final long delay = policy.getDelay(attempt, ex);
+        LOGGER.warn("Re-login attempt " + attempt + " failed, retry in " + delay + "ms");
+        return delay(delay).thenCompose(ignored -> reconnect(userId, clientId, stayLoggedIn, policy, attempt + 1));
+    }
+
+    /**
+     * Create a future which is completed after the given delay by the global scheduled executor service.
+     *
+     * @param delay the delay in milliseconds.
+     *
+     * @return a future completed after the delay.
+     */
+    private static CompletableFuture<Void> delay(final long delay) {
+        if (delay <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            GlobalScheduledExecutorService.schedule(() -> {
+                future.complete(null);
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (NotAvailableException | RejectedExecutionException ex) {
+            future.completeExceptionally(new CouldNotPerformException("Could not schedule delayed login", ex));
+        }
+        return future;
+    }
+
+    /**
+     * Set the policy defining how this session manager logs in again after its session became invalid.
+     *
+     * @param reconnectPolicy the new reconnect policy.
+     */
+    public void setReconnectPolicy(final ReconnectPolicy reconnectPolicy) {
+        this.reconnectPolicy = reconnectPolicy;
     }
 
     /**
@@ -662,7 +1236,7 @@ public class SessionManager implements Shutdownable, Session {
                 .setSymmetric(true)
                 .build();
 
-        return AuthenticatedServiceProcessor.requestAuthenticatedAction(loginCredentialsChange, LoginCredentialsChange.class, this, authenticatedValue -> CachedAuthenticationRemote.getRemote().changeCredentials(authenticatedValue));
+        return AuthenticatedServiceProcessor.requestAuthenticatedAction(loginCredentialsChange, LoginCredentialsChange.class, this, ReplayPolicy.IDEMPOTENT, authenticatedValue -> CachedAuthenticationRemote.getRemote().changeCredentials(authenticatedValue));
     }
 
     public synchronized String getCredentialHashFromLocalStore(String userId) throws CouldNotPerformException {
@@ -755,7 +1329,7 @@ public class SessionManager implements Shutdownable, Session {
             throw new CouldNotPerformException("Please log in first!");
         }
 
-        return AuthenticatedServiceProcessor.requestAuthenticatedAction(loginCredentials, LoginCredentials.class, this, authenticatedValue -> CachedAuthenticationRemote.getRemote().register(authenticatedValue));
+        return AuthenticatedServiceProcessor.requestAuthenticatedAction(loginCredentials, LoginCredentials.class, this, ReplayPolicy.IDEMPOTENT, authenticatedValue -> CachedAuthenticationRemote.getRemote().register(authenticatedValue));
     }
 
     public synchronized Future<String> removeUser(String id) throws CouldNotPerformException {
@@ -763,7 +1337,7 @@ public class SessionManager implements Shutdownable, Session {
             throw new CouldNotPerformException("You have to be an admin to perform this action");
         }
 
-        return AuthenticatedServiceProcessor.requestAuthenticatedAction(id, String.class, this, authenticatedValue -> CachedAuthenticationRemote.getRemote().removeUser(authenticatedValue));
+        return AuthenticatedServiceProcessor.requestAuthenticatedAction(id, String.class, this, ReplayPolicy.IDEMPOTENT, authenticatedValue -> CachedAuthenticationRemote.getRemote().removeUser(authenticatedValue));
     }
 
     public synchronized Future<LoginCredentials> setAdministrator(final String id, boolean isAdmin) throws CouldNotPerformException {
@@ -772,7 +1346,7 @@ public class SessionManager implements Shutdownable, Session {
         }
 
         final LoginCredentials loginCredentials = LoginCredentials.newBuilder().setId(id).setAdmin(isAdmin).build();
-        return AuthenticatedServiceProcessor.requestAuthenticatedAction(loginCredentials, LoginCredentials.class, this, authenticatedValue -> CachedAuthenticationRemote.getRemote().setAdministrator(authenticatedValue));
+        return AuthenticatedServiceProcessor.requestAuthenticatedAction(loginCredentials, LoginCredentials.class, this, ReplayPolicy.IDEMPOTENT, authenticatedValue -> CachedAuthenticationRemote.getRemote().setAdministrator(authenticatedValue));
     }
 
     /**
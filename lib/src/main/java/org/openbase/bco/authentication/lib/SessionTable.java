@@ -0,0 +1,327 @@
+package org.openbase.bco.authentication.lib;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import com.google.protobuf.ByteString;
+import org.openbase.bco.authentication.lib.exception.SessionExpiredException;
+import org.openbase.bco.authentication.lib.exception.SessionNotRegisteredException;
+import org.openbase.bco.authentication.lib.exception.SessionReplayException;
+import org.openbase.bco.authentication.lib.exception.SessionUnknownException;
+import org.openbase.jul.exception.CouldNotPerformException;
+import org.openbase.jul.exception.RejectedException;
+import org.openbase.type.domotic.authentication.TicketAuthenticatorWrapperType.TicketAuthenticatorWrapper;
+import org.openbase.type.domotic.authentication.UserClientPairType.UserClientPair;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Table of the sessions known to a service server which allows requests to identify their session by a session id
+ * instead of sending the full ticket.
+ * <p>
+ * A session is registered after its ticket has been verified. Its id is derived from the session key, so that client
+ * and server can compute it without exchanging it. A session request contains no ticket and a compact authenticator
+ * consisting of a version, the session id, a timestamp and a MAC computed with the session key over these values and
+ * the payload of the request. Timestamps have to be within the allowed time difference to the server and are only
+ * accepted once per session. Sessions expire if they have not been used for the validity time of tickets.
+ * Since the table is only kept in memory, requests for unknown sessions are rejected with a
+ * {@link SessionUnknownException} and have to be repeated with the full ticket. If the table is full, new sessions are
+ * not registered and their requests are rejected with a {@link SessionNotRegisteredException}, so that clients keep
+ * using their tickets. Requests with timestamps which cannot be accepted are rejected with a {@link SessionReplayException}
+ * and can be repeated with the full ticket as well.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class SessionTable {
+
+    /**
+     * Default maximal number of sessions kept in the table.
+     */
+    public static final int DEFAULT_MAX_SESSIONS = 10000;
+
+    private static final byte VERSION = 1;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final byte[] SESSION_ID_LABEL = "session-id".getBytes();
+    private static final int SESSION_ID_LENGTH = 16;
+    private static final int MAC_LENGTH = 32;
+    private static final int AUTHENTICATOR_LENGTH = 1 + SESSION_ID_LENGTH + Long.BYTES + MAC_LENGTH;
+
+    private static final ThreadLocal<Mac> MAC = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance(MAC_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("MAC algorithm[" + MAC_ALGORITHM + "] not available", ex);
+        }
+    });
+
+    /**
+     * Number of milliseconds before the latest timestamp of a session for which it is tracked if they have been used.
+     */
+    private static final int REPLAY_WINDOW = 1024;
+
+    private final Map<ByteString, Session> sessionMap;
+    private final long validityTime;
+    private final int maxSessions;
+
+    private volatile long lastEvictionTime;
+
+    /**
+     * Create a new session table.
+     *
+     * @param validityTime the time in milliseconds after which an unused session expires.
+     * @param maxSessions  the maximal number of sessions kept in the table.
+     */
+    public SessionTable(final long validityTime, final int maxSessions) {
+        this.sessionMap = new ConcurrentHashMap<>();
+        this.validityTime = validityTime;
+        this.maxSessions = maxSessions;
+        this.lastEvictionTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Register a session after its ticket has been verified.
+     *
+     * @param sessionKey     the session key.
+     * @param userClientPair the user client pair of the session.
+     *
+     * @return false if the session has not been registered because the table is full.
+     *
+     * @throws CouldNotPerformException if the session id cannot be computed.
+     */
+    public boolean register(final byte[] sessionKey, final UserClientPair userClientPair) throws CouldNotPerformException {
+        final long currentTime = System.currentTimeMillis();
+        evictExpiredSessions(currentTime);
+
+        final ByteString sessionId = computeSessionId(sessionKey);
+        final Session session = sessionMap.get(sessionId);
+        if (session != null && session.userClientPair.equals(userClientPair) && Arrays.equals(session.sessionKey, sessionKey)) {
+            session.expirationTime = currentTime + validityTime;
+            return true;
+        }
+
+        if (sessionMap.size() >= maxSessions) {
+            // the table is full so new sessions have to use their tickets
+            return false;
+        }
+        sessionMap.put(sessionId, new Session(sessionKey, userClientPair, currentTime + validityTime));
+        return true;
+    }
+
+    /**
+     * Verify a session request.
+     *
+     * @param wrapper the wrapper containing the compact authenticator of the request.
+     * @param payload the payload of the request covered by the MAC.
+     *
+     * @return authentication base data of the session, the ticket of which is the wrapper of the request.
+     *
+     * @throws SessionUnknownException  if the session is not known or expired, a {@link SessionNotRegisteredException} if the table is full.
+     * @throws SessionExpiredException  if the timestamp differs too much from the server time.
+     * @throws SessionReplayException   if the timestamp has already been used or is outside of the replay window.
+     * @throws RejectedException        if the MAC is invalid.
+     * @throws CouldNotPerformException if the MAC cannot be computed.
+     */
+    public AuthenticationBaseData verify(final TicketAuthenticatorWrapper wrapper, final ByteString payload) throws CouldNotPerformException {
+        if (!isSessionRequest(wrapper)) {
+            throw new RejectedException("Request does not contain a session authenticator");
+        }
+
+        final ByteBuffer authenticator = wrapper.getAuthenticator().asReadOnlyByteBuffer();
+        authenticator.get();
+        final byte[] sessionIdBytes = new byte[SESSION_ID_LENGTH];
+        authenticator.get(sessionIdBytes);
+        final long timestamp = authenticator.getLong();
+        final byte[] mac = new byte[MAC_LENGTH];
+        authenticator.get(mac);
+
+        final ByteString sessionId = ByteString.copyFrom(sessionIdBytes);
+        final Session session = sessionMap.get(sessionId);
+        final long currentTime = System.currentTimeMillis();
+        if (session == null) {
+            if (sessionMap.size() >= maxSessions) {
+                throw new SessionNotRegisteredException("Session is not registered because the session table of this server is full");
+            }
+            throw new SessionUnknownException("Session is not known by this server");
+        }
+        if (session.expirationTime < currentTime) {
+            sessionMap.remove(sessionId, session);
+            throw new SessionUnknownException("Session is not known by this server");
+        }
+
+        if (!MessageDigest.isEqual(mac, computeMac(session.sessionKey, sessionIdBytes, timestamp, payload))) {
+            throw new RejectedException("Session authenticator is invalid");
+        }
+
+        if (Math.abs(currentTime - timestamp) > AuthenticationServerHandler.MAX_TIME_DIFF_SERVER_CLIENT) {
+            throw new SessionExpiredException("Request timestamp differs too much from server time");
+        }
+
+        if (!session.markTimestamp(timestamp)) {
+            throw new SessionReplayException("Session authenticator has already been used or is outside of the replay window");
+        }
+
+        session.expirationTime = currentTime + validityTime;
+        return new AuthenticationBaseData(session.userClientPair, session.sessionKey, wrapper);
+    }
+
+    /**
+     * Remove all sessions.
+     */
+    public void clear() {
+        sessionMap.clear();
+    }
+
+    /**
+     * Test if a wrapper contains a compact session authenticator instead of a ticket.
+     *
+     * @param wrapper the wrapper to test.
+     *
+     * @return true if the wrapper belongs to a session request.
+     */
+    public static boolean isSessionRequest(final TicketAuthenticatorWrapper wrapper) {
+        return wrapper.getTicket().isEmpty()
+                && wrapper.getAuthenticator().size() == AUTHENTICATOR_LENGTH
+                && wrapper.getAuthenticator().byteAt(0) == VERSION;
+    }
+
+    /**
+     * Create the wrapper of a session request.
+     *
+     * @param sessionKey the session key.
+     * @param timestamp  the time of the request in milliseconds, which has to be unique for the session.
+     * @param payload    the payload of the request covered by the MAC.
+     *
+     * @return the wrapper containing the compact authenticator.
+     *
+     * @throws CouldNotPerformException if the MAC cannot be computed.
+     */
+    public static TicketAuthenticatorWrapper initSessionRequest(final byte[] sessionKey, final long timestamp, final ByteString payload) throws CouldNotPerformException {
+        final byte[] sessionId = computeSessionId(sessionKey).toByteArray();
+        final ByteBuffer authenticator = ByteBuffer.allocate(AUTHENTICATOR_LENGTH);
+        authenticator.put(VERSION);
+        authenticator.put(sessionId);
+        authenticator.putLong(timestamp);
+        authenticator.put(computeMac(sessionKey, sessionId, timestamp, payload));
+        return TicketAuthenticatorWrapper.newBuilder().setAuthenticator(ByteString.copyFrom(authenticator.array())).build();
+    }
+
+    private static ByteString computeSessionId(final byte[] sessionKey) throws CouldNotPerformException {
+        final Mac mac = createMac(sessionKey);
+        mac.update(SESSION_ID_LABEL);
+        return ByteString.copyFrom(mac.doFinal(), 0, SESSION_ID_LENGTH);
+    }
+
+    private static byte[] computeMac(final byte[] sessionKey, final byte[] sessionId, final long timestamp, final ByteString payload) throws CouldNotPerformException {
+        final Mac mac = createMac(sessionKey);
+        mac.update(VERSION);
+        mac.update(sessionId);
+        mac.update(ByteBuffer.allocate(Long.BYTES).putLong(timestamp).array());
+        mac.update(payload.asReadOnlyByteBuffer());
+        return mac.doFinal();
+    }
+
+    private static Mac createMac(final byte[] key) throws CouldNotPerformException {
+        try {
+            // the MAC of the thread is reused, which is safe because every use completes it before returning
+            final Mac mac = MAC.get();
+            mac.init(new SecretKeySpec(key, MAC_ALGORITHM));
+            return mac;
+        } catch (InvalidKeyException ex) {
+            throw new CouldNotPerformException("Could not initialize MAC", ex);
+        }
+    }
+
+    private void evictExpiredSessions(final long currentTime) {
+        // evict at most twice per validity time because sessions are also checked on access
+        if (currentTime - lastEvictionTime < validityTime / 2) {
+            return;
+        }
+        lastEvictionTime = currentTime;
+
+        final Iterator<Session> iterator = sessionMap.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().expirationTime < currentTime) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static class Session {
+        private final byte[] sessionKey;
+        private final UserClientPair userClientPair;
+        private final BitSet usedTimestamps;
+
+        private volatile long expirationTime;
+        private long latestTimestamp;
+
+        private Session(final byte[] sessionKey, final UserClientPair userClientPair, final long expirationTime) {
+            this.sessionKey = sessionKey;
+            this.userClientPair = userClientPair;
+            this.expirationTime = expirationTime;
+            this.usedTimestamps = new BitSet(REPLAY_WINDOW);
+            this.latestTimestamp = Long.MIN_VALUE;
+        }
+
+        /**
+         * Mark a timestamp as used. Timestamps older than the replay window relative to the latest timestamp
+         * are rejected because it cannot be told if they have been used.
+         *
+         * @param timestamp the timestamp of a request.
+         *
+         * @return false if the timestamp has already been used or is too old.
+         */
+        private synchronized boolean markTimestamp(final long timestamp) {
+            if (latestTimestamp == Long.MIN_VALUE || timestamp - latestTimestamp >= REPLAY_WINDOW) {
+                usedTimestamps.clear();
+                latestTimestamp = timestamp;
+            } else if (timestamp > latestTimestamp) {
+                // shift the window so that it ends at the new latest timestamp
+                final int shift = (int) (timestamp - latestTimestamp);
+                final BitSet shifted = usedTimestamps.get(shift, REPLAY_WINDOW);
+                usedTimestamps.clear();
+                usedTimestamps.or(shifted);
+                latestTimestamp = timestamp;
+            } else if (latestTimestamp - timestamp >= REPLAY_WINDOW) {
+                return false;
+            }
+
+            // bit index 0 is the oldest tracked timestamp, REPLAY_WINDOW - 1 the latest
+            final int index = (int) (REPLAY_WINDOW - 1 - (latestTimestamp - timestamp));
+            if (usedTimestamps.get(index)) {
+                return false;
+            }
+            usedTimestamps.set(index);
+            return true;
+        }
+    }
+}
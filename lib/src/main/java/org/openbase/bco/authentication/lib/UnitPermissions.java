@@ -0,0 +1,88 @@
+package org.openbase.bco.authentication.lib;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Result of a bulk permission evaluation containing the ids of all units which can be read, written or accessed.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class UnitPermissions {
+
+    private final Set<String> readableUnitIds;
+    private final Set<String> writableUnitIds;
+    private final Set<String> accessibleUnitIds;
+
+    UnitPermissions() {
+        this.readableUnitIds = new HashSet<>();
+        this.writableUnitIds = new HashSet<>();
+        this.accessibleUnitIds = new HashSet<>();
+    }
+
+    void add(final String unitId, final int permissionMask) {
+        if ((permissionMask & CompiledPermissionConfig.READ) != 0) {
+            readableUnitIds.add(unitId);
+        }
+        if ((permissionMask & CompiledPermissionConfig.WRITE) != 0) {
+            writableUnitIds.add(unitId);
+        }
+        if ((permissionMask & CompiledPermissionConfig.ACCESS) != 0) {
+            accessibleUnitIds.add(unitId);
+        }
+    }
+
+    void addAll(final UnitPermissions unitPermissions) {
+        readableUnitIds.addAll(unitPermissions.readableUnitIds);
+        writableUnitIds.addAll(unitPermissions.writableUnitIds);
+        accessibleUnitIds.addAll(unitPermissions.accessibleUnitIds);
+    }
+
+    public boolean canRead(final String unitId) {
+        return readableUnitIds.contains(unitId);
+    }
+
+    public boolean canWrite(final String unitId) {
+        return writableUnitIds.contains(unitId);
+    }
+
+    public boolean canAccess(final String unitId) {
+        return accessibleUnitIds.contains(unitId);
+    }
+
+    public Set<String> getReadableUnitIds() {
+        return Collections.unmodifiableSet(readableUnitIds);
+    }
+
+    public Set<String> getWritableUnitIds() {
+        return Collections.unmodifiableSet(writableUnitIds);
+    }
+
+    public Set<String> getAccessibleUnitIds() {
+        return Collections.unmodifiableSet(accessibleUnitIds);
+    }
+}
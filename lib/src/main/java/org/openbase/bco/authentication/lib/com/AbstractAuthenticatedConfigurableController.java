@@ -27,6 +27,8 @@ import com.google.protobuf.Message;
 import org.openbase.bco.authentication.lib.AuthenticatedServerManager;
 import org.openbase.bco.authentication.lib.AuthenticationBaseData;
 import org.openbase.bco.authentication.lib.EncryptionHelper;
+import org.openbase.bco.authentication.lib.PermissionEngine;
+import org.openbase.bco.authentication.lib.iface.AuthenticatedDeltaRequestable;
 import org.openbase.bco.authentication.lib.iface.AuthenticatedRequestable;
 import org.openbase.bco.authentication.lib.jp.JPAuthentication;
 import org.openbase.jps.core.JPService;
@@ -34,6 +36,7 @@ import org.openbase.jps.exception.JPNotAvailableException;
 import org.openbase.jul.exception.CouldNotPerformException;
 import org.openbase.jul.exception.InstantiationException;
 import org.openbase.jul.exception.InvalidStateException;
+import org.openbase.jul.exception.NotAvailableException;
 import org.openbase.jul.exception.printer.ExceptionPrinter;
 import org.openbase.jul.exception.printer.LogLevel;
 import org.openbase.jul.communication.controller.AbstractConfigurableController;
@@ -46,15 +49,46 @@ import rsb.converter.DefaultConverterRepository;
 import rsb.converter.ProtocolBufferConverter;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
 
-public abstract class AbstractAuthenticatedConfigurableController<M extends AbstractMessage & Serializable, MB extends M.Builder<MB>, CONFIG extends Message> extends AbstractConfigurableController<M, MB, CONFIG> implements AuthenticatedRequestable {
+public abstract class AbstractAuthenticatedConfigurableController<M extends AbstractMessage & Serializable, MB extends M.Builder<MB>, CONFIG extends Message> extends AbstractConfigurableController<M, MB, CONFIG> implements AuthenticatedRequestable, AuthenticatedDeltaRequestable {
 
     static {
         DefaultConverterRepository.getDefaultConverterRepository().addConverter(new ProtocolBufferConverter<>(TicketAuthenticatorWrapper.getDefaultInstance()));
+        DefaultConverterRepository.getDefaultConverterRepository().addConverter(new ProtocolBufferConverter<>(AuthenticatedValue.getDefaultInstance()));
     }
 
+    /**
+     * Maximal number of user client pairs for which filtered data is cached.
+     */
+    private static final int USER_DATA_CACHE_CAPACITY = 128;
+
+    private final FilteredDataCache<M, M> publicDataCache;
+    private final FilteredDataCache<M, byte[]> userDataCache;
+
+    /**
+     * Immutable snapshot of the data built whenever a data change is published or a request finds
+     * changes in the data builder which have not been published yet.
+     */
+    private volatile M dataSnapshot;
+
+    /**
+     * Version of the data incremented whenever the data snapshot changes.
+     */
+    private final AtomicLong dataVersion;
+    private final DataDeltaTracker<M> dataDeltaTracker;
+
+    /**
+     * Permission engine providing the permission version, null if the permission version is unknown.
+     */
+    private volatile PermissionEngine permissionEngine;
+
     public AbstractAuthenticatedConfigurableController(MB builder) throws InstantiationException {
         super(builder);
+        this.publicDataCache = new FilteredDataCache<>(1);
+        this.userDataCache = new FilteredDataCache<>(USER_DATA_CACHE_CAPACITY);
+        this.dataVersion = new AtomicLong();
+        this.dataDeltaTracker = new DataDeltaTracker<>(USER_DATA_CACHE_CAPACITY);
     }
 
     /**
@@ -67,6 +101,7 @@ public abstract class AbstractAuthenticatedConfigurableController<M extends Abst
     @Override
     public void registerMethods(final RSBLocalServer server) throws CouldNotPerformException {
         RPCHelper.registerInterface(AuthenticatedRequestable.class, this, server);
+        RPCHelper.registerInterface(AuthenticatedDeltaRequestable.class, this, server);
     }
 
     /**
@@ -80,7 +115,7 @@ public abstract class AbstractAuthenticatedConfigurableController<M extends Abst
     public M requestStatus() throws CouldNotPerformException {
         logger.debug("requestStatus of " + this);
         try {
-            return updateDataToPublish(cloneDataBuilder());
+            return publish(getDataSnapshot(), null);
         } catch (RuntimeException ex) {
             throw ex;
         } catch (Exception ex) {
@@ -99,32 +134,212 @@ public abstract class AbstractAuthenticatedConfigurableController<M extends Abst
         final AuthenticationBaseData authenticationBaseData = AuthenticatedServerManager.getInstance().verifyClientServerTicket(ticket);
 
         // filter data for user
-        M newData = filterDataForUser(cloneDataBuilder(), authenticationBaseData.getUserClientPair());
+        final byte[] serializedData = serializeDataForUser(authenticationBaseData.getUserClientPair());
+
+        // build response
+        AuthenticatedValue.Builder response = AuthenticatedValue.newBuilder();
+        response.setTicketAuthenticatorWrapper(authenticationBaseData.getTicketAuthenticatorWrapper());
+        response.setValue(EncryptionHelper.encryptSymmetricSerialized(serializedData, authenticationBaseData.getSessionKey()));
+
+        return response.build();
+    }
+
+    @Override
+    public AuthenticatedValue requestDataDeltaAuthenticated(final AuthenticatedValue request) throws CouldNotPerformException {
+        logger.debug("requestDataDeltaAuthenticated of " + this);
+        // evaluate the ticket
+        final AuthenticationBaseData authenticationBaseData = AuthenticatedServerManager.getInstance().verifyClientServerTicket(request);
+        final DataDeltaRequest deltaRequest = EncryptionHelper.decryptSymmetric(request.getValue(), authenticationBaseData.getSessionKey(), DataDeltaRequest.class);
+        final UserClientPair userClientPair = authenticationBaseData.getUserClientPair();
+
+        // resolve the versions before the data so that the data is at least as new as the versions stored with it
+        final long version = dataVersion.get();
+        final long permissionVersion = getPermissionVersion();
+        final DataDelta delta = dataDeltaTracker.createDelta(userClientPair, deltaRequest, version, permissionVersion, () -> getDataForUser(userClientPair));
 
         // build response
         AuthenticatedValue.Builder response = AuthenticatedValue.newBuilder();
         response.setTicketAuthenticatorWrapper(authenticationBaseData.getTicketAuthenticatorWrapper());
-        response.setValue(EncryptionHelper.encryptSymmetric(newData, authenticationBaseData.getSessionKey()));
+        response.setValue(EncryptionHelper.encryptSymmetric(delta, authenticationBaseData.getSessionKey()));
 
         return response.build();
     }
 
     @Override
     protected M updateDataToPublish(MB dataBuilder) throws CouldNotPerformException {
+        // requests reuse this snapshot and the data filtered for it as long as the data builder does not change
+        final M data = (M) dataBuilder.build();
+        dataSnapshot = data;
+        // increment the version after the snapshot so that a snapshot read after the version is at least as new
+        dataVersion.incrementAndGet();
+        return publish(data, dataBuilder);
+    }
+
+    /**
+     * Get the data filtered for publishing.
+     *
+     * @param data        the data to publish.
+     * @param dataBuilder a builder containing the data which can be modified while filtering or null if it should be created from the data.
+     *
+     * @return the data filtered for users which are not logged in or the data itself if authentication is disabled.
+     *
+     * @throws CouldNotPerformException if filtering fails.
+     */
+    private M publish(final M data, final MB dataBuilder) throws CouldNotPerformException {
         try {
             if (JPService.getProperty(JPAuthentication.class).getValue()) {
                 try {
-                    return filterDataForUser(dataBuilder, UserClientPair.getDefaultInstance());
+                    return filterPublicData(data, dataBuilder);
                 } catch (CouldNotPerformException ex) {
                     throw new CouldNotPerformException("Could not filter data builder for rights", ex);
                 }
             } else {
-                return (M) dataBuilder.build();
+                return data;
             }
         } catch (JPNotAvailableException ex) {
             throw new CouldNotPerformException("Could not update data to publish", ex);
         }
     }
 
+    /**
+     * Get a snapshot of the current data. The data builder is copied because it can contain changes which
+     * have not been published yet. If it equals the previous snapshot, the previous instance is returned so
+     * that the filtered data caches stay valid. Otherwise it replaces the previous snapshot and the data version
+     * is incremented.
+     *
+     * @return an immutable snapshot of the data.
+     */
+    private M getDataSnapshot() {
+        final M data = (M) cloneDataBuilder().build();
+        final M snapshot = dataSnapshot;
+        if (snapshot != null && snapshot.equals(data)) {
+            return snapshot;
+        }
+        dataSnapshot = data;
+        // increment the version after the snapshot so that a snapshot read after the version is at least as new
+        dataVersion.incrementAndGet();
+        return data;
+    }
+
+    /**
+     * Filter the data for users which are not logged in. The result is reused as long as neither the data nor the
+     * {@link #getPermissionVersion() permission version} change.
+     *
+     * @param data        the data to filter.
+     * @param dataBuilder a builder containing the data which can be modified while filtering or null if it should be created from the data.
+     *
+     * @return the data filtered for users which are not logged in.
+     *
+     * @throws CouldNotPerformException if filtering fails.
+     */
+    private M filterPublicData(final M data, final MB dataBuilder) throws CouldNotPerformException {
+        // resolve the version before filtering so that permission changes during filtering cause filtering again next time
+        final long permissionVersion = getPermissionVersion();
+        if (permissionVersion == FilteredDataCache.PERMISSION_VERSION_UNKNOWN) {
+            return filterDataForUser(dataBuilder != null ? dataBuilder : (MB) data.toBuilder(), UserClientPair.getDefaultInstance());
+        }
+
+        M publicData = publicDataCache.get(UserClientPair.getDefaultInstance(), data, permissionVersion);
+        if (publicData == null) {
+            publicData = filterDataForUser(dataBuilder != null ? dataBuilder : (MB) data.toBuilder(), UserClientPair.getDefaultInstance());
+            publicDataCache.put(UserClientPair.getDefaultInstance(), data, permissionVersion, publicData);
+        }
+        return publicData;
+    }
+
+    /**
+     * Filter the data for a user client pair and serialize the result for encryption. The serialized data is reused as long as
+     * neither the data nor the {@link #getPermissionVersion() permission version} change, so that only the encryption
+     * with the session key is repeated if remotes of the same user request unchanged data.
+     *
+     * @param userClientPair the user client pair for which the data is filtered.
+     *
+     * @return the serialized filtered data.
+     *
+     * @throws CouldNotPerformException if filtering or serializing fails.
+     */
+    private byte[] serializeDataForUser(final UserClientPair userClientPair) throws CouldNotPerformException {
+        final long permissionVersion = getPermissionVersion();
+        final M data = getDataSnapshot();
+        if (permissionVersion == FilteredDataCache.PERMISSION_VERSION_UNKNOWN) {
+            return serializeFilteredData((MB) data.toBuilder(), userClientPair);
+        }
+
+        byte[] serializedData = userDataCache.get(userClientPair, data, permissionVersion);
+        if (serializedData == null) {
+            serializedData = serializeFilteredData((MB) data.toBuilder(), userClientPair);
+            userDataCache.put(userClientPair, data, permissionVersion, serializedData);
+        }
+        return serializedData;
+    }
+
+    private M getDataForUser(final UserClientPair userClientPair) throws CouldNotPerformException {
+        return filterDataForUser((MB) getDataSnapshot().toBuilder(), userClientPair);
+    }
+
+    private byte[] serializeFilteredData(final MB dataBuilder, final UserClientPair userClientPair) throws CouldNotPerformException {
+        final M filteredData = filterDataForUser(dataBuilder, userClientPair);
+        if (filteredData == null) {
+            throw new NotAvailableException("data");
+        }
+        return EncryptionHelper.serialize(filteredData);
+    }
+
+    /**
+     * Get the version of the permissions used by {@link #filterDataForUser}.
+     * The version has to change whenever a permission relevant for filtering changes. By default, this is the
+     * version of the {@link #setPermissionEngine(PermissionEngine) permission engine} of this controller.
+     * <p>
+     * Note: without a permission engine this default returns {@link FilteredDataCache#PERMISSION_VERSION_UNKNOWN} which
+     * disables all caches of filtered data, i.e. data is filtered on every request and data deltas are computed by
+     * comparing the filtered data with the data last sent instead of answering unchanged data without filtering.
+     *
+     * @return the version of the permissions or {@link FilteredDataCache#PERMISSION_VERSION_UNKNOWN} if it is unknown.
+     */
+    protected long getPermissionVersion() {
+        final PermissionEngine engine = permissionEngine;
+        if (engine == null) {
+            return FilteredDataCache.PERMISSION_VERSION_UNKNOWN;
+        }
+        return engine.getVersion();
+    }
+
+    /**
+     * Enable the caches of filtered data by providing the permission version from a permission engine.
+     * The engine has to be updated with all changes of the units, locations and authorization groups which
+     * are evaluated by {@link #filterDataForUser}, e.g. by filtering with {@link PermissionEngine#canRead(String, UserClientPair)}.
+     *
+     * @param permissionEngine the permission engine or null to disable the caches again.
+     */
+    protected void setPermissionEngine(final PermissionEngine permissionEngine) {
+        this.permissionEngine = permissionEngine;
+        // the versions of different engines are not comparable
+        invalidateFilteredData();
+    }
+
+    /**
+     * Get the permission engine of this controller.
+     *
+     * @return the permission engine.
+     *
+     * @throws NotAvailableException if no permission engine has been set.
+     */
+    protected PermissionEngine getPermissionEngine() throws NotAvailableException {
+        final PermissionEngine engine = permissionEngine;
+        if (engine == null) {
+            throw new NotAvailableException("permission engine");
+        }
+        return engine;
+    }
+
+    /**
+     * Drop all cached filtered data, e.g. if permissions changed without a change of the {@link #getPermissionVersion() permission version}.
+     */
+    protected void invalidateFilteredData() {
+        publicDataCache.invalidate();
+        userDataCache.invalidate();
+        dataDeltaTracker.invalidate();
+    }
+
     protected abstract M filterDataForUser(final MB dataBuilder, final UserClientPair userClientPair) throws CouldNotPerformException;
 }
@@ -25,14 +25,13 @@ package org.openbase.bco.authentication.lib.com;
 import com.google.protobuf.Message;
 import org.openbase.bco.authentication.lib.SessionManager;
 import org.openbase.bco.authentication.lib.future.ReLoginFuture;
-import org.openbase.bco.authentication.lib.iface.AuthenticatedRequestable;
+import org.openbase.bco.authentication.lib.iface.AuthenticatedBroadcastRequestable;
 import org.openbase.jul.exception.CouldNotPerformException;
-import org.openbase.jul.exception.RejectedException;
 import org.openbase.jul.exception.printer.ExceptionPrinter;
 import org.openbase.jul.communication.controller.AbstractRemoteClient;
 import org.openbase.jul.pattern.Observer;
 import org.openbase.jul.schedule.FutureProcessor;
-import org.openbase.jul.schedule.GlobalCachedExecutorService;
+import org.openbase.type.domotic.authentication.AuthenticatedValueType.AuthenticatedValue;
 import org.openbase.type.domotic.authentication.TicketAuthenticatorWrapperType.TicketAuthenticatorWrapper;
 import org.openbase.type.domotic.authentication.UserClientPairType.UserClientPair;
 import rsb.Event;
@@ -46,12 +45,23 @@ public abstract class AbstractAuthenticatedRemoteClient<M extends Message> exten
 
     static {
         DefaultConverterRepository.getDefaultConverterRepository().addConverter(new ProtocolBufferConverter<>(TicketAuthenticatorWrapper.getDefaultInstance()));
+        DefaultConverterRepository.getDefaultConverterRepository().addConverter(new ProtocolBufferConverter<>(AuthenticatedValue.getDefaultInstance()));
     }
 
+    /**
+     * Maximal time in seconds to wait for a data request during a re-sync.
+     */
+    private static final long REQUEST_TIMEOUT = 10;
+
     /**
      * Observer updating data on login changes.
      */
     private final Observer<SessionManager, UserClientPair> loginObserver;
+    private final DataResyncCoalescer dataResync;
+    private final AuthenticatedMessageProcessor<M> messageProcessor;
+    private final DataDeltaRequester dataDeltaRequester;
+    private volatile int resyncPriority;
+    private volatile boolean broadcastDataEnabled;
     /**
      * Data object for other permissions;
      */
@@ -59,20 +69,19 @@ public abstract class AbstractAuthenticatedRemoteClient<M extends Message> exten
 
     public AbstractAuthenticatedRemoteClient(Class<M> dataClass) {
         super(dataClass);
-        this.setMessageProcessor(new AuthenticatedMessageProcessor<>(dataClass));
+        this.messageProcessor = new AuthenticatedMessageProcessor<>(dataClass);
+        this.setMessageProcessor(messageProcessor);
+        this.dataDeltaRequester = new DataDeltaRequester(messageProcessor, (methodName, event) -> getRemoteServer().callAsync(methodName, event));
 
+        this.dataResync = new DataResyncCoalescer(this::requestData, this::isSyncRunning);
+        this.resyncPriority = RemoteResyncCoordinator.DEFAULT_PRIORITY;
         this.loginObserver = (source, data) -> {
             // somebody new logged in
             if (otherData != null) {
                 setData(otherData);
             }
-            if (isSyncRunning()) {
-                // if a sync task is still running restart it
-                restartSyncTask();
-            } else {
-                // trigger a new data request to update data for the user
-                requestData();
-            }
+            // re-sync in coordination with all other remotes instead of all at once
+            RemoteResyncCoordinator.getInstance().schedule(getResyncScope(), this, resyncPriority, this::resyncAfterLoginChange);
         };
     }
 
@@ -85,16 +94,100 @@ public abstract class AbstractAuthenticatedRemoteClient<M extends Message> exten
     protected Future<Event> internalRequestStatus() {
         try {
             if (SessionManager.getInstance().isLoggedIn()) {
-                final Event event = new Event(TicketAuthenticatorWrapper.class, SessionManager.getInstance().initializeServiceServerRequest());
-                return new ReLoginFuture<>(getRemoteServer().callAsync(AuthenticatedRequestable.REQUEST_DATA_AUTHENTICATED_METHOD, event), SessionManager.getInstance());
+                // remember the session the request is based on so that concurrent failures trigger only one re-login
+                final long sessionGeneration = SessionManager.getInstance().getSessionGeneration();
+                if (broadcastDataEnabled) {
+                    // request data encrypted for the permission class of the user and decrypt it before processing
+                    final Event event = new Event(TicketAuthenticatorWrapper.class, SessionManager.getInstance().initializeServiceServerRequest());
+                    return new ReLoginFuture<>(getRemoteServer().callAsync(AuthenticatedBroadcastRequestable.REQUEST_BROADCAST_DATA_AUTHENTICATED_METHOD, event), SessionManager.getInstance(), sessionGeneration)
+                            .toCompletableFuture().thenApply(this::decryptBroadcastData);
+                }
+
+                // only request the changes since the data last received, the message processor applies them
+                return dataDeltaRequester.request(sessionGeneration);
             } else {
                 return super.internalRequestStatus();
             }
-        } catch (RejectedException ex) {
+        } catch (CouldNotPerformException ex) {
             return FutureProcessor.canceledFuture(Event.class, ex);
         }
     }
 
+    private Event decryptBroadcastData(final Event event) {
+        try {
+            final byte[] sessionKey = SessionManager.getInstance().getSessionKey();
+            if (sessionKey == null) {
+                // user has logged out while the request was running
+                throw new CouldNotPerformException("Could not decrypt broadcast data");
+            }
+
+            final AuthenticatedValue authenticatedValue = (AuthenticatedValue) event.getData();
+            final BroadcastData broadcastData = BroadcastData.parseFrom(authenticatedValue.getValue().toByteArray());
+            event.setData(broadcastData.decrypt(sessionKey, messageProcessor.getDataClass()));
+            return event;
+        } catch (CouldNotPerformException ex) {
+            throw new CompletionException(ex);
+        }
+    }
+
+    /**
+     * Enable requesting data encrypted for the permission class of the logged in user instead of data encrypted for its session.
+     * This requires that the controller supports broadcast encryption and knows its permission version, see
+     * {@link AbstractAuthenticatedControllerServer#getPermissionClass(UserClientPair)}.
+     *
+     * @param broadcastDataEnabled if broadcast data should be requested.
+     */
+    public void setBroadcastDataEnabled(final boolean broadcastDataEnabled) {
+        this.broadcastDataEnabled = broadcastDataEnabled;
+    }
+
+    /**
+     * Enable identifying the session by its id instead of sending the ticket with data requests after the
+     * controller verified the ticket once, see {@link org.openbase.bco.authentication.lib.SessionTable}.
+     *
+     * @param sessionRequestsEnabled if session requests should be used.
+     */
+    public void setSessionRequestsEnabled(final boolean sessionRequestsEnabled) {
+        dataDeltaRequester.setSessionRequestsEnabled(sessionRequestsEnabled);
+    }
+
+    /**
+     * Set the priority of the re-sync of this remote after a login change, see {@link RemoteResyncCoordinator}.
+     *
+     * @param resyncPriority the priority, remotes with a higher priority are re-synced first.
+     */
+    public void setResyncPriority(final int resyncPriority) {
+        this.resyncPriority = resyncPriority;
+    }
+
+    private void resyncAfterLoginChange() throws Exception {
+        if (isSyncRunning()) {
+            // if a sync task is still running restart it
+            restartSyncTask();
+        } else {
+            // trigger a new data request to update data for the user and wait so that the coordinator limits concurrent requests
+            requestData().get(REQUEST_TIMEOUT, TimeUnit.SECONDS);
+        }
+    }
+
+    private String getResyncScope() {
+        try {
+            return getScope().toString();
+        } catch (Exception ex) {
+            // not yet initialized so the remote is batched with other remotes without scope
+            return "";
+        }
+    }
+
+    /**
+     * Set the time to wait for further data updates of the controller before the data is requested again.
+     *
+     * @param debounceWindow the debounce window in milliseconds.
+     */
+    public void setDataResyncDebounceWindow(final long debounceWindow) {
+        dataResync.setDebounceWindow(debounceWindow);
+    }
+
     @Override
     public void activate() throws InterruptedException, CouldNotPerformException {
         super.activate();
@@ -104,6 +197,7 @@ public abstract class AbstractAuthenticatedRemoteClient<M extends Message> exten
     @Override
     public void deactivate() throws InterruptedException, CouldNotPerformException {
         SessionManager.getInstance().removeLoginObserver(loginObserver);
+        RemoteResyncCoordinator.getInstance().cancel(getResyncScope(), this);
         super.deactivate();
     }
 
@@ -116,26 +210,8 @@ public abstract class AbstractAuthenticatedRemoteClient<M extends Message> exten
                     otherData = (M) event.getData();
                     if (SessionManager.getInstance().isLoggedIn()) {
                         // received a new data event from the controller which is filtered for other permissions, so trigger an authenticated request
-                        GlobalCachedExecutorService.submit((Callable<Void>) () -> {
-                            if (isSyncRunning()) {
-                                // a sync task is currently running so wait for it to finish and trigger a new one
-                                // to make sure that the latest data update is received
-                                try {
-                                    requestData().get(10, TimeUnit.SECONDS);
-                                } catch (InterruptedException ex) {
-                                    Thread.currentThread().interrupt();
-                                    return null;
-                                } catch (ExecutionException | TimeoutException ex) {
-                                    throw new CouldNotPerformException("Could not wait for running sync task", ex);
-                                } catch (CancellationException ex) {
-                                    logger.error("Cancellation exception", ex);
-                                    // request data was cancelled and is most likely done again by the login observer
-                                    return null;
-                                }
-                            }
-                            requestData();
-                            return null;
-                        });
+                        // coalesce bursts of updates so that only the latest data is requested
+                        dataResync.trigger();
                     } else {
                         applyEventUpdate(event);
                     }
@@ -25,50 +25,136 @@ package org.openbase.bco.authentication.lib.com;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.Message;
 import org.openbase.bco.authentication.lib.EncryptionHelper;
+import org.openbase.bco.authentication.lib.MessageParserRegistry;
 import org.openbase.bco.authentication.lib.SessionManager;
 import org.openbase.jul.exception.CouldNotPerformException;
 import org.openbase.jul.extension.protobuf.processing.SimpleMessageProcessor;
 import org.openbase.type.domotic.authentication.AuthenticatedValueType.AuthenticatedValue;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 
 public class AuthenticatedMessageProcessor<M extends Message> extends SimpleMessageProcessor<M> {
 
+    /**
+     * The data last received as a {@link DataDelta} on which the next delta is based.
+     */
+    private M deltaData;
+    private long deltaEpoch;
+    private long deltaSequence;
+
     public AuthenticatedMessageProcessor(Class<M> dataClass) {
         super(dataClass);
+        this.deltaSequence = DataDelta.SEQUENCE_NONE;
     }
 
     @Override
     public M process(Message input) throws CouldNotPerformException, InterruptedException {
         if (input instanceof AuthenticatedValue) {
             AuthenticatedValue authenticatedValue = (AuthenticatedValue) input;
+            if (authenticatedValue.hasTicketAuthenticatorWrapper()) {
+                final Object value = getValueFromAuthenticatedValue(authenticatedValue, SessionManager.getInstance(), Object.class);
+                if (value instanceof DataDelta) {
+                    return super.process(applyDataDelta((DataDelta) value));
+                }
+                if (!getDataClass().isInstance(value)) {
+                    throw new CouldNotPerformException("Could not decrypt authenticated message to type[" + getDataClass().getSimpleName() + "]");
+                }
+                return super.process(getDataClass().cast(value));
+            }
             return super.process(getDataFromAuthenticatedValue(authenticatedValue, getDataClass()));
         } else {
             return super.process(input);
         }
     }
 
+    /**
+     * Create a request for the changes since the data last received as a {@link DataDelta}.
+     *
+     * @return the delta request.
+     */
+    public synchronized DataDeltaRequest getDataDeltaRequest() {
+        if (deltaData == null) {
+            return DataDeltaRequest.INITIAL;
+        }
+        return new DataDeltaRequest(deltaEpoch, deltaSequence);
+    }
+
+    /**
+     * Apply a delta to the data last received.
+     *
+     * @param delta the delta received from the controller.
+     *
+     * @return the new data.
+     *
+     * @throws CouldNotPerformException if the delta is not based on the data last received.
+     */
+    private synchronized M applyDataDelta(final DataDelta delta) throws CouldNotPerformException {
+        if (delta.getType() == DataDelta.Type.SNAPSHOT) {
+            if (deltaData != null && delta.getEpoch() == deltaEpoch && delta.getSequence() < deltaSequence) {
+                // a newer response has already been applied
+                return deltaData;
+            }
+            return updateDeltaData(parse(delta.getData()), delta);
+        }
+
+        if (deltaData == null || delta.getEpoch() != deltaEpoch) {
+            resetDeltaData();
+            throw new CouldNotPerformException("Could not apply data delta because its base is not available");
+        }
+
+        if (delta.getBaseSequence() != deltaSequence) {
+            if (delta.getSequence() <= deltaSequence) {
+                // a newer response has already been applied
+                return deltaData;
+            }
+            resetDeltaData();
+            throw new CouldNotPerformException("Could not apply data delta because it is based on other data");
+        }
+
+        if (delta.getType() == DataDelta.Type.UNCHANGED) {
+            return deltaData;
+        }
+        return updateDeltaData(delta.apply(deltaData, parse(delta.getData())), delta);
+    }
+
+    private M updateDeltaData(final M data, final DataDelta delta) {
+        deltaData = data;
+        deltaEpoch = delta.getEpoch();
+        deltaSequence = delta.getSequence();
+        return data;
+    }
+
+    private void resetDeltaData() {
+        // the next request is answered with a snapshot
+        deltaData = null;
+        deltaSequence = DataDelta.SEQUENCE_NONE;
+    }
+
+    private M parse(final byte[] data) throws CouldNotPerformException {
+        return parseData(ByteString.copyFrom(data), getDataClass());
+    }
+
     public static <M extends Message> M getDataFromAuthenticatedValue(final AuthenticatedValue authenticatedValue, final Class<M> dataClass) throws CouldNotPerformException {
         return getDataFromAuthenticatedValue(authenticatedValue, SessionManager.getInstance(), dataClass);
     }
 
     public static <M extends Message> M getDataFromAuthenticatedValue(final AuthenticatedValue authenticatedValue, final SessionManager sessionManager, final Class<M> dataClass) throws CouldNotPerformException {
         if (authenticatedValue.hasTicketAuthenticatorWrapper()) {
-            final byte[] sessionKey = sessionManager.getSessionKey();
-            if (sessionKey == null) {
-                // user has logged out while the request was running
-                throw new CouldNotPerformException("Could not decrypt authenticated message");
-            }
-
-            return EncryptionHelper.decryptSymmetric(authenticatedValue.getValue(), sessionKey, dataClass);
+            return getValueFromAuthenticatedValue(authenticatedValue, sessionManager, dataClass);
         } else {
-            try {
-                Method parseFrom = dataClass.getMethod("parseFrom", ByteString.class);
-                return (M) parseFrom.invoke(null, authenticatedValue.getValue());
-            } catch (NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
-                throw new CouldNotPerformException("Could not invoke parseFrom method on [" + dataClass.getSimpleName() + "]", ex);
-            }
+            return parseData(authenticatedValue.getValue(), dataClass);
         }
     }
+
+    private static <T> T getValueFromAuthenticatedValue(final AuthenticatedValue authenticatedValue, final SessionManager sessionManager, final Class<T> valueClass) throws CouldNotPerformException {
+        final byte[] sessionKey = sessionManager.getSessionKey();
+        if (sessionKey == null) {
+            // user has logged out while the request was running
+            throw new CouldNotPerformException("Could not decrypt authenticated message");
+        }
+        return EncryptionHelper.decryptSymmetric(authenticatedValue.getValue(), sessionKey, valueClass);
+    }
+
+    private static <M extends Message> M parseData(final ByteString data, final Class<M> dataClass) throws CouldNotPerformException {
+        return MessageParserRegistry.parseFrom(data, dataClass);
+    }
 }
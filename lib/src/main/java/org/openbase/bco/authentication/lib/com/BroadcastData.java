@@ -0,0 +1,133 @@
+package org.openbase.bco.authentication.lib.com;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.openbase.bco.authentication.lib.EncryptionHelper;
+import org.openbase.jul.exception.CouldNotPerformException;
+import org.openbase.jul.exception.InvalidStateException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Data encrypted for a permission class. The data is encrypted with the group key of the class which is shared
+ * by all its members, while the group key is encrypted with the session key of the receiver.
+ * <p>
+ * Broadcast data is transferred in a fixed binary layout, see {@link #toByteArray()}, instead of being serialized as
+ * object because it is received before anything has been decrypted. Only the decrypted key and data are deserialized.
+ */
+public class BroadcastData {
+
+    /**
+     * Size of the header containing the key id and the length of the encrypted key.
+     */
+    private static final int HEADER_SIZE = Long.BYTES + Integer.BYTES;
+
+    private final long keyId;
+    private final byte[] encryptedKey;
+    private final byte[] encryptedData;
+
+    /**
+     * Create new broadcast data.
+     *
+     * @param keyId         the id of the group key.
+     * @param encryptedKey  the group key encrypted with the session key of the receiver.
+     * @param encryptedData the data encrypted with the group key.
+     */
+    public BroadcastData(final long keyId, final byte[] encryptedKey, final byte[] encryptedData) {
+        this.keyId = keyId;
+        this.encryptedKey = encryptedKey;
+        this.encryptedData = encryptedData;
+    }
+
+    public long getKeyId() {
+        return keyId;
+    }
+
+    public byte[] getEncryptedKey() {
+        return encryptedKey;
+    }
+
+    public byte[] getEncryptedData() {
+        return encryptedData;
+    }
+
+    /**
+     * Write the broadcast data in the layout: key id (8 bytes), length of the encrypted key (4 bytes),
+     * the encrypted key and the encrypted data.
+     *
+     * @return the broadcast data as bytes.
+     */
+    public byte[] toByteArray() {
+        return ByteBuffer.allocate(HEADER_SIZE + encryptedKey.length + encryptedData.length)
+                .putLong(keyId)
+                .putInt(encryptedKey.length)
+                .put(encryptedKey)
+                .put(encryptedData)
+                .array();
+    }
+
+    /**
+     * Read broadcast data written by {@link #toByteArray()}.
+     *
+     * @param bytes the broadcast data as bytes.
+     *
+     * @return the broadcast data.
+     *
+     * @throws CouldNotPerformException if the bytes do not contain valid broadcast data.
+     */
+    public static BroadcastData parseFrom(final byte[] bytes) throws CouldNotPerformException {
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            final long keyId = buffer.getLong();
+            final int keyLength = buffer.getInt();
+            if (keyLength < 0 || keyLength > buffer.remaining()) {
+                throw new InvalidStateException("Invalid key length " + keyLength);
+            }
+            final byte[] encryptedKey = new byte[keyLength];
+            buffer.get(encryptedKey);
+            final byte[] encryptedData = new byte[buffer.remaining()];
+            buffer.get(encryptedData);
+            return new BroadcastData(keyId, encryptedKey, encryptedData);
+        } catch (BufferUnderflowException | InvalidStateException ex) {
+            throw new CouldNotPerformException("Could not parse broadcast data", ex);
+        }
+    }
+
+    /**
+     * Decrypt the data with the session key of the receiver.
+     *
+     * @param sessionKey the session key of the receiver.
+     * @param dataClass  the class of the data.
+     * @param <T>        the type of the data.
+     *
+     * @return the decrypted data.
+     *
+     * @throws CouldNotPerformException if decrypting fails.
+     */
+    public <T> T decrypt(final byte[] sessionKey, final Class<T> dataClass) throws CouldNotPerformException {
+        final byte[] groupKey = EncryptionHelper.decrypt(encryptedKey, sessionKey, byte[].class, true);
+        return EncryptionHelper.decrypt(encryptedData, groupKey, dataClass, true);
+    }
+}
@@ -0,0 +1,241 @@
+package org.openbase.bco.authentication.lib.com;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import com.google.protobuf.Message;
+import org.openbase.bco.authentication.lib.EncryptionHelper;
+import org.openbase.jul.exception.CouldNotPerformException;
+import org.openbase.jul.exception.NotAvailableException;
+import org.openbase.type.domotic.authentication.UserClientPairType.UserClientPair;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encryption of data for permission classes of an authenticated controller.
+ * <p>
+ * All user client pairs of a permission class receive the same filtered data. It is encrypted once per class with a
+ * group key, so that only the group key has to be encrypted with the session key of each receiver. The encrypted data
+ * is reused as long as neither the data, the permission version nor the group key change.
+ * The group keys of all classes are replaced if the permission version changes because members may have been revoked.
+ * Additionally, the group key of a class is replaced if a member moves to another class, if the class membership of its
+ * last tracked member is no longer tracked or if the key exceeds its lifetime, so that former members cannot decrypt data
+ * sent afterwards. An untracked member of a class which still has tracked members can use the key until it expires.
+ * Broadcast encryption requires a known permission version because otherwise revoked members could not be detected.
+ *
+ * @param <M> the type of the data.
+ */
+public class BroadcastEncryption<M extends Message & Serializable> {
+
+    /**
+     * Maximal time in milliseconds a group key is used.
+     */
+    public static final long KEY_LIFETIME = TimeUnit.HOURS.toMillis(1);
+
+    private final Map<String, PermissionClass<M>> permissionClassMap;
+    private final Map<UserClientPair, String> memberMap;
+    private final Map<String, Integer> memberCountMap;
+
+    private long nextKeyId;
+
+    /**
+     * Latest permission version for which the group keys have been generated.
+     */
+    private long keyPermissionVersion;
+
+    /**
+     * Create a new broadcast encryption.
+     *
+     * @param capacity the maximal number of user client pairs for which their permission class is tracked.
+     */
+    public BroadcastEncryption(final int capacity) {
+        this.permissionClassMap = new HashMap<>();
+        this.memberCountMap = new HashMap<>();
+        this.keyPermissionVersion = FilteredDataCache.PERMISSION_VERSION_UNKNOWN;
+        this.memberMap = new LinkedHashMap<UserClientPair, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<UserClientPair, String> eldest) {
+                if (size() <= capacity) {
+                    return false;
+                }
+                // a move of the evicted member to another class could not be detected anymore, so the class key is dropped
+                // if no other member of the class is tracked, otherwise the key is kept for them until it expires
+                if (removeMember(eldest.getValue())) {
+                    permissionClassMap.remove(eldest.getValue());
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Get the data of a permission class encrypted for a user client pair.
+     *
+     * @param permissionClass   the permission class of the user client pair.
+     * @param userClientPair    the user client pair receiving the data.
+     * @param sessionKey        the session key of the user client pair.
+     * @param data              the unfiltered data.
+     * @param permissionVersion the version of the permissions used for filtering. It has to be resolved before the data is supplied.
+     * @param dataSupplier      supplier of the data filtered for the user client pair, only called if no encrypted data of the class is available.
+     *
+     * @return the broadcast data for the user client pair.
+     *
+     * @throws CouldNotPerformException if the permission version is unknown or if filtering or encrypting fails.
+     */
+    public BroadcastData getBroadcastData(final String permissionClass, final UserClientPair userClientPair, final byte[] sessionKey, final M data, final long permissionVersion, final DataDeltaTracker.DataSupplier<M> dataSupplier) throws CouldNotPerformException {
+        if (permissionVersion == FilteredDataCache.PERMISSION_VERSION_UNKNOWN) {
+            throw new CouldNotPerformException("Could not encrypt broadcast data because the permission version is unknown");
+        }
+
+        final GroupKey groupKey;
+        byte[] encryptedData;
+        synchronized (this) {
+            groupKey = getGroupKey(permissionClass, userClientPair, permissionVersion);
+            final PermissionClass<M> entry = permissionClassMap.get(permissionClass);
+            encryptedData = entry != null ? entry.getEncryptedData(groupKey, data, permissionVersion) : null;
+        }
+
+        if (encryptedData == null) {
+            final M filteredData = dataSupplier.get();
+            if (filteredData == null) {
+                throw new NotAvailableException("data");
+            }
+            encryptedData = EncryptionHelper.encryptSerialized(EncryptionHelper.serialize(filteredData), groupKey.key, true);
+
+            synchronized (this) {
+                final PermissionClass<M> entry = permissionClassMap.get(permissionClass);
+                if (entry != null) {
+                    entry.putEncryptedData(groupKey, data, permissionVersion, encryptedData);
+                }
+            }
+        }
+
+        return new BroadcastData(groupKey.id, EncryptionHelper.encrypt(groupKey.key, sessionKey, true), encryptedData);
+    }
+
+    /**
+     * Remove all permission classes so that new group keys are generated and data is encrypted again.
+     */
+    public synchronized void invalidate() {
+        permissionClassMap.clear();
+        memberMap.clear();
+        memberCountMap.clear();
+    }
+
+    private GroupKey getGroupKey(final String permissionClass, final UserClientPair userClientPair, final long permissionVersion) {
+        final String previousClass = memberMap.get(userClientPair);
+        if (!permissionClass.equals(previousClass)) {
+            // count the member before it is tracked so that an eviction caused by it keeps the key of its class
+            memberCountMap.merge(permissionClass, 1, Integer::sum);
+        }
+        memberMap.put(userClientPair, permissionClass);
+        if (previousClass != null && !previousClass.equals(permissionClass)) {
+            // the member has left its previous class so it must not be able to decrypt its data anymore
+            removeMember(previousClass);
+            permissionClassMap.remove(previousClass);
+        }
+
+        if (permissionVersion > keyPermissionVersion) {
+            // members may have been revoked from any class
+            permissionClassMap.clear();
+            keyPermissionVersion = permissionVersion;
+        } else if (permissionVersion < keyPermissionVersion) {
+            // the permission class has been resolved with outdated permissions, so the current key of the class must not be shared
+            return new GroupKey(nextKeyId++, EncryptionHelper.generateKey());
+        }
+
+        PermissionClass<M> entry = permissionClassMap.get(permissionClass);
+        if (entry == null || entry.groupKey.isExpired()) {
+            entry = new PermissionClass<>(new GroupKey(nextKeyId++, EncryptionHelper.generateKey()));
+            permissionClassMap.put(permissionClass, entry);
+        }
+        return entry.groupKey;
+    }
+
+    /**
+     * Remove a member from the count of tracked members of a permission class.
+     *
+     * @param permissionClass the class of the member.
+     *
+     * @return true if no member of the class is tracked anymore.
+     */
+    private boolean removeMember(final String permissionClass) {
+        return memberCountMap.computeIfPresent(permissionClass, (key, count) -> count > 1 ? count - 1 : null) == null;
+    }
+
+    private static class GroupKey {
+        private final long id;
+        private final byte[] key;
+        private final long creationTime;
+
+        private GroupKey(final long id, final byte[] key) {
+            this.id = id;
+            this.key = key;
+            this.creationTime = System.currentTimeMillis();
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() - creationTime > KEY_LIFETIME;
+        }
+    }
+
+    private static class PermissionClass<M extends Message> {
+        private final GroupKey groupKey;
+        private M data;
+        private long permissionVersion;
+        private byte[] encryptedData;
+
+        private PermissionClass(final GroupKey groupKey) {
+            this.groupKey = groupKey;
+            this.permissionVersion = FilteredDataCache.PERMISSION_VERSION_UNKNOWN;
+        }
+
+        private byte[] getEncryptedData(final GroupKey groupKey, final M data, final long permissionVersion) {
+            if (!isValid(groupKey, data, permissionVersion)) {
+                return null;
+            }
+            return encryptedData;
+        }
+
+        private void putEncryptedData(final GroupKey groupKey, final M data, final long permissionVersion, final byte[] encryptedData) {
+            if (groupKey != this.groupKey || permissionVersion == FilteredDataCache.PERMISSION_VERSION_UNKNOWN || permissionVersion < this.permissionVersion) {
+                return;
+            }
+            this.data = data;
+            this.permissionVersion = permissionVersion;
+            this.encryptedData = encryptedData;
+        }
+
+        private boolean isValid(final GroupKey groupKey, final M data, final long permissionVersion) {
+            return encryptedData != null
+                    && groupKey == this.groupKey
+                    && permissionVersion != FilteredDataCache.PERMISSION_VERSION_UNKNOWN
+                    && permissionVersion == this.permissionVersion
+                    && (data == this.data || data.equals(this.data));
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package org.openbase.bco.authentication.lib.com;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.Message;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Response of an authenticated controller to a {@link DataDeltaRequest}.
+ * <p>
+ * Each response containing data is identified by the epoch of the controller and a sequence number. A remote sends
+ * both with its next request so that the controller can answer with the fields which changed since then.
+ * A diff contains all top level fields which have changed and the serialized message containing their new values.
+ * To apply it, the changed fields are cleared in the last data received and the new values are merged into it.
+ * <p>
+ * Repeated message fields whose elements are identified by an {@value #ID_FIELD} field, e.g. the unit configs of a
+ * registry, are diffed by element instead. Only added and changed elements are transferred together with the ids of
+ * removed elements, so the size of a diff scales with the number of changed elements. This requires that the remaining
+ * elements keep their order, that new elements are appended and that ids are unique. Otherwise, the whole field is
+ * transferred.
+ */
+public class DataDelta implements Serializable {
+
+    /**
+     * Sequence number used if no data has been received.
+     */
+    public static final long SEQUENCE_NONE = -1;
+
+    /**
+     * Name of the field identifying the elements of repeated message fields which are diffed by element.
+     */
+    public static final String ID_FIELD = "id";
+
+    public enum Type {
+        /**
+         * The data has not changed since the last response.
+         */
+        UNCHANGED,
+        /**
+         * The response contains the fields which changed since the last response.
+         */
+        DIFF,
+        /**
+         * The response contains the complete data.
+         */
+        SNAPSHOT
+    }
+
+    private final Type type;
+    private final long epoch;
+    private final long baseSequence;
+    private final long sequence;
+    private final byte[] data;
+    private final int[] changedFields;
+    private final int[] elementFields;
+    private final String[][] removedElementIds;
+
+    private DataDelta(final Type type, final long epoch, final long baseSequence, final long sequence, final byte[] data, final int[] changedFields) {
+        this(type, epoch, baseSequence, sequence, data, changedFields, new int[0], new String[0][]);
+    }
+
+    private DataDelta(final Type type, final long epoch, final long baseSequence, final long sequence, final byte[] data, final int[] changedFields, final int[] elementFields, final String[][] removedElementIds) {
+        this.type = type;
+        this.epoch = epoch;
+        this.baseSequence = baseSequence;
+        this.sequence = sequence;
+        this.data = data;
+        this.changedFields = changedFields;
+        this.elementFields = elementFields;
+        this.removedElementIds = removedElementIds;
+    }
+
+    /**
+     * Create a response telling that the data has not changed.
+     *
+     * @param epoch    the epoch of the controller.
+     * @param sequence the sequence number of the data the remote already received.
+     *
+     * @return the response.
+     */
+    public static DataDelta unchanged(final long epoch, final long sequence) {
+        return new DataDelta(Type.UNCHANGED, epoch, sequence, sequence, new byte[0], new int[0]);
+    }
+
+    /**
+     * Create a response containing the complete data.
+     *
+     * @param epoch    the epoch of the controller.
+     * @param sequence the sequence number of the data.
+     * @param data     the data.
+     *
+     * @return the response.
+     */
+    public static DataDelta snapshot(final long epoch, final long sequence, final Message data) {
+        return new DataDelta(Type.SNAPSHOT, epoch, SEQUENCE_NONE, sequence, data.toByteArray(), new int[0]);
+    }
+
+    /**
+     * Create a response containing the changes between two messages. If no field has changed an unchanged response
+     * based on the old sequence number is created, and if the diff is not smaller than the new data a snapshot.
+     *
+     * @param epoch        the epoch of the controller.
+     * @param baseSequence the sequence number of the data the remote already received.
+     * @param sequence     the sequence number of the new data.
+     * @param base         the data the remote already received.
+     * @param data         the new data.
+     *
+     * @return the response.
+     */
+    public static DataDelta diff(final long epoch, final long baseSequence, final long sequence, final Message base, final Message data) {
+        final Map<FieldDescriptor, Object> baseFields = base.getAllFields();
+        final Map<FieldDescriptor, Object> dataFields = data.getAllFields();
+        final Set<FieldDescriptor> fields = new HashSet<>(baseFields.keySet());
+        fields.addAll(dataFields.keySet());
+
+        final Message.Builder changes = data.newBuilderForType();
+        final List<Integer> changedFieldList = new ArrayList<>();
+        final List<Integer> elementFieldList = new ArrayList<>();
+        final List<String[]> removedElementIdList = new ArrayList<>();
+        for (final FieldDescriptor field : fields) {
+            final Object baseValue = baseFields.get(field);
+            final Object value = dataFields.get(field);
+            if (Objects.equals(baseValue, value)) {
+                continue;
+            }
+
+            final FieldDescriptor idField = getIdField(field);
+            if (idField != null && baseValue != null && value != null) {
+                final List<Message> changedElements = new ArrayList<>();
+                final String[] removedIds = diffElements((List<?>) baseValue, (List<?>) value, idField, changedElements);
+                if (removedIds != null) {
+                    elementFieldList.add(field.getNumber());
+                    removedElementIdList.add(removedIds);
+                    for (final Message element : changedElements) {
+                        changes.addRepeatedField(field, element);
+                    }
+                    continue;
+                }
+            }
+
+            changedFieldList.add(field.getNumber());
+            if (value != null) {
+                changes.setField(field, value);
+            }
+        }
+
+        if (changedFieldList.isEmpty() && elementFieldList.isEmpty()) {
+            return unchanged(epoch, baseSequence);
+        }
+
+        final byte[] changeData = changes.build().toByteArray();
+        if (changeData.length >= data.getSerializedSize()) {
+            return snapshot(epoch, sequence, data);
+        }
+
+        return new DataDelta(Type.DIFF, epoch, baseSequence, sequence, changeData, toArray(changedFieldList), toArray(elementFieldList), removedElementIdList.toArray(new String[0][]));
+    }
+
+    /**
+     * Compute the changes of the elements of a repeated message field.
+     *
+     * @param baseElements    the elements the remote already received.
+     * @param elements        the new elements.
+     * @param idField         the field identifying the elements.
+     * @param changedElements list to which all added or changed elements are added.
+     *
+     * @return the ids of the removed elements or null if the elements cannot be diffed because the order of the
+     * remaining elements changed, new elements are not appended or ids are not unique.
+     */
+    private static String[] diffElements(final List<?> baseElements, final List<?> elements, final FieldDescriptor idField, final List<Message> changedElements) {
+        final Map<String, Integer> basePositionMap = new HashMap<>();
+        for (int i = 0; i < baseElements.size(); i++) {
+            if (basePositionMap.put((String) ((Message) baseElements.get(i)).getField(idField), i) != null) {
+                return null;
+            }
+        }
+
+        final Set<String> ids = new HashSet<>();
+        int lastPosition = -1;
+        boolean added = false;
+        for (final Object value : elements) {
+            final Message element = (Message) value;
+            final String id = (String) element.getField(idField);
+            if (!ids.add(id)) {
+                return null;
+            }
+
+            final Integer position = basePositionMap.get(id);
+            if (position == null) {
+                added = true;
+                changedElements.add(element);
+                continue;
+            }
+
+            if (added || position < lastPosition) {
+                // the order of the elements cannot be restored
+                return null;
+            }
+            lastPosition = position;
+
+            if (!element.equals(baseElements.get(position))) {
+                changedElements.add(element);
+            }
+        }
+
+        final List<String> removedIds = new ArrayList<>();
+        for (final String id : basePositionMap.keySet()) {
+            if (!ids.contains(id)) {
+                removedIds.add(id);
+            }
+        }
+        return removedIds.toArray(new String[0]);
+    }
+
+    /**
+     * @return the field identifying the elements of the given field or null if the field is not diffed by element.
+     */
+    private static FieldDescriptor getIdField(final FieldDescriptor field) {
+        if (!field.isRepeated() || field.getJavaType() != JavaType.MESSAGE || field.isMapField()) {
+            return null;
+        }
+
+        final FieldDescriptor idField = field.getMessageType().findFieldByName(ID_FIELD);
+        if (idField == null || idField.isRepeated() || idField.getJavaType() != JavaType.STRING) {
+            return null;
+        }
+        return idField;
+    }
+
+    private static int[] toArray(final List<Integer> list) {
+        final int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Apply the changes of a diff to a message.
+     *
+     * @param base    the data the diff is based on.
+     * @param changes the message parsed from the {@link #getData() data} of this diff.
+     * @param <M>     the type of the data.
+     *
+     * @return the new data.
+     */
+    public <M extends Message> M apply(final M base, final Message changes) {
+        final Descriptor descriptor = base.getDescriptorForType();
+        final Message.Builder builder = base.toBuilder();
+        for (final int number : changedFields) {
+            builder.clearField(descriptor.findFieldByNumber(number));
+        }
+
+        if (elementFields.length == 0) {
+            return (M) builder.mergeFrom(changes).build();
+        }
+
+        // elements are merged by id, so the element fields must not be appended by merging the changes
+        final Message.Builder otherChanges = changes.toBuilder();
+        for (int i = 0; i < elementFields.length; i++) {
+            final FieldDescriptor field = descriptor.findFieldByNumber(elementFields[i]);
+            otherChanges.clearField(field);
+            builder.setField(field, applyElements((List<?>) base.getField(field), (List<?>) changes.getField(field), getIdField(field), removedElementIds[i]));
+        }
+        return (M) builder.mergeFrom(otherChanges.build()).build();
+    }
+
+    private static List<Object> applyElements(final List<?> baseElements, final List<?> changedElements, final FieldDescriptor idField, final String[] removedIds) {
+        final Map<String, Object> changedElementMap = new HashMap<>();
+        for (final Object element : changedElements) {
+            changedElementMap.put((String) ((Message) element).getField(idField), element);
+        }
+        final Set<String> removedIdSet = new HashSet<>(Arrays.asList(removedIds));
+
+        final List<Object> elements = new ArrayList<>(baseElements.size() + changedElements.size());
+        for (final Object element : baseElements) {
+            final String id = (String) ((Message) element).getField(idField);
+            if (removedIdSet.contains(id)) {
+                continue;
+            }
+
+            final Object changedElement = changedElementMap.remove(id);
+            elements.add(changedElement != null ? changedElement : element);
+        }
+
+        // the remaining changed elements have been added and are appended in their order
+        for (final Object element : changedElements) {
+            if (changedElementMap.containsKey((String) ((Message) element).getField(idField))) {
+                elements.add(element);
+            }
+        }
+        return elements;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return the sequence number of the data a diff or an unchanged response is based on.
+     */
+    public long getBaseSequence() {
+        return baseSequence;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the serialized snapshot or the serialized message containing the new values of the changed fields.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return the numbers of the fields which are replaced as a whole.
+     */
+    public int[] getChangedFields() {
+        return changedFields;
+    }
+
+    /**
+     * @return the numbers of the repeated fields which are diffed by element.
+     */
+    public int[] getElementFields() {
+        return elementFields;
+    }
+}
@@ -0,0 +1,59 @@
+package org.openbase.bco.authentication.lib.com;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.Serializable;
+
+/**
+ * Request of an authenticated remote for the changes of the data since the last data it received.
+ */
+public class DataDeltaRequest implements Serializable {
+
+    /**
+     * Request of a remote which has not received any data yet, which is always answered with a snapshot.
+     */
+    public static final DataDeltaRequest INITIAL = new DataDeltaRequest(0, DataDelta.SEQUENCE_NONE);
+
+    private final long epoch;
+    private final long sequence;
+
+    /**
+     * Create a new request.
+     *
+     * @param epoch    the epoch of the controller which sent the last data.
+     * @param sequence the sequence number of the last data received.
+     */
+    public DataDeltaRequest(final long epoch, final long sequence) {
+        this.epoch = epoch;
+        this.sequence = sequence;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+}
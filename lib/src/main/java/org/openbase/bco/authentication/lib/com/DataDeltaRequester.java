@@ -0,0 +1,224 @@
+package org.openbase.bco.authentication.lib.com;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.openbase.bco.authentication.lib.SessionManager;
+import org.openbase.bco.authentication.lib.exception.SessionNotRegisteredException;
+import org.openbase.bco.authentication.lib.exception.SessionReplayException;
+import org.openbase.bco.authentication.lib.exception.SessionUnknownException;
+import org.openbase.bco.authentication.lib.future.ReLoginFuture;
+import org.openbase.bco.authentication.lib.iface.AuthenticatedDeltaRequestable;
+import org.openbase.bco.authentication.lib.iface.AuthenticatedRequestable;
+import org.openbase.jul.exception.CouldNotPerformException;
+import org.openbase.type.domotic.authentication.AuthenticatedValueType.AuthenticatedValue;
+import org.openbase.type.domotic.authentication.TicketAuthenticatorWrapperType.TicketAuthenticatorWrapper;
+import rsb.Event;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+
+/**
+ * Requester of data deltas used by authenticated remotes.
+ * <p>
+ * If session requests are enabled, the first request of a session sends the full ticket. Afterwards the controller
+ * knows the session and following requests only identify it by its id. If the controller does not know the session
+ * anymore, e.g. because it has been restarted, the request is repeated with the full ticket. The same applies if the
+ * timestamp of a session request is rejected, which can happen if remotes sharing the session send requests concurrently.
+ * If the controller could not register the session because its session table is full, all further requests of the
+ * session send the full ticket.
+ * <p>
+ * Controllers which do not provide {@link AuthenticatedDeltaRequestable}, e.g. because they run an older version, are
+ * detected by the failure of the first delta request. This request and all further requests of the remote then
+ * request the full data via {@link AuthenticatedRequestable#REQUEST_DATA_AUTHENTICATED_METHOD}.
+ */
+class DataDeltaRequester {
+
+    /**
+     * Call of a method of the remote server of a remote.
+     */
+    interface RemoteCall {
+        Future<Event> callAsync(final String methodName, final Event event) throws CouldNotPerformException;
+    }
+
+    private enum DeltaSupport {
+        UNKNOWN,
+        SUPPORTED,
+        UNSUPPORTED
+    }
+
+    private static final long SESSION_GENERATION_NONE = -1;
+
+    private final AuthenticatedMessageProcessor<?> messageProcessor;
+    private final RemoteCall remoteCall;
+
+    private volatile boolean sessionRequestsEnabled;
+    /**
+     * Generation of the session which is known by the controller.
+     */
+    private volatile long knownSessionGeneration;
+    /**
+     * Generation of the session which the controller could not register.
+     */
+    private volatile long unregisteredSessionGeneration;
+    /**
+     * If the controller provides delta requests, only known after the first request succeeded.
+     */
+    private volatile DeltaSupport deltaSupport;
+
+    DataDeltaRequester(final AuthenticatedMessageProcessor<?> messageProcessor, final RemoteCall remoteCall) {
+        this.messageProcessor = messageProcessor;
+        this.remoteCall = remoteCall;
+        this.knownSessionGeneration = SESSION_GENERATION_NONE;
+        this.unregisteredSessionGeneration = SESSION_GENERATION_NONE;
+        this.deltaSupport = DeltaSupport.UNKNOWN;
+    }
+
+    void setSessionRequestsEnabled(final boolean sessionRequestsEnabled) {
+        this.sessionRequestsEnabled = sessionRequestsEnabled;
+    }
+
+    /**
+     * Request the changes since the data last received by the message processor or the full data if the controller
+     * does not provide delta requests.
+     *
+     * @param sessionGeneration the generation of the session the request is based on.
+     *
+     * @return the future of the request.
+     *
+     * @throws CouldNotPerformException if the request cannot be initialized.
+     */
+    Future<Event> request(final long sessionGeneration) throws CouldNotPerformException {
+        switch (deltaSupport) {
+            case UNSUPPORTED:
+                return requestData(sessionGeneration);
+            case SUPPORTED:
+                return requestDelta(sessionGeneration);
+            default:
+                break;
+        }
+
+        return requestDelta(sessionGeneration).<CompletableFuture<Event>>handle((event, throwable) -> {
+            if (throwable == null) {
+                deltaSupport = DeltaSupport.SUPPORTED;
+                return CompletableFuture.completedFuture(event);
+            }
+
+            final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+            if (ReLoginFuture.isLoginError(cause)) {
+                // the controller received the request, only the session has been rejected
+                return failedFuture(cause);
+            }
+
+            try {
+                // the controller may not provide delta requests, e.g. because it runs an older version
+                return requestData(sessionGeneration).thenApply(fullEvent -> {
+                    deltaSupport = DeltaSupport.UNSUPPORTED;
+                    return fullEvent;
+                });
+            } catch (CouldNotPerformException ex) {
+                return failedFuture(cause);
+            }
+        }).thenCompose(result -> result);
+    }
+
+    private CompletableFuture<Event> requestData(final long sessionGeneration) throws CouldNotPerformException {
+        final Event event = new Event(TicketAuthenticatorWrapper.class, SessionManager.getInstance().initializeServiceServerRequest());
+        return new ReLoginFuture<>(remoteCall.callAsync(AuthenticatedRequestable.REQUEST_DATA_AUTHENTICATED_METHOD, event), SessionManager.getInstance(), sessionGeneration).toCompletableFuture();
+    }
+
+    private CompletableFuture<Event> requestDelta(final long sessionGeneration) throws CouldNotPerformException {
+        if (!sessionRequestsEnabled || unregisteredSessionGeneration == sessionGeneration) {
+            return requestWithTicket(sessionGeneration).toCompletableFuture();
+        }
+
+        if (knownSessionGeneration != sessionGeneration) {
+            return requestWithTicketAndRegister(sessionGeneration);
+        }
+
+        final AuthenticatedValue request = SessionManager.getInstance().initializeSessionRequest(messageProcessor.getDataDeltaRequest());
+        final CompletableFuture<Event> future = call(request, sessionGeneration).toCompletableFuture();
+        return future.<CompletableFuture<Event>>handle((event, throwable) -> {
+            if (throwable == null) {
+                return CompletableFuture.completedFuture(event);
+            }
+
+            try {
+                if (isCausedBy(throwable, SessionReplayException.class)) {
+                    // the session is still known, only this request has to use the ticket
+                    return requestWithTicket(sessionGeneration).toCompletableFuture();
+                }
+
+                if (isCausedBy(throwable, SessionNotRegisteredException.class)) {
+                    // the session table of the controller is full so keep using the ticket
+                    unregisteredSessionGeneration = sessionGeneration;
+                    knownSessionGeneration = SESSION_GENERATION_NONE;
+                    return requestWithTicket(sessionGeneration).toCompletableFuture();
+                }
+
+                if (isCausedBy(throwable, SessionUnknownException.class)) {
+                    // the controller does not know the session anymore so fall back to the ticket
+                    knownSessionGeneration = SESSION_GENERATION_NONE;
+                    return requestWithTicketAndRegister(sessionGeneration);
+                }
+            } catch (CouldNotPerformException ex) {
+                return failedFuture(ex);
+            }
+            return failedFuture(throwable);
+        }).thenCompose(result -> result);
+    }
+
+    private CompletableFuture<Event> requestWithTicketAndRegister(final long sessionGeneration) throws CouldNotPerformException {
+        return requestWithTicket(sessionGeneration).toCompletableFuture().thenApply(event -> {
+            // the controller registers the session when verifying the ticket
+            knownSessionGeneration = sessionGeneration;
+            return event;
+        });
+    }
+
+    private ReLoginFuture<Event> requestWithTicket(final long sessionGeneration) throws CouldNotPerformException {
+        return call(SessionManager.getInstance().initializeRequest(messageProcessor.getDataDeltaRequest(), null), sessionGeneration);
+    }
+
+    private ReLoginFuture<Event> call(final AuthenticatedValue request, final long sessionGeneration) throws CouldNotPerformException {
+        final Event event = new Event(AuthenticatedValue.class, request);
+        return new ReLoginFuture<>(remoteCall.callAsync(AuthenticatedDeltaRequestable.REQUEST_DATA_DELTA_AUTHENTICATED_METHOD, event), SessionManager.getInstance(), sessionGeneration);
+    }
+
+    private static boolean isCausedBy(final Throwable throwable, final Class<? extends Throwable> exceptionClass) {
+        // exceptions of the controller are only received as messages
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (exceptionClass.isInstance(cause) || (cause.getMessage() != null && cause.getMessage().contains(exceptionClass.getSimpleName()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static CompletableFuture<Event> failedFuture(final Throwable throwable) {
+        final CompletableFuture<Event> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+}
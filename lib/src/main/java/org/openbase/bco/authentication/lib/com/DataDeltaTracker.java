@@ -0,0 +1,145 @@
+package org.openbase.bco.authentication.lib.com;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import com.google.protobuf.Message;
+import org.openbase.jul.exception.CouldNotPerformException;
+import org.openbase.jul.exception.NotAvailableException;
+import org.openbase.type.domotic.authentication.UserClientPairType.UserClientPair;
+
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracker of the data last sent to user client pairs by an authenticated controller, used to answer
+ * {@link DataDeltaRequest}s with the changes since then.
+ * <p>
+ * For each user client pair only the last data sent is kept. If a request is not based on it, e.g. because another
+ * remote of the same pair requested data in between or the entry has been removed because the maximal number of
+ * entries was exceeded, a snapshot is sent. The epoch is chosen randomly so that requests based on data
+ * of a previous instance of the controller are answered with a snapshot as well.
+ *
+ * @param <M> the type of the data.
+ */
+public class DataDeltaTracker<M extends Message> {
+
+    /**
+     * Supplier of the data filtered for the requesting user client pair.
+     *
+     * @param <M> the type of the data.
+     */
+    public interface DataSupplier<M> {
+        M get() throws CouldNotPerformException;
+    }
+
+    private final long epoch;
+    private final AtomicLong sequence;
+    private final Map<UserClientPair, Entry<M>> entryMap;
+
+    /**
+     * Create a new tracker.
+     *
+     * @param capacity the maximal number of user client pairs for which the last data sent is kept.
+     */
+    public DataDeltaTracker(final int capacity) {
+        this.epoch = new SecureRandom().nextLong();
+        this.sequence = new AtomicLong();
+        this.entryMap = new LinkedHashMap<UserClientPair, Entry<M>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<UserClientPair, Entry<M>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Create the response to a delta request.
+     *
+     * @param userClientPair    the user client pair which sent the request.
+     * @param request           the request.
+     * @param dataVersion       the version of the unfiltered data. It has to be resolved before the data is supplied.
+     * @param permissionVersion the version of the permissions used for filtering or {@link FilteredDataCache#PERMISSION_VERSION_UNKNOWN}.
+     *                          It has to be resolved before the data is supplied.
+     * @param dataSupplier      supplier of the data filtered for the user client pair, only called if the data may have changed.
+     *
+     * @return the response to the request.
+     *
+     * @throws CouldNotPerformException if the data could not be supplied.
+     */
+    public DataDelta createDelta(final UserClientPair userClientPair, final DataDeltaRequest request, final long dataVersion, final long permissionVersion, final DataSupplier<M> dataSupplier) throws CouldNotPerformException {
+        final Entry<M> entry;
+        synchronized (entryMap) {
+            entry = entryMap.get(userClientPair);
+        }
+
+        final boolean known = entry != null && request.getEpoch() == epoch && request.getSequence() == entry.sequence;
+        if (known && permissionVersion != FilteredDataCache.PERMISSION_VERSION_UNKNOWN
+                && entry.permissionVersion == permissionVersion && entry.dataVersion == dataVersion) {
+            return DataDelta.unchanged(epoch, entry.sequence);
+        }
+
+        final M data = dataSupplier.get();
+        if (data == null) {
+            throw new NotAvailableException("data");
+        }
+
+        final long nextSequence = sequence.incrementAndGet();
+        final DataDelta delta = known ? DataDelta.diff(epoch, entry.sequence, nextSequence, entry.data, data) : DataDelta.snapshot(epoch, nextSequence, data);
+
+        synchronized (entryMap) {
+            if (delta.getType() == DataDelta.Type.UNCHANGED) {
+                // filtering resulted in the same data so the remote keeps its sequence number
+                entryMap.put(userClientPair, new Entry<>(entry.sequence, entry.data, dataVersion, permissionVersion));
+            } else {
+                entryMap.put(userClientPair, new Entry<>(nextSequence, data, dataVersion, permissionVersion));
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * Remove all entries so that the next request of every user client pair is answered with a snapshot.
+     */
+    public void invalidate() {
+        synchronized (entryMap) {
+            entryMap.clear();
+        }
+    }
+
+    private static class Entry<M> {
+        private final long sequence;
+        private final M data;
+        private final long dataVersion;
+        private final long permissionVersion;
+
+        private Entry(final long sequence, final M data, final long dataVersion, final long permissionVersion) {
+            this.sequence = sequence;
+            this.data = data;
+            this.dataVersion = dataVersion;
+            this.permissionVersion = permissionVersion;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package org.openbase.bco.authentication.lib.com;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.openbase.jps.core.JPService;
+import org.openbase.jul.exception.CouldNotPerformException;
+import org.openbase.jul.exception.ExceptionProcessor;
+import org.openbase.jul.exception.NotAvailableException;
+import org.openbase.jul.exception.printer.ExceptionPrinter;
+import org.openbase.jul.exception.printer.LogLevel;
+import org.openbase.jul.schedule.GlobalCachedExecutorService;
+import org.openbase.jul.schedule.GlobalScheduledExecutorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Coalesces data re-syncs of an authenticated remote triggered by data updates of its controller.
+ * <p>
+ * A re-sync is started after a debounce window so that a burst of updates results in a single request.
+ * At most one re-sync is running at a time. Triggers received while it is running are combined into one
+ * pending re-sync which is started after the running one finished. Since it is started after the last trigger,
+ * the newest data is always applied last.
+ * <p>
+ * The global scheduled executor service only hands the re-sync over to the global cached executor service after the
+ * debounce window, since a re-sync waits for its requests and would otherwise block the shared scheduler.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class DataResyncCoalescer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DataResyncCoalescer.class);
+
+    /**
+     * Default time in milliseconds to wait for further updates before a re-sync is started.
+     */
+    public static final long DEFAULT_DEBOUNCE_WINDOW = JPService.testMode() ? 10 : 100;
+
+    /**
+     * Maximal time in seconds to wait for a request.
+     */
+    private static final long REQUEST_TIMEOUT = 10;
+
+    /**
+     * Request triggering a data sync of the remote.
+     */
+    public interface DataRequest {
+        Future<?> request() throws Exception;
+    }
+
+    private final DataRequest dataRequest;
+    private final BooleanSupplier syncRunning;
+
+    private volatile long debounceWindow;
+    private boolean scheduled;
+    private boolean running;
+    private boolean pending;
+
+    /**
+     * Create a new coalescer.
+     *
+     * @param dataRequest the request triggering a data sync, usually {@code requestData()} of the remote.
+     * @param syncRunning supplier telling if a sync of the remote is currently running.
+     */
+    public DataResyncCoalescer(final DataRequest dataRequest, final BooleanSupplier syncRunning) {
+        this.dataRequest = dataRequest;
+        this.syncRunning = syncRunning;
+        this.debounceWindow = DEFAULT_DEBOUNCE_WINDOW;
+    }
+
+    /**
+     * @param debounceWindow the time in milliseconds to wait for further updates before a re-sync is started.
+     */
+    public void setDebounceWindow(final long debounceWindow) {
+        if (debounceWindow < 0) {
+            throw new IllegalArgumentException("Debounce window must not be negative");
+        }
+        this.debounceWindow = debounceWindow;
+    }
+
+    /**
+     * Trigger a re-sync. The re-sync is combined with all triggers received until it is started.
+     */
+    public synchronized void trigger() {
+        if (running) {
+            // re-sync again after the running one to make sure that the latest update is received
+            pending = true;
+            return;
+        }
+
+        if (scheduled) {
+            return;
+        }
+
+        try {
+            GlobalScheduledExecutorService.schedule(this::startResync, debounceWindow, TimeUnit.MILLISECONDS);
+            scheduled = true;
+        } catch (NotAvailableException | RejectedExecutionException ex) {
+            ExceptionPrinter.printHistory("Could not schedule data re-sync", ex, LOGGER, LogLevel.WARN);
+        }
+    }
+
+    private void startResync() {
+        try {
+            GlobalCachedExecutorService.getInstance().getExecutorService().execute(this::resync);
+        } catch (RejectedExecutionException ex) {
+            ExceptionPrinter.printHistory("Could not start data re-sync", ex, LOGGER, LogLevel.WARN);
+            synchronized (this) {
+                scheduled = false;
+            }
+        }
+    }
+
+    private void resync() {
+        synchronized (this) {
+            scheduled = false;
+            running = true;
+        }
+
+        try {
+            if (syncRunning.getAsBoolean()) {
+                // a sync task is currently running so wait for it to finish and trigger a new one
+                waitFor(dataRequest.request());
+            }
+            waitFor(dataRequest.request());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (CancellationException ex) {
+            // request data was cancelled and is most likely done again by the login observer
+        } catch (Exception ex) {
+            if (!ExceptionProcessor.isCausedBySystemShutdown(ex)) {
+                ExceptionPrinter.printHistory(new CouldNotPerformException("Could not re-sync data", ex), LOGGER, LogLevel.WARN);
+            }
+        } finally {
+            synchronized (this) {
+                running = false;
+                if (pending) {
+                    pending = false;
+                    trigger();
+                }
+            }
+        }
+    }
+
+    private void waitFor(final Future<?> future) throws InterruptedException, ExecutionException, TimeoutException {
+        future.get(REQUEST_TIMEOUT, TimeUnit.SECONDS);
+    }
+}
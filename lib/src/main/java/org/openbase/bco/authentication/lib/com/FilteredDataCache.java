@@ -0,0 +1,128 @@
+package org.openbase.bco.authentication.lib.com;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import com.google.protobuf.Message;
+import org.openbase.type.domotic.authentication.UserClientPairType.UserClientPair;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache for data filtered for users by authenticated controllers.
+ * <p>
+ * Entries are only valid for the data they were filtered from and for a version of the permissions.
+ * If the cache is queried with data different from the one it currently holds entries for, or with a different
+ * permission version, all entries are dropped. If the maximal number of entries is exceeded the least recently used
+ * entry is removed.
+ *
+ * @param <M> the type of the data.
+ * @param <V> the type of the cached values derived from the filtered data, e.g. the filtered data or its serialized form.
+ */
+public class FilteredDataCache<M extends Message, V> {
+
+    /**
+     * Permission version which marks that the permission state of a controller is not known, filtered data is not cached in this case.
+     */
+    public static final long PERMISSION_VERSION_UNKNOWN = -1;
+
+    private final Map<UserClientPair, V> entryMap;
+
+    private M data;
+    private long permissionVersion;
+
+    /**
+     * Create a new cache.
+     *
+     * @param capacity the maximal number of cached entries.
+     */
+    public FilteredDataCache(final int capacity) {
+        this.entryMap = new LinkedHashMap<UserClientPair, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<UserClientPair, V> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.permissionVersion = PERMISSION_VERSION_UNKNOWN;
+    }
+
+    /**
+     * Get the cached value of a user client pair.
+     *
+     * @param userClientPair    the pair for which the data was filtered.
+     * @param data              the unfiltered data.
+     * @param permissionVersion the current version of the permissions.
+     *
+     * @return the cached value or null if no valid entry is available.
+     */
+    public synchronized V get(final UserClientPair userClientPair, final M data, final long permissionVersion) {
+        if (!validate(data, permissionVersion)) {
+            return null;
+        }
+        return entryMap.get(userClientPair);
+    }
+
+    /**
+     * Store the value of a user client pair. The entry is ignored if the data or the permissions
+     * have changed since filtering was started.
+     *
+     * @param userClientPair    the pair for which the data was filtered.
+     * @param data              the unfiltered data.
+     * @param permissionVersion the version of the permissions when filtering was started.
+     * @param value             the value derived from the filtered data.
+     */
+    public synchronized void put(final UserClientPair userClientPair, final M data, final long permissionVersion, final V value) {
+        if (!validate(data, permissionVersion)) {
+            return;
+        }
+        entryMap.put(userClientPair, value);
+    }
+
+    /**
+     * Remove all entries, e.g. if the permissions have changed without an update of the permission version.
+     */
+    public synchronized void invalidate() {
+        entryMap.clear();
+        data = null;
+        permissionVersion = PERMISSION_VERSION_UNKNOWN;
+    }
+
+    private boolean validate(final M data, final long permissionVersion) {
+        if (permissionVersion == PERMISSION_VERSION_UNKNOWN) {
+            return false;
+        }
+
+        // data is only compared to the current data once, so entries do not need to hold a copy of it
+        if (permissionVersion != this.permissionVersion || (this.data != data && !data.equals(this.data))) {
+            if (permissionVersion < this.permissionVersion) {
+                // the permissions have already been updated, so the given data is outdated
+                return false;
+            }
+            entryMap.clear();
+            this.data = data;
+            this.permissionVersion = permissionVersion;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,249 @@
+package org.openbase.bco.authentication.lib.com;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.openbase.jul.exception.CouldNotPerformException;
+import org.openbase.jul.exception.ExceptionProcessor;
+import org.openbase.jul.exception.printer.ExceptionPrinter;
+import org.openbase.jul.exception.printer.LogLevel;
+import org.openbase.jul.schedule.GlobalCachedExecutorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Coordinator of the data re-syncs of authenticated remotes after a login change.
+ * <p>
+ * Instead of all remotes requesting their data at the same time, re-syncs are batched per controller scope and
+ * batches are started in the order of the highest priority of their re-syncs. The re-syncs of a batch are performed
+ * one after another and only a limited number of batches runs concurrently, so that each controller handles at most
+ * one re-sync at a time. If a remote is scheduled again before its re-sync started, the re-syncs are merged.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class RemoteResyncCoordinator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RemoteResyncCoordinator.class);
+
+    /**
+     * Default number of controller scopes which are re-synced concurrently.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_BATCHES = 8;
+
+    /**
+     * Default priority of a re-sync.
+     */
+    public static final int DEFAULT_PRIORITY = 0;
+
+    private static RemoteResyncCoordinator instance;
+
+    /**
+     * Re-sync of the data of a remote.
+     */
+    public interface ResyncTask {
+        void resync() throws Exception;
+    }
+
+    private final PriorityQueue<Batch> batchQueue;
+    private final Map<String, Batch> pendingBatchMap;
+    private final Set<String> runningScopeSet;
+
+    private int maxConcurrentBatches;
+    private long batchSequence;
+
+    public RemoteResyncCoordinator() {
+        this.batchQueue = new PriorityQueue<>();
+        this.pendingBatchMap = new HashMap<>();
+        this.runningScopeSet = new HashSet<>();
+        this.maxConcurrentBatches = DEFAULT_MAX_CONCURRENT_BATCHES;
+    }
+
+    /**
+     * Get the global instance of the coordinator used by all authenticated remotes.
+     *
+     * @return the global coordinator.
+     */
+    public static synchronized RemoteResyncCoordinator getInstance() {
+        if (instance == null) {
+            instance = new RemoteResyncCoordinator();
+        }
+
+        return instance;
+    }
+
+    /**
+     * @param maxConcurrentBatches the maximal number of controller scopes which are re-synced concurrently.
+     */
+    public synchronized void setMaxConcurrentBatches(final int maxConcurrentBatches) {
+        if (maxConcurrentBatches < 1) {
+            throw new IllegalArgumentException("At least one batch has to be allowed to run");
+        }
+        this.maxConcurrentBatches = maxConcurrentBatches;
+        startBatches();
+    }
+
+    /**
+     * Schedule the re-sync of a remote.
+     *
+     * @param scope    the scope of the controller of the remote.
+     * @param remote   the remote, used to merge re-syncs of the same remote which are not yet started.
+     * @param priority the priority of the re-sync, re-syncs with a higher priority are started first.
+     * @param task     the re-sync.
+     */
+    public synchronized void schedule(final String scope, final Object remote, final int priority, final ResyncTask task) {
+        Batch batch = pendingBatchMap.get(scope);
+        if (batch == null) {
+            batch = new Batch(scope, batchSequence++);
+            pendingBatchMap.put(scope, batch);
+        } else {
+            // remove and add again because the priority may change
+            batchQueue.remove(batch);
+        }
+        batch.add(remote, priority, task);
+        batchQueue.add(batch);
+        startBatches();
+    }
+
+    /**
+     * Remove the re-sync of a remote if it has not been started yet, e.g. because the remote is deactivated.
+     *
+     * @param scope  the scope of the controller of the remote.
+     * @param remote the remote.
+     */
+    public synchronized void cancel(final String scope, final Object remote) {
+        final Batch batch = pendingBatchMap.get(scope);
+        if (batch == null) {
+            return;
+        }
+
+        batchQueue.remove(batch);
+        batch.remove(remote);
+        if (batch.isEmpty()) {
+            pendingBatchMap.remove(scope);
+        } else {
+            batchQueue.add(batch);
+        }
+    }
+
+    private void startBatches() {
+        final List<Batch> blockedBatchList = new ArrayList<>();
+        while (runningScopeSet.size() < maxConcurrentBatches && !batchQueue.isEmpty()) {
+            final Batch batch = batchQueue.poll();
+            if (runningScopeSet.contains(batch.scope)) {
+                // only one batch per controller scope runs at a time
+                blockedBatchList.add(batch);
+                continue;
+            }
+
+            pendingBatchMap.remove(batch.scope);
+            runningScopeSet.add(batch.scope);
+            try {
+                GlobalCachedExecutorService.getInstance().getExecutorService().execute(() -> run(batch));
+            } catch (RejectedExecutionException ex) {
+                ExceptionPrinter.printHistory("Could not start re-sync of remotes of scope[" + batch.scope + "]", ex, LOGGER, LogLevel.WARN);
+                runningScopeSet.remove(batch.scope);
+            }
+        }
+        batchQueue.addAll(blockedBatchList);
+    }
+
+    private void run(final Batch batch) {
+        try {
+            for (final ResyncTask task : batch.taskMap.values()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+
+                try {
+                    task.resync();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception ex) {
+                    if (!ExceptionProcessor.isCausedBySystemShutdown(ex)) {
+                        ExceptionPrinter.printHistory(new CouldNotPerformException("Could not re-sync remote of scope[" + batch.scope + "]", ex), LOGGER, LogLevel.WARN);
+                    }
+                }
+            }
+        } finally {
+            synchronized (this) {
+                runningScopeSet.remove(batch.scope);
+                startBatches();
+            }
+        }
+    }
+
+    private static class Batch implements Comparable<Batch> {
+        private final String scope;
+        private final long sequence;
+        private final Map<Object, ResyncTask> taskMap;
+        private final Map<Object, Integer> priorityMap;
+
+        private int priority;
+
+        private Batch(final String scope, final long sequence) {
+            this.scope = scope;
+            this.sequence = sequence;
+            this.taskMap = new LinkedHashMap<>();
+            this.priorityMap = new HashMap<>();
+            this.priority = Integer.MIN_VALUE;
+        }
+
+        private void add(final Object remote, final int priority, final ResyncTask task) {
+            taskMap.put(remote, task);
+            priorityMap.put(remote, priority);
+            this.priority = Math.max(this.priority, priority);
+        }
+
+        private void remove(final Object remote) {
+            taskMap.remove(remote);
+            priorityMap.remove(remote);
+            priority = Integer.MIN_VALUE;
+            for (final int remotePriority : priorityMap.values()) {
+                priority = Math.max(priority, remotePriority);
+            }
+        }
+
+        private boolean isEmpty() {
+            return taskMap.isEmpty();
+        }
+
+        @Override
+        public int compareTo(final Batch other) {
+            if (priority != other.priority) {
+                return Integer.compare(other.priority, priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.openbase.bco.authentication.lib.exception;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.openbase.jul.exception.RejectedException;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Exception thrown by the authenticator if it rejects a request because it is overloaded.
+ * The message contains the time after which the request should be repeated in a format which can
+ * be parsed again on the client side because RSB only transfers the message of remote exceptions.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class RetryAfterException extends RejectedException {
+
+    private static final Pattern RETRY_AFTER_PATTERN = Pattern.compile("retry after \\[(\\d+)ms\\]");
+
+    private final long retryAfter;
+
+    /**
+     * Create a new retry after exception.
+     *
+     * @param retryAfter the time in milliseconds after which the request should be repeated.
+     */
+    public RetryAfterException(final long retryAfter) {
+        super("Authenticator is overloaded, retry after [" + retryAfter + "ms]");
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Get the time after which the request should be repeated.
+     *
+     * @return the time in milliseconds.
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Resolve the time after which a request should be repeated from a throwable or one of its causes.
+     *
+     * @param throwable the throwable with which a request failed.
+     *
+     * @return the time in milliseconds after which the request should be repeated or -1 if the server did not provide one.
+     */
+    public static long parseRetryAfter(final Throwable throwable) {
+        Throwable cause = throwable;
+        while (cause != null) {
+            if (cause instanceof RetryAfterException) {
+                return ((RetryAfterException) cause).getRetryAfter();
+            }
+
+            if (cause.getMessage() != null) {
+                final Matcher matcher = RETRY_AFTER_PATTERN.matcher(cause.getMessage());
+                if (matcher.find()) {
+                    return Long.parseLong(matcher.group(1));
+                }
+            }
+
+            if (cause.getCause() == cause) {
+                break;
+            }
+            cause = cause.getCause();
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,45 @@
+package org.openbase.bco.authentication.lib.exception;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * Exception thrown if a request identifies its session by a session id which has not been registered because the
+ * session table of the server is full. Requests of this session have to keep sending the full ticket.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class SessionNotRegisteredException extends SessionUnknownException {
+
+    public SessionNotRegisteredException() {
+        super("Your session is not registered!");
+    }
+
+    public SessionNotRegisteredException(final String msg) {
+        super(msg);
+    }
+
+    public SessionNotRegisteredException(final String msg, final Throwable throwable) {
+        super(msg, throwable);
+    }
+}
@@ -0,0 +1,47 @@
+package org.openbase.bco.authentication.lib.exception;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.openbase.jul.exception.RejectedException;
+
+/**
+ * Exception thrown if a request identifies its session by a session id which is unknown to the server.
+ * The request can be repeated with the full ticket.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class SessionUnknownException extends RejectedException {
+
+    public SessionUnknownException() {
+        super("Your session is unknown!");
+    }
+
+    public SessionUnknownException(final String msg) {
+        super(msg);
+    }
+
+    public SessionUnknownException(final String msg, final Throwable throwable) {
+        super(msg, throwable);
+    }
+}
@@ -1,5 +1,6 @@
 package org.openbase.bco.authentication.lib.future;
 
+
 /*-
  * #%L
  * BCO Authentication Library
@@ -26,19 +27,23 @@ import org.openbase.bco.authentication.lib.AuthenticationClientHandler;
 import org.openbase.bco.authentication.lib.SessionManager;
 import org.openbase.jul.exception.CouldNotPerformException;
 import org.openbase.jul.exception.NotAvailableException;
-import org.openbase.jul.exception.printer.ExceptionPrinter;
-import org.openbase.jul.iface.Shutdownable;
-import org.openbase.jul.schedule.GlobalScheduledExecutorService;
-import org.openbase.jul.schedule.SyncObject;
-import org.slf4j.LoggerFactory;
 import org.openbase.type.domotic.authentication.TicketAuthenticatorWrapperType.TicketAuthenticatorWrapper;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 
 /**
  * Abstract future that automatically verifies the response from a server.
+ * <p>
+ * The verification of the response and the conversion to the return type are performed as completion stages of
+ * the internal future. Thus, the ticket of the session manager is updated as soon as the response is received
+ * even if nobody waits for the result. The result can be composed without blocking via
+ * {@link #toCompletableFuture()}.
  *
  * @param <RETURN>   The type of value this future returns.
  * @param <INTERNAL> The type of value the internal future returns.
@@ -47,14 +52,11 @@ import java.util.concurrent.*;
  */
 public abstract class AbstractAuthenticationFuture<RETURN, INTERNAL> implements Future<RETURN> {
 
-    private static final List<AbstractAuthenticationFuture> authenticatedFutureList = new ArrayList<>();
-    private static final SyncObject listSync = new SyncObject("AuthenticatedFutureListSync");
-    private static ScheduledFuture responseVerificationFuture = null;
-
-    private final Future<INTERNAL> internalFuture;
+    private final ReLoginFuture<INTERNAL> internalFuture;
     private final SessionManager sessionManager;
     private final Class<RETURN> returnClass;
     private final TicketAuthenticatorWrapper wrapper;
+    private final CompletableFuture<RETURN> future;
 
     /**
      * Create an AuthenticatedFuture that uses the SessionManager singleton for the verification.
@@ -80,41 +82,27 @@ public abstract class AbstractAuthenticationFuture<RETURN, INTERNAL> implements
         this.returnClass = returnClass;
         this.sessionManager = sessionManager;
         this.wrapper = wrapper;
-
-        synchronized (listSync) {
-            if (responseVerificationFuture == null) {
-                // create a task which makes sure that get is called on all of these futures so that tickets are renewed
-                try {
-                    responseVerificationFuture = GlobalScheduledExecutorService.scheduleAtFixedRate(() -> {
-                        synchronized (listSync) {
-                            for (final AbstractAuthenticationFuture future : new ArrayList<>(authenticatedFutureList)) {
-                                if (future.isCancelled()) {
-                                    authenticatedFutureList.remove(future);
-                                }
-
-                                if (future.isDone()) {
-                                    try {
-                                        future.get();
-                                    } catch (InterruptedException ex) {
-                                        Thread.currentThread().interrupt();
-                                    } catch (ExecutionException ex) {
-                                        authenticatedFutureList.remove(future);
-                                    }
-                                }
-                            }
-                        }
-                    }, 1, 5, TimeUnit.SECONDS);
-                    Shutdownable.registerShutdownHook(() -> responseVerificationFuture.cancel(true));
-                } catch (CouldNotPerformException ex) {
-                    ExceptionPrinter.printHistory("Could not initialize task which makes sure that authenticated response are verified", ex, LoggerFactory.getLogger(AbstractAuthenticationFuture.class));
-                }
+        this.future = new CompletableFuture<>();
+
+        // verify and convert the response as soon as it is available
+        this.internalFuture.toCompletableFuture().thenApply(internalResult -> {
+            try {
+                verifyResponse(getTicketFromInternal(internalResult));
+                return convertFromInternal(internalResult);
+            } catch (CouldNotPerformException ex) {
+                throw new CompletionException(new CouldNotPerformException("Could not execute authentication", ex));
             }
-            authenticatedFutureList.add(this);
-        }
+        }).whenComplete((result, throwable) -> {
+            if (throwable == null) {
+                future.complete(result);
+            } else {
+                future.completeExceptionally(throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable);
+            }
+        });
     }
 
     /**
-     * Cancel the internal future.
+     * Cancel this future as well as the internal future.
      * {@inheritDoc}
      *
      * @param mayInterruptIfRunning {@inheritDoc}
@@ -123,70 +111,69 @@ public abstract class AbstractAuthenticationFuture<RETURN, INTERNAL> implements
      */
     @Override
     public boolean cancel(boolean mayInterruptIfRunning) {
-        return internalFuture.cancel(mayInterruptIfRunning);
+        final boolean canceled = future.cancel(mayInterruptIfRunning);
+        internalFuture.cancel(mayInterruptIfRunning);
+        return canceled;
     }
 
     /**
-     * Return if the internal future has been canceled.
      * {@inheritDoc}
      *
      * @return {@inheritDoc}
      */
     @Override
     public boolean isCancelled() {
-        return internalFuture.isCancelled();
+        return future.isCancelled();
     }
 
     /**
-     * Return it the internal future is done.
      * {@inheritDoc}
      *
      * @return {@inheritDoc}
      */
     @Override
     public boolean isDone() {
-        return internalFuture.isDone();
+        return future.isDone();
     }
 
     /**
-     * Call get on the internal future, verifies the ticket and converts the result from
-     * the internal future to REPONSE.
+     * {@inheritDoc}
      *
-     * @return RESPONSE converted from the result of the internal future.
+     * @return {@inheritDoc}
      *
-     * @throws InterruptedException If interrupted inside of get of the internal future.
-     * @throws ExecutionException   If the execution of the internal future failed, the response could not be verified or the conversion to the return type failed.
+     * @throws InterruptedException {@inheritDoc}
+     * @throws ExecutionException   {@inheritDoc}
      */
     @Override
     public RETURN get() throws InterruptedException, ExecutionException {
-        INTERNAL internalResult = internalFuture.get();
-        try {
-            verifyResponse(getTicketFromInternal(internalResult));
-            return convertFromInternal(internalResult);
-        } catch (CouldNotPerformException ex) {
-            throw new ExecutionException("Could not execute authentication", ex);
-        }
+        return future.get();
     }
 
     /**
-     * Call get on the internal future with a given timeout, verifies the ticket and converts the result from
-     * the internal future to REPONSE.
+     * {@inheritDoc}
      *
-     * @return RESPONSE converted from the result of the internal future.
+     * @param timeout {@inheritDoc}
+     * @param unit    {@inheritDoc}
      *
-     * @throws InterruptedException If interrupted inside of get of the internal future.
-     * @throws ExecutionException   If the execution of the internal future failed, the response could not be verified or the conversion to the return type failed.
-     * @throws TimeoutException     If get on the internal future times out.
+     * @return {@inheritDoc}
+     *
+     * @throws InterruptedException {@inheritDoc}
+     * @throws ExecutionException   {@inheritDoc}
+     * @throws TimeoutException     {@inheritDoc}
      */
     @Override
     public RETURN get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-        INTERNAL internalResult = internalFuture.get(timeout, unit);
-        try {
-            verifyResponse(getTicketFromInternal(internalResult));
-            return convertFromInternal(internalResult);
-        } catch (CouldNotPerformException ex) {
-            throw new ExecutionException("Could not execute authentication", ex);
-        }
+        return future.get(timeout, unit);
+    }
+
+    /**
+     * Get a completable future which is completed with the verified result of this future.
+     * A new future is returned on each call, so completing it does not affect this future or other callers.
+     *
+     * @return a completable future of the verified result.
+     */
+    public CompletableFuture<RETURN> toCompletableFuture() {
+        return future.thenApply(Function.identity());
     }
 
     /**
@@ -209,10 +196,6 @@ public abstract class AbstractAuthenticationFuture<RETURN, INTERNAL> implements
                     ticketAuthenticatorWrapper));
         } catch (CouldNotPerformException ex) {
             throw new CouldNotPerformException("Could not verify ServiceServer Response", ex);
-        } finally {
-            synchronized (listSync) {
-                authenticatedFutureList.remove(this);
-            }
         }
     }
 
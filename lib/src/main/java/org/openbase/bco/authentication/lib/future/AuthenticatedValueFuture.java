@@ -22,9 +22,9 @@ package org.openbase.bco.authentication.lib.future;
  * #L%
  */
 
-import com.google.protobuf.ByteString;
 import com.google.protobuf.Message;
 import org.openbase.bco.authentication.lib.EncryptionHelper;
+import org.openbase.bco.authentication.lib.MessageParserRegistry;
 import org.openbase.bco.authentication.lib.SessionManager;
 import org.openbase.jul.exception.CouldNotPerformException;
 import org.openbase.jul.exception.InvalidStateException;
@@ -32,8 +32,6 @@ import org.openbase.jul.exception.NotAvailableException;
 import org.openbase.type.domotic.authentication.AuthenticatedValueType.AuthenticatedValue;
 import org.openbase.type.domotic.authentication.TicketAuthenticatorWrapperType.TicketAuthenticatorWrapper;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.concurrent.Future;
 
 /**
@@ -86,16 +84,11 @@ public class AuthenticatedValueFuture<RETURN> extends AbstractAuthenticationFutu
             if (getSessionManager().isLoggedIn()) {
                 return EncryptionHelper.decryptSymmetric(authenticatedValue.getValue(), getSessionManager().getSessionKey(), getReturnClass());
             } else {
-                try {
-                    if (!Message.class.isAssignableFrom(getReturnClass())) {
-                        throw new CouldNotPerformException("AuthenticatedValue has a value but the client method did not expect one");
-                    }
-
-                    Method parseFrom = getReturnClass().getMethod("parseFrom", ByteString.class);
-                    return (RETURN) parseFrom.invoke(null, authenticatedValue.getValue());
-                } catch (NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
-                    throw new CouldNotPerformException("Could not invoke parseFrom method on [" + getReturnClass().getSimpleName() + "]", ex);
+                if (!Message.class.isAssignableFrom(getReturnClass())) {
+                    throw new CouldNotPerformException("AuthenticatedValue has a value but the client method did not expect one");
                 }
+
+                return MessageParserRegistry.parseFrom(authenticatedValue.getValue(), getReturnClass());
             }
         } catch (CouldNotPerformException ex) {
             throw new CouldNotPerformException("Could not get return value from internal value", ex);
@@ -0,0 +1,104 @@
+package org.openbase.bco.authentication.lib.future;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.openbase.jul.schedule.GlobalCachedExecutorService;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Converts futures into completable futures.
+ * <p>
+ * Futures of this package are converted without blocking. The futures returned by the RPC layer do not offer
+ * completion callbacks, so a thread of the global cached executor service waits for each of them. These threads are
+ * only occupied while a request is pending.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public final class CompletableFutureAdapter {
+
+    private CompletableFutureAdapter() {
+    }
+
+    /**
+     * Get a completable future which is completed with the result of the given future.
+     * Canceling the returned future cancels the given future.
+     *
+     * @param future the future to convert.
+     * @param <T>    the type of the result.
+     *
+     * @return a completable future completed with the result of the given future.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> CompletableFuture<T> toCompletableFuture(final Future<T> future) {
+        if (future instanceof CompletableFuture) {
+            return (CompletableFuture<T>) future;
+        }
+
+        if (future instanceof AbstractAuthenticationFuture) {
+            return ((AbstractAuthenticationFuture<T, ?>) future).toCompletableFuture();
+        }
+
+        if (future instanceof ReplayFuture) {
+            return ((ReplayFuture<T>) future).toCompletableFuture();
+        }
+
+        final CompletableFuture<T> completableFuture = new CompletableFuture<T>() {
+            @Override
+            public boolean cancel(final boolean mayInterruptIfRunning) {
+                future.cancel(mayInterruptIfRunning);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+
+        if (future.isDone()) {
+            complete(future, completableFuture);
+            return completableFuture;
+        }
+
+        try {
+            GlobalCachedExecutorService.getInstance().getExecutorService().execute(() -> complete(future, completableFuture));
+        } catch (RejectedExecutionException ex) {
+            completableFuture.completeExceptionally(ex);
+        }
+        return completableFuture;
+    }
+
+    private static <T> void complete(final Future<T> future, final CompletableFuture<T> completableFuture) {
+        try {
+            completableFuture.complete(future.get());
+        } catch (ExecutionException ex) {
+            completableFuture.completeExceptionally(ex.getCause() != null ? ex.getCause() : ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            completableFuture.completeExceptionally(ex);
+        } catch (RuntimeException ex) {
+            // includes the cancellation of the given future
+            completableFuture.completeExceptionally(ex);
+        }
+    }
+}
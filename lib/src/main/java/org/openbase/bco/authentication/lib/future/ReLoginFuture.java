@@ -31,6 +31,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.crypto.BadPaddingException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -45,10 +47,24 @@ public class ReLoginFuture<T> implements Future<T>, FutureWrapper<T> {
 
     private final Future<T> internalFuture;
     private final SessionManager sessionManager;
+    private final long sessionGeneration;
 
     public ReLoginFuture(final Future<T> internalFuture, final SessionManager sessionManager) {
+        this(internalFuture, sessionManager, sessionManager.getSessionGeneration());
+    }
+
+    /**
+     * Create a new re-login future.
+     *
+     * @param internalFuture    the future of the request.
+     * @param sessionManager    the session manager used for the request.
+     * @param sessionGeneration the generation of the session with which the request was initialized.
+     *                          A re-login is only triggered if this session is still the current one.
+     */
+    public ReLoginFuture(final Future<T> internalFuture, final SessionManager sessionManager, final long sessionGeneration) {
         this.internalFuture = internalFuture;
         this.sessionManager = sessionManager;
+        this.sessionGeneration = sessionGeneration;
     }
 
     /**
@@ -112,12 +128,57 @@ public class ReLoginFuture<T> implements Future<T>, FutureWrapper<T> {
         }
     }
 
+    /**
+     * Create a completable future which is completed with the result of this future.
+     * Login errors are handled in the same way as by {@link #get()} but without blocking any thread.
+     * If the internal future is not completable, it is converted by the {@link CompletableFutureAdapter}.
+     *
+     * @return a completable future which is completed with the result of the internal future.
+     */
+    public CompletableFuture<T> toCompletableFuture() {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFutureAdapter.toCompletableFuture(internalFuture).whenComplete((value, throwable) -> {
+            if (throwable == null) {
+                future.complete(value);
+                return;
+            }
+
+            final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+            if (!isLoginError(cause)) {
+                future.completeExceptionally(cause);
+                return;
+            }
+
+            // pass on the failure after the session has been replaced so that the request can be replayed with it
+            sessionManager.reLoginAsync(sessionGeneration).whenComplete((reLoggedIn, reLoginFailure) -> {
+                if (reLoginFailure == null) {
+                    future.completeExceptionally(cause);
+                } else {
+                    future.completeExceptionally(new CouldNotPerformException("Could not re login", reLoginFailure instanceof CompletionException && reLoginFailure.getCause() != null ? reLoginFailure.getCause() : reLoginFailure));
+                }
+            });
+        });
+        return future;
+    }
+
+    /**
+     * Test if a request failed because its ticket has been rejected, so that a re-login is required.
+     *
+     * @param throwable the failure of the request.
+     *
+     * @return true if the failure is caused by the session of the request.
+     */
+    public static boolean isLoginError(final Throwable throwable) {
+        // authenticator could not decrypt ticket (likely the server restarted) or session ran out
+        final Throwable initialCause = ExceptionProcessor.getInitialCause(throwable);
+        return initialCause instanceof BadPaddingException || initialCause instanceof SessionExpiredException;
+    }
+
     private ExecutionException handleLoginError(ExecutionException ex) {
         try {
-            final Throwable initialCause = ExceptionProcessor.getInitialCause(ex);
-            if (initialCause instanceof BadPaddingException || initialCause instanceof SessionExpiredException) {
-                // authenticator could not decrypt ticket (likely the server restarted) or session ran out so re-login or logout
-                sessionManager.reLogin();
+            if (isLoginError(ex)) {
+                // re-login or logout, if multiple requests fail because of the same session only the first one triggers the re-login
+                sessionManager.reLogin(sessionGeneration);
             }
         } catch (CouldNotPerformException exx) {
             return new ExecutionException("Could not re login", exx);
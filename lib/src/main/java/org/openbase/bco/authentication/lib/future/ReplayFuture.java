@@ -0,0 +1,284 @@
+package org.openbase.bco.authentication.lib.future;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.openbase.bco.authentication.lib.SessionManager;
+import org.openbase.bco.authentication.lib.exception.SessionExpiredException;
+import org.openbase.jul.exception.ExceptionProcessor;
+import org.openbase.jul.exception.NotAvailableException;
+import org.openbase.jul.exception.PermissionDeniedException;
+import org.openbase.jul.exception.printer.ExceptionPrinter;
+import org.openbase.jul.exception.printer.LogLevel;
+import org.openbase.jul.schedule.GlobalScheduledExecutorService;
+import org.openbase.jul.schedule.SyncObject;
+import org.openbase.type.domotic.authentication.UserClientPairType.UserClientPair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.BadPaddingException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Future which transparently sends an authenticated request again if it failed and the failure is
+ * replayable according to a {@link ReplayPolicy}.
+ * <p>
+ * Replays are triggered as soon as an attempt fails and are delayed by the backoff of the policy
+ * without blocking any thread. The result can be composed without blocking via {@link #toCompletableFuture()}.
+ *
+ * @param <T> the type of the response.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class ReplayFuture<T> implements Future<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplayFuture.class);
+
+    /**
+     * Interface for sending a request with the current session of the session manager.
+     *
+     * @param <T> the type of the response.
+     */
+    public interface Request<T> {
+
+        /**
+         * Send the request. Each call has to initialize a new ticket and encrypt the request with
+         * the current session key.
+         *
+         * @return a future of the response.
+         */
+        Future<T> send();
+    }
+
+    private final Request<T> request;
+    private final ReplayPolicy replayPolicy;
+    private final SessionManager sessionManager;
+    private final SyncObject attemptLock = new SyncObject("ReplayAttemptLock");
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+
+    private Future<T> currentAttempt;
+    private long attemptSessionGeneration;
+    private UserClientPair attemptUserClientPair;
+    private int replays;
+
+    /**
+     * Create a new replay future and send the request for the first time.
+     *
+     * @param request        the request which is send.
+     * @param replayPolicy   the policy defining if and how often the request is replayed.
+     * @param sessionManager the session manager used by the request.
+     */
+    public ReplayFuture(final Request<T> request, final ReplayPolicy replayPolicy, final SessionManager sessionManager) {
+        this.request = request;
+        this.replayPolicy = replayPolicy;
+        this.sessionManager = sessionManager;
+        this.replays = 0;
+        send();
+    }
+
+    private void send() {
+        final Future<T> attempt;
+        synchronized (attemptLock) {
+            if (future.isDone()) {
+                // canceled while waiting for the replay
+                return;
+            }
+            attemptSessionGeneration = sessionManager.getSessionGeneration();
+            attemptUserClientPair = sessionManager.getUserClientPair();
+            attempt = request.send();
+            currentAttempt = attempt;
+        }
+
+        CompletableFutureAdapter.toCompletableFuture(attempt).whenComplete((value, throwable) -> {
+            if (throwable == null) {
+                future.complete(value);
+                return;
+            }
+
+            final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+            if (!replay(attempt, cause)) {
+                future.completeExceptionally(cause);
+            }
+        });
+    }
+
+    /**
+     * Cancel this future as well as the current attempt.
+     * {@inheritDoc}
+     *
+     * @param mayInterruptIfRunning {@inheritDoc}
+     *
+     * @return {@inheritDoc}
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (attemptLock) {
+            final boolean canceled = future.cancel(mayInterruptIfRunning);
+            currentAttempt.cancel(mayInterruptIfRunning);
+            return canceled;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return {@inheritDoc}
+     */
+    @Override
+    public boolean isCancelled() {
+        return future.isCancelled();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return {@inheritDoc}
+     */
+    @Override
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return {@inheritDoc}
+     *
+     * @throws InterruptedException {@inheritDoc}
+     * @throws ExecutionException   {@inheritDoc}
+     */
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        return future.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param timeout {@inheritDoc}
+     * @param unit    {@inheritDoc}
+     *
+     * @return {@inheritDoc}
+     *
+     * @throws InterruptedException {@inheritDoc}
+     * @throws ExecutionException   {@inheritDoc}
+     * @throws TimeoutException     {@inheritDoc}
+     */
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        return future.get(timeout, unit);
+    }
+
+    /**
+     * Get a completable future which is completed with the result of the last attempt.
+     * A new future is returned on each call, so completing it does not affect this future or other callers.
+     *
+     * @return a completable future of the response.
+     */
+    public CompletableFuture<T> toCompletableFuture() {
+        return future.thenApply(Function.identity());
+    }
+
+    /**
+     * Schedule a replay of the request if replaying the given failed attempt is allowed.
+     *
+     * @param attempt the attempt which failed.
+     * @param cause   the cause of the failure.
+     *
+     * @return true if a replay has been scheduled and false if the failure should be passed to the caller.
+     */
+    private boolean replay(final Future<T> attempt, final Throwable cause) {
+        final long backoff;
+        synchronized (attemptLock) {
+            if (future.isDone() || replays >= replayPolicy.getMaxReplays() || !isReplayable(attempt, cause)) {
+                return false;
+            }
+            replays++;
+            backoff = replayPolicy.getBackoff(replays, TimeUnit.MILLISECONDS);
+        }
+
+        if (backoff == 0) {
+            send();
+            return true;
+        }
+
+        try {
+            GlobalScheduledExecutorService.schedule(this::send, backoff, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (NotAvailableException | RejectedExecutionException ex) {
+            ExceptionPrinter.printHistory("Could not schedule replay of authenticated request", ex, LOGGER, LogLevel.WARN);
+            return false;
+        }
+    }
+
+    private boolean isReplayable(final Future<T> attempt, final Throwable cause) {
+        // only replay requests which failed at the server or during the communication,
+        // if the response has been received but could not be verified the request has been executed
+        if (!hasRequestFailed(attempt)) {
+            return false;
+        }
+
+        final Throwable initialCause = ExceptionProcessor.getInitialCause(cause);
+        if (initialCause instanceof BadPaddingException || initialCause instanceof SessionExpiredException) {
+            // the ticket has been rejected so the request has not been executed,
+            // it can be replayed if the same user and client are logged in with a new session
+            return sessionManager.isLoggedIn()
+                    && sessionManager.getSessionGeneration() != attemptSessionGeneration
+                    && sessionManager.getUserClientPair().equals(attemptUserClientPair);
+        }
+
+        return replayPolicy.isIdempotent() && !(initialCause instanceof PermissionDeniedException);
+    }
+
+    private boolean hasRequestFailed(final Future<T> attempt) {
+        if (!(attempt instanceof AbstractAuthenticationFuture)) {
+            return false;
+        }
+
+        Future<?> requestFuture = ((AbstractAuthenticationFuture<?, ?>) attempt).getInternalFuture();
+        if (requestFuture instanceof ReLoginFuture) {
+            requestFuture = ((ReLoginFuture<?>) requestFuture).getInternalFuture();
+        }
+
+        if (!requestFuture.isDone() || requestFuture.isCancelled()) {
+            return false;
+        }
+
+        try {
+            requestFuture.get();
+            return false;
+        } catch (ExecutionException ex) {
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.openbase.bco.authentication.lib.future;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Policy defining if and how an authenticated request is replayed after it failed.
+ * <p>
+ * A request rejected because its ticket could not be validated (the session expired or the server could not
+ * decrypt the ticket) has not been executed by the server. Such requests are always safe to replay after a
+ * re-login. Other failures are only replayed if the request is marked as idempotent.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class ReplayPolicy {
+
+    /**
+     * Policy which never replays a request.
+     */
+    public static final ReplayPolicy NONE = new ReplayPolicy(0, 0, 1, 0, false);
+
+    /**
+     * Policy used by default which replays a request once after its session has been re-established.
+     */
+    public static final ReplayPolicy DEFAULT = new ReplayPolicy(1, 50, 2, 1000, false);
+
+    /**
+     * Policy for idempotent requests which replays a request on any failure up to three times.
+     */
+    public static final ReplayPolicy IDEMPOTENT = new ReplayPolicy(3, 50, 2, 1000, true);
+
+    private final int maxReplays;
+    private final long initialBackoff;
+    private final double backoffMultiplier;
+    private final long maxBackoff;
+    private final boolean idempotent;
+
+    /**
+     * Create a new replay policy.
+     *
+     * @param maxReplays        the maximal number of times a request is send again.
+     * @param initialBackoff    the time in milliseconds waited before the first replay.
+     * @param backoffMultiplier the factor by which the backoff grows with each further replay.
+     * @param maxBackoff        the maximal time in milliseconds waited before a replay.
+     * @param idempotent        flag defining if the request can be executed multiple times without side effects.
+     */
+    public ReplayPolicy(final int maxReplays, final long initialBackoff, final double backoffMultiplier, final long maxBackoff, final boolean idempotent) {
+        if (maxReplays < 0 || initialBackoff < 0 || backoffMultiplier < 1 || maxBackoff < initialBackoff) {
+            throw new IllegalArgumentException("Invalid replay policy [" + maxReplays + ", " + initialBackoff + ", " + backoffMultiplier + ", " + maxBackoff + "]");
+        }
+        this.maxReplays = maxReplays;
+        this.initialBackoff = initialBackoff;
+        this.backoffMultiplier = backoffMultiplier;
+        this.maxBackoff = maxBackoff;
+        this.idempotent = idempotent;
+    }
+
+    public int getMaxReplays() {
+        return maxReplays;
+    }
+
+    public boolean isIdempotent() {
+        return idempotent;
+    }
+
+    /**
+     * Get the time to wait before a replay.
+     *
+     * @param replay the number of the replay starting at 1.
+     * @param unit   the time unit of the returned backoff.
+     *
+     * @return the backoff before the given replay.
+     */
+    public long getBackoff(final int replay, final TimeUnit unit) {
+        final double backoff = initialBackoff * Math.pow(backoffMultiplier, Math.max(0, replay - 1));
+        return unit.convert((long) Math.min(backoff, maxBackoff), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create a copy of this policy which treats requests as idempotent.
+     *
+     * @return an idempotent version of this policy.
+     */
+    public ReplayPolicy idempotent() {
+        return new ReplayPolicy(maxReplays, initialBackoff, backoffMultiplier, maxBackoff, true);
+    }
+
+    @Override
+    public String toString() {
+        return ReplayPolicy.class.getSimpleName() + "[maxReplays:" + maxReplays + ", initialBackoff:" + initialBackoff + ", multiplier:" + backoffMultiplier + ", maxBackoff:" + maxBackoff + ", idempotent:" + idempotent + "]";
+    }
+}
@@ -0,0 +1,48 @@
+package org.openbase.bco.authentication.lib.iface;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.openbase.jul.annotation.RPCMethod;
+import org.openbase.jul.exception.CouldNotPerformException;
+import org.openbase.type.domotic.authentication.AuthenticatedValueType.AuthenticatedValue;
+import org.openbase.type.domotic.authentication.TicketAuthenticatorWrapperType.TicketAuthenticatorWrapper;
+
+public interface AuthenticatedBroadcastRequestable {
+
+    String REQUEST_BROADCAST_DATA_AUTHENTICATED_METHOD = "requestBroadcastDataAuthenticated";
+
+    /**
+     * Request the data filtered for the permission class of the authenticated user.
+     * The data is encrypted once per permission class with a group key and only the group key is encrypted
+     * with the session key of the user.
+     *
+     * @param ticketWrapper the ticket of the user.
+     *
+     * @return authenticated value containing the {@link org.openbase.bco.authentication.lib.com.BroadcastData#toByteArray() binary broadcast data}.
+     *
+     * @throws CouldNotPerformException if the request fails or broadcast encryption is not enabled, e.g. because the permission version of the controller is unknown.
+     */
+    @RPCMethod
+    AuthenticatedValue requestBroadcastDataAuthenticated(final TicketAuthenticatorWrapper ticketWrapper) throws CouldNotPerformException;
+}
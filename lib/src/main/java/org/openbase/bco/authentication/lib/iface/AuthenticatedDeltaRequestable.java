@@ -0,0 +1,46 @@
+package org.openbase.bco.authentication.lib.iface;
+
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.openbase.jul.annotation.RPCMethod;
+import org.openbase.jul.exception.CouldNotPerformException;
+import org.openbase.type.domotic.authentication.AuthenticatedValueType.AuthenticatedValue;
+
+public interface AuthenticatedDeltaRequestable {
+
+    String REQUEST_DATA_DELTA_AUTHENTICATED_METHOD = "requestDataDeltaAuthenticated";
+
+    /**
+     * Request the changes of the data filtered for the authenticated user since the data last received.
+     * Remotes fall back to {@link AuthenticatedRequestable#requestDataAuthenticated} if a controller does not provide this method.
+     *
+     * @param request authenticated value containing the encrypted {@link org.openbase.bco.authentication.lib.com.DataDeltaRequest}.
+     *
+     * @return authenticated value containing the encrypted {@link org.openbase.bco.authentication.lib.com.DataDelta}.
+     *
+     * @throws CouldNotPerformException if the request fails.
+     */
+    @RPCMethod
+    AuthenticatedValue requestDataDeltaAuthenticated(final AuthenticatedValue request) throws CouldNotPerformException;
+}
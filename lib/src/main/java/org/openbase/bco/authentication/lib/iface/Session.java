@@ -25,6 +25,9 @@ package org.openbase.bco.authentication.lib.iface;
 import org.openbase.bco.authentication.lib.SessionManager;
 import org.openbase.jul.exception.CouldNotPerformException;
 import org.openbase.type.domotic.authentication.LoginCredentialsType.LoginCredentials;
+import org.openbase.type.domotic.authentication.UserClientPairType.UserClientPair;
+
+import java.util.concurrent.CompletableFuture;
 
 public interface Session {
     /**
@@ -97,6 +100,86 @@ public interface Session {
      */
     void loginClient(String id, LoginCredentials credentials, boolean stayLoggedIn) throws CouldNotPerformException;
 
+    /**
+     * Login a user asynchronously. If a client is already logged in the user will be logged in on top of the client.
+     * This method only works if the credentials for the user are stored by the session manager.
+     *
+     * @param id           the id of the user to be logged in.
+     * @param stayLoggedIn if the ticket of the user is automatically extended before it expires.
+     *
+     * @return a future which is completed with the logged in user and client or fails if logging in fails.
+     */
+    default CompletableFuture<UserClientPair> loginUserAsync(String id, boolean stayLoggedIn) {
+        return getSessionManager().loginUserAsync(id, stayLoggedIn);
+    }
+
+    /**
+     * Login a user with a password asynchronously. The password is hashed and used for symmetric encryption.
+     * If a client is already logged in the user will be logged in on top of the client.
+     *
+     * @param id           the id of the user to be logged in.
+     * @param password     the password used as credentials.
+     * @param stayLoggedIn if the ticket of the user is automatically extended before it expires.
+     *
+     * @return a future which is completed with the logged in user and client or fails if logging in fails.
+     */
+    default CompletableFuture<UserClientPair> loginUserAsync(String id, String password, boolean stayLoggedIn) {
+        return getSessionManager().loginUserAsync(id, password, stayLoggedIn);
+    }
+
+    /**
+     * Login a user asynchronously. If a client is already logged in the user will be logged in on top of the client.
+     *
+     * @param id           the id of the user to be logged in.
+     * @param credentials  the credentials of the user.
+     * @param stayLoggedIn if the ticket of the user is automatically extended before it expires.
+     *
+     * @return a future which is completed with the logged in user and client or fails if logging in fails.
+     */
+    default CompletableFuture<UserClientPair> loginUserAsync(String id, LoginCredentials credentials, boolean stayLoggedIn) {
+        return getSessionManager().loginUserAsync(id, credentials, stayLoggedIn);
+    }
+
+    /**
+     * Login a client asynchronously. If a user is already logged in the user will be logged out.
+     * This method only works if the credentials for the client are stored by the session manager.
+     *
+     * @param id           the id of the client to be logged in.
+     * @param stayLoggedIn if the ticket of the client is automatically extended before it expires.
+     *
+     * @return a future which is completed with the logged in client or fails if logging in fails.
+     */
+    default CompletableFuture<UserClientPair> loginClientAsync(String id, boolean stayLoggedIn) {
+        return getSessionManager().loginClientAsync(id, stayLoggedIn);
+    }
+
+    /**
+     * Login a client with a password asynchronously. The password is hashed and used for symmetric encryption.
+     * If a user is already logged in the user will be logged out.
+     *
+     * @param id           the id of the client to be logged in.
+     * @param password     the password used as credentials.
+     * @param stayLoggedIn if the ticket of the client is automatically extended before it expires.
+     *
+     * @return a future which is completed with the logged in client or fails if logging in fails.
+     */
+    default CompletableFuture<UserClientPair> loginClientAsync(String id, String password, boolean stayLoggedIn) {
+        return getSessionManager().loginClientAsync(id, password, stayLoggedIn);
+    }
+
+    /**
+     * Login a client asynchronously. If a user is already logged in the user will be logged out.
+     *
+     * @param id           the id of the client to be logged in.
+     * @param credentials  the credentials of the client.
+     * @param stayLoggedIn if the ticket of the client is automatically extended before it expires.
+     *
+     * @return a future which is completed with the logged in client or fails if logging in fails.
+     */
+    default CompletableFuture<UserClientPair> loginClientAsync(String id, LoginCredentials credentials, boolean stayLoggedIn) {
+        return getSessionManager().loginClientAsync(id, credentials, stayLoggedIn);
+    }
+
     /**
      * Logout by canceling the ticket renewal task and clearing the ticket and session key.
      * If a user is logged in his id will be cleared and if a client was also logged in the client will be logged in again.
@@ -120,6 +203,7 @@ public interface Session {
 
     /**
      * Logout and re-login what is possible while skipping notifications.
+     * Concurrent calls are joined so that the session is only re-established once.
      *
      * @throws CouldNotPerformException if logging in again fails
      */
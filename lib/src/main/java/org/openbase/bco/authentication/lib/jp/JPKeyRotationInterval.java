@@ -0,0 +1,71 @@
+package org.openbase.bco.authentication.lib.jp;
+
+/*-
+ * #%L
+ * BCO Authentication Library
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.openbase.jps.core.JPService;
+import org.openbase.jps.exception.JPNotAvailableException;
+import org.openbase.jps.exception.JPValidationException;
+import org.openbase.jps.preset.AbstractJPTime;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interval in which the authenticator rotates the ticket granting and service server secret keys.
+ * Service servers use it to fetch new keys before they are used.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class JPKeyRotationInterval extends AbstractJPTime {
+
+    public final static String[] COMMAND_IDENTIFIERS = {"--key-rotation-interval"};
+
+    private static final long DEFAULT_INTERVAL = TimeUnit.DAYS.toMillis(30);
+    private static final long DEFAULT_TEST_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    public JPKeyRotationInterval() {
+        super(COMMAND_IDENTIFIERS);
+    }
+
+    @Override
+    protected Long getPropertyDefaultValue() throws JPNotAvailableException {
+        if (JPService.testMode()) {
+            return DEFAULT_TEST_INTERVAL;
+        }
+        return DEFAULT_INTERVAL;
+    }
+
+    @Override
+    protected void validate() throws JPValidationException {
+        super.validate();
+
+        final long keyRotationInterval = getValue();
+        if (keyRotationInterval <= 0) {
+            throw new JPValidationException("KeyRotationInterval is negative or null[" + keyRotationInterval + "]");
+        }
+    }
+
+    @Override
+    public String getTimeDescription() {
+        return "Set the interval in which secret keys are rotated.";
+    }
+}
@@ -0,0 +1,246 @@
+package org.openbase.bco.authentication.mock;
+
+
+/*-
+ * #%L
+ * BCO Authentication Test
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.openbase.jul.exception.CouldNotPerformException;
+import org.openbase.jul.extension.protobuf.IdentifiableMessage;
+import org.openbase.type.domotic.authentication.PermissionConfigType.PermissionConfig;
+import org.openbase.type.domotic.authentication.PermissionType.Permission;
+import org.openbase.type.domotic.unit.UnitConfigType.UnitConfig;
+import org.openbase.type.domotic.unit.UnitTemplateType.UnitTemplate.UnitType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Synthetic registry of locations, authorization groups, users and units with random permission configs.
+ * The registry is generated from a seed so that failures can be reproduced.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class MockRegistry {
+
+    public static final String ROOT_LOCATION_ID = "location_0";
+
+    private final Random random;
+    private final List<String> userIds;
+    private final List<String> groupIds;
+    private final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups;
+    private final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations;
+    private final List<UnitConfig> unitConfigs;
+
+    /**
+     * Generate a new registry.
+     *
+     * @param seed          the seed of the random generator.
+     * @param locationCount the number of locations including the root location.
+     * @param groupCount    the number of authorization groups.
+     * @param userCount     the number of users.
+     * @param unitCount     the number of units placed at random locations.
+     * @param groupSize     the maximal number of members per group.
+     *
+     * @throws CouldNotPerformException if the registry entries cannot be created.
+     */
+    public MockRegistry(final long seed, final int locationCount, final int groupCount, final int userCount, final int unitCount, final int groupSize) throws CouldNotPerformException {
+        this(seed, locationCount, 0, groupCount, userCount, unitCount, groupSize);
+    }
+
+    /**
+     * Generate a new registry whose locations form a complete tree.
+     *
+     * @param seed       the seed of the random generator.
+     * @param depth      the number of location levels including the root location.
+     * @param fanOut     the number of child locations of every location except the leaves.
+     * @param groupCount the number of authorization groups.
+     * @param userCount  the number of users.
+     * @param unitCount  the number of units placed at random locations.
+     * @param groupSize  the maximal number of members per group.
+     *
+     * @return the generated registry.
+     *
+     * @throws CouldNotPerformException if the registry entries cannot be created.
+     */
+    public static MockRegistry createHierarchy(final long seed, final int depth, final int fanOut, final int groupCount, final int userCount, final int unitCount, final int groupSize) throws CouldNotPerformException {
+        int locationCount = 0;
+        for (int level = 0, levelSize = 1; level < depth; level++, levelSize *= fanOut) {
+            locationCount += levelSize;
+        }
+        return new MockRegistry(seed, locationCount, fanOut, groupCount, userCount, unitCount, groupSize);
+    }
+
+    private MockRegistry(final long seed, final int locationCount, final int fanOut, final int groupCount, final int userCount, final int unitCount, final int groupSize) throws CouldNotPerformException {
+        this.random = new Random(seed);
+        this.userIds = new ArrayList<>();
+        this.groupIds = new ArrayList<>();
+        this.groups = new HashMap<>();
+        this.locations = new HashMap<>();
+        this.unitConfigs = new ArrayList<>();
+
+        for (int i = 0; i < userCount; i++) {
+            userIds.add("user_" + i);
+        }
+
+        for (int i = 0; i < groupCount; i++) {
+            groupIds.add("group_" + i);
+        }
+
+        for (final String groupId : groupIds) {
+            final UnitConfig.Builder groupBuilder = UnitConfig.newBuilder().setId(groupId).setUnitType(UnitType.AUTHORIZATION_GROUP);
+            groupBuilder.setPermissionConfig(generatePermissionConfig());
+            final int memberCount = random.nextInt(groupSize + 1);
+            for (int i = 0; i < memberCount; i++) {
+                groupBuilder.getAuthorizationGroupConfigBuilder().addMemberId(getRandomUserId());
+            }
+            groups.put(groupId, new IdentifiableMessage<>(groupBuilder.build()));
+        }
+
+        final UnitConfig.Builder rootBuilder = UnitConfig.newBuilder().setId(ROOT_LOCATION_ID).setUnitType(UnitType.LOCATION);
+        rootBuilder.getLocationConfigBuilder().setRoot(true);
+        rootBuilder.setPermissionConfig(generatePermissionConfig());
+        locations.put(ROOT_LOCATION_ID, new IdentifiableMessage<>(rootBuilder.build()));
+
+        for (int i = 1; i < locationCount; i++) {
+            final UnitConfig.Builder locationBuilder = UnitConfig.newBuilder().setId("location_" + i).setUnitType(UnitType.LOCATION);
+            locationBuilder.getLocationConfigBuilder().setRoot(false);
+            // parents are always created before their children so the hierarchy is free of cycles
+            locationBuilder.getPlacementConfigBuilder().setLocationId("location_" + (fanOut > 0 ? (i - 1) / fanOut : random.nextInt(i)));
+            if (random.nextInt(3) != 0) {
+                locationBuilder.setPermissionConfig(generatePermissionConfig());
+            }
+            locations.put(locationBuilder.getId(), new IdentifiableMessage<>(locationBuilder.build()));
+        }
+
+        for (final String userId : userIds) {
+            final UnitConfig.Builder userBuilder = UnitConfig.newBuilder().setId(userId).setUnitType(UnitType.USER);
+            userBuilder.getPlacementConfigBuilder().setLocationId(getRandomLocationId());
+            userBuilder.setPermissionConfig(generatePermissionConfig());
+            unitConfigs.add(userBuilder.build());
+        }
+
+        for (int i = 0; i < unitCount; i++) {
+            final UnitConfig.Builder unitBuilder = UnitConfig.newBuilder().setId("unit_" + i).setUnitType(UnitType.AGENT);
+            unitBuilder.getPlacementConfigBuilder().setLocationId(getRandomLocationId());
+            if (random.nextInt(3) != 0) {
+                unitBuilder.setPermissionConfig(generatePermissionConfig());
+            }
+            unitConfigs.add(unitBuilder.build());
+        }
+    }
+
+    /**
+     * Generate a random permission config. Permissions may only be partially defined to cover the merging with parent locations.
+     *
+     * @return a new permission config.
+     */
+    public PermissionConfig generatePermissionConfig() {
+        final PermissionConfig.Builder builder = PermissionConfig.newBuilder();
+        if (random.nextInt(4) != 0) {
+            builder.setOwnerId(getRandomUserId());
+        }
+        if (random.nextInt(4) != 0) {
+            builder.setOwnerPermission(generatePermission());
+        }
+        if (random.nextInt(4) != 0) {
+            builder.setOtherPermission(generatePermission());
+        }
+
+        final int groupEntries = random.nextInt(4);
+        for (int i = 0; i < groupEntries; i++) {
+            // users can also be used as groups
+            final String groupId = groupIds.isEmpty() || random.nextInt(4) == 0 ? getRandomUserId() : groupIds.get(random.nextInt(groupIds.size()));
+            builder.addGroupPermissionBuilder().setGroupId(groupId).setPermission(generatePermission());
+        }
+        return builder.build();
+    }
+
+    private Permission generatePermission() {
+        final Permission.Builder builder = Permission.newBuilder();
+        if (random.nextInt(5) != 0) {
+            builder.setRead(random.nextInt(4) != 0);
+        }
+        if (random.nextInt(5) != 0) {
+            builder.setWrite(random.nextBoolean());
+        }
+        if (random.nextInt(5) != 0) {
+            builder.setAccess(random.nextBoolean());
+        }
+        return builder.build();
+    }
+
+    public String getRandomUserId() {
+        return userIds.get(random.nextInt(userIds.size()));
+    }
+
+    public String getRandomLocationId() {
+        return "location_" + random.nextInt(locations.size());
+    }
+
+    /**
+     * Get a random location which can be used as new parent of a location without creating a cycle.
+     *
+     * @param locationId the id of the location which should be moved, must not be the root location.
+     *
+     * @return the id of a location which has been generated before the given location.
+     */
+    public String getRandomParentLocationId(final String locationId) {
+        return "location_" + random.nextInt(Integer.parseInt(locationId.substring(locationId.indexOf('_') + 1)));
+    }
+
+    public List<String> getUserIds() {
+        return Collections.unmodifiableList(userIds);
+    }
+
+    public Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> getGroups() {
+        return groups;
+    }
+
+    public Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> getLocations() {
+        return locations;
+    }
+
+    /**
+     * @return all units of the registry including locations and groups.
+     */
+    public List<UnitConfig> getAllUnitConfigs() {
+        final List<UnitConfig> allUnitConfigs = new ArrayList<>(unitConfigs);
+        for (final IdentifiableMessage<String, UnitConfig, UnitConfig.Builder> location : locations.values()) {
+            allUnitConfigs.add(location.getMessage());
+        }
+        for (final IdentifiableMessage<String, UnitConfig, UnitConfig.Builder> group : groups.values()) {
+            allUnitConfigs.add(group.getMessage());
+        }
+        return allUnitConfigs;
+    }
+
+    /**
+     * @return all users and units of the registry, locations and groups are not included.
+     */
+    public List<UnitConfig> getUnitConfigs() {
+        return Collections.unmodifiableList(unitConfigs);
+    }
+}
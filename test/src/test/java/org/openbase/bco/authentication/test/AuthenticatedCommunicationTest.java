@@ -29,6 +29,7 @@ import org.junit.Test;
 import org.openbase.bco.authentication.core.AuthenticatorController;
 import org.openbase.bco.authentication.lib.CachedAuthenticationRemote;
 import org.openbase.bco.authentication.lib.EncryptionHelper;
+import org.openbase.bco.authentication.lib.PermissionEngine;
 import org.openbase.bco.authentication.lib.SessionManager;
 import org.openbase.bco.authentication.lib.com.AbstractAuthenticatedControllerServer;
 import org.openbase.bco.authentication.lib.com.AbstractAuthenticatedRemoteClient;
@@ -46,6 +47,9 @@ import org.openbase.type.domotic.unit.UnitConfigType.UnitConfig;
 import org.openbase.type.domotic.unit.UnitTemplateType.UnitTemplate.UnitType;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertTrue;
 
 public class AuthenticatedCommunicationTest extends AuthenticationTest {
@@ -57,6 +61,9 @@ public class AuthenticatedCommunicationTest extends AuthenticationTest {
     private static final String USER_ID = "authenticated";
     private static final String USER_PASSWORD = "communication";
 
+    private final PermissionEngine permissionEngine = new PermissionEngine();
+    private final AtomicInteger filterCount = new AtomicInteger();
+
     private AuthenticatedControllerServer communicationService;
     private AuthenticatedRemoteClient remoteService;
 
@@ -152,6 +159,81 @@ public class AuthenticatedCommunicationTest extends AuthenticationTest {
         assertTrue(!remoteService.getData().getAgentUnitConfigList().contains(userAgentConfig.build()));
     }
 
+    /**
+     * Test that remotes receive the data filtered for them if it is encrypted for their permission class.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test(timeout = 20000)
+    public void testBroadcastCommunication() throws Exception {
+        UnitConfig.Builder userAgentConfig = UnitConfig.newBuilder();
+        userAgentConfig.setId("UserAgent");
+        userAgentConfig.setUnitType(UnitType.AGENT);
+        userAgentConfig.getPermissionConfigBuilder().getOtherPermissionBuilder().setRead(false).setAccess(false).setWrite(false);
+        userAgentConfig.getPermissionConfigBuilder().getOwnerPermissionBuilder().setRead(true).setAccess(true).setWrite(true);
+        userAgentConfig.getPermissionConfigBuilder().setOwnerId(USER_ID);
+
+        UnitConfig.Builder otherAgentConfig = UnitConfig.newBuilder();
+        otherAgentConfig.setId("OtherAgent");
+        otherAgentConfig.setUnitType(UnitType.AGENT);
+        otherAgentConfig.getPermissionConfigBuilder().getOtherPermissionBuilder().setRead(true).setWrite(false).setAccess(true);
+
+        try (ClosableDataBuilder<Builder> dataBuilder = communicationService.getDataBuilderInterruptible(this)) {
+            dataBuilder.getInternalBuilder().addAgentUnitConfig(otherAgentConfig);
+            dataBuilder.getInternalBuilder().addAgentUnitConfig(userAgentConfig);
+        }
+
+        remoteService.setBroadcastDataEnabled(true);
+        SessionManager.getInstance().loginUser(USER_ID, USER_PASSWORD, false);
+        try {
+            remoteService.requestData().get();
+            assertTrue(remoteService.getData().getAgentUnitConfigList().contains(userAgentConfig.build()));
+
+            // a second request is answered with the data encrypted before
+            remoteService.requestData().get();
+            assertTrue(remoteService.getData().getAgentUnitConfigList().contains(userAgentConfig.build()));
+        } finally {
+            SessionManager.getInstance().logout();
+        }
+
+        remoteService.requestData().get();
+        assertTrue(!remoteService.getData().getAgentUnitConfigList().contains(userAgentConfig.build()));
+    }
+
+    /**
+     * Test that data is only filtered again if the version of the permission engine of the controller changes.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test(timeout = 20000)
+    public void testPermissionEngineCaching() throws Exception {
+        UnitConfig.Builder otherAgentConfig = UnitConfig.newBuilder();
+        otherAgentConfig.setId("OtherAgent");
+        otherAgentConfig.setUnitType(UnitType.AGENT);
+        otherAgentConfig.getPermissionConfigBuilder().getOtherPermissionBuilder().setRead(true).setWrite(false).setAccess(true);
+
+        try (ClosableDataBuilder<Builder> dataBuilder = communicationService.getDataBuilderInterruptible(this)) {
+            dataBuilder.getInternalBuilder().addAgentUnitConfig(otherAgentConfig);
+        }
+
+        remoteService.requestData().get();
+        assertTrue(remoteService.getData().getAgentUnitConfigList().contains(otherAgentConfig.build()));
+        final int filterCountBefore = filterCount.get();
+
+        // unchanged data and permissions are answered with the data filtered before
+        remoteService.requestData().get();
+        assertEquals(filterCountBefore, filterCount.get());
+
+        // a permission change increments the version of the engine so that the data is filtered again
+        permissionEngine.update(otherAgentConfig.build());
+        remoteService.requestData().get();
+        assertEquals(filterCountBefore + 1, filterCount.get());
+        assertTrue(remoteService.getData().getAgentUnitConfigList().contains(otherAgentConfig.build()));
+
+        remoteService.requestData().get();
+        assertEquals(filterCountBefore + 1, filterCount.get());
+    }
+
     private class AuthenticatedControllerServer extends AbstractAuthenticatedControllerServer<UnitRegistryData, Builder> {
 
         /**
@@ -161,10 +243,13 @@ public class AuthenticatedCommunicationTest extends AuthenticationTest {
          */
         public AuthenticatedControllerServer() throws InstantiationException {
             super(UnitRegistryData.newBuilder());
+            // permissions are only defined by the data, the engine only provides the version
+            setPermissionEngine(permissionEngine);
         }
 
         @Override
         protected UnitRegistryData filterDataForUser(UnitRegistryData.Builder dataBuilder, UserClientPair userClientPair) {
+            filterCount.incrementAndGet();
             // remove all agent unit configs for which the user does not have direct read permissions
             for (int i = 0; i < dataBuilder.getAgentUnitConfigCount(); i++) {
                 if (!canRead(dataBuilder.getAgentUnitConfig(i), userClientPair)) {
@@ -189,6 +274,11 @@ public class AuthenticatedCommunicationTest extends AuthenticationTest {
             return unitConfig.getPermissionConfig().getOtherPermission().getRead();
         }
 
+        @Override
+        protected String getPermissionClass(final UserClientPair userClientPair) {
+            return userClientPair.getUserId() + "@" + userClientPair.getClientId();
+        }
+
         @Override
         public UnitRegistryData requestStatus() throws CouldNotPerformException {
             return super.requestStatus();
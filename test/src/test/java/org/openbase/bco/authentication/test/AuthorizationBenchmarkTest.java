@@ -0,0 +1,208 @@
+package org.openbase.bco.authentication.test;
+
+
+/*-
+ * #%L
+ * BCO Authentication Test
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openbase.bco.authentication.lib.AuthorizationHelper;
+import org.openbase.bco.authentication.lib.AuthorizationHelper.PermissionType;
+import org.openbase.bco.authentication.lib.UnitPermissions;
+import org.openbase.bco.authentication.mock.MockRegistry;
+import org.openbase.jul.extension.protobuf.IdentifiableMessage;
+import org.openbase.type.domotic.authentication.UserClientPairType.UserClientPair;
+import org.openbase.type.domotic.unit.UnitConfigType.UnitConfig;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmark of the permission evaluation on synthetic registries.
+ * <p>
+ * The benchmark is skipped unless the system property {@code bco.authentication.benchmark} is set to true,
+ * e.g. {@code mvn test -Dtest=AuthorizationBenchmarkTest -Dbco.authentication.benchmark=true}.
+ * The registry can be scaled by the properties {@code bco.authentication.benchmark.depth}, {@code .fanOut},
+ * {@code .units}, {@code .groups}, {@code .groupSize} and {@code .users}. The number of evaluated users per round
+ * and the number of rounds are configured by {@code .sampledUsers} and {@code .rounds}.
+ * <p>
+ * Besides printing the throughput and the allocation per decision, the benchmark fails if filtering a registry in bulk
+ * is not faster than checking each unit with the reference implementation, if the results of both differ, or if
+ * filtering takes longer than {@code .maxFilterMillis} if this property is defined. The reference implementation is the
+ * frozen {@link ReferenceAuthorizationHelper} so that optimizations of the helper cannot speed up the baseline.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class AuthorizationBenchmarkTest {
+
+    private static final String PROPERTY_PREFIX = "bco.authentication.benchmark";
+
+    private static MockRegistry registry;
+    private static List<String> sampledUserIds;
+    private static int rounds;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        Assume.assumeTrue("Benchmark is disabled", Boolean.getBoolean(PROPERTY_PREFIX));
+
+        registry = MockRegistry.createHierarchy(
+                Long.getLong(PROPERTY_PREFIX + ".seed", 42),
+                Integer.getInteger(PROPERTY_PREFIX + ".depth", 5),
+                Integer.getInteger(PROPERTY_PREFIX + ".fanOut", 4),
+                Integer.getInteger(PROPERTY_PREFIX + ".groups", 50),
+                Integer.getInteger(PROPERTY_PREFIX + ".users", 200),
+                Integer.getInteger(PROPERTY_PREFIX + ".units", 10000),
+                Integer.getInteger(PROPERTY_PREFIX + ".groupSize", 100));
+        rounds = Integer.getInteger(PROPERTY_PREFIX + ".rounds", 5);
+
+        sampledUserIds = new ArrayList<>();
+        sampledUserIds.add("");
+        final List<String> userIds = registry.getUserIds();
+        final int sampledUsers = Math.min(Integer.getInteger(PROPERTY_PREFIX + ".sampledUsers", 10), userIds.size());
+        for (int i = 0; i < sampledUsers; i++) {
+            sampledUserIds.add(userIds.get(i * userIds.size() / sampledUsers));
+        }
+
+        System.out.println("Benchmark registry with " + registry.getLocations().size() + " locations, " + registry.getGroups().size() + " groups and " + registry.getUnitConfigs().size() + " units");
+    }
+
+    /**
+     * Measure single permission decisions.
+     */
+    @Test
+    public void benchmarkDecisions() {
+        System.out.println("benchmarkDecisions");
+
+        final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups = registry.getGroups();
+        final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations = registry.getLocations();
+
+        measureDecisions("canRead", (unitConfig, userId) -> AuthorizationHelper.canRead(unitConfig, userId, groups, locations));
+        measureDecisions("canWrite", (unitConfig, userId) -> AuthorizationHelper.canWrite(unitConfig, userId, groups, locations));
+        measureDecisions("canAccess", (unitConfig, userId) -> AuthorizationHelper.canAccess(unitConfig, userId, groups, locations));
+        measureDecisions("getPermission", (unitConfig, userId) -> AuthorizationHelper.getPermission(unitConfig, userId, groups, locations).getRead());
+        measureDecisions("canDo", (unitConfig, userId) -> AuthorizationHelper.canDo(unitConfig, userId, groups, locations, PermissionType.READ));
+        measureDecisions("canDo (reference)", (unitConfig, userId) -> ReferenceAuthorizationHelper.canDo(unitConfig, userId, groups, locations, PermissionType.READ));
+    }
+
+    /**
+     * Measure filtering the complete registry for a user and validate the result against the reference implementation.
+     */
+    @Test
+    public void benchmarkFiltering() {
+        System.out.println("benchmarkFiltering");
+
+        final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups = registry.getGroups();
+        final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations = registry.getLocations();
+        final List<UnitConfig> unitConfigs = registry.getUnitConfigs();
+
+        long bulkNanos = 0;
+        long referenceNanos = 0;
+        // the first round is used as warm up
+        for (int round = 0; round <= rounds; round++) {
+            for (final String userId : sampledUserIds) {
+                final UserClientPair userClientPair = UserClientPair.newBuilder().setUserId(userId).build();
+
+                long start = System.nanoTime();
+                final UnitPermissions unitPermissions = AuthorizationHelper.getUnitPermissions(unitConfigs, userClientPair, groups, locations);
+                final long bulk = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                final Set<String> readableUnitIds = new HashSet<>();
+                for (final UnitConfig unitConfig : unitConfigs) {
+                    if (ReferenceAuthorizationHelper.canDo(unitConfig, userId, groups, locations, PermissionType.READ)) {
+                        readableUnitIds.add(unitConfig.getId());
+                    }
+                }
+                final long reference = System.nanoTime() - start;
+
+                assertEquals("Filtered units of User[" + userId + "] differ from the reference!", readableUnitIds, unitPermissions.getReadableUnitIds());
+
+                if (round > 0) {
+                    bulkNanos += bulk;
+                    referenceNanos += reference;
+                }
+            }
+        }
+
+        final int filterCount = rounds * sampledUserIds.size();
+        final double bulkMillis = (double) TimeUnit.NANOSECONDS.toMicros(bulkNanos) / 1000 / filterCount;
+        final double referenceMillis = (double) TimeUnit.NANOSECONDS.toMicros(referenceNanos) / 1000 / filterCount;
+        System.out.println(String.format("getUnitPermissions: %.3f ms per filter", bulkMillis));
+        System.out.println(String.format("canDo (reference): %.3f ms per filter", referenceMillis));
+
+        assertTrue("Filtering in bulk is slower than the reference implementation", bulkNanos < referenceNanos);
+        final Long maxFilterMillis = Long.getLong(PROPERTY_PREFIX + ".maxFilterMillis");
+        if (maxFilterMillis != null) {
+            assertTrue("Filtering took " + bulkMillis + "ms but at most " + maxFilterMillis + "ms are allowed", bulkMillis <= maxFilterMillis);
+        }
+    }
+
+    private void measureDecisions(final String name, final BiPredicate<UnitConfig, String> decision) {
+        final List<UnitConfig> unitConfigs = registry.getUnitConfigs();
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        final boolean allocationSupported = threadMXBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported();
+
+        // warm up
+        int permitted = evaluate(unitConfigs, decision);
+
+        final long threadId = Thread.currentThread().getId();
+        final long allocatedBefore = allocationSupported ? ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(threadId) : 0;
+        final long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            permitted += evaluate(unitConfigs, decision);
+        }
+        final long nanos = System.nanoTime() - start;
+        final long allocated = allocationSupported ? ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(threadId) - allocatedBefore : -1;
+
+        final long decisions = (long) rounds * unitConfigs.size() * sampledUserIds.size();
+        System.out.println(String.format("%s: %.0f decisions/s, %s bytes/decision (%d permitted)",
+                name,
+                decisions / (nanos / 1e9),
+                allocationSupported ? String.format("%.1f", (double) allocated / decisions) : "?",
+                permitted));
+    }
+
+    private int evaluate(final List<UnitConfig> unitConfigs, final BiPredicate<UnitConfig, String> decision) {
+        // the count is printed so that the evaluations cannot be eliminated
+        int permitted = 0;
+        for (final String userId : sampledUserIds) {
+            for (final UnitConfig unitConfig : unitConfigs) {
+                if (decision.test(unitConfig, userId)) {
+                    permitted++;
+                }
+            }
+        }
+        return permitted;
+    }
+}
@@ -26,6 +26,8 @@ package org.openbase.bco.authentication.test;
 
 import org.junit.*;
 import org.openbase.bco.authentication.lib.AuthorizationHelper;
+import org.openbase.bco.authentication.lib.UnitPermissions;
+import org.openbase.bco.authentication.mock.MockRegistry;
 import org.openbase.jul.extension.protobuf.IdentifiableMessage;
 import org.openbase.jul.extension.type.processing.LabelProcessor;
 import org.openbase.type.domotic.authentication.PermissionConfigType.PermissionConfig;
@@ -37,7 +39,9 @@ import org.openbase.type.domotic.unit.authorizationgroup.AuthorizationGroupConfi
 import org.openbase.type.domotic.unit.location.LocationConfigType.LocationConfig;
 import org.openbase.type.spatial.PlacementConfigType.PlacementConfig;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -60,6 +64,7 @@ public class AuthorizationHelperTest {
     private static final String CLIENT_1 = "client1";
     private static final String LOCATION_ROOT = "root";
     private static final String LOCATION_1 = "location1";
+    private static final String LOCATION_2 = "location2";
     private static final String UNIT_ID = "unit1";
 
     private final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups;
@@ -344,6 +349,139 @@ public class AuthorizationHelperTest {
         }
     }
 
+    /**
+     * Validate that resolved permissions of locations are updated if the permissions or the parent of a location change.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testLocationChange() throws Exception {
+        System.out.println("testLocationChange");
+
+        // location 1 does not define permissions and inherits them from its parent
+        final UnitConfig.Builder location1Builder = UnitConfig.newBuilder()
+                .setId(LOCATION_1)
+                .setUnitType(UnitType.LOCATION)
+                .setLocationConfig(LocationConfig.newBuilder().setRoot(false));
+        location1Builder.getPlacementConfigBuilder().setLocationId(LOCATION_ROOT);
+        locations.put(LOCATION_1, new IdentifiableMessage<>(location1Builder.build()));
+
+        final UnitConfig.Builder location2Builder = UnitConfig.newBuilder()
+                .setId(LOCATION_2)
+                .setUnitType(UnitType.LOCATION)
+                .setLocationConfig(LocationConfig.newBuilder().setRoot(false));
+        location2Builder.getPlacementConfigBuilder().setLocationId(LOCATION_ROOT);
+        location2Builder.getPermissionConfigBuilder().setOtherPermission(RWX);
+        locations.put(LOCATION_2, new IdentifiableMessage<>(location2Builder.build()));
+
+        final UnitConfig.Builder unitConfigBuilder = UnitConfig.newBuilder().setId(UNIT_ID);
+        unitConfigBuilder.getPlacementConfigBuilder().setLocationId(LOCATION_1);
+        final UnitConfig unitConfig = unitConfigBuilder.build();
+
+        // permissions are inherited from the root location
+        assertEquals(READ_ONLY, AuthorizationHelper.getPermission(unitConfig, USER_2, groups, locations));
+
+        // move location 1 into location 2
+        location1Builder.getPlacementConfigBuilder().setLocationId(LOCATION_2);
+        locations.put(LOCATION_1, new IdentifiableMessage<>(location1Builder.build()));
+        assertEquals(RWX, AuthorizationHelper.getPermission(unitConfig, USER_2, groups, locations));
+
+        // change the permissions of location 2
+        location2Builder.getPermissionConfigBuilder().setOtherPermission(READ_ONLY);
+        locations.put(LOCATION_2, new IdentifiableMessage<>(location2Builder.build()));
+        assertEquals(READ_ONLY, AuthorizationHelper.getPermission(unitConfig, USER_2, groups, locations));
+    }
+
+    /**
+     * Validate that changes of group members are considered by permission checks.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testGroupMemberChange() throws Exception {
+        System.out.println("testGroupMemberChange");
+
+        final UnitConfig.Builder unitConfigBuilder = UnitConfig.newBuilder().setId(UNIT_ID);
+        unitConfigBuilder.getPlacementConfigBuilder().setLocationId(LOCATION_ROOT);
+        unitConfigBuilder.getPermissionConfigBuilder()
+                .setOtherPermission(NONE)
+                .addGroupPermissionBuilder().setGroupId(GROUP_2).setPermission(RWX);
+        final UnitConfig unitConfig = unitConfigBuilder.build();
+
+        assertEquals(RWX, AuthorizationHelper.getPermission(unitConfig, USER_3, groups, locations));
+        assertEquals(NONE, AuthorizationHelper.getPermission(unitConfig, USER_2, groups, locations));
+
+        // replace user 3 by user 2 in group 2
+        final UnitConfig.Builder groupBuilder = groups.get(GROUP_2).getMessage().toBuilder();
+        groupBuilder.getAuthorizationGroupConfigBuilder().clearMemberId().addMemberId(USER_1).addMemberId(USER_2);
+        groups.put(GROUP_2, new IdentifiableMessage<>(groupBuilder.build()));
+
+        assertEquals(NONE, AuthorizationHelper.getPermission(unitConfig, USER_3, groups, locations));
+        assertEquals(RWX, AuthorizationHelper.getPermission(unitConfig, USER_2, groups, locations));
+
+        // remove group 2
+        groups.remove(GROUP_2);
+        assertEquals(NONE, AuthorizationHelper.getPermission(unitConfig, USER_2, groups, locations));
+    }
+
+    /**
+     * Validate that the single pass permission evaluation matches the original evaluation of each permission type on random registries.
+     */
+    @Test
+    public void testPermissionMaskMatchesReference() throws Exception {
+        System.out.println("testPermissionMaskMatchesReference");
+
+        for (long seed = 0; seed < 20; seed++) {
+            final MockRegistry registry = new MockRegistry(seed, 30, 5, 10, 100, 6);
+            final List<String> userIds = new ArrayList<>(registry.getUserIds());
+            userIds.add("");
+
+            final List<UnitConfig> unitConfigs = new ArrayList<>(registry.getUnitConfigs());
+            for (final IdentifiableMessage<String, UnitConfig, UnitConfig.Builder> location : registry.getLocations().values()) {
+                unitConfigs.add(location.getMessage());
+            }
+            for (final IdentifiableMessage<String, UnitConfig, UnitConfig.Builder> group : registry.getGroups().values()) {
+                unitConfigs.add(group.getMessage());
+            }
+
+            for (final UnitConfig unitConfig : unitConfigs) {
+                for (final String userId : userIds) {
+                    final Permission expected = ReferenceAuthorizationHelper.getPermission(unitConfig, userId, registry.getGroups(), registry.getLocations());
+                    assertEquals("Permissions of User[" + userId + "] on Unit[" + unitConfig.getId() + "] with seed " + seed + " differ!",
+                            expected, AuthorizationHelper.getPermission(unitConfig, userId, registry.getGroups(), registry.getLocations()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Validate that the bulk evaluation of permissions matches the evaluation of single units,
+     * also for registries which are large enough to be evaluated in parallel.
+     */
+    @Test
+    public void testUnitPermissions() throws Exception {
+        System.out.println("testUnitPermissions");
+
+        for (long seed = 0; seed < 3; seed++) {
+            final MockRegistry registry = new MockRegistry(seed, 50, 8, 20, 3000, 10);
+            final List<UserClientPair> userClientPairs = new ArrayList<>();
+            userClientPairs.add(UserClientPair.getDefaultInstance());
+            userClientPairs.add(UserClientPair.newBuilder().setUserId(registry.getRandomUserId()).build());
+            userClientPairs.add(UserClientPair.newBuilder().setClientId(registry.getRandomUserId()).build());
+            userClientPairs.add(UserClientPair.newBuilder().setUserId(registry.getRandomUserId()).setClientId(registry.getRandomUserId()).build());
+
+            for (final UserClientPair userClientPair : userClientPairs) {
+                final UnitPermissions unitPermissions = AuthorizationHelper.getUnitPermissions(registry.getUnitConfigs(), userClientPair, registry.getGroups(), registry.getLocations());
+                for (final UnitConfig unitConfig : registry.getUnitConfigs()) {
+                    final String message = "Permissions of " + userClientPair + " on Unit[" + unitConfig.getId() + "] with seed " + seed + " differ!";
+                    assertEquals(message, AuthorizationHelper.canRead(unitConfig, userClientPair, registry.getGroups(), registry.getLocations()), unitPermissions.canRead(unitConfig.getId()));
+                    assertEquals(message, AuthorizationHelper.canWrite(unitConfig, userClientPair, registry.getGroups(), registry.getLocations()), unitPermissions.canWrite(unitConfig.getId()));
+                    assertEquals(message, AuthorizationHelper.canAccess(unitConfig, userClientPair, registry.getGroups(), registry.getLocations()), unitPermissions.canAccess(unitConfig.getId()));
+                }
+            }
+        }
+    }
+
     /**
      * Validate that a user can also be a group with permissions.
      */
@@ -0,0 +1,196 @@
+package org.openbase.bco.authentication.test;
+
+
+/*-
+ * #%L
+ * BCO Authentication Test
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.junit.Test;
+import org.openbase.bco.authentication.lib.EncryptionHelper;
+import org.openbase.bco.authentication.lib.com.BroadcastData;
+import org.openbase.bco.authentication.lib.com.BroadcastEncryption;
+import org.openbase.bco.authentication.lib.com.FilteredDataCache;
+import org.openbase.jul.exception.CouldNotPerformException;
+import org.openbase.type.domotic.authentication.UserClientPairType.UserClientPair;
+import org.openbase.type.domotic.registry.UnitRegistryDataType.UnitRegistryData;
+import org.openbase.type.domotic.unit.UnitConfigType.UnitConfig;
+import org.openbase.type.domotic.unit.UnitTemplateType.UnitTemplate.UnitType;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class BroadcastEncryptionTest {
+
+    private static final String CLASS_1 = "class1";
+    private static final String CLASS_2 = "class2";
+
+    private static final UserClientPair USER_1 = UserClientPair.newBuilder().setUserId("user1").build();
+    private static final UserClientPair USER_2 = UserClientPair.newBuilder().setUserId("user2").build();
+    private static final UserClientPair USER_3 = UserClientPair.newBuilder().setUserId("user3").build();
+
+    private final byte[] sessionKey1 = EncryptionHelper.generateKey();
+    private final byte[] sessionKey2 = EncryptionHelper.generateKey();
+    private final UnitRegistryData data = createData();
+    private final AtomicInteger filterCount = new AtomicInteger();
+
+    private static UnitRegistryData createData() {
+        final UnitConfig.Builder unitConfig = UnitConfig.newBuilder();
+        unitConfig.setId("Agent");
+        unitConfig.setUnitType(UnitType.AGENT);
+        return UnitRegistryData.newBuilder().addAgentUnitConfig(unitConfig).build();
+    }
+
+    private BroadcastData getBroadcastData(final BroadcastEncryption<UnitRegistryData> broadcastEncryption, final String permissionClass, final UserClientPair userClientPair, final byte[] sessionKey, final long permissionVersion) throws CouldNotPerformException {
+        return broadcastEncryption.getBroadcastData(permissionClass, userClientPair, sessionKey, data, permissionVersion, () -> {
+            filterCount.incrementAndGet();
+            return data;
+        });
+    }
+
+    private static byte[] getGroupKey(final BroadcastData broadcastData, final byte[] sessionKey) throws CouldNotPerformException {
+        return EncryptionHelper.decrypt(broadcastData.getEncryptedKey(), sessionKey, byte[].class, true);
+    }
+
+    private static void assertNotDecryptable(final BroadcastData broadcastData, final byte[] groupKey) {
+        try {
+            EncryptionHelper.decrypt(broadcastData.getEncryptedData(), groupKey, UnitRegistryData.class, true);
+            fail("Data could be decrypted with the group key of a former member");
+        } catch (CouldNotPerformException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that the data encrypted for a class is shared by its members and that a member which changed its class
+     * cannot decrypt the data of its former class anymore.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 5000)
+    public void testSharedClass() throws Exception {
+        final BroadcastEncryption<UnitRegistryData> broadcastEncryption = new BroadcastEncryption<>(16);
+
+        final BroadcastData broadcastData1 = getBroadcastData(broadcastEncryption, CLASS_1, USER_1, sessionKey1, 0);
+        final BroadcastData broadcastData2 = getBroadcastData(broadcastEncryption, CLASS_1, USER_2, sessionKey2, 0);
+
+        // the data is filtered and encrypted only once for both members
+        assertEquals(1, filterCount.get());
+        assertEquals(broadcastData1.getKeyId(), broadcastData2.getKeyId());
+        assertArrayEquals(broadcastData1.getEncryptedData(), broadcastData2.getEncryptedData());
+        assertEquals(data, broadcastData1.decrypt(sessionKey1, UnitRegistryData.class));
+        assertEquals(data, broadcastData2.decrypt(sessionKey2, UnitRegistryData.class));
+
+        // user 1 moves to another class
+        final byte[] formerGroupKey = getGroupKey(broadcastData1, sessionKey1);
+        getBroadcastData(broadcastEncryption, CLASS_2, USER_1, sessionKey1, 0);
+
+        final BroadcastData broadcastData3 = getBroadcastData(broadcastEncryption, CLASS_1, USER_2, sessionKey2, 0);
+        assertNotEquals(broadcastData2.getKeyId(), broadcastData3.getKeyId());
+        assertEquals(data, broadcastData3.decrypt(sessionKey2, UnitRegistryData.class));
+        assertNotDecryptable(broadcastData3, formerGroupKey);
+    }
+
+    /**
+     * Test that a change of the permission version replaces the group keys of all classes.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 5000)
+    public void testPermissionVersionChange() throws Exception {
+        final BroadcastEncryption<UnitRegistryData> broadcastEncryption = new BroadcastEncryption<>(16);
+
+        final BroadcastData broadcastData1 = getBroadcastData(broadcastEncryption, CLASS_1, USER_1, sessionKey1, 0);
+        getBroadcastData(broadcastEncryption, CLASS_1, USER_2, sessionKey2, 0);
+
+        // user 1 may have been revoked without a change of the class of user 2
+        final BroadcastData broadcastData2 = getBroadcastData(broadcastEncryption, CLASS_1, USER_2, sessionKey2, 1);
+        assertNotEquals(broadcastData1.getKeyId(), broadcastData2.getKeyId());
+        assertNotDecryptable(broadcastData2, getGroupKey(broadcastData1, sessionKey1));
+
+        // requests resolved with the outdated version do not receive the current key
+        final BroadcastData broadcastData3 = getBroadcastData(broadcastEncryption, CLASS_1, USER_1, sessionKey1, 0);
+        assertNotEquals(broadcastData2.getKeyId(), broadcastData3.getKeyId());
+    }
+
+    /**
+     * Test that the group key of a class is replaced if the membership of one of its members is not tracked anymore.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 5000)
+    public void testEvictedMember() throws Exception {
+        final BroadcastEncryption<UnitRegistryData> broadcastEncryption = new BroadcastEncryption<>(1);
+
+        final BroadcastData broadcastData1 = getBroadcastData(broadcastEncryption, CLASS_1, USER_1, sessionKey1, 0);
+
+        // user 2 evicts user 1 so that a later move of user 1 could not be detected
+        getBroadcastData(broadcastEncryption, CLASS_2, USER_2, sessionKey2, 0);
+
+        final BroadcastData broadcastData2 = getBroadcastData(broadcastEncryption, CLASS_1, USER_2, sessionKey2, 0);
+        assertNotEquals(broadcastData1.getKeyId(), broadcastData2.getKeyId());
+        assertNotDecryptable(broadcastData2, getGroupKey(broadcastData1, sessionKey1));
+    }
+
+    /**
+     * Test that the group key of a class is kept if an evicted member was not the last tracked member of its class.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 5000)
+    public void testEvictedMemberOfSharedClass() throws Exception {
+        final BroadcastEncryption<UnitRegistryData> broadcastEncryption = new BroadcastEncryption<>(2);
+
+        final BroadcastData broadcastData1 = getBroadcastData(broadcastEncryption, CLASS_1, USER_1, sessionKey1, 0);
+        getBroadcastData(broadcastEncryption, CLASS_1, USER_2, sessionKey2, 0);
+
+        // user 3 evicts user 1 while user 2 is still tracked as member of class 1
+        getBroadcastData(broadcastEncryption, CLASS_2, USER_3, sessionKey1, 0);
+
+        final BroadcastData broadcastData2 = getBroadcastData(broadcastEncryption, CLASS_1, USER_2, sessionKey2, 0);
+        assertEquals(broadcastData1.getKeyId(), broadcastData2.getKeyId());
+        assertEquals(2, filterCount.get());
+    }
+
+    /**
+     * Test that broadcast data is rejected if the permission version is unknown.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 5000)
+    public void testUnknownPermissionVersion() throws Exception {
+        final BroadcastEncryption<UnitRegistryData> broadcastEncryption = new BroadcastEncryption<>(16);
+
+        try {
+            getBroadcastData(broadcastEncryption, CLASS_1, USER_1, sessionKey1, FilteredDataCache.PERMISSION_VERSION_UNKNOWN);
+            fail("Broadcast data has been encrypted without a permission version");
+        } catch (CouldNotPerformException ex) {
+            // expected
+        }
+        assertEquals(0, filterCount.get());
+    }
+}
@@ -0,0 +1,137 @@
+package org.openbase.bco.authentication.test;
+
+
+/*-
+ * #%L
+ * BCO Authentication Test
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+import org.openbase.bco.authentication.lib.AuthenticationServerHandler;
+import org.openbase.bco.authentication.lib.CompactTicket;
+import org.openbase.bco.authentication.lib.EncryptionHelper;
+import org.openbase.bco.authentication.lib.SecretKeyRing;
+import org.openbase.jul.exception.CouldNotPerformException;
+import org.openbase.type.domotic.authentication.TicketType.Ticket;
+import org.openbase.type.domotic.authentication.UserClientPairType.UserClientPair;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class CompactTicketTest {
+
+    private static Ticket createTicket(final UserClientPair userClientPair) {
+        final Ticket.Builder ticket = Ticket.newBuilder();
+        ticket.setUserClientPair(userClientPair);
+        ticket.setValidityPeriod(AuthenticationServerHandler.getValidityInterval(TimeUnit.MINUTES.toMillis(15)));
+        ticket.setSessionKeyBytes(ByteString.copyFrom(EncryptionHelper.generateKey()));
+        return ticket.build();
+    }
+
+    /**
+     * Test that an opened ticket equals the sealed one and that the compact format is smaller than the encrypted
+     * serialized ticket.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 5000)
+    public void testSealAndOpen() throws Exception {
+        final byte[] secretKey = EncryptionHelper.generateKey();
+
+        final Ticket ticket = createTicket(UserClientPair.newBuilder().setUserId("User").setClientId("Client").build());
+        final ByteString sealedTicket = CompactTicket.seal(ticket, secretKey);
+        assertEquals(ticket, CompactTicket.open(sealedTicket, secretKey));
+        assertEquals(CompactTicket.computeKeyId(secretKey), CompactTicket.getKeyId(sealedTicket));
+        assertTrue(sealedTicket.size() < EncryptionHelper.encryptSymmetric(ticket, secretKey).size());
+
+        // unset ids have to stay unset because the pair is compared to the one of the authenticator
+        final Ticket clientTicket = createTicket(UserClientPair.newBuilder().setClientId("Client").build());
+        final Ticket openedClientTicket = CompactTicket.open(CompactTicket.seal(clientTicket, secretKey), secretKey);
+        assertEquals(clientTicket, openedClientTicket);
+        assertFalse(openedClientTicket.getUserClientPair().hasUserId());
+    }
+
+    /**
+     * Test that a ticket cannot be opened with another key.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 5000, expected = CouldNotPerformException.class)
+    public void testOpenWithOtherKey() throws Exception {
+        final ByteString sealedTicket = CompactTicket.seal(createTicket(UserClientPair.newBuilder().setUserId("User").build()), EncryptionHelper.generateKey());
+        CompactTicket.open(sealedTicket, EncryptionHelper.generateKey());
+    }
+
+    /**
+     * Test that an altered ticket is rejected.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 5000, expected = CouldNotPerformException.class)
+    public void testOpenAltered() throws Exception {
+        final byte[] secretKey = EncryptionHelper.generateKey();
+        final byte[] sealedTicket = CompactTicket.seal(createTicket(UserClientPair.newBuilder().setUserId("User").build()), secretKey).toByteArray();
+        sealedTicket[sealedTicket.length - 1] ^= 1;
+        CompactTicket.open(ByteString.copyFrom(sealedTicket), secretKey);
+    }
+
+    /**
+     * Test that tickets sealed with the previous or next key of a key ring are accepted and that tickets sealed with
+     * a key which has been rotated out are rejected.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 5000)
+    public void testKeyRingRotation() throws Exception {
+        final Ticket ticket = createTicket(UserClientPair.newBuilder().setUserId("User").build());
+
+        final SecretKeyRing keyRing = new SecretKeyRing(null, EncryptionHelper.generateKey(), EncryptionHelper.generateKey());
+        final ByteString sealedWithCurrent = CompactTicket.seal(ticket, keyRing.getCurrentKey());
+        final ByteString sealedWithNext = CompactTicket.seal(ticket, keyRing.getNextKey());
+        assertEquals(ticket, CompactTicket.open(sealedWithCurrent, keyRing));
+        assertEquals(ticket, CompactTicket.open(sealedWithNext, keyRing));
+
+        // the next key becomes current and the current one previous
+        final SecretKeyRing rotatedKeyRing = keyRing.rotate();
+        assertEquals(keyRing.getNextKey(), rotatedKeyRing.getCurrentKey());
+        assertEquals(ticket, CompactTicket.open(sealedWithCurrent, rotatedKeyRing));
+        assertEquals(ticket, CompactTicket.open(sealedWithNext, rotatedKeyRing));
+
+        // after another rotation the first key is not accepted anymore
+        final SecretKeyRing twiceRotatedKeyRing = rotatedKeyRing.rotate();
+        assertNull(twiceRotatedKeyRing.getKey(CompactTicket.getKeyId(sealedWithCurrent)));
+        assertEquals(ticket, CompactTicket.open(sealedWithNext, twiceRotatedKeyRing));
+        try {
+            CompactTicket.open(sealedWithCurrent, twiceRotatedKeyRing);
+            fail("Ticket sealed with a rotated out key has been accepted");
+        } catch (CouldNotPerformException ex) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.openbase.bco.authentication.test;
+
+
+/*-
+ * #%L
+ * BCO Authentication Test
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.junit.Test;
+import org.openbase.bco.authentication.lib.com.DataDelta;
+import org.openbase.type.domotic.registry.UnitRegistryDataType.UnitRegistryData;
+import org.openbase.type.domotic.unit.UnitConfigType.UnitConfig;
+import org.openbase.type.domotic.unit.UnitTemplateType.UnitTemplate.UnitType;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class DataDeltaTest {
+
+    private static final long EPOCH = 42;
+
+    private static UnitConfig createAgent(final String id, final String ownerId) {
+        final UnitConfig.Builder unitConfig = UnitConfig.newBuilder();
+        unitConfig.setId(id);
+        unitConfig.setUnitType(UnitType.AGENT);
+        unitConfig.getPermissionConfigBuilder().setOwnerId(ownerId);
+        return unitConfig.build();
+    }
+
+    private static UnitRegistryData createData(final int agentCount) {
+        final UnitRegistryData.Builder data = UnitRegistryData.newBuilder();
+        for (int i = 0; i < agentCount; i++) {
+            data.addAgentUnitConfig(createAgent("Agent" + i, "AgentOwner" + i));
+            data.addLocationUnitConfig(createAgent("Location" + i, "LocationOwner" + i));
+        }
+        return data.build();
+    }
+
+    private static UnitRegistryData apply(final DataDelta delta, final UnitRegistryData base) throws Exception {
+        switch (delta.getType()) {
+            case UNCHANGED:
+                return base;
+            case DIFF:
+                return delta.apply(base, UnitRegistryData.parseFrom(delta.getData()));
+            default:
+                return UnitRegistryData.parseFrom(delta.getData());
+        }
+    }
+
+    /**
+     * Test that unchanged data results in an unchanged delta based on the old sequence number.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 5000)
+    public void testUnchanged() throws Exception {
+        final UnitRegistryData data = createData(10);
+        final DataDelta delta = DataDelta.diff(EPOCH, 1, 2, data, data.toBuilder().build());
+
+        assertEquals(DataDelta.Type.UNCHANGED, delta.getType());
+        assertEquals(1, delta.getSequence());
+        assertEquals(data, apply(delta, data));
+    }
+
+    /**
+     * Test that changing, adding and removing fields results in a diff which reproduces the new data.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 5000)
+    public void testDiff() throws Exception {
+        final UnitRegistryData base = createData(10);
+
+        final UnitRegistryData.Builder builder = base.toBuilder();
+        builder.setAgentUnitConfig(3, createAgent("Agent3", "ChangedOwner"));
+        builder.addAgentUnitConfig(createAgent("Agent10", "NewOwner"));
+        final UnitRegistryData changed = builder.build();
+
+        DataDelta delta = DataDelta.diff(EPOCH, 1, 2, base, changed);
+        assertEquals(DataDelta.Type.DIFF, delta.getType());
+        assertEquals(1, delta.getBaseSequence());
+        assertEquals(2, delta.getSequence());
+        assertEquals(0, delta.getChangedFields().length);
+        assertEquals(1, delta.getElementFields().length);
+        assertEquals(changed, apply(delta, base));
+
+        final UnitRegistryData cleared = changed.toBuilder().clearLocationUnitConfig().build();
+        delta = DataDelta.diff(EPOCH, 2, 3, changed, cleared);
+        assertEquals(DataDelta.Type.DIFF, delta.getType());
+        assertEquals(0, delta.getData().length);
+        assertEquals(cleared, apply(delta, changed));
+    }
+
+    /**
+     * Test that a snapshot is sent if the diff would not be smaller than the data.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 5000)
+    public void testSnapshotFallback() throws Exception {
+        final UnitRegistryData base = createData(0);
+        final UnitRegistryData changed = createData(5);
+
+        final DataDelta delta = DataDelta.diff(EPOCH, 1, 2, base, changed);
+        assertEquals(DataDelta.Type.SNAPSHOT, delta.getType());
+        assertEquals(2, delta.getSequence());
+        assertEquals(changed, apply(delta, base));
+    }
+
+    /**
+     * Test that repeated unit configs are diffed by element so that the size of the diff depends on the changed units.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 5000)
+    public void testElementDiff() throws Exception {
+        final UnitRegistryData base = createData(100);
+
+        final UnitRegistryData.Builder builder = base.toBuilder();
+        builder.setAgentUnitConfig(42, createAgent("Agent42", "ChangedOwner"));
+        builder.removeAgentUnitConfig(7);
+        builder.addAgentUnitConfig(createAgent("Agent100", "NewOwner"));
+        final UnitRegistryData changed = builder.build();
+
+        DataDelta delta = DataDelta.diff(EPOCH, 1, 2, base, changed);
+        assertEquals(DataDelta.Type.DIFF, delta.getType());
+        assertEquals(0, delta.getChangedFields().length);
+        assertEquals(1, delta.getElementFields().length);
+        assertEquals(2, UnitRegistryData.parseFrom(delta.getData()).getAgentUnitConfigCount());
+        assertEquals(changed, apply(delta, base));
+
+        // the order of the units cannot be restored by element so the whole field is sent
+        final UnitRegistryData.Builder reorderedBuilder = changed.toBuilder();
+        reorderedBuilder.setAgentUnitConfig(0, changed.getAgentUnitConfig(1));
+        reorderedBuilder.setAgentUnitConfig(1, changed.getAgentUnitConfig(0));
+        final UnitRegistryData reordered = reorderedBuilder.build();
+
+        delta = DataDelta.diff(EPOCH, 2, 3, changed, reordered);
+        assertEquals(DataDelta.Type.DIFF, delta.getType());
+        assertEquals(1, delta.getChangedFields().length);
+        assertEquals(0, delta.getElementFields().length);
+        assertEquals(reordered, apply(delta, changed));
+    }
+}
@@ -72,6 +72,20 @@ public class EncryptionHelperTest {
         assertEquals(str, decrypted);
     }
 
+    @Test
+    public void testSerializedEncryptionDecryption() throws Exception {
+        LOGGER.info("test encryption of a serialized object for multiple keys");
+        String str = "test";
+        byte[] serialized = EncryptionHelper.serialize(str);
+        for (int i = 0; i < 3; i++) {
+            byte[] key = EncryptionHelper.generateKey();
+            ByteString encrypted = EncryptionHelper.encryptSymmetricSerialized(serialized, key);
+            assertEquals(EncryptionHelper.encryptSymmetric(str, key), encrypted);
+            String decrypted = EncryptionHelper.decryptSymmetric(encrypted, key, String.class);
+            assertEquals(str, decrypted);
+        }
+    }
+
     @Test
     public void testAsymmetricEncryptionDecryption() throws Exception {
         LOGGER.info("test asymmetric encryption and decryption");
@@ -0,0 +1,221 @@
+package org.openbase.bco.authentication.test;
+
+
+/*-
+ * #%L
+ * BCO Authentication Test
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+import org.openbase.bco.authentication.lib.EncryptionHelper;
+import org.openbase.bco.authentication.lib.IdempotencyCache;
+import org.openbase.jul.exception.CouldNotPerformException;
+import org.openbase.type.domotic.authentication.UserClientPairType.UserClientPair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class IdempotencyCacheTest {
+
+    private static final UserClientPair USER_CLIENT_PAIR = UserClientPair.newBuilder().setUserId("user").setClientId("client").build();
+
+    /**
+     * Test that a request sent again is only performed once and that its response is re-encrypted for a new session.
+     *
+     * @throws Exception if something fails.
+     */
+    @Test(timeout = 5000)
+    public void testDuplicateRequest() throws Exception {
+        final IdempotencyCache idempotencyCache = new IdempotencyCache();
+        final byte[] sessionKey = EncryptionHelper.generateKey();
+        final AtomicInteger executionCount = new AtomicInteger(0);
+        final IdempotencyCache.ResponseProcessable processable = () -> EncryptionHelper.encryptSymmetric("result" + executionCount.incrementAndGet(), sessionKey);
+
+        final ByteString response = idempotencyCache.process(USER_CLIENT_PAIR, 1, sessionKey, processable);
+        assertEquals(response, idempotencyCache.process(USER_CLIENT_PAIR, 1, sessionKey, processable));
+        assertEquals(1, executionCount.get());
+
+        // a replay after a re-login receives the same response encrypted with the new session key
+        final byte[] newSessionKey = EncryptionHelper.generateKey();
+        assertEquals("result1", EncryptionHelper.decryptSymmetric(idempotencyCache.process(USER_CLIENT_PAIR, 1, newSessionKey, processable), newSessionKey, String.class));
+        assertEquals(1, executionCount.get());
+
+        // other transactions or other sessions are performed
+        idempotencyCache.process(USER_CLIENT_PAIR, 2, sessionKey, processable);
+        idempotencyCache.process(USER_CLIENT_PAIR.toBuilder().setClientId("other").build(), 1, sessionKey, processable);
+        assertEquals(3, executionCount.get());
+
+        // requests without a response value are cached as well
+        assertNull(idempotencyCache.process(USER_CLIENT_PAIR, 3, sessionKey, () -> null));
+        assertNull(idempotencyCache.process(USER_CLIENT_PAIR, 3, sessionKey, processable));
+        assertEquals(3, executionCount.get());
+    }
+
+    /**
+     * Test that failed requests are not cached.
+     *
+     * @throws Exception if something fails.
+     */
+    @Test(timeout = 5000)
+    public void testFailedRequest() throws Exception {
+        final IdempotencyCache idempotencyCache = new IdempotencyCache();
+        final byte[] sessionKey = EncryptionHelper.generateKey();
+
+        try {
+            idempotencyCache.process(USER_CLIENT_PAIR, 1, sessionKey, () -> {
+                throw new CouldNotPerformException("Failure");
+            });
+            fail("Failure of the request has not been passed on");
+        } catch (CouldNotPerformException ex) {
+            // expected
+        }
+        assertEquals(0, idempotencyCache.size());
+
+        final ByteString response = EncryptionHelper.encryptSymmetric("result", sessionKey);
+        assertEquals(response, idempotencyCache.process(USER_CLIENT_PAIR, 1, sessionKey, () -> response));
+    }
+
+    /**
+     * Test that responses are removed after their time to live.
+     *
+     * @throws Exception if something fails.
+     */
+    @Test(timeout = 5000)
+    public void testExpiration() throws Exception {
+        final IdempotencyCache idempotencyCache = new IdempotencyCache(50, IdempotencyCache.DEFAULT_CAPACITY);
+        final byte[] sessionKey = EncryptionHelper.generateKey();
+        final AtomicInteger executionCount = new AtomicInteger(0);
+        final IdempotencyCache.ResponseProcessable processable = () -> EncryptionHelper.encryptSymmetric(executionCount.incrementAndGet(), sessionKey);
+
+        idempotencyCache.process(USER_CLIENT_PAIR, 1, sessionKey, processable);
+        assertEquals(1, idempotencyCache.size());
+
+        Thread.sleep(100);
+
+        assertEquals(0, idempotencyCache.size());
+        idempotencyCache.process(USER_CLIENT_PAIR, 1, sessionKey, processable);
+        assertEquals(2, executionCount.get());
+    }
+
+    /**
+     * Test that duplicates received while a request is performed wait for its response.
+     *
+     * @throws Exception if something fails.
+     */
+    @Test(timeout = 10000)
+    public void testConcurrentDuplicates() throws Exception {
+        final IdempotencyCache idempotencyCache = new IdempotencyCache();
+        final byte[] sessionKey = EncryptionHelper.generateKey();
+        final AtomicInteger executionCount = new AtomicInteger(0);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final IdempotencyCache.ResponseProcessable processable = () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new CouldNotPerformException("Interrupted", ex);
+            }
+            return EncryptionHelper.encryptSymmetric(executionCount.incrementAndGet(), sessionKey);
+        };
+
+        final int threadCount = 8;
+        final ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            final List<Future<ByteString>> futureList = new ArrayList<>();
+            futureList.add(executorService.submit(() -> idempotencyCache.process(USER_CLIENT_PAIR, 1, sessionKey, processable)));
+            started.await();
+            for (int i = 1; i < threadCount; i++) {
+                futureList.add(executorService.submit(() -> idempotencyCache.process(USER_CLIENT_PAIR, 1, sessionKey, processable)));
+            }
+            release.countDown();
+
+            for (final Future<ByteString> future : futureList) {
+                assertEquals(1, (int) EncryptionHelper.decryptSymmetric(future.get(), sessionKey, Integer.class));
+            }
+            assertEquals(1, executionCount.get());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Test that a request which is still being performed is neither removed if the capacity is exceeded nor blocks
+     * the expiration of responses cached after it.
+     *
+     * @throws Exception if something fails.
+     */
+    @Test(timeout = 10000)
+    public void testPendingRequest() throws Exception {
+        final IdempotencyCache idempotencyCache = new IdempotencyCache(50, 1);
+        final byte[] sessionKey = EncryptionHelper.generateKey();
+        final AtomicInteger executionCount = new AtomicInteger(0);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final IdempotencyCache.ResponseProcessable pendingProcessable = () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new CouldNotPerformException("Interrupted", ex);
+            }
+            return EncryptionHelper.encryptSymmetric(executionCount.incrementAndGet(), sessionKey);
+        };
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            final Future<ByteString> pending = executorService.submit(() -> idempotencyCache.process(USER_CLIENT_PAIR, 1, sessionKey, pendingProcessable));
+            started.await();
+
+            // exceed the capacity while the first request is performed
+            idempotencyCache.process(USER_CLIENT_PAIR, 2, sessionKey, () -> null);
+            idempotencyCache.process(USER_CLIENT_PAIR, 3, sessionKey, () -> null);
+            assertEquals(2, idempotencyCache.size());
+
+            // later responses expire although the first request is still performed
+            Thread.sleep(100);
+            assertEquals(1, idempotencyCache.size());
+
+            // a duplicate still waits for the pending request instead of performing it again
+            final Future<ByteString> duplicate = executorService.submit(() -> idempotencyCache.process(USER_CLIENT_PAIR, 1, sessionKey, pendingProcessable));
+            release.countDown();
+            assertEquals(1, (int) EncryptionHelper.decryptSymmetric(pending.get(), sessionKey, Integer.class));
+            assertEquals(1, (int) EncryptionHelper.decryptSymmetric(duplicate.get(), sessionKey, Integer.class));
+            assertEquals(1, executionCount.get());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.openbase.bco.authentication.test;
+
+
+/*-
+ * #%L
+ * BCO Authentication Test
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.junit.Test;
+import org.openbase.bco.authentication.lib.MessageParserRegistry;
+import org.openbase.jul.exception.CouldNotPerformException;
+import org.openbase.type.domotic.authentication.UserClientPairType.UserClientPair;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class MessageParserRegistryTest {
+
+    /**
+     * Test that messages are parsed with a parser which is resolved only once per type.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 5000)
+    public void testParseFrom() throws Exception {
+        final UserClientPair userClientPair = UserClientPair.newBuilder().setUserId("User").setClientId("Client").build();
+
+        assertEquals(userClientPair, MessageParserRegistry.parseFrom(userClientPair.toByteString(), UserClientPair.class));
+        assertSame(MessageParserRegistry.getParser(UserClientPair.class), MessageParserRegistry.getParser(UserClientPair.class));
+    }
+
+    /**
+     * Test that resolving the parser of a type which is not a message fails.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 5000, expected = CouldNotPerformException.class)
+    public void testNoMessageType() throws Exception {
+        MessageParserRegistry.getParser(String.class);
+    }
+}
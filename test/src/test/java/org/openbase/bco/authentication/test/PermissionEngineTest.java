@@ -0,0 +1,128 @@
+package org.openbase.bco.authentication.test;
+
+
+/*-
+ * #%L
+ * BCO Authentication Test
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.junit.Test;
+import org.openbase.bco.authentication.lib.AuthorizationHelper;
+import org.openbase.bco.authentication.lib.PermissionEngine;
+import org.openbase.bco.authentication.mock.MockRegistry;
+import org.openbase.type.domotic.authentication.UserClientPairType.UserClientPair;
+import org.openbase.type.domotic.unit.UnitConfigType.UnitConfig;
+import org.openbase.type.domotic.unit.UnitTemplateType.UnitTemplate.UnitType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class PermissionEngineTest {
+
+    /**
+     * Apply random changes to a registry and validate that the incrementally maintained readable units
+     * match a complete evaluation after every change.
+     *
+     * @throws Exception if the test fails
+     */
+    @Test(timeout = 60000)
+    public void testIncrementalUpdates() throws Exception {
+        System.out.println("testIncrementalUpdates");
+
+        final long seed = 42;
+        final Random random = new Random(seed);
+        final MockRegistry registry = new MockRegistry(seed, 30, 5, 10, 300, 6);
+        final List<UnitConfig> unitConfigs = new ArrayList<>(registry.getAllUnitConfigs());
+        final PermissionEngine permissionEngine = new PermissionEngine();
+        permissionEngine.synchronize(unitConfigs);
+
+        final List<String> userIds = new ArrayList<>(registry.getUserIds());
+        userIds.add("");
+        verify(permissionEngine, unitConfigs, userIds);
+
+        for (int i = 0; i < 200; i++) {
+            final int index = random.nextInt(unitConfigs.size());
+            final UnitConfig unitConfig = unitConfigs.get(index);
+            final UnitConfig.Builder builder = unitConfig.toBuilder();
+            final boolean root = unitConfig.getUnitType() == UnitType.LOCATION && unitConfig.getLocationConfig().getRoot();
+            switch (random.nextInt(3)) {
+                case 0:
+                    // change permissions
+                    builder.setPermissionConfig(registry.generatePermissionConfig());
+                    break;
+                case 1:
+                    // move unit
+                    if (root) {
+                        continue;
+                    }
+                    if (unitConfig.getUnitType() == UnitType.LOCATION) {
+                        builder.getPlacementConfigBuilder().setLocationId(registry.getRandomParentLocationId(unitConfig.getId()));
+                    } else {
+                        builder.getPlacementConfigBuilder().setLocationId(registry.getRandomLocationId());
+                    }
+                    break;
+                case 2:
+                    // change group members or drop permissions
+                    if (unitConfig.getUnitType() == UnitType.AUTHORIZATION_GROUP) {
+                        builder.getAuthorizationGroupConfigBuilder().clearMemberId();
+                        for (int j = random.nextInt(6); j > 0; j--) {
+                            builder.getAuthorizationGroupConfigBuilder().addMemberId(registry.getRandomUserId());
+                        }
+                    } else if (!root && unitConfig.getUnitType() != UnitType.USER) {
+                        builder.clearPermissionConfig();
+                    }
+                    break;
+            }
+
+            final long version = permissionEngine.getVersion();
+            unitConfigs.set(index, builder.build());
+            permissionEngine.update(unitConfigs.get(index));
+            assertEquals("Version does not match the change", unitConfig.equals(unitConfigs.get(index)) ? version : version + 1, permissionEngine.getVersion());
+            verify(permissionEngine, unitConfigs, userIds);
+        }
+
+        // remove some units which are neither locations nor groups
+        for (int i = 0; i < 20; i++) {
+            final int index = random.nextInt(unitConfigs.size());
+            final UnitConfig unitConfig = unitConfigs.get(index);
+            if (unitConfig.getUnitType() == UnitType.LOCATION || unitConfig.getUnitType() == UnitType.AUTHORIZATION_GROUP) {
+                continue;
+            }
+            unitConfigs.remove(index);
+            permissionEngine.remove(unitConfig.getId());
+            verify(permissionEngine, unitConfigs, userIds);
+        }
+    }
+
+    private void verify(final PermissionEngine permissionEngine, final List<UnitConfig> unitConfigs, final List<String> userIds) {
+        for (final String userId : userIds) {
+            final UserClientPair userClientPair = UserClientPair.newBuilder().setUserId(userId).build();
+            assertEquals("Readable units of User[" + userId + "] differ!",
+                    AuthorizationHelper.getUnitPermissions(unitConfigs, userClientPair, permissionEngine.getGroups(), permissionEngine.getLocations()).getReadableUnitIds(),
+                    permissionEngine.getReadableUnitIds(userId));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.openbase.bco.authentication.test;
+
+
+/*-
+ * #%L
+ * BCO Authentication Test
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.junit.Test;
+import org.openbase.bco.authentication.lib.ReconnectPolicy;
+import org.openbase.bco.authentication.lib.exception.RetryAfterException;
+import org.openbase.jul.exception.CouldNotPerformException;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test of the delays computed by the reconnect policy.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class ReconnectPolicyTest {
+
+    private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(ReconnectPolicyTest.class);
+
+    @Test
+    public void testBackoff() {
+        LOGGER.info("test that the delay grows exponentially and is capped");
+        final ReconnectPolicy policy = new ReconnectPolicy(100, 100, 2, 1000, 10);
+        final Exception cause = new CouldNotPerformException("Internal server error.");
+        for (int i = 0; i < 100; i++) {
+            final long initialDelay = policy.getInitialDelay();
+            assertTrue(initialDelay >= 0 && initialDelay <= 100);
+
+            final long firstDelay = policy.getDelay(1, cause);
+            assertTrue(firstDelay >= 50 && firstDelay <= 100);
+
+            final long thirdDelay = policy.getDelay(3, cause);
+            assertTrue(thirdDelay >= 200 && thirdDelay <= 400);
+
+            final long cappedDelay = policy.getDelay(10, cause);
+            assertTrue(cappedDelay >= 500 && cappedDelay <= 1000);
+        }
+    }
+
+    @Test
+    public void testRetryAfter() {
+        LOGGER.info("test that a retry after of the server is respected");
+        final ReconnectPolicy policy = new ReconnectPolicy(0, 10, 2, 100, 10);
+
+        // remote exceptions only transport their message
+        final Exception remoteCause = new CouldNotPerformException(new RetryAfterException(5000).getMessage());
+        final Exception cause = new CouldNotPerformException("Internal server error.", remoteCause);
+        assertEquals(5000, RetryAfterException.parseRetryAfter(cause));
+        assertEquals(5000, policy.getDelay(1, cause));
+
+        assertEquals(-1, RetryAfterException.parseRetryAfter(new CouldNotPerformException("Internal server error.")));
+    }
+}
@@ -0,0 +1,282 @@
+package org.openbase.bco.authentication.test;
+
+
+/*-
+ * #%L
+ * BCO Authentication Test
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import com.google.protobuf.ProtocolStringList;
+import org.openbase.bco.authentication.lib.AuthorizationHelper.PermissionType;
+import org.openbase.jul.exception.CouldNotPerformException;
+import org.openbase.jul.exception.InvalidStateException;
+import org.openbase.jul.exception.NotAvailableException;
+import org.openbase.jul.extension.protobuf.IdentifiableMessage;
+import org.openbase.type.domotic.authentication.PermissionConfigType.PermissionConfig;
+import org.openbase.type.domotic.authentication.PermissionConfigType.PermissionConfig.MapFieldEntry;
+import org.openbase.type.domotic.authentication.PermissionType.Permission;
+import org.openbase.type.domotic.unit.UnitConfigType.UnitConfig;
+import org.openbase.type.domotic.unit.UnitTemplateType.UnitTemplate.UnitType;
+
+import java.util.Map;
+
+/**
+ * Frozen copy of the original permission evaluation of the {@link org.openbase.bco.authentication.lib.AuthorizationHelper}
+ * which resolves every permission type by walking the location hierarchy without any caches or indices.
+ * It serves as oracle for the optimized evaluation and as baseline for benchmarks, so it must not be changed
+ * together with the helper. Only the logging has been removed.
+ *
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+final class ReferenceAuthorizationHelper {
+
+    private ReferenceAuthorizationHelper() {
+    }
+
+    static Permission getPermission(final UnitConfig unitConfig, final String userId, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations) {
+        return Permission.newBuilder()
+                .setAccess(canDo(unitConfig, userId, groups, locations, PermissionType.ACCESS))
+                .setRead(canDo(unitConfig, userId, groups, locations, PermissionType.READ))
+                .setWrite(canDo(unitConfig, userId, groups, locations, PermissionType.WRITE))
+                .build();
+    }
+
+    static boolean canDo(final UnitConfig unitConfig, final String userId, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations, final PermissionType type) {
+        if (!isAuthenticationUnit(unitConfig) && !isRootLocation(unitConfig, locations)) {
+            // check if the given user has read permissions for the parent location otherwise skip all further checks
+            try {
+                if (!canDo(getLocationUnitConfig(unitConfig.getPlacementConfig().getLocationId(), locations), userId, groups, locations, PermissionType.READ)) {
+                    return false;
+                }
+            } catch (NotAvailableException ex) {
+                return false;
+            }
+        }
+
+        try {
+            return canDo(getPermissionConfig(unitConfig, locations), userId, groups, type);
+        } catch (CouldNotPerformException ex) {
+            return false;
+        }
+    }
+
+    private static boolean canDo(final PermissionConfig permissionConfig, final String userId, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> groups, final PermissionType type) {
+        // Other
+        if (permitted(permissionConfig.getOtherPermission(), type)) {
+            return true;
+        }
+
+        // If no user was given, only "other" rights apply.
+        if (userId == null || userId.isEmpty()) {
+            return false;
+        }
+
+        // Owner
+        if (permissionConfig.getOwnerId().equals(userId)) {
+            if (permitted(permissionConfig.getOwnerPermission(), type)) {
+                return true;
+            }
+        }
+
+        // Groups
+        if (groups == null) {
+            return false;
+        }
+
+        // check the groups defined in the permission config
+        ProtocolStringList groupMembers;
+        for (final MapFieldEntry entry : permissionConfig.getGroupPermissionList()) {
+            // every user is also a group so check if the group id matches the user id
+            if (entry.getGroupId().equals(userId) && permitted(entry.getPermission(), type)) {
+                return true;
+            }
+
+            // continue if the provided group id is a user which is not the checked one
+            if (!groups.containsKey(entry.getGroupId())) {
+                continue;
+            }
+
+            // retrieve group
+            groupMembers = groups.get(entry.getGroupId()).getMessage().getAuthorizationGroupConfig().getMemberIdList();
+            // Check if the user belongs to the group and the group has the according permissions
+            if (groupMembers.contains(userId) && permitted(entry.getPermission(), type)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean permitted(final Permission permission, final PermissionType type) {
+        switch (type) {
+            case READ:
+                return permission.getRead();
+            case WRITE:
+                return permission.getWrite();
+            case ACCESS:
+                return permission.getAccess();
+            default:
+                return false;
+        }
+    }
+
+    private static PermissionConfig getPermissionConfig(final UnitConfig unitConfig, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations) throws NotAvailableException {
+        try {
+            if (unitConfig == null) {
+                throw new NotAvailableException("UnitConfig");
+            }
+
+            // the root location should always use its own permissions to terminate the recursive permission resolution.
+            if (isRootLocation(unitConfig, locations)) {
+                if (!unitConfig.hasPermissionConfig()) {
+                    throw new InvalidStateException("The root location does not provide a permission config!");
+                }
+                return unitConfig.getPermissionConfig();
+            }
+
+            // user or authentication group permissions are independent of there location referred location.
+            if (isAuthenticationUnit(unitConfig)) {
+                if (!unitConfig.hasPermissionConfig()) {
+                    throw new InvalidStateException("Authentication unit should always provide a permission config!");
+                }
+                return unitConfig.getPermissionConfig();
+            }
+
+            // verify needed location information
+            if (locations == null || locations.isEmpty()) {
+                throw new InvalidStateException("No location information available for permission resolution!");
+            }
+
+            PermissionConfig unitPermissionConfig;
+
+            // resolve parent permissions
+            try {
+                final UnitConfig locationUnitConfig = getLocationUnitConfig(unitConfig.getPlacementConfig().getLocationId(), locations);
+                unitPermissionConfig = getPermissionConfig(locationUnitConfig, locations);
+            } catch (NotAvailableException ex) {
+                throw new InvalidStateException("Parent location does not provide a permission config!", ex);
+            }
+
+            // resolve unit permissions and merge those with the parent location permissions
+            if (unitConfig.hasPermissionConfig()) {
+                unitPermissionConfig = mergePermissionConfigs(unitConfig.getPermissionConfig(), unitPermissionConfig);
+            }
+
+            return unitPermissionConfig;
+        } catch (CouldNotPerformException ex) {
+            throw new NotAvailableException("PermissionConfig of Unit[" + (unitConfig == null ? "?" : unitConfig.getId()) + "]", ex);
+        }
+    }
+
+    private static boolean isRootLocation(final UnitConfig unitConfig, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations) {
+
+        // if this unit is not a location it can not be a root location
+        if (unitConfig.getUnitType() != UnitType.LOCATION) {
+            return false;
+        }
+
+        // if no locations are available this location should be the root location
+        if (locations.isEmpty()) {
+            return true;
+        }
+
+        // is this unit a root location?
+        return unitConfig.getLocationConfig().hasRoot() && unitConfig.getLocationConfig().getRoot();
+    }
+
+    private static UnitConfig getRootLocationUnitConfig(final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations) throws NotAvailableException {
+        try {
+            for (final IdentifiableMessage<String, UnitConfig, UnitConfig.Builder> locationUnitConfig : locations.values()) {
+                if (isRootLocation(locationUnitConfig.getMessage(), locations)) {
+                    return locationUnitConfig.getMessage();
+                }
+            }
+            throw new InvalidStateException("Registry does not provide a root location!");
+        } catch (CouldNotPerformException ex) {
+            throw new NotAvailableException("RootLocation", ex);
+        }
+    }
+
+    private static boolean isAuthenticationUnit(final UnitConfig unitConfig) {
+        switch (unitConfig.getUnitType()) {
+            case USER:
+            case AUTHORIZATION_GROUP:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static UnitConfig getLocationUnitConfig(final String locationId, final Map<String, IdentifiableMessage<String, UnitConfig, UnitConfig.Builder>> locations) throws NotAvailableException {
+        try {
+            if (locationId.isEmpty()) {
+                throw new NotAvailableException("locationId");
+            }
+
+            if (!locations.containsKey(locationId)) {
+                return getRootLocationUnitConfig(locations);
+            }
+            return locations.get(locationId).getMessage();
+        } catch (CouldNotPerformException | NullPointerException ex) {
+            throw new NotAvailableException("LocationConfig[" + locationId + "]", ex);
+        }
+    }
+
+    private static PermissionConfig mergePermissionConfigs(final PermissionConfig unitPermissionConfig, final PermissionConfig parentLocationPermissionConfig) throws CouldNotPerformException {
+        if (unitPermissionConfig == null) {
+            throw new NotAvailableException("UserPermissionConfig");
+        }
+
+        if (parentLocationPermissionConfig == null) {
+            throw new NotAvailableException("ParentLocationPermissionConfig");
+        }
+
+        final PermissionConfig.Builder builder = PermissionConfig.newBuilder(unitPermissionConfig);
+
+        // merge other permission
+        if (!unitPermissionConfig.hasOtherPermission() || !unitPermissionConfig.getOtherPermission().hasAccess() || !unitPermissionConfig.getOtherPermission().hasRead() || !unitPermissionConfig.getOtherPermission().hasWrite()) {
+            builder.setOtherPermission(parentLocationPermissionConfig.getOtherPermission());
+        }
+
+        // merge owner permission
+        if (!unitPermissionConfig.hasOwnerPermission() || !unitPermissionConfig.getOwnerPermission().hasAccess() || !unitPermissionConfig.getOwnerPermission().hasRead() || !unitPermissionConfig.getOwnerPermission().hasWrite()) {
+            builder.setOwnerPermission(parentLocationPermissionConfig.getOwnerPermission());
+        }
+
+        boolean found = false;
+
+        // merge group permissions
+        for (MapFieldEntry locationEntry : parentLocationPermissionConfig.getGroupPermissionList()) {
+            for (MapFieldEntry unitEntry : unitPermissionConfig.getGroupPermissionList()) {
+                if (locationEntry.getGroupId().equals(unitEntry.getGroupId())) {
+                    found = true;
+                }
+            }
+
+            if (!found) {
+                builder.addGroupPermission(locationEntry);
+            }
+
+            found = false;
+        }
+
+        return builder.build();
+    }
+}
@@ -0,0 +1,132 @@
+package org.openbase.bco.authentication.test;
+
+
+/*-
+ * #%L
+ * BCO Authentication Test
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.junit.Test;
+import org.openbase.bco.authentication.lib.com.RemoteResyncCoordinator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class RemoteResyncCoordinatorTest {
+
+    /**
+     * Test that batches are started by priority and that re-syncs of the same remote are merged.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 10000)
+    public void testPriorityOrder() throws Exception {
+        final RemoteResyncCoordinator coordinator = new RemoteResyncCoordinator();
+        coordinator.setMaxConcurrentBatches(1);
+
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch blocker = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(4);
+
+        // block the coordinator so that all following re-syncs are queued
+        coordinator.schedule("/blocking", "blocking", 0, () -> {
+            blocker.await();
+            finished.countDown();
+        });
+        coordinator.schedule("/low", "low", -1, () -> {
+            order.add("low");
+            finished.countDown();
+        });
+        coordinator.schedule("/high", "high", 10, () -> {
+            order.add("high");
+            finished.countDown();
+        });
+        coordinator.schedule("/default", "default", 0, () -> {
+            order.add("default");
+            finished.countDown();
+        });
+        // scheduling the same remote again replaces its pending re-sync
+        coordinator.schedule("/default", "default", 0, () -> {
+            order.add("default");
+            finished.countDown();
+        });
+
+        blocker.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("high", "default", "low"), order);
+    }
+
+    /**
+     * Test that the number of concurrent batches is limited and that a controller scope is never re-synced concurrently.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 10000)
+    public void testConcurrencyLimit() throws Exception {
+        final int maxConcurrentBatches = 3;
+        final int scopeCount = 10;
+        final int remotesPerScope = 5;
+
+        final RemoteResyncCoordinator coordinator = new RemoteResyncCoordinator();
+        coordinator.setMaxConcurrentBatches(maxConcurrentBatches);
+
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicInteger[] runningPerScope = new AtomicInteger[scopeCount];
+        final AtomicInteger violations = new AtomicInteger();
+        final CountDownLatch finished = new CountDownLatch(scopeCount * remotesPerScope);
+
+        for (int i = 0; i < scopeCount; i++) {
+            runningPerScope[i] = new AtomicInteger();
+        }
+
+        for (int remote = 0; remote < remotesPerScope; remote++) {
+            for (int scope = 0; scope < scopeCount; scope++) {
+                final AtomicInteger scopeCounter = runningPerScope[scope];
+                coordinator.schedule("/scope" + scope, "remote" + remote, remote, () -> {
+                    final int current = running.incrementAndGet();
+                    maxRunning.accumulateAndGet(current, Math::max);
+                    if (scopeCounter.incrementAndGet() > 1) {
+                        violations.incrementAndGet();
+                    }
+                    Thread.sleep(2);
+                    scopeCounter.decrementAndGet();
+                    running.decrementAndGet();
+                    finished.countDown();
+                });
+            }
+        }
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertTrue("Too many concurrent re-syncs: " + maxRunning.get(), maxRunning.get() <= maxConcurrentBatches);
+        assertEquals(0, violations.get());
+    }
+}
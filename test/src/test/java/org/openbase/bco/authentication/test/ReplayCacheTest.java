@@ -0,0 +1,135 @@
+package org.openbase.bco.authentication.test;
+
+
+/*-
+ * #%L
+ * BCO Authentication Test
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.junit.Test;
+import org.openbase.bco.authentication.lib.EncryptionHelper;
+import org.openbase.bco.authentication.lib.ReplayCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class ReplayCacheTest {
+
+    private static long currentTimestamp() {
+        return TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    }
+
+    /**
+     * Test that an authenticator is only accepted once per session key.
+     */
+    @Test(timeout = 5000)
+    public void testReplay() {
+        final ReplayCache replayCache = new ReplayCache();
+        final byte[] sessionKey = EncryptionHelper.generateKey();
+        final long timestamp = currentTimestamp();
+
+        assertTrue(replayCache.record(sessionKey, timestamp));
+        assertFalse(replayCache.record(sessionKey, timestamp));
+        assertTrue(replayCache.record(sessionKey, timestamp + 1));
+        assertTrue(replayCache.record(EncryptionHelper.generateKey(), timestamp));
+
+        replayCache.clear();
+        assertTrue(replayCache.record(sessionKey, timestamp));
+    }
+
+    /**
+     * Test that entries expire after the time window so that their slots can be reused.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 5000)
+    public void testExpiry() throws Exception {
+        final long maxTimeDiff = 100;
+        final ReplayCache replayCache = new ReplayCache(maxTimeDiff, 1024);
+        final byte[] sessionKey = EncryptionHelper.generateKey();
+        final long timestamp = currentTimestamp();
+
+        assertTrue(replayCache.record(sessionKey, timestamp));
+        assertFalse(replayCache.record(sessionKey, timestamp));
+
+        // such an old timestamp is rejected when validating the ticket so it does not have to be remembered
+        Thread.sleep(3 * maxTimeDiff);
+        assertTrue(replayCache.record(sessionKey, timestamp));
+    }
+
+    /**
+     * Test that a full cache does not reject new authenticators.
+     */
+    @Test(timeout = 5000)
+    public void testOverflow() {
+        final ReplayCache replayCache = new ReplayCache(TimeUnit.MINUTES.toMillis(1), 1024);
+        final byte[] sessionKey = EncryptionHelper.generateKey();
+        final long timestamp = currentTimestamp();
+
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(replayCache.record(sessionKey, timestamp + i));
+        }
+    }
+
+    /**
+     * Test that an authenticator recorded concurrently is only accepted once.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 10000)
+    public void testConcurrentReplay() throws Exception {
+        final int threadCount = 8;
+        final ReplayCache replayCache = new ReplayCache();
+        final ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            for (int i = 0; i < 100; i++) {
+                final byte[] sessionKey = EncryptionHelper.generateKey();
+                final long timestamp = currentTimestamp();
+
+                final List<Future<Boolean>> futures = new ArrayList<>();
+                for (int j = 0; j < threadCount; j++) {
+                    futures.add(executorService.submit((Callable<Boolean>) () -> replayCache.record(sessionKey, timestamp)));
+                }
+
+                int accepted = 0;
+                for (final Future<Boolean> future : futures) {
+                    if (future.get()) {
+                        accepted++;
+                    }
+                }
+                assertEquals(1, accepted);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
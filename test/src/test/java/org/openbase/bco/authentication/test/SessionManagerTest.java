@@ -28,6 +28,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.openbase.bco.authentication.core.AuthenticatorController;
 import org.openbase.bco.authentication.lib.CachedAuthenticationRemote;
+import org.openbase.bco.authentication.lib.CompactTicket;
 import org.openbase.bco.authentication.lib.CredentialStore;
 import org.openbase.bco.authentication.lib.EncryptionHelper;
 import org.openbase.bco.authentication.lib.SessionManager;
@@ -36,6 +37,7 @@ import org.openbase.bco.authentication.mock.MockCredentialStore;
 import org.openbase.jul.exception.CouldNotPerformException;
 import org.openbase.jul.exception.printer.ExceptionPrinter;
 import org.openbase.jul.pattern.Observer;
+import org.openbase.jul.schedule.GlobalCachedExecutorService;
 import org.openbase.jul.schedule.SyncObject;
 import org.openbase.type.domotic.authentication.AuthenticatedValueType.AuthenticatedValue;
 import org.openbase.type.domotic.authentication.LoginCredentialsType.LoginCredentials;
@@ -43,7 +45,10 @@ import org.openbase.type.domotic.authentication.TicketType.Ticket;
 import org.openbase.type.domotic.authentication.UserClientPairType.UserClientPair;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.*;
 
@@ -248,7 +253,7 @@ public class SessionManagerTest extends AuthenticationTest {
 
         // login admin
         manager.loginUser(MockClientStore.ADMIN_ID, MockClientStore.ADMIN_PASSWORD, false);
-        ticket = EncryptionHelper.decryptSymmetric(manager.getTicketAuthenticatorWrapper().getTicket(), serviceServerSecretKey, Ticket.class);
+        ticket = CompactTicket.open(manager.getTicketAuthenticatorWrapper().getTicket(), serviceServerSecretKey);
         assertEquals(ticket.getUserClientPair().getUserId(), MockClientStore.ADMIN_ID);
 
         // register client
@@ -256,12 +261,12 @@ public class SessionManagerTest extends AuthenticationTest {
 
         // login client
         manager.loginClient(MockClientStore.CLIENT_ID, false);
-        ticket = EncryptionHelper.decryptSymmetric(manager.getTicketAuthenticatorWrapper().getTicket(), serviceServerSecretKey, Ticket.class);
+        ticket = CompactTicket.open(manager.getTicketAuthenticatorWrapper().getTicket(), serviceServerSecretKey);
         assertEquals(ticket.getUserClientPair().getClientId(), MockClientStore.CLIENT_ID);
 
         // login admin (on the client)
         manager.loginUser(MockClientStore.ADMIN_ID, MockClientStore.ADMIN_PASSWORD, false);
-        ticket = EncryptionHelper.decryptSymmetric(manager.getTicketAuthenticatorWrapper().getTicket(), serviceServerSecretKey, Ticket.class);
+        ticket = CompactTicket.open(manager.getTicketAuthenticatorWrapper().getTicket(), serviceServerSecretKey);
         assertEquals(MockClientStore.ADMIN_ID, ticket.getUserClientPair().getUserId());
         assertEquals(MockClientStore.CLIENT_ID, ticket.getUserClientPair().getClientId());
 
@@ -270,7 +275,7 @@ public class SessionManagerTest extends AuthenticationTest {
         assertNotEquals(null, manager.getTicketAuthenticatorWrapper());
 
         // now client should be logged in again
-        ticket = EncryptionHelper.decryptSymmetric(manager.getTicketAuthenticatorWrapper().getTicket(), serviceServerSecretKey, Ticket.class);
+        ticket = CompactTicket.open(manager.getTicketAuthenticatorWrapper().getTicket(), serviceServerSecretKey);
         assertEquals(ticket.getUserClientPair().getClientId(), MockClientStore.CLIENT_ID);
 
         manager.shutdown();
@@ -482,4 +487,59 @@ public class SessionManagerTest extends AuthenticationTest {
 
         sessionManager.removeLoginObserver(loginObserver);
     }
+
+    /**
+     * Test that concurrent re-login requests for the same session only lead to a single re-login.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test(timeout = 10000)
+    public void concurrentReLogin() throws Exception {
+        System.out.println("concurrentReLogin");
+        final SessionManager manager = new SessionManager(clientStore);
+        manager.loginUser(MockClientStore.ADMIN_ID, MockClientStore.ADMIN_PASSWORD, false);
+
+        final long generation = manager.getSessionGeneration();
+        final int threadCount = 5;
+        final List<Future<Boolean>> futureList = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            futureList.add(GlobalCachedExecutorService.submit(() -> manager.reLogin(generation)));
+        }
+
+        int reLoginCount = 0;
+        for (final Future<Boolean> future : futureList) {
+            if (future.get()) {
+                reLoginCount++;
+            }
+        }
+
+        assertEquals("Only one re-login should have been performed", 1, reLoginCount);
+        assertTrue("Session should have been re-established", manager.isLoggedIn());
+        assertEquals(MockClientStore.ADMIN_ID, manager.getUserClientPair().getUserId());
+        assertNotEquals("Session generation should have changed", generation, manager.getSessionGeneration());
+
+        manager.completeLogout();
+    }
+
+    /**
+     * Test of the asynchronous login of a user.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test(timeout = 5000)
+    public void loginUserAsync() throws Exception {
+        System.out.println("loginUserAsync");
+        final SessionManager manager = new SessionManager(clientStore);
+
+        // start two logins without waiting, they are performed one after another
+        final Future<UserClientPair> adminLogin = manager.loginUserAsync(MockClientStore.ADMIN_ID, MockClientStore.ADMIN_PASSWORD, false);
+        final Future<UserClientPair> userLogin = manager.loginUserAsync(MockClientStore.USER_ID, MockClientStore.USER_PASSWORD, false);
+
+        assertEquals(MockClientStore.ADMIN_ID, adminLogin.get().getUserId());
+        assertEquals(MockClientStore.USER_ID, userLogin.get().getUserId());
+        assertTrue(manager.isLoggedIn());
+        assertEquals(MockClientStore.USER_ID, manager.getUserClientPair().getUserId());
+
+        manager.completeLogout();
+    }
 }
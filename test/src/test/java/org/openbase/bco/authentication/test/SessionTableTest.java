@@ -0,0 +1,148 @@
+package org.openbase.bco.authentication.test;
+
+
+/*-
+ * #%L
+ * BCO Authentication Test
+ * %%
+ * Copyright (C) 2017 - 2020 openbase.org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+import org.openbase.bco.authentication.lib.AuthenticationBaseData;
+import org.openbase.bco.authentication.lib.EncryptionHelper;
+import org.openbase.bco.authentication.lib.SessionTable;
+import org.openbase.bco.authentication.lib.exception.SessionNotRegisteredException;
+import org.openbase.bco.authentication.lib.exception.SessionReplayException;
+import org.openbase.bco.authentication.lib.exception.SessionUnknownException;
+import org.openbase.jul.exception.RejectedException;
+import org.openbase.type.domotic.authentication.TicketAuthenticatorWrapperType.TicketAuthenticatorWrapper;
+import org.openbase.type.domotic.authentication.UserClientPairType.UserClientPair;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:pleminoq@openbase.org">Tamino Huxohl</a>
+ */
+public class SessionTableTest {
+
+    private static final long VALIDITY_TIME = 60000;
+    private static final ByteString PAYLOAD = ByteString.copyFromUtf8("payload");
+
+    private static final UserClientPair USER_CLIENT_PAIR = UserClientPair.newBuilder().setUserId("User").setClientId("Client").build();
+
+    /**
+     * Test that a registered session is verified by its session request.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 5000)
+    public void testVerify() throws Exception {
+        final SessionTable sessionTable = new SessionTable(VALIDITY_TIME, SessionTable.DEFAULT_MAX_SESSIONS);
+        final byte[] sessionKey = EncryptionHelper.generateKey();
+        sessionTable.register(sessionKey, USER_CLIENT_PAIR);
+
+        final TicketAuthenticatorWrapper wrapper = SessionTable.initSessionRequest(sessionKey, System.currentTimeMillis(), PAYLOAD);
+        assertTrue(SessionTable.isSessionRequest(wrapper));
+
+        final AuthenticationBaseData authenticationBaseData = sessionTable.verify(wrapper, PAYLOAD);
+        assertEquals(USER_CLIENT_PAIR, authenticationBaseData.getUserClientPair());
+        assertArrayEquals(sessionKey, authenticationBaseData.getSessionKey());
+    }
+
+    /**
+     * Test that a session request cannot be replayed.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 5000, expected = RejectedException.class)
+    public void testReplay() throws Exception {
+        final SessionTable sessionTable = new SessionTable(VALIDITY_TIME, SessionTable.DEFAULT_MAX_SESSIONS);
+        final byte[] sessionKey = EncryptionHelper.generateKey();
+        sessionTable.register(sessionKey, USER_CLIENT_PAIR);
+
+        final TicketAuthenticatorWrapper wrapper = SessionTable.initSessionRequest(sessionKey, System.currentTimeMillis(), PAYLOAD);
+        sessionTable.verify(wrapper, PAYLOAD);
+        sessionTable.verify(wrapper, PAYLOAD);
+    }
+
+    /**
+     * Test that a session request with a modified payload is rejected.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 5000, expected = RejectedException.class)
+    public void testModifiedPayload() throws Exception {
+        final SessionTable sessionTable = new SessionTable(VALIDITY_TIME, SessionTable.DEFAULT_MAX_SESSIONS);
+        final byte[] sessionKey = EncryptionHelper.generateKey();
+        sessionTable.register(sessionKey, USER_CLIENT_PAIR);
+
+        final TicketAuthenticatorWrapper wrapper = SessionTable.initSessionRequest(sessionKey, System.currentTimeMillis(), PAYLOAD);
+        sessionTable.verify(wrapper, ByteString.copyFromUtf8("modified"));
+    }
+
+    /**
+     * Test that a session which has not been registered, e.g. because the server restarted, is unknown.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 5000, expected = SessionUnknownException.class)
+    public void testUnknownSession() throws Exception {
+        final SessionTable sessionTable = new SessionTable(VALIDITY_TIME, SessionTable.DEFAULT_MAX_SESSIONS);
+        final byte[] sessionKey = EncryptionHelper.generateKey();
+        sessionTable.register(sessionKey, USER_CLIENT_PAIR);
+        sessionTable.clear();
+
+        sessionTable.verify(SessionTable.initSessionRequest(sessionKey, System.currentTimeMillis(), PAYLOAD), PAYLOAD);
+    }
+
+    /**
+     * Test that a timestamp older than the replay window is rejected so that the request can be repeated with the ticket.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 5000, expected = SessionReplayException.class)
+    public void testOutdatedTimestamp() throws Exception {
+        final SessionTable sessionTable = new SessionTable(VALIDITY_TIME, SessionTable.DEFAULT_MAX_SESSIONS);
+        final byte[] sessionKey = EncryptionHelper.generateKey();
+        sessionTable.register(sessionKey, USER_CLIENT_PAIR);
+
+        final long timestamp = System.currentTimeMillis();
+        sessionTable.verify(SessionTable.initSessionRequest(sessionKey, timestamp, PAYLOAD), PAYLOAD);
+        sessionTable.verify(SessionTable.initSessionRequest(sessionKey, timestamp - 2000, PAYLOAD), PAYLOAD);
+    }
+
+    /**
+     * Test that a full table does not register new sessions and tells their requests to keep using the ticket.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(timeout = 5000, expected = SessionNotRegisteredException.class)
+    public void testFullTable() throws Exception {
+        final SessionTable sessionTable = new SessionTable(VALIDITY_TIME, 1);
+        assertTrue(sessionTable.register(EncryptionHelper.generateKey(), USER_CLIENT_PAIR));
+
+        final byte[] sessionKey = EncryptionHelper.generateKey();
+        assertFalse(sessionTable.register(sessionKey, USER_CLIENT_PAIR));
+        sessionTable.verify(SessionTable.initSessionRequest(sessionKey, System.currentTimeMillis(), PAYLOAD), PAYLOAD);
+    }
+}
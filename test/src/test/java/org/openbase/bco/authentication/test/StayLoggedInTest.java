@@ -33,6 +33,7 @@ import org.openbase.bco.authentication.mock.MockClientStore;
 import org.openbase.jps.core.JPService;
 import org.openbase.jul.exception.ExceptionProcessor;
 import org.openbase.jul.exception.printer.ExceptionPrinter;
+import org.openbase.type.domotic.authentication.LoginCredentialsType.LoginCredentials;
 import org.openbase.type.domotic.authentication.TicketAuthenticatorWrapperType.TicketAuthenticatorWrapper;
 
 import java.util.concurrent.ExecutionException;
@@ -98,4 +99,36 @@ public class StayLoggedInTest extends AuthenticationTest {
         // shutdown the session manager
         sessionManager.shutdown();
     }
+
+    /**
+     * Test that an authenticated request which is rejected because its session expired is transparently
+     * replayed after the session manager logged in again.
+     *
+     * @throws Exception if something does not work as expected
+     */
+    @Test(timeout = 20000)
+    public void testReplayAfterSessionExpired() throws Exception {
+        // create a session manager which knows the credentials of the admin so that it can login again
+        SessionManager sessionManager = new SessionManager(new MockClientStore());
+        // login without staying logged in
+        sessionManager.loginUser(MockClientStore.ADMIN_ID, MockClientStore.ADMIN_PASSWORD, false);
+        final long sessionGeneration = sessionManager.getSessionGeneration();
+        // wait longer than the session timeout
+        Thread.sleep(SESSION_TIMEOUT + AuthenticationServerHandler.MAX_TIME_DIFF_SERVER_CLIENT + 200);
+
+        // perform an authenticated request which is rejected and then replayed with a new session
+        try {
+            ExceptionPrinter.setBeQuit(true);
+            final LoginCredentials result = sessionManager.setAdministrator(MockClientStore.USER_ID, false).get();
+            assertEquals(MockClientStore.USER_ID, result.getId());
+        } finally {
+            ExceptionPrinter.setBeQuit(false);
+        }
+
+        assertTrue("Session manager should be logged in again", sessionManager.isLoggedIn());
+        assertNotEquals("Session should have been renewed by a re-login", sessionGeneration, sessionManager.getSessionGeneration());
+
+        // shutdown the session manager
+        sessionManager.shutdown();
+    }
 }